@@ -0,0 +1,341 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Access log with one line per answered request: time, method, path, status, bytes sent and
+ * latency, as key=value pairs. Request threads only queue an entry in a lock-free
+ * {@link RingBuffer}; a background thread formats the entries and writes them in batches to
+ * the standard output or to a file that is rolled over when it reaches its maximum size.
+ * <pre>
+ * 2024-05-01T10:15:30.120Z method=GET path="/hello" status=200 bytes=152 duration_us=48
+ * </pre>
+ * When the buffer is full an entry is dropped, or the request waits for room, as configured.
+ * The destination and buffer settings are read when the first entry is logged; the header
+ * switch, {@link ServerConfig#setLogHeaders}, is read on every request.
+ *
+ * @author daniel.aldana-b
+ */
+public class AccessLog implements AutoCloseable {
+    // Most entries formatted into one write
+    private static final int BATCH_SIZE = 512;
+    // Time the writer sleeps when there is nothing to write
+    private static final long IDLE_NANOS = 10_000_000;
+    // Time a request waits before retrying when the buffer is full and requests block
+    private static final long FULL_WAIT_NANOS = 100_000;
+
+    // Server settings with the destination and the buffer policy
+    private final ServerConfig config;
+    // Metrics counting the dropped entries, may be null
+    private final ServerMetrics metrics;
+    private final LongAdder dropped = new LongAdder();
+    // Entries waiting to be written, null until the first one is logged
+    private volatile RingBuffer<Entry> ring;
+    private volatile Thread writer;
+    // Hook writing the queued entries when the JVM exits, removed once the log is closed
+    private Thread shutdownHook;
+    private volatile boolean closed;
+    // Entries written and flushed by the writer so far
+    private volatile long written;
+
+    // The fields below are only touched by the writer thread
+    // Lines formatted for the current batch
+    private final StringBuilder batch = new StringBuilder(BATCH_SIZE * 96);
+    private OutputStream out;
+    // Bytes in the current log file
+    private long fileSize;
+
+    /**
+     * Creates an access log, which starts writing when the first entry is logged.
+     * @param config the server configuration with the log settings
+     */
+    public AccessLog(ServerConfig config) {
+        this(config, null);
+    }
+
+    /**
+     * Creates an access log that reports dropped entries in the metrics.
+     * @param config the server configuration with the log settings
+     * @param metrics the metrics counting dropped entries, or null
+     */
+    AccessLog(ServerConfig config, ServerMetrics metrics) {
+        this.config = config;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Queues the entry of an answered request. Never waits, unless the buffer is full and the
+     * configuration asks requests to block.
+     * @param req the request
+     * @param res the response written for it
+     * @param nanos the time taken to answer, in nanoseconds
+     */
+    public void log(HttpRequest req, HttpResponse res, long nanos) {
+        if (!config.isAccessLog() || closed) {
+            return;
+        }
+        RingBuffer<Entry> target = ring;
+        if (target == null) {
+            target = start();
+        }
+        Entry entry = new Entry(System.currentTimeMillis(), req.getMethod(), req.getPath(), res.getStatusCode(),
+                res.getBytesSent(), nanos / 1000, config.isLogHeaders() ? req.getHeaders() : null);
+        if (target.offer(entry)) {
+            return;
+        }
+        if (config.isAccessLogBlockWhenFull()) {
+            LockSupport.unpark(writer);
+            while (!closed && writer.isAlive()) {
+                LockSupport.parkNanos(FULL_WAIT_NANOS);
+                if (target.offer(entry)) {
+                    return;
+                }
+            }
+        }
+        dropped.increment();
+        if (metrics != null) {
+            metrics.accessLogDropped();
+        }
+    }
+
+    /**
+     * Waits until the entries logged before the call are written out.
+     * @throws IOException if the writer stopped before writing them
+     */
+    public void flush() throws IOException {
+        RingBuffer<Entry> target = ring;
+        if (target == null) {
+            return;
+        }
+        long produced = target.getProduced();
+        while (written < produced) {
+            if (!writer.isAlive()) {
+                throw new IOException("Access log writer stopped");
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(1_000_000);
+        }
+    }
+
+    /**
+     * Gets the number of entries dropped because the buffer was full.
+     * @return the dropped entries
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Writes the queued entries and stops the writer. Later entries are ignored.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        removeShutdownHook();
+        Thread thread = writer;
+        if (thread != null && thread != Thread.currentThread()) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Creates the buffer and starts the writer, once.
+     */
+    private synchronized RingBuffer<Entry> start() {
+        if (ring == null) {
+            RingBuffer<Entry> created = new RingBuffer<>(config.getAccessLogBufferSize());
+            Thread thread = new Thread(this::run, "access-log-writer");
+            thread.setDaemon(true);
+            writer = thread;
+            ring = created;
+            thread.start();
+            shutdownHook = new Thread(this::close, "access-log-shutdown");
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        }
+        return ring;
+    }
+
+    /**
+     * Unregisters the shutdown hook, unless the JVM is already running it.
+     */
+    private synchronized void removeShutdownHook() {
+        if (shutdownHook != null && shutdownHook != Thread.currentThread()) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // the JVM is shutting down
+            }
+        }
+        shutdownHook = null;
+    }
+
+    /**
+     * Writes batches of entries until the log is closed and drained.
+     */
+    private void run() {
+        RingBuffer<Entry> source = ring;
+        try {
+            open();
+            while (true) {
+                boolean stopping = closed;
+                if (source.drain(this::format, BATCH_SIZE) > 0) {
+                    writeBatch();
+                    written = source.getConsumed();
+                } else if (stopping) {
+                    break;
+                } else {
+                    LockSupport.parkNanos(this, IDLE_NANOS);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Access log failed: " + e.getMessage());
+        } finally {
+            if (out != null && out != System.out) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends one entry to the batch.
+     */
+    private void format(Entry entry) {
+        batch.append(Instant.ofEpochMilli(entry.time)).append(" method=").append(entry.method).append(" path=");
+        quote(entry.path);
+        batch.append(" status=").append(entry.status).append(" bytes=").append(entry.bytes)
+                .append(" duration_us=").append(entry.micros);
+        if (entry.headers != null) {
+            for (Map.Entry<String, String> header : entry.headers.entrySet()) {
+                batch.append(" header.").append(header.getKey()).append('=');
+                quote(header.getValue());
+            }
+        }
+        batch.append('\n');
+    }
+
+    /**
+     * Appends a quoted value, escaping what could break the line or forge another entry.
+     */
+    private void quote(String value) {
+        batch.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                batch.append('\\').append(c);
+            } else if (c == '\n') {
+                batch.append("\\n");
+            } else if (c == '\r') {
+                batch.append("\\r");
+            } else if (c < 0x20 || c == 0x7f) {
+                batch.append(String.format("\\u%04x", (int) c));
+            } else {
+                batch.append(c);
+            }
+        }
+        batch.append('"');
+    }
+
+    /**
+     * Writes the formatted batch, rolling the file over first if it would grow too large.
+     */
+    private void writeBatch() throws IOException {
+        byte[] bytes = batch.toString().getBytes(StandardCharsets.UTF_8);
+        batch.setLength(0);
+        if (config.getAccessLogFile() != null && fileSize > 0
+                && fileSize + bytes.length > config.getAccessLogMaxFileSize()) {
+            roll();
+        }
+        out.write(bytes);
+        out.flush();
+        fileSize += bytes.length;
+    }
+
+    /**
+     * Opens the destination, appending to an existing file.
+     */
+    private void open() throws IOException {
+        Path file = config.getAccessLogFile();
+        if (file == null) {
+            out = System.out;
+            return;
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        out = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        fileSize = Files.size(file);
+    }
+
+    /**
+     * Renames the current file with a ".1" suffix, shifting the older ones, and starts a new one.
+     */
+    private void roll() throws IOException {
+        out.close();
+        Path file = config.getAccessLogFile();
+        int keep = config.getAccessLogMaxFiles();
+        if (keep == 0) {
+            Files.delete(file);
+        } else {
+            Files.deleteIfExists(rolled(file, keep));
+            for (int i = keep - 1; i >= 1; i--) {
+                if (Files.exists(rolled(file, i))) {
+                    Files.move(rolled(file, i), rolled(file, i + 1), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(file, rolled(file, 1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        open();
+    }
+
+    private static Path rolled(Path file, int index) {
+        return file.resolveSibling(file.getFileName() + "." + index);
+    }
+
+    /**
+     * What is known about an answered request when it is logged.
+     */
+    private static final class Entry {
+        final long time;
+        final String method;
+        final String path;
+        final int status;
+        final long bytes;
+        final long micros;
+        // Request headers, only when they are logged
+        final Map<String, String> headers;
+
+        Entry(long time, String method, String path, int status, long bytes, long micros,
+                Map<String, String> headers) {
+            this.time = time;
+            this.method = method;
+            this.path = path;
+            this.status = status;
+            this.bytes = bytes;
+            this.micros = micros;
+            this.headers = headers;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the requests a server handles at the same time, so an overload is shed quickly
+ * instead of slowing down every request. A request beyond the limit waits in a bounded queue,
+ * first come first served, for up to {@link ServerConfig#getQueueTimeout()}; when the queue is
+ * full or the wait times out the request is rejected, and the server answers it with 503.
+ * <p>
+ * The limit is {@link ServerConfig#getMaxConcurrentRequests()}, or, with
+ * {@link ServerConfig#isAdaptiveConcurrency()}, an estimate that follows the observed latency:
+ * once per window of samples the average latency of the window is compared with a long term
+ * average. While they match the limit grows by about its square root, and as latency rises above
+ * the long term average the limit shrinks, down to half of it per window. A window in which
+ * less than half of the limit was in use leaves the limit unchanged, as it says nothing about
+ * the capacity.
+ *
+ * @author daniel.aldana-b
+ */
+public class AdmissionControl {
+    // Limit the adaptive estimate starts from, and the lowest it goes
+    private static final double INITIAL_LIMIT = 20;
+    private static final double MIN_LIMIT = 4;
+    // Fewest samples in a window, larger limits use one sample per admitted request
+    private static final int MIN_WINDOW = 10;
+    // Number of windows the long term latency average spans
+    private static final double LONG_WINDOWS = 50;
+    // Latency increase tolerated before the limit shrinks
+    private static final double TOLERANCE = 1.5;
+    // Weight of a new estimate in the limit
+    private static final double SMOOTHING = 0.2;
+
+    // Server settings with the limits
+    private final ServerConfig config;
+    // Guards the counters below, waiting requests are signalled on available
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    // Requests admitted and not released yet
+    private int inFlight;
+    // Requests waiting for a slot
+    private int queued;
+    // Adaptive estimate of the limit
+    private volatile double estimate = INITIAL_LIMIT;
+    // Current window: sum and count of the latencies, and highest number of requests in flight
+    private long windowSum;
+    private int windowCount;
+    private int windowMaxInFlight;
+    // Long term average latency in nanoseconds, 0 before the first window
+    private double longLatency;
+    // Requests rejected because the queue was full or the wait timed out
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Creates an admission control with nothing in flight.
+     * @param config the settings with the limits, read on every request
+     */
+    public AdmissionControl(ServerConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Admits a request, waiting in the queue if the limit is reached.
+     * Every admitted request must be released with {@link #release(long)}.
+     * @return true if the request may go ahead, false if it must be rejected
+     */
+    public boolean admit() {
+        lock.lock();
+        try {
+            // a request arriving while others wait goes behind them
+            if (queued == 0 && inFlight < getLimit()) {
+                enter();
+                return true;
+            }
+            if (queued >= config.getMaxQueuedRequests()) {
+                rejected.increment();
+                return false;
+            }
+            queued++;
+            try {
+                long wait = TimeUnit.MILLISECONDS.toNanos(config.getQueueTimeout());
+                while (inFlight >= getLimit()) {
+                    if (wait <= 0) {
+                        rejected.increment();
+                        return false;
+                    }
+                    wait = available.awaitNanos(wait);
+                }
+                enter();
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                rejected.increment();
+                return false;
+            } finally {
+                queued--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Counts an admitted request. Must be called holding the lock.
+     */
+    private void enter() {
+        inFlight++;
+        windowMaxInFlight = Math.max(windowMaxInFlight, inFlight);
+    }
+
+    /**
+     * Releases an admitted request, letting a waiting one in.
+     * @param nanos the time the request took once admitted, which drives the adaptive limit
+     */
+    public void release(long nanos) {
+        lock.lock();
+        try {
+            inFlight--;
+            int before = getLimit();
+            if (config.isAdaptiveConcurrency()) {
+                sample(nanos);
+            }
+            if (getLimit() > before) {
+                available.signalAll();
+            } else {
+                available.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a latency sample to the window, updating the estimate when the window is full.
+     * Must be called holding the lock.
+     */
+    private void sample(long nanos) {
+        windowSum += Math.max(nanos, 1);
+        windowCount++;
+        if (windowCount < Math.max(MIN_WINDOW, (int) estimate)) {
+            return;
+        }
+        double latency = (double) windowSum / windowCount;
+        boolean used = windowMaxInFlight >= estimate / 2;
+        windowSum = 0;
+        windowCount = 0;
+        windowMaxInFlight = inFlight;
+        if (longLatency == 0) {
+            longLatency = latency;
+            return;
+        }
+        longLatency += (latency - longLatency) / LONG_WINDOWS;
+        if (longLatency > 2 * latency) {
+            // latency dropped for good, such as after a slow dependency recovered
+            longLatency *= 0.95;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longLatency / latency));
+        if (!used && gradient == 1.0) {
+            return;
+        }
+        double target = estimate * gradient + Math.sqrt(estimate);
+        double max = config.getMaxConcurrentRequests();
+        estimate = Math.max(Math.min(MIN_LIMIT, max), Math.min(max, estimate * (1 - SMOOTHING) + target * SMOOTHING));
+    }
+
+    /**
+     * Gets the number of requests that may be in flight at the same time.
+     * @return the adaptive estimate, or the configured maximum when the limit is fixed
+     */
+    public int getLimit() {
+        int max = config.getMaxConcurrentRequests();
+        return config.isAdaptiveConcurrency() ? (int) Math.min(max, estimate) : max;
+    }
+
+    /**
+     * Gets the number of requests admitted and not released yet.
+     * @return the requests in flight
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of requests waiting for a slot.
+     * @return the queued requests
+     */
+    public int getQueued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of requests rejected since the server started.
+     * @return the rejected requests
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
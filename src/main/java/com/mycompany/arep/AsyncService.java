@@ -0,0 +1,45 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Service that answers later, without holding a server thread while it waits, such as an
+ * endpoint aggregating several remote calls. The service returns a future at once and the
+ * server writes the response when it completes, from the thread completing it.
+ * The future may complete with the body, or with null once the service wrote the body itself
+ * through {@link HttpResponse#getOutputStream()}.
+ * <p>
+ * A future failing is answered like a failing {@link Service}. A future not completed within
+ * {@link ServerConfig#getAsyncTimeout()} is cancelled and answered with 503, and the future is
+ * cancelled as well if the client closes the connection first (NIO engine only).
+ * Registered with {@link HttpServer#async}.
+ *
+ * @author daniel.aldana-b
+ */
+@FunctionalInterface
+public interface AsyncService extends Service {
+
+    /**
+     * Starts handling a request.
+     * @param req the request, usable until the returned future completes
+     * @param res the response, whose status and headers may be set until the future completes
+     * @return the future body, or a future completing with null if the body was written to the response
+     */
+    CompletableFuture<String> invokeAsync(HttpRequest req, HttpResponse res);
+
+    /**
+     * Adapts the asynchronous service to the {@link Service} contract by waiting for its body.
+     * @param req the request
+     * @param res the response
+     * @return the body, or null
+     */
+    @Override
+    default String invoke(HttpRequest req, HttpResponse res) {
+        CompletableFuture<String> body = invokeAsync(req, res);
+        return body != null ? body.join() : null;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.io.IOException;
+
+/**
+ * Signals that the bytes received from a client are not a valid HTTP request.
+ *
+ * @author daniel.aldana-b
+ */
+public class BadRequestException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    // Status code of the error response
+    private final int statusCode;
+    // Status message of the error response
+    private final String statusMessage;
+
+    /**
+     * Creates the exception with a description of the problem, answered with 400 Bad Request.
+     * @param message what is wrong with the request
+     */
+    public BadRequestException(String message) {
+        this(400, "Bad Request", message);
+    }
+
+    /**
+     * Creates the exception for a request answered with a more specific error status.
+     * @param statusCode the HTTP status code, such as 414 or 431
+     * @param statusMessage the HTTP status message
+     * @param message what is wrong with the request
+     */
+    public BadRequestException(int statusCode, String statusMessage, String message) {
+        super(message);
+        this.statusCode = statusCode;
+        this.statusMessage = statusMessage;
+    }
+
+    /**
+     * Gets the status code the request must be answered with.
+     * @return the HTTP status code
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Gets the status message the request must be answered with.
+     * @return the HTTP status message
+     */
+    public String getStatusMessage() {
+        return statusMessage;
+    }
+}
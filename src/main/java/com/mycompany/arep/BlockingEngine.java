@@ -0,0 +1,529 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Engine that serves each connection with a blocking socket.
+ * Accepted connections are handed to a {@link ConnectionDispatcher} so that a slow
+ * client does not block the accept loop. Sockets are opened through channels, still
+ * in blocking mode, so file bodies can be sent with zero-copy transfers.
+ * The connection thread waits for an {@link AsyncService} to complete its response, so only
+ * the NIO engine serves those without holding a thread.
+ * Each connection parses its requests into one {@link RequestContext} reused from request to request.
+ * While draining, a connection thread waiting for the next request has its socket closed,
+ * and the others leave once their current response is written.
+ * After a WebSocket handshake the connection thread reads the frames of the session and runs its
+ * handler; frames sent to the session are written by the sending thread.
+ *
+ * @author daniel.aldana-b
+ */
+class BlockingEngine implements ServerEngine {
+    // Server settings
+    private final ServerConfig config;
+    // Metrics counting connections and transferred bytes
+    private final ServerMetrics metrics;
+    // Server answering the requests
+    private final WebServer server;
+    // Listening channel, null until bound
+    private ServerSocketChannel serverChannel;
+    // Connections being served, cut when the engine closes
+    private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+    // Connections waiting for their next request, closed when draining starts
+    private final Set<SocketChannel> idle = ConcurrentHashMap.newKeySet();
+    // Set once draining starts, connections then close after their current request
+    private volatile boolean draining;
+    // Released when the engine closes
+    private final CountDownLatch closed = new CountDownLatch(1);
+    // HTTP/2 connections being served, drained with the engine
+    private final Set<Http2Connection> http2 = ConcurrentHashMap.newKeySet();
+    // WebSocket sessions being served, closed with status 1001 when draining
+    private final Set<WebSocketSession> webSockets = ConcurrentHashMap.newKeySet();
+    // Threads answering the streams of HTTP/2 connections, unless the dispatcher runs virtual threads
+    private final ExecutorService streamPool;
+    // Runs the services of HTTP/2 streams, set once serving starts
+    private volatile Executor streamExecutor;
+
+    /**
+     * Creates a blocking engine for the given configuration.
+     * @param config the server configuration
+     * @param metrics the metrics counting connections and transferred bytes
+     * @param server the server answering the requests
+     */
+    BlockingEngine(ServerConfig config, ServerMetrics metrics, WebServer server) {
+        this.config = config;
+        this.metrics = metrics;
+        this.server = server;
+        AtomicInteger streamThreads = new AtomicInteger();
+        this.streamPool = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "http2-stream-" + streamThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void bind() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(config.getPort()), config.getAcceptBacklog());
+    }
+
+    @Override
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public void serve() throws IOException {
+        try (ConnectionDispatcher dispatcher = new ConnectionDispatcher(config)) {
+            streamExecutor = dispatcher.getMode() == ExecutionMode.VIRTUAL_THREADS ? dispatcher::execute : streamPool;
+            while (serverChannel.isOpen()) {
+                SocketChannel clientChannel;
+                try {
+                    clientChannel = serverChannel.accept();
+                } catch (ClosedChannelException e) {
+                    break;
+                }
+                try {
+                    dispatcher.dispatch(() -> serveConnection(clientChannel));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    clientChannel.close();
+                    break;
+                }
+            }
+            if (draining) {
+                // the connections finish on the dispatcher threads until the engine is closed
+                awaitClose();
+            }
+        }
+    }
+
+    /**
+     * Waits until the engine is closed.
+     */
+    private void awaitClose() {
+        try {
+            closed.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void drain() {
+        draining = true;
+        try {
+            serverChannel.close();
+        } catch (IOException ignored) {
+        }
+        for (SocketChannel channel : new ArrayList<>(idle)) {
+            closeQuietly(channel);
+        }
+        for (Http2Connection connection : http2) {
+            connection.drain();
+        }
+        for (WebSocketSession session : webSockets) {
+            session.close(WebSocketCodec.GOING_AWAY, "Server shutting down");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed.countDown();
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
+        for (SocketChannel channel : new ArrayList<>(connections)) {
+            closeQuietly(channel);
+        }
+        streamPool.shutdown();
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Serves all the requests sent over an accepted client connection and then closes it.
+     * The connection is kept open between requests as long as the client allows it,
+     * the idle timeout does not expire and the per-connection request limit is not reached.
+     * Pipelined requests are answered in order, flushing only once the buffered ones are done.
+     * Errors are reported and only affect this connection.
+     *
+     * @param clientChannel the accepted client channel, in blocking mode
+     */
+    void serveConnection(SocketChannel clientChannel) {
+        metrics.connectionOpened();
+        connections.add(clientChannel);
+        RequestContext.Pool contexts = new RequestContext.Pool(1);
+        try (SocketChannel channel = clientChannel) {
+            Socket socket = channel.socket();
+            socket.setSoTimeout(config.getKeepAliveTimeout());
+            ConnectionInput in = new ConnectionInput(socket.getInputStream(), metrics);
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            Transport transport = new StreamTransport(out, channel, metrics) {
+                @Override
+                public boolean isClosing() {
+                    return draining;
+                }
+            };
+            RequestParser parser = new RequestParser(config);
+            int served = 0;
+            boolean keepAlive = true;
+            while (keepAlive) {
+                RequestContext context;
+                HttpRequest request;
+                BodyDecoder decoder;
+                try {
+                    if (!in.hasBuffered() && !awaitRequest(channel, in)) {
+                        break;
+                    }
+                    context = contexts.acquire(transport);
+                    request = in.readRequest(parser, context.request());
+                    if (request == null) {
+                        break;
+                    }
+                    decoder = BodyDecoder.forRequest(request, config);
+                    if (decoder == null && config.isHttp2() && Http2Connection.accepts(request)) {
+                        out.flush();
+                        serveHttp2(channel, in.remaining(), request);
+                        break;
+                    }
+                } catch (SocketTimeoutException e) {
+                    break;
+                } catch (BadRequestException e) {
+                    HttpResponse response = new HttpResponse(transport);
+                    response.setStatus(e.getStatusCode(), e.getStatusMessage());
+                    metrics.recordStatus(e.getStatusCode());
+                    response.send(e.getMessage());
+                    out.flush();
+                    break;
+                }
+                if (decoder != null) {
+                    request.setBody(in.body(decoder), decoder.getContentLength(), config);
+                    if (request.expectsContinue()) {
+                        transport.write(ResponseHeadWriter.continueLine());
+                        out.flush();
+                    }
+                }
+                served++;
+                keepAlive = request.isKeepAlive()
+                        && served < config.getMaxKeepAliveRequests();
+                HttpResponse response = context.response();
+                response.setKeepAlive(keepAlive);
+                try {
+                    server.handleRequest(request, response);
+                } finally {
+                    request.release();
+                }
+                WebSocketSession session = response.getUpgrade();
+                if (session != null) {
+                    // the request goes on with the session, its context is not reused
+                    context.release(false);
+                    out.flush();
+                    serveWebSocket(channel, in, transport, session);
+                    break;
+                }
+                keepAlive = keepAlive && response.isComplete() && response.isKeepAlive()
+                        && !draining && discardBody(request, decoder);
+                context.release(true);
+                if (!keepAlive || in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Connection error: " + e.getMessage());
+        } finally {
+            // a context still out belongs to a request that failed or moved to HTTP/2
+            contexts.close();
+            connections.remove(clientChannel);
+            metrics.connectionClosed();
+        }
+    }
+
+    /**
+     * Serves a connection that switched to HTTP/2 until it ends.
+     *
+     * @param channel the client channel
+     * @param buffered the bytes received after the request that started HTTP/2
+     * @param request that request
+     * @throws IOException if the socket fails
+     */
+    private void serveHttp2(SocketChannel channel, ByteBuffer buffered, HttpRequest request) throws IOException {
+        Http2Connection connection = new Http2Connection(server, config, metrics, streamExecutor, channel, buffered);
+        http2.add(connection);
+        try {
+            // checked after joining the set, so a concurrent drain either sees or drains it
+            if (draining) {
+                connection.drain();
+            }
+            connection.serve(request);
+        } finally {
+            http2.remove(connection);
+        }
+    }
+
+    /**
+     * Serves a connection that switched to a WebSocket session until it ends. The socket timeout
+     * becomes half of the WebSocket idle timeout: a silent client is pinged at the first
+     * timeout and dropped at the second one.
+     *
+     * @param channel the client channel
+     * @param in the input of the connection, possibly holding the first frames
+     * @param transport the transport the frames are written through
+     * @param session the session opened by the handshake
+     * @throws IOException if the socket fails
+     */
+    private void serveWebSocket(SocketChannel channel, ConnectionInput in, Transport transport,
+            WebSocketSession session) throws IOException {
+        webSockets.add(session);
+        try {
+            session.connect(new WebSocketSession.Connection() {
+                @Override
+                public boolean send(ByteBuffer frame) throws IOException {
+                    // the session sends one frame at a time
+                    transport.write(frame);
+                    transport.flush();
+                    return true;
+                }
+
+                @Override
+                public void close() {
+                    // the thread reading the connection ends once the client closes its side too
+                    try {
+                        channel.shutdownOutput();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }, Runnable::run, null);
+            // checked after joining the set, so a concurrent drain either sees or closes it
+            if (draining) {
+                session.close(WebSocketCodec.GOING_AWAY, "Server shutting down");
+            }
+            channel.socket().setSoTimeout(Math.max(1, config.getWebSocketIdleTimeout() / 2));
+            boolean pinged = false;
+            while (true) {
+                if (!in.hasBuffered()) {
+                    try {
+                        if (!in.fill()) {
+                            break;
+                        }
+                    } catch (SocketTimeoutException e) {
+                        if (pinged) {
+                            break;
+                        }
+                        pinged = true;
+                        session.ping(new byte[0]);
+                        continue;
+                    }
+                    pinged = false;
+                }
+                in.feed(session);
+                if (session.isInputDone()) {
+                    // the close frames were exchanged, or the client broke the protocol
+                    break;
+                }
+            }
+        } finally {
+            webSockets.remove(session);
+            session.closed();
+        }
+    }
+
+    /**
+     * Waits for the first bytes of the next request on an idle connection, which draining may close.
+     *
+     * @param channel the client channel
+     * @param in the input of the connection, with nothing buffered
+     * @return false if the connection must close: the client closed it or the engine is draining
+     * @throws IOException if the socket fails or the idle timeout expires
+     */
+    private boolean awaitRequest(SocketChannel channel, ConnectionInput in) throws IOException {
+        idle.add(channel);
+        try {
+            // checked after joining the idle set, so a concurrent drain either sees or closes it
+            return !draining && in.fill();
+        } catch (IOException e) {
+            if (draining) {
+                return false;
+            }
+            throw e;
+        } finally {
+            idle.remove(channel);
+        }
+    }
+
+    /**
+     * Reads and drops the part of a request body the service did not consume,
+     * so the next request on the connection can be read.
+     *
+     * @param request the answered request
+     * @param decoder the decoder of its body, null if it has none
+     * @return false if the body is malformed or cannot be read and the connection must close
+     */
+    private static boolean discardBody(HttpRequest request, BodyDecoder decoder) {
+        if (decoder == null || decoder.isFinished()) {
+            return true;
+        }
+        try {
+            request.getBody().transferTo(OutputStream.nullOutputStream());
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Buffered input of a blocking connection that feeds request heads to a {@link RequestParser}
+     * and request bodies to their {@link BodyDecoder} straight from its buffer, so each one
+     * consumes exactly its own bytes.
+     */
+    private static class ConnectionInput {
+        // Socket input stream
+        private final InputStream in;
+        // Received bytes not consumed yet, between position and limit
+        private final ByteBuffer buffer = ByteBuffer.allocate(8192).flip();
+        // Metrics counting the bytes received
+        private final ServerMetrics metrics;
+
+        ConnectionInput(InputStream in, ServerMetrics metrics) {
+            this.in = in;
+            this.metrics = metrics;
+        }
+
+        /**
+         * Reads the next request head.
+         *
+         * @param parser the parser of the connection
+         * @param target the request to fill
+         * @return the parsed request, or null if the client closed the connection between requests
+         * @throws IOException if the socket fails, the head is malformed or the connection closes inside it
+         */
+        HttpRequest readRequest(RequestParser parser, HttpRequest target) throws IOException {
+            while (!parser.parse(buffer)) {
+                if (!fill()) {
+                    if (parser.isStarted()) {
+                        parser.reset();
+                        throw new BadRequestException("Connection closed inside request head");
+                    }
+                    return null;
+                }
+            }
+            return parser.request(target);
+        }
+
+        /**
+         * Takes the received bytes not consumed yet, for a connection that switches protocol.
+         * @return the buffered bytes, between position and limit
+         */
+        ByteBuffer remaining() {
+            ByteBuffer rest = ByteBuffer.allocate(buffer.remaining()).put(buffer).flip();
+            buffer.limit(buffer.position());
+            return rest;
+        }
+
+        /**
+         * Hands the buffered bytes to a WebSocket session, which consumes them all.
+         * @param session the session the connection switched to
+         */
+        void feed(WebSocketSession session) {
+            session.receive(buffer);
+        }
+
+        /**
+         * Tells whether received bytes wait in the buffer, such as a pipelined request.
+         * @return true if the buffer is not empty
+         */
+        boolean hasBuffered() {
+            return buffer.hasRemaining();
+        }
+
+        /**
+         * Reads more bytes into the empty buffer.
+         * @return false at end of stream
+         */
+        boolean fill() throws IOException {
+            int read = in.read(buffer.array(), 0, buffer.capacity());
+            buffer.position(0).limit(Math.max(read, 0));
+            if (read > 0) {
+                metrics.bytesReceived(read);
+            }
+            return read > 0;
+        }
+
+        /**
+         * Creates the stream of a request body that follows in the connection.
+         * @param decoder the decoder of the body framing
+         * @return the decoded body, ending exactly where the body ends
+         */
+        InputStream body(BodyDecoder decoder) {
+            return new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] bytes, int offset, int length) throws IOException {
+                    if (length == 0) {
+                        return 0;
+                    }
+                    while (!decoder.isFinished()) {
+                        if (!buffer.hasRemaining() && !fill()) {
+                            throw new IOException("Connection closed inside request body");
+                        }
+                        // decode no more than requested, the rest stays in the buffer
+                        int bufferLimit = buffer.limit();
+                        buffer.limit(Math.min(bufferLimit, buffer.position() + length));
+                        ByteBuffer data;
+                        try {
+                            data = decoder.decode(buffer);
+                        } finally {
+                            buffer.limit(bufferLimit);
+                        }
+                        if (data.hasRemaining()) {
+                            int count = data.remaining();
+                            data.get(bytes, offset, count);
+                            return count;
+                        }
+                    }
+                    return -1;
+                }
+            };
+        }
+
+        /**
+         * Counts the bytes that can be read without blocking, such as pipelined requests.
+         * @return the number of buffered and readily available bytes
+         */
+        int available() throws IOException {
+            return buffer.remaining() + in.available();
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Incremental decoder of the framing of a request body, delimited either by a content-length
+ * or by chunked transfer coding. Raw bytes are fed as they arrive and the body bytes are
+ * returned as slices of the input, so nothing is copied. The decoder stops exactly at the end
+ * of the body, leaving any pipelined request in the input.
+ * <p>
+ * Chunk extensions and trailer fields are read and ignored.
+ *
+ * @author daniel.aldana-b
+ */
+class BodyDecoder {
+    // Longest chunk size line accepted, extensions included
+    private static final int MAX_CHUNK_LINE = 4096;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private enum State { SIZE, EXTENSION, SIZE_LF, DATA, DATA_CR, DATA_LF, TRAILER, DONE }
+
+    // Whether the body uses chunked transfer coding
+    private final boolean chunked;
+    // Largest body accepted
+    private final long maxBodySize;
+    // Largest trailer section accepted
+    private final int maxTrailerSize;
+    private State state;
+    // Bytes left in the current chunk, or in the whole body when it has a content-length
+    private long remaining;
+    // Body bytes decoded so far
+    private long decoded;
+    // Length of the size or trailer line being read, and of the whole trailer section
+    private int lineLength;
+    private int trailerLength;
+
+    private BodyDecoder(boolean chunked, long length, ServerConfig config) {
+        this.chunked = chunked;
+        this.maxBodySize = config.getMaxBodySize();
+        this.maxTrailerSize = config.getMaxHeaderSize();
+        this.remaining = length;
+        this.state = chunked ? State.SIZE : State.DATA;
+    }
+
+    /**
+     * Creates the decoder for the body announced by the headers of a request.
+     *
+     * @param request the parsed request
+     * @param config the server configuration with the body size limit
+     * @return the decoder, or null if the request has no body
+     * @throws BadRequestException if the framing headers are invalid (400), the transfer coding
+     *                             is not supported (501) or the body is too large (413)
+     */
+    static BodyDecoder forRequest(HttpRequest request, ServerConfig config) throws BadRequestException {
+        String transferEncoding = request.getHeader("transfer-encoding");
+        String contentLength = request.getHeader("content-length");
+        if (transferEncoding != null) {
+            if (contentLength != null) {
+                // conflicting framing is the basis of request smuggling
+                throw new BadRequestException("Both transfer-encoding and content-length sent");
+            }
+            if (!"chunked".equals(transferEncoding.trim().toLowerCase(Locale.ROOT))) {
+                throw new BadRequestException(501, "Not Implemented", "Unsupported transfer-encoding: " + transferEncoding);
+            }
+            return new BodyDecoder(true, 0, config);
+        }
+        if (contentLength == null) {
+            return null;
+        }
+        long length = parseLength(contentLength);
+        if (length > config.getMaxBodySize()) {
+            throw tooLarge();
+        }
+        return length > 0 ? new BodyDecoder(false, length, config) : null;
+    }
+
+    /**
+     * Parses a content-length made only of digits.
+     */
+    private static long parseLength(String contentLength) throws BadRequestException {
+        if (contentLength.isEmpty() || contentLength.length() > 18) {
+            throw new BadRequestException("Invalid content-length: " + contentLength);
+        }
+        long length = 0;
+        for (int i = 0; i < contentLength.length(); i++) {
+            char c = contentLength.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new BadRequestException("Invalid content-length: " + contentLength);
+            }
+            length = length * 10 + (c - '0');
+        }
+        return length;
+    }
+
+    private static BadRequestException tooLarge() {
+        return new BadRequestException(413, "Content Too Large", "Request body too large");
+    }
+
+    /**
+     * Gets the declared length of the body.
+     * @return the content-length, or -1 for a chunked body
+     */
+    long getContentLength() {
+        return chunked ? -1 : remaining + decoded;
+    }
+
+    /**
+     * Tells whether the whole body has been decoded.
+     * @return true once the end of the body was reached
+     */
+    boolean isFinished() {
+        return state == State.DONE;
+    }
+
+    /**
+     * Consumes framing and body bytes from a buffer.
+     * Stops after the first run of body bytes, which is returned as a slice of the buffer;
+     * call again while the buffer has bytes and the body is not finished.
+     *
+     * @param in the received bytes, between position and limit
+     * @return the body bytes found, possibly none
+     * @throws BadRequestException if the framing is malformed or the body is too large
+     */
+    ByteBuffer decode(ByteBuffer in) throws BadRequestException {
+        while (in.hasRemaining() && state != State.DONE) {
+            if (state == State.DATA) {
+                int count = (int) Math.min(remaining, in.remaining());
+                ByteBuffer data = in.slice();
+                data.limit(count);
+                in.position(in.position() + count);
+                remaining -= count;
+                decoded += count;
+                if (remaining == 0) {
+                    state = chunked ? State.DATA_CR : State.DONE;
+                }
+                return data;
+            }
+            byte b = in.get();
+            switch (state) {
+                case SIZE:
+                    size(b);
+                    break;
+                case EXTENSION:
+                    if (++lineLength > MAX_CHUNK_LINE) {
+                        throw new BadRequestException("Chunk size line too long");
+                    }
+                    if (b == '\r') {
+                        state = State.SIZE_LF;
+                    } else if (b == '\n') {
+                        endSizeLine();
+                    }
+                    break;
+                case SIZE_LF:
+                    if (b != '\n') {
+                        throw new BadRequestException("Malformed chunk size line");
+                    }
+                    endSizeLine();
+                    break;
+                case DATA_CR:
+                    if (b != '\r') {
+                        throw new BadRequestException("Missing CRLF after chunk data");
+                    }
+                    state = State.DATA_LF;
+                    break;
+                case DATA_LF:
+                    if (b != '\n') {
+                        throw new BadRequestException("Missing CRLF after chunk data");
+                    }
+                    state = State.SIZE;
+                    lineLength = 0;
+                    break;
+                case TRAILER:
+                    trailer(b);
+                    break;
+                default:
+                    throw new IllegalStateException(state.name());
+            }
+        }
+        return EMPTY;
+    }
+
+    /**
+     * Accumulates a hexadecimal digit of the chunk size.
+     */
+    private void size(byte b) throws BadRequestException {
+        int digit = RequestParser.hex(b);
+        if (digit >= 0) {
+            if (++lineLength > 15) {
+                throw new BadRequestException("Chunk size too large");
+            }
+            remaining = remaining << 4 | digit;
+            return;
+        }
+        if (lineLength == 0) {
+            throw new BadRequestException("Malformed chunk size line");
+        }
+        if (b == ';' || b == ' ' || b == '\t') {
+            state = State.EXTENSION;
+        } else if (b == '\r') {
+            state = State.SIZE_LF;
+        } else if (b == '\n') {
+            endSizeLine();
+        } else {
+            throw new BadRequestException("Malformed chunk size line");
+        }
+    }
+
+    /**
+     * Starts the chunk data, or the trailer after the last chunk.
+     */
+    private void endSizeLine() throws BadRequestException {
+        lineLength = 0;
+        if (remaining == 0) {
+            state = State.TRAILER;
+            return;
+        }
+        if (decoded + remaining > maxBodySize) {
+            throw tooLarge();
+        }
+        state = State.DATA;
+    }
+
+    /**
+     * Skips a byte of the trailer section, which ends with an empty line.
+     */
+    private void trailer(byte b) throws BadRequestException {
+        if (++trailerLength > maxTrailerSize) {
+            throw new BadRequestException(431, "Request Header Fields Too Large", "Chunked trailer too large");
+        }
+        if (b == '\n') {
+            if (lineLength == 0) {
+                state = State.DONE;
+            }
+            lineLength = 0;
+        } else if (b != '\r' || lineLength > 0) {
+            lineLength++;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Hands the body of a request from a {@link NioEventLoop}, which decodes it as it arrives,
+ * to the worker thread reading it as a stream. At most {@link #CAPACITY} bytes are queued:
+ * the loop stops reading the connection while the pipe is full and is called back once the
+ * worker has drained it, so a slow service keeps the memory used by an upload bounded.
+ *
+ * @author daniel.aldana-b
+ */
+class BodyPipe extends InputStream {
+    // Queued bytes at which the loop stops reading
+    static final int CAPACITY = 64 * 1024;
+
+    // Decoded body pieces waiting to be read
+    private final ArrayDeque<ByteBuffer> pieces = new ArrayDeque<>();
+    // Called when a full pipe has been drained
+    private final Runnable onDrain;
+    // Longest wait for body bytes, in milliseconds
+    private final long timeout;
+    private int queued;
+    // Whether the loop stopped reading and waits for onDrain
+    private boolean paused;
+    private boolean finished;
+    private boolean closed;
+    private IOException failure;
+
+    /**
+     * Creates an empty pipe.
+     * @param onDrain called, from the reading thread, when a full pipe has room again
+     * @param timeout the longest wait for body bytes in milliseconds
+     */
+    BodyPipe(Runnable onDrain, long timeout) {
+        this.onDrain = onDrain;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Queues body bytes, copying them. Bytes offered after the reader closed the pipe are dropped.
+     * @param data the decoded bytes
+     */
+    synchronized void offer(ByteBuffer data) {
+        if (closed || !data.hasRemaining()) {
+            return;
+        }
+        ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+        copy.put(data).flip();
+        pieces.add(copy);
+        queued += copy.remaining();
+        notifyAll();
+    }
+
+    /**
+     * Tells whether the loop must stop reading until the reader catches up.
+     * When it must, the drain callback is run once the reader has consumed half of the queue.
+     * @return true if the queued bytes reached the capacity
+     */
+    synchronized boolean isFull() {
+        paused = !closed && queued >= CAPACITY;
+        return paused;
+    }
+
+    /**
+     * Marks the end of the body.
+     */
+    synchronized void finish() {
+        finished = true;
+        notifyAll();
+    }
+
+    /**
+     * Makes the reader fail, such as when the body is malformed or the connection closes.
+     * @param error the error reported by the next read
+     */
+    synchronized void fail(IOException error) {
+        failure = error;
+        notifyAll();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        boolean drained;
+        int count;
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + timeout;
+            while (pieces.isEmpty()) {
+                if (failure != null) {
+                    throw failure;
+                }
+                if (finished || closed) {
+                    return -1;
+                }
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    throw new SocketTimeoutException("Timed out waiting for the request body");
+                }
+                try {
+                    wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while reading the request body");
+                }
+            }
+            ByteBuffer first = pieces.peekFirst();
+            count = Math.min(length, first.remaining());
+            first.get(bytes, offset, count);
+            if (!first.hasRemaining()) {
+                pieces.pollFirst();
+            }
+            queued -= count;
+            drained = paused && queued < CAPACITY / 2;
+            if (drained) {
+                paused = false;
+            }
+        }
+        if (drained) {
+            onDrain.run();
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized int available() {
+        return queued;
+    }
+
+    /**
+     * Stops receiving the body: queued and later bytes are dropped, and the loop resumes
+     * reading so it can skip the rest of the body.
+     */
+    @Override
+    public void close() {
+        boolean wasFull;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            wasFull = paused;
+            paused = false;
+            closed = true;
+            pieces.clear();
+            queued = 0;
+            notifyAll();
+        }
+        if (wasFull) {
+            onDrain.run();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Small pool of byte buffers: direct ones used to read from channels, and heap ones lent to
+ * response bodies streamed by the workers. Buffers are only held while a connection has
+ * unparsed input or unwritten output, so idle connections cost no buffer memory.
+ * Each event loop owns one pool of each kind; acquiring and releasing are thread safe.
+ *
+ * @author daniel.aldana-b
+ */
+class BufferPool {
+    // Capacity of every buffer handed out
+    private final int bufferSize;
+    // Maximum number of free buffers kept for reuse
+    private final int maxPooled;
+    // Whether the buffers are allocated outside the heap
+    private final boolean direct;
+    // Buffers ready for reuse
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+
+    /**
+     * Creates an empty pool of direct buffers.
+     * @param bufferSize capacity of every buffer handed out
+     * @param maxPooled maximum number of free buffers kept for reuse
+     */
+    BufferPool(int bufferSize, int maxPooled) {
+        this(bufferSize, maxPooled, true);
+    }
+
+    /**
+     * Creates an empty pool.
+     * @param bufferSize capacity of every buffer handed out
+     * @param maxPooled maximum number of free buffers kept for reuse
+     * @param direct true for direct buffers, false for heap buffers
+     */
+    BufferPool(int bufferSize, int maxPooled, boolean direct) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+        this.direct = direct;
+    }
+
+    /**
+     * Takes a cleared buffer from the pool, allocating one if none is free.
+     * @return a buffer ready to be filled
+     */
+    synchronized ByteBuffer acquire() {
+        ByteBuffer buffer = free.pollFirst();
+        if (buffer != null) {
+            return buffer.clear();
+        }
+        return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * Returns a buffer to the pool.
+     * @param buffer a buffer obtained from {@link #acquire()} that is no longer used
+     */
+    synchronized void release(ByteBuffer buffer) {
+        if (free.size() < maxPooled) {
+            free.addFirst(buffer);
+        }
+    }
+}
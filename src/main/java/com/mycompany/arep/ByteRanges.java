@@ -0,0 +1,149 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Parser of the Range request header for byte ranges.
+ *
+ * @author daniel.aldana-b
+ */
+class ByteRanges {
+    // Requests listing more ranges than this are answered with the whole representation
+    static final int MAX_RANGES = 32;
+
+    private ByteRanges() {
+    }
+
+    /**
+     * Parses a Range header against the length of a representation.
+     * Overlapping and adjacent ranges are merged and returned in ascending order.
+     *
+     * @param header the Range header value, may be null
+     * @param length the length of the representation
+     * @return the satisfiable ranges, an empty list if none is satisfiable, or null if the
+     *         header is missing, malformed or not worth honoring and the whole representation must be sent
+     */
+    static List<Range> parse(String header, long length) {
+        if (header == null) {
+            return null;
+        }
+        String value = header.trim();
+        if (!value.toLowerCase(Locale.ROOT).startsWith("bytes=")) {
+            return null;
+        }
+        String[] specs = value.substring(6).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+        List<Range> ranges = new ArrayList<>(specs.length);
+        for (String spec : specs) {
+            String range = spec.trim();
+            int dash = range.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            long first = parseNumber(range.substring(0, dash));
+            long last = parseNumber(range.substring(dash + 1));
+            if (dash == 0) {
+                // suffix range: the last N bytes
+                if (last < 0) {
+                    return null;
+                }
+                if (last > 0 && length > 0) {
+                    ranges.add(new Range(Math.max(0, length - last), length - 1));
+                }
+            } else {
+                if (first < 0 || (dash < range.length() - 1 && (last < 0 || last < first))) {
+                    return null;
+                }
+                if (first < length) {
+                    long end = dash == range.length() - 1 ? length - 1 : Math.min(last, length - 1);
+                    ranges.add(new Range(first, end));
+                }
+            }
+        }
+        return merge(ranges);
+    }
+
+    /**
+     * Sorts ranges and merges the ones overlapping or touching each other.
+     */
+    private static List<Range> merge(List<Range> ranges) {
+        if (ranges.size() < 2) {
+            return ranges;
+        }
+        ranges.sort(Comparator.comparingLong(range -> range.first));
+        List<Range> merged = new ArrayList<>(ranges.size());
+        Range current = ranges.get(0);
+        for (int i = 1; i < ranges.size(); i++) {
+            Range next = ranges.get(i);
+            if (next.first <= current.last + 1) {
+                current = new Range(current.first, Math.max(current.last, next.last));
+            } else {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+        return merged;
+    }
+
+    /**
+     * Parses a non-negative decimal number.
+     * @return the number, or -1 if the text is empty or not a number
+     */
+    private static long parseNumber(String text) {
+        String digits = text.trim();
+        if (digits.isEmpty() || digits.length() > 18) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            char c = digits.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * A satisfiable range of bytes, with both ends included.
+     */
+    static final class Range {
+        // Offset of the first byte
+        final long first;
+        // Offset of the last byte
+        final long last;
+
+        Range(long first, long last) {
+            this.first = first;
+            this.last = last;
+        }
+
+        /**
+         * Gets the number of bytes in the range.
+         * @return the range length
+         */
+        long length() {
+            return last - first + 1;
+        }
+
+        /**
+         * Formats the range for the content-range header.
+         * @param total the length of the whole representation
+         * @return the content-range value, such as "bytes 0-499/1234"
+         */
+        String contentRange(long total) {
+            return "bytes " + first + '-' + last + '/' + total;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs connection handlers according to the configured {@link ExecutionMode}.
+ * The number of connections in flight is bounded by a semaphore, so the accept
+ * loop blocks instead of queueing an unlimited amount of work.
+ *
+ * @author daniel.aldana-b
+ */
+class ConnectionDispatcher implements AutoCloseable {
+    // Executor running the connections, null in single threaded mode
+    private final ExecutorService executor;
+    // Permits for the connections that may be in flight at the same time
+    private final Semaphore permits;
+    // Effective execution mode after the virtual thread availability check
+    private final ExecutionMode mode;
+
+    /**
+     * Creates a dispatcher for the given configuration.
+     * @param config the server configuration
+     */
+    ConnectionDispatcher(ServerConfig config) {
+        this.permits = new Semaphore(config.getMaxConnections());
+        ExecutionMode requested = config.getExecutionMode();
+        ExecutorService virtual = requested == ExecutionMode.VIRTUAL_THREADS ? newVirtualThreadExecutor() : null;
+        if (virtual != null) {
+            this.mode = ExecutionMode.VIRTUAL_THREADS;
+            this.executor = virtual;
+        } else if (requested == ExecutionMode.SINGLE_THREADED) {
+            this.mode = ExecutionMode.SINGLE_THREADED;
+            this.executor = null;
+        } else {
+            this.mode = ExecutionMode.PLATFORM_THREADS;
+            int threads = config.getWorkerThreads();
+            this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), new WorkerThreadFactory());
+        }
+    }
+
+    /**
+     * Runs the given connection task. Blocks while the in-flight connection limit is reached.
+     * @param task the work that serves one connection
+     * @throws InterruptedException if the caller is interrupted while waiting for a free slot
+     */
+    void dispatch(Runnable task) throws InterruptedException {
+        acquire();
+        try {
+            execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            release();
+            throw e;
+        }
+    }
+
+    /**
+     * Takes one in-flight connection slot, waiting while none is free.
+     * @throws InterruptedException if the caller is interrupted while waiting
+     */
+    void acquire() throws InterruptedException {
+        permits.acquire();
+    }
+
+    /**
+     * Gives back a slot taken with {@link #acquire()}.
+     */
+    void release() {
+        permits.release();
+    }
+
+    /**
+     * Runs a task on the executor without taking a connection slot.
+     * In single threaded mode the task runs on the calling thread.
+     * @param task the task to run
+     */
+    void execute(Runnable task) {
+        if (executor == null) {
+            task.run();
+        } else {
+            executor.execute(task);
+        }
+    }
+
+    /**
+     * Gets the execution mode actually in use.
+     * @return the effective execution mode
+     */
+    ExecutionMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Stops accepting new tasks. Connections already running are left to finish.
+     */
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Creates a virtual thread per task executor when the JVM supports it.
+     * Looked up reflectively because the project is compiled for Java 17.
+     * @return the executor, or null if virtual threads are not available
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Names the platform worker threads so they are easy to spot in thread dumps.
+     */
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "http-worker-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content-encoding negotiation and compression of response bodies.
+ * Supports "gzip" and "deflate" (zlib format, as HTTP defines it).
+ *
+ * @author daniel.aldana-b
+ */
+public class ContentEncoding {
+    /** The gzip content coding */
+    public static final String GZIP = "gzip";
+    /** The deflate content coding */
+    public static final String DEFLATE = "deflate";
+
+    private ContentEncoding() {
+    }
+
+    /**
+     * Picks the content coding to use from an Accept-Encoding header.
+     * Codings with q=0 are refused; gzip wins ties because it is the most widely supported.
+     *
+     * @param acceptEncoding the Accept-Encoding header value, may be null
+     * @return {@link #GZIP}, {@link #DEFLATE}, or null to send the body unencoded
+     */
+    public static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return null;
+        }
+        double gzip = -1;
+        double deflate = -1;
+        double any = -1;
+        for (String item : acceptEncoding.split(",")) {
+            String[] parts = item.split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+            double q = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                    try {
+                        q = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            switch (coding) {
+                case GZIP, "x-gzip" -> gzip = Math.max(gzip, q);
+                case DEFLATE -> deflate = Math.max(deflate, q);
+                case "*" -> any = q;
+                default -> {
+                }
+            }
+        }
+        if (gzip < 0) {
+            gzip = any;
+        }
+        if (deflate < 0) {
+            deflate = any;
+        }
+        if (gzip > 0 && gzip >= deflate) {
+            return GZIP;
+        }
+        return deflate > 0 ? DEFLATE : null;
+    }
+
+    /**
+     * Tells whether a MIME type is worth compressing.
+     * Text formats compress well; images such as PNG and JPEG are already compressed.
+     *
+     * @param contentType the MIME type, optionally with parameters
+     * @return true for textual types
+     */
+    public static boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase(Locale.ROOT);
+        return type.startsWith("text/")
+                || type.startsWith("application/javascript")
+                || type.startsWith("application/json")
+                || type.startsWith("application/xml")
+                || type.startsWith("image/svg+xml");
+    }
+
+    /**
+     * Compresses a body with the given content coding.
+     *
+     * @param data the bytes to compress
+     * @param coding {@link #GZIP} or {@link #DEFLATE}
+     * @param level the compression level, from 1 (fastest) to 9 (smallest)
+     * @return the compressed bytes
+     */
+    public static byte[] encode(byte[] data, String coding, int level) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 3 + 64);
+        try (OutputStream encoder = encoder(out, coding, level)) {
+            encoder.write(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Wraps a stream so the bytes written to it are compressed on the fly, such as a streamed
+     * response body. Closing the returned stream writes the trailer and closes the wrapped stream.
+     *
+     * @param out the stream receiving the compressed bytes
+     * @param coding {@link #GZIP} or {@link #DEFLATE}
+     * @param level the compression level, from 1 (fastest) to 9 (smallest)
+     * @return the compressing stream
+     * @throws IOException if the GZIP header cannot be written
+     */
+    public static OutputStream encoder(OutputStream out, String coding, int level) throws IOException {
+        if (GZIP.equals(coding)) {
+            return new LeveledGzipOutputStream(out, level);
+        }
+        if (DEFLATE.equals(coding)) {
+            return new ZlibOutputStream(out, level);
+        }
+        throw new IllegalArgumentException("Unsupported content coding: " + coding);
+    }
+
+    /**
+     * GZIP stream whose compression level can be chosen.
+     */
+    private static final class LeveledGzipOutputStream extends GZIPOutputStream {
+        LeveledGzipOutputStream(OutputStream out, int level) throws IOException {
+            super(out);
+            def.setLevel(level);
+        }
+    }
+
+    /**
+     * Zlib stream with its own deflater, released when the stream is closed.
+     */
+    private static final class ZlibOutputStream extends DeflaterOutputStream {
+        ZlibOutputStream(OutputStream out, int level) {
+            super(out, new Deflater(level));
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                def.end();
+            }
+        }
+    }
+}
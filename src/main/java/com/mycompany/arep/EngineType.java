@@ -0,0 +1,17 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+/**
+ * Identifies the I/O engine used to accept and serve connections.
+ *
+ * @author daniel.aldana-b
+ */
+public enum EngineType {
+    /** One blocking socket per connection, executed as set by the {@link ExecutionMode} */
+    BLOCKING,
+    /** Non-blocking channels multiplexed by a few selector event loops */
+    NIO
+}
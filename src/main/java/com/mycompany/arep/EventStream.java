@@ -0,0 +1,177 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One open Server-Sent Events response, handed to an {@link EventStreamService}.
+ * Events can be sent from any thread while the stream is open; they are written in the order
+ * they are sent. With the NIO engine sending never blocks: a client that lets too much data
+ * queue up is dropped instead. With the other engines the sending thread writes the event itself.
+ *
+ * @author daniel.aldana-b
+ */
+public final class EventStream {
+    // Request that opened the stream
+    private final HttpRequest request;
+    // Transport the events are pushed through
+    private final Transport transport;
+    // Completed once the stream is closed, which ends the response
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    // The fields below are guarded by this object
+    // Whether the stream was closed
+    private boolean closed;
+    // Called once the stream closes
+    private final List<Runnable> closeListeners = new ArrayList<>();
+    // Time the last event or heartbeat was sent
+    private long lastSent = System.currentTimeMillis();
+
+    /**
+     * Creates a stream whose response head was written.
+     * @param request the request that opened the stream
+     * @param transport the transport of the response
+     */
+    EventStream(HttpRequest request, Transport transport) {
+        this.request = request;
+        this.transport = transport;
+        // the engine cancels the response when the client goes away
+        done.whenComplete((ignored, error) -> close());
+    }
+
+    /**
+     * Gets the request that opened the stream.
+     * @return the request
+     */
+    public HttpRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * Gets the id of the last event the client received, which it sends when it reconnects.
+     * @return the value of the Last-Event-ID header, or null for a new client
+     */
+    public String getLastEventId() {
+        String id = request.getHeader("last-event-id");
+        return id != null ? id.trim() : null;
+    }
+
+    /**
+     * Tells whether events can still be sent.
+     * @return false once closed
+     */
+    public synchronized boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * Sends an event.
+     * @param event the event
+     * @return false if the stream is closed, or was closed because the client is too slow or gone
+     */
+    public boolean send(ServerSentEvent event) {
+        return push(event.encoded());
+    }
+
+    /**
+     * Sends an event with only data.
+     * @param data the data
+     * @return false if the stream is closed, or was closed because the client is too slow or gone
+     */
+    public boolean send(String data) {
+        return send(ServerSentEvent.of(data));
+    }
+
+    /**
+     * Closes the stream, which ends the response and the connection. Does nothing if it is closed.
+     */
+    public void close() {
+        List<Runnable> listeners;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            listeners = new ArrayList<>(closeListeners);
+            closeListeners.clear();
+        }
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+        done.complete(null);
+    }
+
+    /**
+     * Registers a task to run once the stream closes, such as removing it from a topic.
+     * The task runs at once if the stream is already closed.
+     * @param listener the task
+     */
+    public void onClose(Runnable listener) {
+        synchronized (this) {
+            if (!closed) {
+                closeListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    /**
+     * Gets the future completed once the stream closes, the end of its response.
+     * @return the future, cancelled by the engine if the client goes away
+     */
+    CompletableFuture<Void> done() {
+        return done;
+    }
+
+    /**
+     * Sends a heartbeat comment if nothing was sent for a while.
+     * @param now the current time in milliseconds
+     * @param interval the longest silence in milliseconds
+     */
+    void heartbeat(long now, long interval) {
+        boolean due;
+        synchronized (this) {
+            due = now - lastSent >= interval;
+        }
+        if (due) {
+            push(ServerSentEvent.heartbeat());
+        }
+    }
+
+    /**
+     * Tells whether the server is shutting down, so the stream must end.
+     * @return true while the connection drains
+     */
+    boolean isDraining() {
+        return transport.isClosing();
+    }
+
+    /**
+     * Writes serialized bytes, closing the stream if they cannot be.
+     */
+    private boolean push(ByteBuffer bytes) {
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            try {
+                if (transport.offer(bytes)) {
+                    lastSent = System.currentTimeMillis();
+                    return true;
+                }
+            } catch (IOException e) {
+                // the client is gone
+            }
+        }
+        close();
+        return false;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Route of an {@link EventStreamService}. Each request is answered with the head of a
+ * text/event-stream response whose body is pushed by the service afterwards, and which ends
+ * when its {@link EventStream} closes. The response has no length and the connection closes
+ * with it, so the events are sent as they are, without chunk framing.
+ * <p>
+ * One timer thread shared by all the endpoints sends the heartbeats of the silent streams and
+ * closes the streams of a server that is shutting down.
+ *
+ * @author daniel.aldana-b
+ */
+final class EventStreamEndpoint implements Service {
+    // Longest delay between two checks of the open streams
+    private static final long MAX_CHECK_INTERVAL = 1000;
+    // Thread checking the open streams of every endpoint
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "event-stream-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Service handed the new streams
+    private final EventStreamService service;
+    // Server settings, for the heartbeat interval
+    private final ServerConfig config;
+    // Streams open on this route
+    private final Set<EventStream> open = ConcurrentHashMap.newKeySet();
+    // Periodic check of the open streams, null while there is none; guarded by this object
+    private ScheduledFuture<?> check;
+
+    /**
+     * Creates the route of a service.
+     * @param service the service handed the new streams
+     * @param config the server configuration
+     */
+    EventStreamEndpoint(EventStreamService service, ServerConfig config) {
+        this.service = service;
+        this.config = config;
+    }
+
+    /**
+     * Answers a request that reached the endpoint without a connection to stream on.
+     * @param req the request
+     * @param res the response
+     * @return the body telling the client the route only streams
+     */
+    @Override
+    public String invoke(HttpRequest req, HttpResponse res) {
+        res.setStatus(406, "Not Acceptable");
+        return "Event stream only";
+    }
+
+    /**
+     * Opens an event stream: writes the response head and hands the stream to the service.
+     * @param req the request
+     * @param res the response bound to the client connection
+     * @return a future completed once the stream closes; cancelling it closes the stream
+     * @throws IOException if the response head cannot be written
+     */
+    CompletableFuture<Void> open(HttpRequest req, HttpResponse res) throws IOException {
+        res.setContentType("text/event-stream");
+        res.setHeader("cache-control", "no-cache");
+        if ("HEAD".equals(req.getMethod())) {
+            // a HEAD request reaches the endpoint through its GET route and gets the head alone
+            res.sendStreamHead();
+            return CompletableFuture.completedFuture(null);
+        }
+        EventStream stream = new EventStream(req, res.sendStreamHead());
+        open.add(stream);
+        stream.onClose(() -> closed(stream));
+        startChecks();
+        try {
+            service.open(req, stream);
+        } catch (RuntimeException e) {
+            WebServer.reportFailure(req, e);
+            stream.close();
+        }
+        return stream.done();
+    }
+
+    private synchronized void startChecks() {
+        if (check == null && !open.isEmpty()) {
+            long interval = Math.min(MAX_CHECK_INTERVAL, config.getEventStreamHeartbeatInterval());
+            check = TIMER.scheduleWithFixedDelay(this::checkStreams, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void closed(EventStream stream) {
+        open.remove(stream);
+        if (open.isEmpty() && check != null) {
+            check.cancel(false);
+            check = null;
+        }
+    }
+
+    /**
+     * Sends a heartbeat to the streams silent for the configured interval, and closes the
+     * streams of a server that is shutting down.
+     */
+    private void checkStreams() {
+        long now = System.currentTimeMillis();
+        for (EventStream stream : open) {
+            try {
+                if (stream.isDraining()) {
+                    stream.close();
+                } else {
+                    stream.heartbeat(now, config.getEventStreamHeartbeatInterval());
+                }
+            } catch (RuntimeException e) {
+                // a close listener failed, the other streams are still checked
+                WebServer.reportFailure(stream.getRequest(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+/**
+ * Service answering with a Server-Sent Events stream (text/event-stream) that stays open,
+ * for one-way live updates such as a dashboard. Registered with {@link HttpServer#events}.
+ * <pre>
+ * EventTopic prices = new EventTopic(100);
+ * HttpServer.events("/prices", prices);
+ * ...
+ * prices.publish("price", "{\"symbol\": \"ACME\", \"price\": 12.5}");
+ * </pre>
+ * The service is called once per client, after the response head was sent, and usually hands
+ * the stream to an {@link EventTopic}, which replays the events the client missed and sends it
+ * the new ones. The stream stays open until it is closed or the client goes away; no thread
+ * waits for it with the NIO engine, while the blocking engine keeps the connection thread.
+ * Silent streams are sent a heartbeat every {@link ServerConfig#getEventStreamHeartbeatInterval()}.
+ *
+ * @author daniel.aldana-b
+ */
+@FunctionalInterface
+public interface EventStreamService {
+
+    /**
+     * Starts serving a new stream.
+     * @param req the request, usable while the stream is open
+     * @param stream the stream, open until closed by either side
+     */
+    void open(HttpRequest req, EventStream stream);
+}
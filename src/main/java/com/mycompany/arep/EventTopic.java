@@ -0,0 +1,144 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Publisher of the events of one topic to every stream subscribed to it.
+ * Each published event gets the next numeric id and is serialized once, then the same bytes
+ * are queued on every stream. The last events are kept in a bounded replay buffer: a client
+ * reconnecting with the Last-Event-ID header first receives the events it missed, as long as
+ * they are still buffered, and all the buffered ones if they are not.
+ * <p>
+ * Publishing and subscribing are serialized, so every subscriber sees the events in the same
+ * order, without gaps or duplicates between the replay and the live events. A topic can be
+ * registered directly as the {@link EventStreamService} of a path.
+ *
+ * @author daniel.aldana-b
+ */
+public class EventTopic implements EventStreamService {
+    // Last events published, oldest first from the head; null slots are still free
+    private final ServerSentEvent[] replay;
+    // Index of the oldest buffered event
+    private int head;
+    // Number of buffered events
+    private int buffered;
+    // Id of the last published event, 0 before the first one
+    private long lastId;
+    // Streams receiving the new events
+    private final Set<EventStream> subscribers = new LinkedHashSet<>();
+
+    /**
+     * Creates a topic.
+     * @param replaySize the number of last events kept for clients that reconnect, may be 0
+     */
+    public EventTopic(int replaySize) {
+        if (replaySize < 0) {
+            throw new IllegalArgumentException("replaySize must not be negative");
+        }
+        this.replay = new ServerSentEvent[replaySize];
+    }
+
+    /**
+     * Subscribes the stream of a new client.
+     * @param req the request that opened the stream
+     * @param stream the stream
+     */
+    @Override
+    public void open(HttpRequest req, EventStream stream) {
+        subscribe(stream);
+    }
+
+    /**
+     * Sends the stream the events it missed according to its Last-Event-ID, then every new event
+     * until it closes.
+     * @param stream the stream
+     */
+    public synchronized void subscribe(EventStream stream) {
+        for (ServerSentEvent event : missed(stream.getLastEventId())) {
+            if (!stream.send(event)) {
+                return;
+            }
+        }
+        subscribers.add(stream);
+        stream.onClose(() -> unsubscribe(stream));
+    }
+
+    /**
+     * Stops sending events to a stream.
+     * @param stream the stream
+     */
+    public synchronized void unsubscribe(EventStream stream) {
+        subscribers.remove(stream);
+    }
+
+    /**
+     * Publishes an event of the default "message" type.
+     * @param data the data
+     * @return the published event
+     */
+    public ServerSentEvent publish(String data) {
+        return publish(null, data);
+    }
+
+    /**
+     * Publishes an event to every subscriber, giving it the next id.
+     * Subscribers whose client is gone or too slow are dropped.
+     * @param event the event type, or null for the default "message" type
+     * @param data the data
+     * @return the published event
+     */
+    public synchronized ServerSentEvent publish(String event, String data) {
+        ServerSentEvent published = new ServerSentEvent(Long.toString(++lastId), event, data);
+        if (replay.length > 0) {
+            replay[(head + buffered) % replay.length] = published;
+            if (buffered < replay.length) {
+                buffered++;
+            } else {
+                head = (head + 1) % replay.length;
+            }
+        }
+        // a failed send closes its stream, which unsubscribes it
+        for (EventStream stream : new ArrayList<>(subscribers)) {
+            stream.send(published);
+        }
+        return published;
+    }
+
+    /**
+     * Gets the number of streams receiving the events.
+     * @return the subscriber count
+     */
+    public synchronized int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * Gets the buffered events published after an id. Must be called holding the lock.
+     */
+    private List<ServerSentEvent> missed(String lastEventId) {
+        List<ServerSentEvent> events = new ArrayList<>();
+        if (lastEventId == null || buffered == 0) {
+            return events;
+        }
+        long oldest = lastId - buffered + 1;
+        long from;
+        try {
+            long received = Long.parseLong(lastEventId);
+            // ids the topic never gave out, such as ones from before a restart, replay everything
+            from = received >= oldest - 1 && received <= lastId ? received + 1 : oldest;
+        } catch (NumberFormatException e) {
+            from = oldest;
+        }
+        for (long id = from; id <= lastId; id++) {
+            events.add(replay[(int) ((head + id - oldest) % replay.length)]);
+        }
+        return events;
+    }
+}
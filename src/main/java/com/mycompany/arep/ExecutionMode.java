@@ -0,0 +1,22 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+/**
+ * Defines how accepted client connections are executed by the server.
+ *
+ * @author daniel.aldana-b
+ */
+public enum ExecutionMode {
+    /** Every connection is served on the accept thread, one after another */
+    SINGLE_THREADED,
+    /** Connections are dispatched to a fixed pool of platform threads */
+    PLATFORM_THREADS,
+    /**
+     * Each connection gets its own virtual thread. When the running JVM does not
+     * provide virtual threads the server falls back to {@link #PLATFORM_THREADS}.
+     */
+    VIRTUAL_THREADS
+}
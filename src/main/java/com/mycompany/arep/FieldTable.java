@@ -0,0 +1,364 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Multimap of the fields of a request, header lines or query parameters, stored as offsets
+ * into the bytes they were read from. Keys are indexed in an open-addressing hash table of
+ * ints; the values of a repeated key are linked in request order. Strings are only built
+ * for the keys and values that are asked for, and kept until the table is reset.
+ * <pre>
+ * table.reset(head);
+ * table.add(nameStart, nameEnd, valueStart, valueEnd);
+ * for (int e = table.find("accept"); e >= 0; e = table.next(e)) {
+ *     table.value(e);
+ * }
+ * </pre>
+ * Reset tables keep their arrays, so indexing the fields of a recycled request allocates
+ * nothing once they are large enough. Instances are not thread safe.
+ *
+ * @author daniel.aldana-b
+ */
+final class FieldTable {
+    // Entries a new table holds before growing
+    private static final int INITIAL_ENTRIES = 8;
+    // Arrays grown past this many entries by an unusual request are dropped on reset
+    private static final int RETAINED_ENTRIES = 64;
+
+    // Whether keys are compared ignoring ASCII case, as header names are
+    private final boolean ignoreCase;
+    // Whether keys and values are percent-encoded with '+' for a space, as query parameters are
+    private final boolean urlEncoded;
+    // Bytes the offsets point into
+    private byte[] source;
+    // Key start, key end, value start and value end of each entry
+    private int[] offsets;
+    // Hash of the key of each entry
+    private int[] hashes;
+    // Next entry with the same key, -1 for the last one
+    private int[] next;
+    // First entry with the same key, the entry itself for the first one
+    private int[] first;
+    // Last entry with the same key, only kept up to date in the first one
+    private int[] last;
+    // Keys decoded so far, lower-cased if the table ignores case; keys that are not plain
+    // ASCII are decoded when they are added
+    private String[] keys;
+    // Values decoded so far
+    private String[] values;
+    // Number of entries
+    private int size;
+    // Hash slots holding the first entry of a key plus one, 0 for a free slot
+    private int[] slots;
+    // Number of distinct keys
+    private int keyCount;
+
+    /**
+     * Creates an empty table.
+     * @param ignoreCase whether keys are compared ignoring ASCII case
+     * @param urlEncoded whether keys and values are percent-decoded, with '+' for a space
+     */
+    FieldTable(boolean ignoreCase, boolean urlEncoded) {
+        this.ignoreCase = ignoreCase;
+        this.urlEncoded = urlEncoded;
+        allocate(INITIAL_ENTRIES);
+    }
+
+    private void allocate(int capacity) {
+        offsets = new int[4 * capacity];
+        hashes = new int[capacity];
+        next = new int[capacity];
+        first = new int[capacity];
+        last = new int[capacity];
+        keys = new String[capacity];
+        values = new String[capacity];
+        slots = new int[2 * capacity];
+    }
+
+    /**
+     * Removes every entry and points the table at new bytes.
+     * @param source the bytes the offsets of the next entries point into
+     */
+    void reset(byte[] source) {
+        if (hashes.length > RETAINED_ENTRIES) {
+            allocate(INITIAL_ENTRIES);
+        } else if (size > 0) {
+            Arrays.fill(keys, 0, size, null);
+            Arrays.fill(values, 0, size, null);
+            Arrays.fill(slots, 0);
+        }
+        this.source = source;
+        size = 0;
+        keyCount = 0;
+    }
+
+    /**
+     * Adds an entry after the others.
+     * @param keyStart index of the first key byte
+     * @param keyEnd index after the last key byte
+     * @param valueStart index of the first value byte
+     * @param valueEnd index after the last value byte
+     */
+    void add(int keyStart, int keyEnd, int valueStart, int valueEnd) {
+        if (size == hashes.length) {
+            grow();
+        }
+        int entry = size++;
+        offsets[4 * entry] = keyStart;
+        offsets[4 * entry + 1] = keyEnd;
+        offsets[4 * entry + 2] = valueStart;
+        offsets[4 * entry + 3] = valueEnd;
+        next[entry] = -1;
+        int hash;
+        if (isPlain(keyStart, keyEnd)) {
+            hash = 0;
+            for (int i = keyStart; i < keyEnd; i++) {
+                hash = 31 * hash + fold(source[i]);
+            }
+        } else {
+            String key = urlEncoded ? RequestParser.decode(source, keyStart, keyEnd, true)
+                    : new String(source, keyStart, keyEnd - keyStart, StandardCharsets.ISO_8859_1);
+            keys[entry] = ignoreCase ? key.toLowerCase(Locale.ROOT) : key;
+            hash = hash(key);
+        }
+        hashes[entry] = spread(hash);
+        int slot = hashes[entry] & (slots.length - 1);
+        while (slots[slot] != 0) {
+            int head = slots[slot] - 1;
+            if (hashes[head] == hashes[entry] && sameKey(head, entry)) {
+                first[entry] = head;
+                next[last[head]] = entry;
+                last[head] = entry;
+                return;
+            }
+            slot = (slot + 1) & (slots.length - 1);
+        }
+        slots[slot] = entry + 1;
+        first[entry] = entry;
+        last[entry] = entry;
+        keyCount++;
+    }
+
+    /**
+     * Adds the "key=value&amp;key=value" pairs of a range of the source. A key without '='
+     * has an empty value; empty pairs and pairs without a key are skipped.
+     * @param start the first index
+     * @param end the index after the last byte
+     */
+    void addPairs(int start, int end) {
+        int pairStart = start;
+        while (pairStart < end) {
+            int pairEnd = pairStart;
+            int equals = -1;
+            while (pairEnd < end && source[pairEnd] != '&') {
+                if (equals < 0 && source[pairEnd] == '=') {
+                    equals = pairEnd;
+                }
+                pairEnd++;
+            }
+            if (pairEnd > pairStart && equals != pairStart) {
+                int keyEnd = equals >= 0 ? equals : pairEnd;
+                add(pairStart, keyEnd, equals >= 0 ? equals + 1 : pairEnd, pairEnd);
+            }
+            pairStart = pairEnd + 1;
+        }
+    }
+
+    /**
+     * Finds the first entry with a key.
+     * @param key the key, compared ignoring ASCII case if the table does
+     * @return the index of the entry, or -1 if no entry has the key
+     */
+    int find(String key) {
+        int hash = spread(hash(key));
+        int slot = hash & (slots.length - 1);
+        while (slots[slot] != 0) {
+            int entry = slots[slot] - 1;
+            if (hashes[entry] == hash && keyEquals(entry, key)) {
+                return entry;
+            }
+            slot = (slot + 1) & (slots.length - 1);
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the next entry with the same key.
+     * @param entry the index of an entry
+     * @return the index of the next entry, or -1 if it is the last one
+     */
+    int next(int entry) {
+        return next[entry];
+    }
+
+    /**
+     * Tells whether an entry is the first one with its key, to visit each key once.
+     * @param entry the index of an entry
+     * @return true if no earlier entry has the same key
+     */
+    boolean isFirst(int entry) {
+        return first[entry] == entry;
+    }
+
+    /**
+     * Gets the number of entries.
+     * @return the entries added since the last reset
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets the number of distinct keys.
+     * @return the keys added since the last reset
+     */
+    int keyCount() {
+        return keyCount;
+    }
+
+    /**
+     * Gets the key of an entry, lower-cased if the table ignores case.
+     * @param entry the index of an entry
+     * @return the decoded key
+     */
+    String key(int entry) {
+        String key = keys[entry];
+        if (key == null) {
+            int start = offsets[4 * entry];
+            key = new String(source, start, offsets[4 * entry + 1] - start, StandardCharsets.ISO_8859_1);
+            keys[entry] = ignoreCase ? key.toLowerCase(Locale.ROOT) : key;
+        }
+        return keys[entry];
+    }
+
+    /**
+     * Gets the value of an entry.
+     * @param entry the index of an entry
+     * @return the decoded value
+     */
+    String value(int entry) {
+        String value = values[entry];
+        if (value == null) {
+            int start = offsets[4 * entry + 2];
+            int end = offsets[4 * entry + 3];
+            value = urlEncoded ? RequestParser.decode(source, start, end, true)
+                    : new String(source, start, end - start, StandardCharsets.ISO_8859_1);
+            values[entry] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Doubles the entry arrays and rebuilds the hash slots.
+     */
+    private void grow() {
+        int capacity = 2 * hashes.length;
+        offsets = Arrays.copyOf(offsets, 4 * capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        next = Arrays.copyOf(next, capacity);
+        first = Arrays.copyOf(first, capacity);
+        last = Arrays.copyOf(last, capacity);
+        keys = Arrays.copyOf(keys, capacity);
+        values = Arrays.copyOf(values, capacity);
+        slots = new int[2 * capacity];
+        for (int entry = 0; entry < size; entry++) {
+            if (first[entry] == entry) {
+                int slot = hashes[entry] & (slots.length - 1);
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & (slots.length - 1);
+                }
+                slots[slot] = entry + 1;
+            }
+        }
+    }
+
+    /**
+     * Tells whether a raw key is its own decoded form: ASCII without escapes.
+     */
+    private boolean isPlain(int start, int end) {
+        for (int i = start; i < end; i++) {
+            byte b = source[i];
+            if (b < 0 || (urlEncoded && (b == '%' || b == '+'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares the keys of two entries, the second one just added.
+     */
+    private boolean sameKey(int entry, int added) {
+        if (keys[added] != null) {
+            return keyEquals(entry, keys[added]);
+        }
+        if (keys[entry] != null) {
+            return keyEquals(added, keys[entry]);
+        }
+        int start = offsets[4 * entry];
+        int length = offsets[4 * entry + 1] - start;
+        int addedStart = offsets[4 * added];
+        if (offsets[4 * added + 1] - addedStart != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (fold(source[start + i]) != fold(source[addedStart + i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares the key of an entry with a string.
+     */
+    private boolean keyEquals(int entry, String key) {
+        String decoded = keys[entry];
+        if (decoded != null) {
+            if (decoded.length() != key.length()) {
+                return false;
+            }
+            for (int i = 0; i < key.length(); i++) {
+                if (fold(decoded.charAt(i)) != fold(key.charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        int start = offsets[4 * entry];
+        if (offsets[4 * entry + 1] - start != key.length()) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (fold(source[start + i]) != fold(key.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int hash(String key) {
+        int hash = 0;
+        for (int i = 0; i < key.length(); i++) {
+            hash = 31 * hash + fold(key.charAt(i));
+        }
+        return hash;
+    }
+
+    /**
+     * Lower-cases ASCII letters when the table ignores case.
+     */
+    private int fold(int c) {
+        return ignoreCase && c >= 'A' && c <= 'Z' ? c | 0x20 : c;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,449 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HPACK header compression for HTTP/2 (RFC 7541): the static table, the dynamic table each side
+ * keeps, prefixed integers and Huffman coded strings. A {@link Decoder} reads the header blocks of
+ * one connection and an {@link Encoder} writes them; both keep state between blocks, so each must
+ * see the blocks in the order they travel on the connection. Names and values are handled as
+ * ISO-8859-1 strings, which keeps every byte as it was sent.
+ *
+ * @author daniel.aldana-b
+ */
+final class Hpack {
+    // Dynamic table size both sides start with, and the largest the server accepts or uses
+    static final int DEFAULT_TABLE_SIZE = 4096;
+    // Bytes an entry costs in the dynamic table on top of its name and value
+    private static final int ENTRY_OVERHEAD = 32;
+
+    // Entries 1 to 61 of the static table, as name and value pairs
+    private static final String[][] STATIC_TABLE = {
+        {":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"},
+        {":path", "/index.html"}, {":scheme", "http"}, {":scheme", "https"}, {":status", "200"},
+        {":status", "204"}, {":status", "206"}, {":status", "304"}, {":status", "400"},
+        {":status", "404"}, {":status", "500"}, {"accept-charset", ""}, {"accept-encoding", "gzip, deflate"},
+        {"accept-language", ""}, {"accept-ranges", ""}, {"accept", ""}, {"access-control-allow-origin", ""},
+        {"age", ""}, {"allow", ""}, {"authorization", ""}, {"cache-control", ""},
+        {"content-disposition", ""}, {"content-encoding", ""}, {"content-language", ""}, {"content-length", ""},
+        {"content-location", ""}, {"content-range", ""}, {"content-type", ""}, {"cookie", ""},
+        {"date", ""}, {"etag", ""}, {"expect", ""}, {"expires", ""},
+        {"from", ""}, {"host", ""}, {"if-match", ""}, {"if-modified-since", ""},
+        {"if-none-match", ""}, {"if-range", ""}, {"if-unmodified-since", ""}, {"last-modified", ""},
+        {"link", ""}, {"location", ""}, {"max-forwards", ""}, {"proxy-authenticate", ""},
+        {"proxy-authorization", ""}, {"range", ""}, {"referer", ""}, {"refresh", ""},
+        {"retry-after", ""}, {"server", ""}, {"set-cookie", ""}, {"strict-transport-security", ""},
+        {"transfer-encoding", ""}, {"user-agent", ""}, {"vary", ""}, {"via", ""},
+        {"www-authenticate", ""}
+    };
+    // Static table indexes by name, the first entry with that name
+    private static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+    // Static table indexes by name and value, for the entries with a value
+    private static final Map<String, Integer> STATIC_FIELDS = new HashMap<>();
+
+    // Huffman code length of each symbol, 256 being the end of string; the code is canonical,
+    // so the codes themselves follow from the lengths
+    private static final byte[] HUFFMAN_LENGTHS = {
+            13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+            28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+            6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+            5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+            13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+            7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+            15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+            6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+            20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+            24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+            22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+            21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+            26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+            19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+            20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+            26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+            30
+    };
+    private static final int EOS = 256;
+    // Code of each symbol, right aligned
+    private static final int[] HUFFMAN_CODES = new int[EOS + 1];
+    // Symbols sorted by code, and per code length the first code, its position among the symbols
+    // and the number of codes of that length
+    private static final int[] HUFFMAN_SYMBOLS = new int[EOS + 1];
+    private static final int[] FIRST_CODE = new int[31];
+    private static final int[] FIRST_SYMBOL = new int[31];
+    private static final int[] CODE_COUNT = new int[31];
+
+    static {
+        for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+            STATIC_NAMES.put(STATIC_TABLE[i][0], i + 1);
+            if (!STATIC_TABLE[i][1].isEmpty()) {
+                STATIC_FIELDS.put(STATIC_TABLE[i][0] + '\0' + STATIC_TABLE[i][1], i + 1);
+            }
+        }
+        int code = 0;
+        int position = 0;
+        for (int length = 1; length <= 30; length++) {
+            FIRST_CODE[length] = code;
+            FIRST_SYMBOL[length] = position;
+            for (int symbol = 0; symbol <= EOS; symbol++) {
+                if (HUFFMAN_LENGTHS[symbol] == length) {
+                    HUFFMAN_CODES[symbol] = code++;
+                    HUFFMAN_SYMBOLS[position++] = symbol;
+                    CODE_COUNT[length]++;
+                }
+            }
+            code <<= 1;
+        }
+    }
+
+    private Hpack() {
+    }
+
+    /**
+     * Decodes the header blocks received on a connection.
+     */
+    static final class Decoder {
+        private final DynamicTable table = new DynamicTable(DEFAULT_TABLE_SIZE);
+
+        /**
+         * Decodes a complete header block.
+         * @param block the block, from position to limit, consumed entirely
+         * @param fields receives the names and values, alternating, in the order they were sent
+         * @throws IOException if the block is malformed, which breaks the compression state of the connection
+         */
+        void decode(ByteBuffer block, List<String> fields) throws IOException {
+            boolean first = true;
+            while (block.hasRemaining()) {
+                int b = block.get(block.position()) & 0xff;
+                if ((b & 0x80) != 0) {
+                    int index = readInteger(block, 7);
+                    fields.add(name(index));
+                    fields.add(value(index));
+                } else if ((b & 0xe0) == 0x20) {
+                    // a size update is only valid before the first field of a block
+                    if (!first) {
+                        throw new IOException("Dynamic table size update after a header field");
+                    }
+                    int size = readInteger(block, 5);
+                    if (size > DEFAULT_TABLE_SIZE) {
+                        throw new IOException("Dynamic table size " + size + " above the limit");
+                    }
+                    table.setMaxSize(size);
+                    continue;
+                } else {
+                    // literals with incremental indexing, without indexing and never indexed
+                    boolean indexed = (b & 0xc0) == 0x40;
+                    int index = readInteger(block, indexed ? 6 : 4);
+                    String name = index == 0 ? readString(block) : name(index);
+                    String value = readString(block);
+                    if (indexed) {
+                        table.add(name, value);
+                    }
+                    fields.add(name);
+                    fields.add(value);
+                }
+                first = false;
+            }
+        }
+
+        private String name(int index) throws IOException {
+            if (index == 0) {
+                throw new IOException("Header field index 0");
+            }
+            if (index <= STATIC_TABLE.length) {
+                return STATIC_TABLE[index - 1][0];
+            }
+            return table.entry(index - STATIC_TABLE.length - 1)[0];
+        }
+
+        private String value(int index) throws IOException {
+            if (index <= STATIC_TABLE.length) {
+                return STATIC_TABLE[index - 1][1];
+            }
+            return table.entry(index - STATIC_TABLE.length - 1)[1];
+        }
+    }
+
+    /**
+     * Encodes the header blocks sent on a connection. Fields are sent from the tables when they
+     * are there, and added to the dynamic table unless their value changes with every response
+     * or is sensitive. Strings are Huffman coded when that makes them shorter.
+     */
+    static final class Encoder {
+        private final DynamicTable table = new DynamicTable(DEFAULT_TABLE_SIZE);
+        // Table size the peer allows, applied with a size update at the start of the next block
+        private int pendingSize = -1;
+
+        /**
+         * Follows the dynamic table size the peer set in its settings.
+         * @param size the value of SETTINGS_HEADER_TABLE_SIZE
+         */
+        void setMaxTableSize(int size) {
+            int limited = Math.min(size, DEFAULT_TABLE_SIZE);
+            if (limited != table.maxSize || pendingSize >= 0) {
+                pendingSize = limited;
+            }
+        }
+
+        /**
+         * Encodes a header block.
+         * @param fields the names, in lower case, and values, alternating
+         * @param out receives the block
+         */
+        void encode(List<String> fields, ByteArrayOutputStream out) {
+            if (pendingSize >= 0) {
+                table.setMaxSize(pendingSize);
+                writeInteger(out, 0x20, 5, pendingSize);
+                pendingSize = -1;
+            }
+            for (int i = 0; i + 1 < fields.size(); i += 2) {
+                encodeField(fields.get(i), fields.get(i + 1), out);
+            }
+        }
+
+        private void encodeField(String name, String value, ByteArrayOutputStream out) {
+            Integer exact = STATIC_FIELDS.get(name + '\0' + value);
+            int dynamic = table.find(name, value, true);
+            if (exact != null || dynamic >= 0) {
+                writeInteger(out, 0x80, 7, exact != null ? exact : STATIC_TABLE.length + 1 + dynamic);
+                return;
+            }
+            Integer staticName = STATIC_NAMES.get(name);
+            int dynamicName = staticName == null ? table.find(name, value, false) : -1;
+            int nameIndex = staticName != null ? staticName
+                    : dynamicName >= 0 ? STATIC_TABLE.length + 1 + dynamicName : 0;
+            switch (name) {
+                case "set-cookie", "authorization", "proxy-authorization", "cookie" ->
+                    writeInteger(out, 0x10, 4, nameIndex);
+                case "content-length", "content-range", "etag", "last-modified", "age", "location",
+                        "retry-after" ->
+                    writeInteger(out, 0x00, 4, nameIndex);
+                default -> {
+                    writeInteger(out, 0x40, 6, nameIndex);
+                    table.add(name, value);
+                }
+            }
+            if (nameIndex == 0) {
+                writeString(out, name);
+            }
+            writeString(out, value);
+        }
+    }
+
+    /**
+     * Entries added by the header blocks, newest first, evicted oldest first to stay within the size.
+     */
+    private static final class DynamicTable {
+        private String[][] entries = new String[16][];
+        // Position of the oldest entry in the ring and number of entries
+        private int oldest;
+        private int count;
+        private int size;
+        private int maxSize;
+
+        DynamicTable(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        /**
+         * Gets an entry.
+         * @param index 0 for the newest entry
+         */
+        String[] entry(int index) throws IOException {
+            if (index >= count) {
+                throw new IOException("Header field index beyond the dynamic table");
+            }
+            return entries[(oldest + count - 1 - index) % entries.length];
+        }
+
+        /**
+         * Finds the newest entry with a name and, optionally, a value.
+         * @return its index, 0 for the newest entry, or -1
+         */
+        int find(String name, String value, boolean matchValue) {
+            for (int i = 0; i < count; i++) {
+                String[] entry = entries[(oldest + count - 1 - i) % entries.length];
+                if (entry[0].equals(name) && (!matchValue || entry[1].equals(value))) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void add(String name, String value) {
+            int entrySize = name.length() + value.length() + ENTRY_OVERHEAD;
+            while (count > 0 && size + entrySize > maxSize) {
+                evict();
+            }
+            if (entrySize > maxSize) {
+                // an entry larger than the table empties it and is not added
+                return;
+            }
+            if (count == entries.length) {
+                String[][] grown = new String[entries.length * 2][];
+                for (int i = 0; i < count; i++) {
+                    grown[i] = entries[(oldest + i) % entries.length];
+                }
+                entries = grown;
+                oldest = 0;
+            }
+            entries[(oldest + count) % entries.length] = new String[] {name, value};
+            count++;
+            size += entrySize;
+        }
+
+        void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            while (count > 0 && size > maxSize) {
+                evict();
+            }
+        }
+
+        private void evict() {
+            String[] entry = entries[oldest];
+            entries[oldest] = null;
+            oldest = (oldest + 1) % entries.length;
+            count--;
+            size -= entry[0].length() + entry[1].length() + ENTRY_OVERHEAD;
+        }
+    }
+
+    /**
+     * Reads an integer with an N bit prefix, the rest of the first byte being flags.
+     */
+    static int readInteger(ByteBuffer in, int prefixBits) throws IOException {
+        if (!in.hasRemaining()) {
+            throw new IOException("Truncated header block");
+        }
+        int mask = (1 << prefixBits) - 1;
+        int value = in.get() & mask;
+        if (value < mask) {
+            return value;
+        }
+        for (int shift = 0; shift <= 21; shift += 7) {
+            if (!in.hasRemaining()) {
+                throw new IOException("Truncated header block");
+            }
+            int b = in.get() & 0xff;
+            value += (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Integer too large in header block");
+    }
+
+    /**
+     * Writes an integer with an N bit prefix after the given flags.
+     */
+    static void writeInteger(ByteArrayOutputStream out, int flags, int prefixBits, int value) {
+        int mask = (1 << prefixBits) - 1;
+        if (value < mask) {
+            out.write(flags | value);
+            return;
+        }
+        out.write(flags | mask);
+        value -= mask;
+        while (value >= 0x80) {
+            out.write(value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Reads a string literal, Huffman coded or not.
+     */
+    static String readString(ByteBuffer in) throws IOException {
+        if (!in.hasRemaining()) {
+            throw new IOException("Truncated header block");
+        }
+        boolean huffman = (in.get(in.position()) & 0x80) != 0;
+        int length = readInteger(in, 7);
+        if (length > in.remaining()) {
+            throw new IOException("Truncated header block");
+        }
+        if (!huffman) {
+            byte[] text = new byte[length];
+            in.get(text);
+            return new String(text, StandardCharsets.ISO_8859_1);
+        }
+        return huffmanDecode(in, length);
+    }
+
+    /**
+     * Writes a string literal, Huffman coded when that is shorter.
+     */
+    static void writeString(ByteArrayOutputStream out, String text) {
+        long bits = 0;
+        for (int i = 0; i < text.length(); i++) {
+            bits += HUFFMAN_LENGTHS[text.charAt(i) & 0xff];
+        }
+        int huffmanLength = (int) ((bits + 7) / 8);
+        if (huffmanLength >= text.length()) {
+            writeInteger(out, 0x00, 7, text.length());
+            for (int i = 0; i < text.length(); i++) {
+                out.write(text.charAt(i));
+            }
+            return;
+        }
+        writeInteger(out, 0x80, 7, huffmanLength);
+        long pending = 0;
+        int pendingBits = 0;
+        for (int i = 0; i < text.length(); i++) {
+            int symbol = text.charAt(i) & 0xff;
+            pending = pending << HUFFMAN_LENGTHS[symbol] | HUFFMAN_CODES[symbol];
+            pendingBits += HUFFMAN_LENGTHS[symbol];
+            while (pendingBits >= 8) {
+                pendingBits -= 8;
+                out.write((int) (pending >>> pendingBits));
+            }
+        }
+        if (pendingBits > 0) {
+            // padded with the most significant bits of the end of string code, all ones
+            out.write((int) (pending << (8 - pendingBits)) | 0xff >>> pendingBits);
+        }
+    }
+
+    /**
+     * Decodes Huffman coded bytes, one bit at a time through the canonical code tables.
+     */
+    private static String huffmanDecode(ByteBuffer in, int length) throws IOException {
+        StringBuilder text = new StringBuilder(length * 8 / 5);
+        int code = 0;
+        int bits = 0;
+        for (int i = 0; i < length; i++) {
+            int b = in.get() & 0xff;
+            for (int bit = 7; bit >= 0; bit--) {
+                code = code << 1 | (b >>> bit & 1);
+                bits++;
+                int offset = code - FIRST_CODE[bits];
+                if (offset >= 0 && offset < CODE_COUNT[bits]) {
+                    int symbol = HUFFMAN_SYMBOLS[FIRST_SYMBOL[bits] + offset];
+                    if (symbol == EOS) {
+                        throw new IOException("End of string code inside a Huffman string");
+                    }
+                    text.append((char) symbol);
+                    code = 0;
+                    bits = 0;
+                } else if (bits == 30) {
+                    throw new IOException("Invalid Huffman code");
+                }
+            }
+        }
+        // the padding is shorter than a byte and made of the leading ones of the end of string code
+        if (bits > 7 || code != (1 << bits) - 1) {
+            throw new IOException("Invalid Huffman padding");
+        }
+        return text.toString();
+    }
+}
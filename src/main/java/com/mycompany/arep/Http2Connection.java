@@ -0,0 +1,1460 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * A cleartext HTTP/2 connection (RFC 9113), started by a client that sends the connection
+ * preface with prior knowledge or that upgrades an HTTP/1.1 request with "Upgrade: h2c".
+ * <p>
+ * The thread calling {@link #serve} reads the frames. Each stream becomes an {@link HttpRequest}
+ * answered by the {@link WebServer} on the stream executor, so the streams of one connection are
+ * handled concurrently and go through the same services, static files, caches and admission
+ * control as HTTP/1.1 requests. A request body reaches the service through a {@link BodyPipe};
+ * the stream window is given back as the service reads it, so a slow reader throttles its own
+ * stream only.
+ * <p>
+ * Each stream is the {@link Transport} of its response: the head written by {@link HttpResponse}
+ * becomes a HEADERS frame compressed with {@link Hpack}, and the body becomes DATA frames.
+ * Frames are written by a writer thread of the connection. Control frames and header blocks go
+ * first, in the order they were queued; DATA frames respect the flow control windows of the peer
+ * and are scheduled by priority: streams with a lower urgency, from the "priority" request header
+ * (RFC 9218), go first, and streams of the same urgency share the connection in proportion to
+ * the weight of their priority information. Stream dependencies, deprecated by RFC 9113, are not
+ * followed. A service writing faster than its stream may send waits, holding its thread.
+ *
+ * @author daniel.aldana-b
+ */
+class Http2Connection {
+    // Connection preface; its first 18 bytes read as an HTTP/1 request head "PRI * HTTP/2.0"
+    static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final int PREFACE_HEAD_LENGTH = 18;
+    private static final byte[] SWITCHING_PROTOCOLS =
+            "HTTP/1.1 101 Switching Protocols\r\nconnection: upgrade\r\nupgrade: h2c\r\n\r\n"
+                    .getBytes(StandardCharsets.ISO_8859_1);
+
+    // Frame types
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int PRIORITY = 0x2;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PUSH_PROMISE = 0x5;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+    private static final int PRIORITY_UPDATE = 0x10;
+    // Frame flags
+    private static final int END_STREAM = 0x1;
+    private static final int ACK = 0x1;
+    private static final int END_HEADERS = 0x4;
+    private static final int PADDED = 0x8;
+    private static final int PRIORITY_FLAG = 0x20;
+    // Error codes
+    private static final int NO_ERROR = 0x0;
+    private static final int PROTOCOL_ERROR = 0x1;
+    private static final int INTERNAL_ERROR = 0x2;
+    private static final int FLOW_CONTROL_ERROR = 0x3;
+    private static final int STREAM_CLOSED = 0x5;
+    private static final int FRAME_SIZE_ERROR = 0x6;
+    private static final int REFUSED_STREAM = 0x7;
+    private static final int COMPRESSION_ERROR = 0x9;
+    private static final int ENHANCE_YOUR_CALM = 0xb;
+    // Settings
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    private static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    private static final int FRAME_HEADER_LENGTH = 9;
+    // Window and frame size both sides start with; the server keeps the defaults for what it receives
+    private static final int DEFAULT_WINDOW = 65_535;
+    private static final int DEFAULT_FRAME_SIZE = 16_384;
+    private static final int MAX_FRAME_SIZE = 16_777_215;
+    private static final long MAX_WINDOW = Integer.MAX_VALUE;
+    // Receive window of the connection, large enough that uploads on several streams are only limited by theirs
+    private static final int CONNECTION_WINDOW = 1 << 20;
+    // Queued response bytes at which a service writing its stream waits
+    private static final int STREAM_HIGH_WATER_MARK = 64 * 1024;
+    // DATA bytes the writer sends before looking at the control frames again
+    private static final int WRITE_QUANTUM = 64 * 1024;
+    // Urgency and weight of a stream that did not set them
+    private static final int DEFAULT_URGENCY = 3;
+    private static final int DEFAULT_WEIGHT = 16;
+    // Milliseconds the reader waits for the writer to send the last frames once the connection ends
+    private static final long WRITER_LINGER = 1000;
+
+    // Server answering the requests
+    private final WebServer server;
+    // Server settings
+    private final ServerConfig config;
+    // Metrics counting the transferred bytes
+    private final ServerMetrics metrics;
+    // Runs the services of the streams
+    private final Executor executor;
+    // Client channel, in blocking mode
+    private final SocketChannel channel;
+    // Socket streams; the output is only used by the writer thread once it started
+    private final InputStream in;
+    private final OutputStream out;
+
+    // The fields below are only touched by the reading thread
+    // Received bytes not consumed yet, between position and limit
+    private ByteBuffer input;
+    // Decoder of the header blocks received
+    private final Hpack.Decoder decoder = new Hpack.Decoder();
+    // Parser validating the request heads rebuilt from the header blocks
+    private final RequestParser parser;
+    // Header block being received in HEADERS and CONTINUATION frames
+    private final ByteArrayOutputStream headerBlock = new ByteArrayOutputStream();
+    // Stream whose header block continues in CONTINUATION frames, 0 when none
+    private int continuing;
+    private boolean continuingEnd;
+    private int continuingWeight;
+    // Whether the client settings, which must come first, were received
+    private boolean settingsReceived;
+    // Thread reading the frames, which must never wait for the writer
+    private Thread reader;
+
+    // The fields below are guarded by this object
+    // Open streams by identifier
+    private final Map<Integer, Stream> streams = new HashMap<>();
+    // Frames to write before any DATA frame, in order
+    private final ArrayDeque<ByteBuffer> control = new ArrayDeque<>();
+    // Encoder of the header blocks sent, used in the order the blocks are queued
+    private final Hpack.Encoder encoder = new Hpack.Encoder();
+    // Highest stream opened by the client
+    private int lastStreamId;
+    // Bytes the client may still send on the connection, and the consumed ones not given back yet
+    private long receiveWindow = CONNECTION_WINDOW;
+    private int receiveUnacked;
+    // Bytes the server may still send on the connection, and the window and frame size the client set
+    private long sendWindow = DEFAULT_WINDOW;
+    private int peerInitialWindow = DEFAULT_WINDOW;
+    private int peerMaxFrameSize = DEFAULT_FRAME_SIZE;
+    // Virtual time of the last scheduled DATA frame, see Stream#pass
+    private long clock;
+    // Whether a GOAWAY was sent or received, no stream is opened afterwards
+    private boolean goingAway;
+    // Whether the connection ended, the writer then sends the queued control frames and stops
+    private boolean closed;
+
+    /**
+     * Creates a connection over a client channel.
+     * @param server the server answering the requests
+     * @param config the server configuration
+     * @param metrics the metrics counting the transferred bytes
+     * @param executor runs the services of the streams; it may run them on the calling thread
+     * @param channel the client channel, in blocking mode
+     * @param buffered bytes received after the request that started HTTP/2, between position and limit
+     * @throws IOException if the socket streams cannot be obtained
+     */
+    Http2Connection(WebServer server, ServerConfig config, ServerMetrics metrics, Executor executor,
+            SocketChannel channel, ByteBuffer buffered) throws IOException {
+        this.server = server;
+        this.config = config;
+        this.metrics = metrics;
+        this.executor = executor;
+        this.channel = channel;
+        this.in = channel.socket().getInputStream();
+        this.out = new BufferedOutputStream(channel.socket().getOutputStream(), 2 * WRITE_QUANTUM);
+        this.parser = new RequestParser(config);
+        this.input = ByteBuffer.allocate(Math.max(FRAME_HEADER_LENGTH + DEFAULT_FRAME_SIZE, buffered.remaining()));
+        input.put(buffered).flip();
+    }
+
+    /**
+     * Tells whether a request starts HTTP/2: it is the head of the connection preface, or an
+     * HTTP/1.1 request asking to upgrade to h2c with valid settings.
+     * Upgrades of requests with a body are left to HTTP/1.1, as allowed.
+     * @param request the first request of a connection, or a request without body
+     * @return true if the connection continues as HTTP/2
+     */
+    static boolean accepts(HttpRequest request) {
+        if ("PRI".equals(request.getMethod())) {
+            return "HTTP/2.0".equals(request.getVersion()) && "*".equals(request.getPath());
+        }
+        String upgrade = request.getHeader("upgrade");
+        String settings = request.getHeader("http2-settings");
+        if (upgrade == null || settings == null || !"HTTP/1.1".equals(request.getVersion())) {
+            return false;
+        }
+        for (String token : upgrade.split(",")) {
+            if (token.trim().equalsIgnoreCase("h2c")) {
+                return decodeSettings(settings) != null;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Decodes the HTTP2-Settings header of an upgrade request.
+     * @return the SETTINGS payload, or null if the header is malformed
+     */
+    private static byte[] decodeSettings(String header) {
+        try {
+            byte[] payload = Base64.getUrlDecoder().decode(header.trim());
+            return payload.length % 6 == 0 ? payload : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Serves the connection until it closes. The request that started HTTP/2 is answered on
+     * stream 1 when it was an upgrade.
+     * @param request the preface head or the upgraded request, accepted by {@link #accepts}
+     * @throws IOException if the socket fails
+     */
+    void serve(HttpRequest request) throws IOException {
+        reader = Thread.currentThread();
+        boolean upgrade = !"PRI".equals(request.getMethod());
+        if (upgrade) {
+            out.write(SWITCHING_PROTOCOLS);
+            metrics.bytesSent(SWITCHING_PROTOCOLS.length);
+        }
+        Thread writer = new Thread(this::writeFrames, "http2-writer");
+        writer.setDaemon(true);
+        try {
+            synchronized (this) {
+                // the server preface comes first, then the response to the upgraded request
+                ByteBuffer settings = ByteBuffer.allocate(12);
+                settings.putShort((short) SETTINGS_MAX_CONCURRENT_STREAMS).putInt(config.getMaxConcurrentStreams());
+                settings.putShort((short) SETTINGS_MAX_HEADER_LIST_SIZE).putInt(config.getMaxHeaderSize());
+                queueFrame(SETTINGS, 0, 0, settings.array());
+                queueFrame(WINDOW_UPDATE, 0, 0, intBytes(CONNECTION_WINDOW - DEFAULT_WINDOW));
+                if (upgrade) {
+                    applySettings(ByteBuffer.wrap(decodeSettings(request.getHeader("http2-settings"))));
+                    request.setVersion("HTTP/2.0");
+                    lastStreamId = 1;
+                }
+            }
+            writer.start();
+            if (upgrade) {
+                open(new Stream(1, DEFAULT_WEIGHT, urgency(request), "HEAD".equals(request.getMethod())), request, true);
+            }
+            readPreface(upgrade ? 0 : PREFACE_HEAD_LENGTH);
+            while (true) {
+                try {
+                    if (!readFrame()) {
+                        break;
+                    }
+                } catch (SocketTimeoutException e) {
+                    if (!onIdle()) {
+                        break;
+                    }
+                }
+            }
+        } catch (ConnectionError e) {
+            synchronized (this) {
+                goingAway = true;
+                byte[] debug = String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8);
+                queueFrame(GOAWAY, 0, 0, ByteBuffer.allocate(8 + debug.length).putInt(lastStreamId)
+                        .putInt(e.code).put(debug).array());
+            }
+        } finally {
+            abort();
+            if (writer.isAlive()) {
+                try {
+                    writer.join(WRITER_LINGER);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops opening streams: sends GOAWAY and closes the connection once the open streams are answered.
+     */
+    void drain() {
+        synchronized (this) {
+            if (goingAway || closed) {
+                return;
+            }
+            goingAway = true;
+            queueFrame(GOAWAY, 0, 0, ByteBuffer.allocate(8).putInt(lastStreamId).putInt(NO_ERROR).array());
+        }
+    }
+
+    /**
+     * Closes the channel, ending the connection at once.
+     */
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Handles the idle timeout of the socket: an idle connection is asked to close, and closed
+     * if it is still idle at the next timeout.
+     * @return false if the connection must close
+     */
+    private boolean onIdle() {
+        synchronized (this) {
+            if (!streams.isEmpty()) {
+                return true;
+            }
+            if (goingAway) {
+                return false;
+            }
+        }
+        drain();
+        return true;
+    }
+
+    /**
+     * Ends the connection: the open streams are reset and their services cancelled, and the
+     * writer sends the frames still queued and stops.
+     */
+    private void abort() {
+        List<CompletableFuture<Void>> cancelled = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            for (Stream stream : new ArrayList<>(streams.values())) {
+                cancelled.add(reset(stream, NO_ERROR, false));
+            }
+            notifyAll();
+        }
+        cancel(cancelled);
+    }
+
+    private static void cancel(List<CompletableFuture<Void>> responses) {
+        for (CompletableFuture<Void> response : responses) {
+            if (response != null) {
+                response.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Reads and checks the rest of the connection preface.
+     * @param offset the number of preface bytes already read as a request head
+     */
+    private void readPreface(int offset) throws IOException {
+        int length = PREFACE.length - offset;
+        if (!fill(length)) {
+            throw new IOException("Connection closed inside the preface");
+        }
+        for (int i = 0; i < length; i++) {
+            if (input.get() != PREFACE[offset + i]) {
+                throw new ConnectionError(PROTOCOL_ERROR, "Invalid connection preface");
+            }
+        }
+    }
+
+    /**
+     * Makes sure a number of received bytes are buffered, reading more as needed.
+     * A timeout leaves the buffered bytes in place, so reading can be retried.
+     * @param count the bytes needed, at most the capacity of the buffer
+     * @return false if the connection closed before any of them arrived
+     */
+    private boolean fill(int count) throws IOException {
+        while (input.remaining() < count) {
+            if (input.capacity() - input.position() < count) {
+                input.compact().flip();
+            }
+            int start = input.limit();
+            int read = in.read(input.array(), start, input.capacity() - start);
+            if (read < 0) {
+                if (input.hasRemaining()) {
+                    throw new IOException("Connection closed inside a frame");
+                }
+                return false;
+            }
+            metrics.bytesReceived(read);
+            input.limit(start + read);
+        }
+        return true;
+    }
+
+    /**
+     * Reads and handles one frame.
+     * @return false if the client closed the connection
+     */
+    private boolean readFrame() throws IOException {
+        if (!fill(FRAME_HEADER_LENGTH)) {
+            return false;
+        }
+        int start = input.position();
+        int length = (input.get(start) & 0xff) << 16 | (input.get(start + 1) & 0xff) << 8 | input.get(start + 2) & 0xff;
+        if (length > DEFAULT_FRAME_SIZE) {
+            throw new ConnectionError(FRAME_SIZE_ERROR, "Frame of " + length + " bytes");
+        }
+        if (!fill(FRAME_HEADER_LENGTH + length)) {
+            throw new IOException("Connection closed inside a frame");
+        }
+        start = input.position();
+        int type = input.get(start + 3) & 0xff;
+        int flags = input.get(start + 4) & 0xff;
+        int streamId = input.getInt(start + 5) & 0x7fffffff;
+        ByteBuffer payload = input.duplicate();
+        payload.position(start + FRAME_HEADER_LENGTH).limit(start + FRAME_HEADER_LENGTH + length);
+        input.position(start + FRAME_HEADER_LENGTH + length);
+        if (!settingsReceived && type != SETTINGS) {
+            throw new ConnectionError(PROTOCOL_ERROR, "Connection must start with SETTINGS");
+        }
+        if (continuing != 0 && type != CONTINUATION) {
+            throw new ConnectionError(PROTOCOL_ERROR, "Header block interrupted");
+        }
+        switch (type) {
+            case DATA -> onData(flags, streamId, payload);
+            case HEADERS -> onHeaders(flags, streamId, payload);
+            case PRIORITY -> onPriority(streamId, payload);
+            case RST_STREAM -> onReset(streamId, payload);
+            case SETTINGS -> onSettings(flags, streamId, payload);
+            case PUSH_PROMISE -> throw new ConnectionError(PROTOCOL_ERROR, "PUSH_PROMISE from a client");
+            case PING -> onPing(flags, streamId, payload);
+            case GOAWAY -> onGoAway(streamId);
+            case WINDOW_UPDATE -> onWindowUpdate(streamId, payload);
+            case CONTINUATION -> onContinuation(flags, streamId, payload);
+            case PRIORITY_UPDATE -> onPriorityUpdate(streamId, payload);
+            default -> {
+                // unknown frame types are ignored
+            }
+        }
+        return true;
+    }
+
+    private void onSettings(int flags, int streamId, ByteBuffer payload) throws ConnectionError {
+        if (streamId != 0) {
+            throw new ConnectionError(PROTOCOL_ERROR, "SETTINGS on a stream");
+        }
+        if ((flags & ACK) != 0) {
+            if (payload.hasRemaining()) {
+                throw new ConnectionError(FRAME_SIZE_ERROR, "SETTINGS acknowledgement with a payload");
+            }
+            return;
+        }
+        if (payload.remaining() % 6 != 0) {
+            throw new ConnectionError(FRAME_SIZE_ERROR, "SETTINGS of " + payload.remaining() + " bytes");
+        }
+        settingsReceived = true;
+        synchronized (this) {
+            applySettings(payload);
+            queueFrame(SETTINGS, ACK, 0, new byte[0]);
+        }
+    }
+
+    /**
+     * Applies the settings of the client. Must be called holding the lock.
+     */
+    private void applySettings(ByteBuffer payload) throws ConnectionError {
+        while (payload.remaining() >= 6) {
+            int id = payload.getShort() & 0xffff;
+            long value = payload.getInt() & 0xffffffffL;
+            switch (id) {
+                case SETTINGS_HEADER_TABLE_SIZE -> encoder.setMaxTableSize((int) Math.min(value, Integer.MAX_VALUE));
+                case SETTINGS_ENABLE_PUSH -> {
+                    if (value > 1) {
+                        throw new ConnectionError(PROTOCOL_ERROR, "Invalid SETTINGS_ENABLE_PUSH");
+                    }
+                }
+                case SETTINGS_INITIAL_WINDOW_SIZE -> {
+                    if (value > MAX_WINDOW) {
+                        throw new ConnectionError(FLOW_CONTROL_ERROR, "Initial window too large");
+                    }
+                    long delta = value - peerInitialWindow;
+                    peerInitialWindow = (int) value;
+                    for (Stream stream : streams.values()) {
+                        stream.sendWindow += delta;
+                        if (stream.sendWindow > MAX_WINDOW) {
+                            throw new ConnectionError(FLOW_CONTROL_ERROR, "Stream window too large");
+                        }
+                    }
+                }
+                case SETTINGS_MAX_FRAME_SIZE -> {
+                    if (value < DEFAULT_FRAME_SIZE || value > MAX_FRAME_SIZE) {
+                        throw new ConnectionError(PROTOCOL_ERROR, "Invalid SETTINGS_MAX_FRAME_SIZE");
+                    }
+                    peerMaxFrameSize = (int) value;
+                }
+                default -> {
+                    // other settings do not change what the server sends
+                }
+            }
+        }
+        notifyAll();
+    }
+
+    private void onPing(int flags, int streamId, ByteBuffer payload) throws ConnectionError {
+        if (streamId != 0) {
+            throw new ConnectionError(PROTOCOL_ERROR, "PING on a stream");
+        }
+        if (payload.remaining() != 8) {
+            throw new ConnectionError(FRAME_SIZE_ERROR, "PING of " + payload.remaining() + " bytes");
+        }
+        if ((flags & ACK) == 0) {
+            byte[] data = new byte[8];
+            payload.get(data);
+            synchronized (this) {
+                queueFrame(PING, ACK, 0, data);
+            }
+        }
+    }
+
+    private void onGoAway(int streamId) throws ConnectionError {
+        if (streamId != 0) {
+            throw new ConnectionError(PROTOCOL_ERROR, "GOAWAY on a stream");
+        }
+        synchronized (this) {
+            // the client opens no more streams, the open ones are still answered
+            goingAway = true;
+            notifyAll();
+        }
+    }
+
+    private void onWindowUpdate(int streamId, ByteBuffer payload) throws ConnectionError {
+        if (payload.remaining() != 4) {
+            throw new ConnectionError(FRAME_SIZE_ERROR, "WINDOW_UPDATE of " + payload.remaining() + " bytes");
+        }
+        int increment = payload.getInt() & 0x7fffffff;
+        CompletableFuture<Void> cancelled = null;
+        synchronized (this) {
+            if (streamId == 0) {
+                if (increment == 0) {
+                    throw new ConnectionError(PROTOCOL_ERROR, "Window increment of 0");
+                }
+                sendWindow += increment;
+                if (sendWindow > MAX_WINDOW) {
+                    throw new ConnectionError(FLOW_CONTROL_ERROR, "Connection window too large");
+                }
+            } else {
+                Stream stream = stream(streamId);
+                if (stream == null) {
+                    return;
+                }
+                stream.sendWindow += increment;
+                if (increment == 0) {
+                    cancelled = reset(stream, PROTOCOL_ERROR, true);
+                } else if (stream.sendWindow > MAX_WINDOW) {
+                    cancelled = reset(stream, FLOW_CONTROL_ERROR, true);
+                }
+            }
+            notifyAll();
+        }
+        cancel(cancelled == null ? List.of() : List.of(cancelled));
+    }
+
+    private void onReset(int streamId, ByteBuffer payload) throws ConnectionError {
+        if (streamId == 0) {
+            throw new ConnectionError(PROTOCOL_ERROR, "RST_STREAM on the connection");
+        }
+        if (payload.remaining() != 4) {
+            throw new ConnectionError(FRAME_SIZE_ERROR, "RST_STREAM of " + payload.remaining() + " bytes");
+        }
+        CompletableFuture<Void> cancelled;
+        synchronized (this) {
+            Stream stream = stream(streamId);
+            if (stream == null) {
+                return;
+            }
+            cancelled = reset(stream, NO_ERROR, false);
+        }
+        cancel(List.of(cancelled == null ? CompletableFuture.completedFuture(null) : cancelled));
+    }
+
+    private void onPriority(int streamId, ByteBuffer payload) throws ConnectionError {
+        if (streamId == 0) {
+            throw new ConnectionError(PROTOCOL_ERROR, "PRIORITY on the connection");
+        }
+        if (payload.remaining() != 5) {
+            synchronized (this) {
+                queueFrame(RST_STREAM, 0, streamId, intBytes(FRAME_SIZE_ERROR));
+            }
+            return;
+        }
+        int dependency = payload.getInt() & 0x7fffffff;
+        int weight = (payload.get() & 0xff) + 1;
+        synchronized (this) {
+            Stream stream = streams.get(streamId);
+            if (stream != null) {
+                if (dependency == streamId) {
+                    cancel(List.of(reset(stream, PROTOCOL_ERROR, true)));
+                } else {
+                    stream.weight = weight;
+                }
+            }
+        }
+    }
+
+    private void onPriorityUpdate(int streamId, ByteBuffer payload) throws ConnectionError {
+        if (streamId != 0 || payload.remaining() < 4) {
+            throw new ConnectionError(PROTOCOL_ERROR, "Malformed PRIORITY_UPDATE");
+        }
+        int prioritized = payload.getInt() & 0x7fffffff;
+        byte[] value = new byte[payload.remaining()];
+        payload.get(value);
+        synchronized (this) {
+            Stream stream = streams.get(prioritized);
+            if (stream != null) {
+                stream.urgency = urgency(new String(value, StandardCharsets.ISO_8859_1));
+            }
+        }
+    }
+
+    private void onData(int flags, int streamId, ByteBuffer payload) throws ConnectionError {
+        if (streamId == 0) {
+            throw new ConnectionError(PROTOCOL_ERROR, "DATA on the connection");
+        }
+        int length = payload.remaining();
+        removePadding(flags, payload);
+        Stream stream;
+        boolean refund;
+        synchronized (this) {
+            // the connection window is given back at once, each stream window bounds what it buffers
+            receiveWindow -= length;
+            if (receiveWindow < 0) {
+                throw new ConnectionError(FLOW_CONTROL_ERROR, "Connection window exceeded");
+            }
+            receiveUnacked += length;
+            if (receiveUnacked >= CONNECTION_WINDOW / 2) {
+                queueFrame(WINDOW_UPDATE, 0, 0, intBytes(receiveUnacked));
+                receiveWindow += receiveUnacked;
+                receiveUnacked = 0;
+            }
+            stream = stream(streamId);
+            if (stream == null) {
+                return;
+            }
+            if (stream.remoteClosed) {
+                cancel(List.of(reset(stream, STREAM_CLOSED, true)));
+                return;
+            }
+            stream.receiveWindow -= length;
+            stream.received += payload.remaining();
+            if (stream.receiveWindow < 0) {
+                cancel(List.of(reset(stream, FLOW_CONTROL_ERROR, true)));
+                return;
+            }
+            if (stream.expectedLength >= 0 && stream.received > stream.expectedLength
+                    || (flags & END_STREAM) != 0 && stream.expectedLength >= 0 && stream.received != stream.expectedLength) {
+                // a body that does not match its content-length is malformed
+                cancel(List.of(reset(stream, PROTOCOL_ERROR, true)));
+                return;
+            }
+            stream.unacked += length;
+            if ((flags & END_STREAM) != 0) {
+                stream.remoteClosed = true;
+            }
+        }
+        if (stream.received > config.getMaxBodySize()) {
+            stream.pipe.fail(new BadRequestException(413, "Content Too Large", "Request body too large"));
+        } else {
+            stream.pipe.offer(payload);
+        }
+        refund = !stream.pipe.isFull();
+        if ((flags & END_STREAM) != 0) {
+            stream.pipe.finish();
+        } else if (refund && stream.unacked >= DEFAULT_WINDOW / 2) {
+            refund(stream);
+        }
+    }
+
+    /**
+     * Gives back the window of the body bytes a stream consumed, once its reader made room.
+     * @param stream the stream
+     */
+    private synchronized void refund(Stream stream) {
+        if (stream.unacked > 0 && !stream.remoteClosed && !stream.reset && !closed) {
+            queueFrame(WINDOW_UPDATE, 0, stream.id, intBytes(stream.unacked));
+            stream.receiveWindow += stream.unacked;
+            stream.unacked = 0;
+        }
+    }
+
+    private void onHeaders(int flags, int streamId, ByteBuffer payload) throws IOException {
+        if (streamId == 0 || streamId % 2 == 0) {
+            throw new ConnectionError(PROTOCOL_ERROR, "HEADERS on invalid stream " + streamId);
+        }
+        removePadding(flags, payload);
+        int weight = DEFAULT_WEIGHT;
+        if ((flags & PRIORITY_FLAG) != 0) {
+            if (payload.remaining() < 5) {
+                throw new ConnectionError(PROTOCOL_ERROR, "Truncated priority");
+            }
+            payload.getInt();
+            weight = (payload.get() & 0xff) + 1;
+        }
+        headerBlock.reset();
+        appendHeaderBlock(payload);
+        if ((flags & END_HEADERS) != 0) {
+            onHeaderBlock(streamId, (flags & END_STREAM) != 0, weight);
+        } else {
+            continuing = streamId;
+            continuingEnd = (flags & END_STREAM) != 0;
+            continuingWeight = weight;
+        }
+    }
+
+    private void onContinuation(int flags, int streamId, ByteBuffer payload) throws IOException {
+        if (continuing == 0 || streamId != continuing) {
+            throw new ConnectionError(PROTOCOL_ERROR, "Unexpected CONTINUATION");
+        }
+        appendHeaderBlock(payload);
+        if ((flags & END_HEADERS) != 0) {
+            continuing = 0;
+            onHeaderBlock(streamId, continuingEnd, continuingWeight);
+        }
+    }
+
+    private void appendHeaderBlock(ByteBuffer payload) throws ConnectionError {
+        if (headerBlock.size() + payload.remaining() > 2 * config.getMaxHeaderSize() + DEFAULT_FRAME_SIZE) {
+            throw new ConnectionError(ENHANCE_YOUR_CALM, "Header block too large");
+        }
+        headerBlock.write(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+    }
+
+    /**
+     * Strips the padding of a DATA or HEADERS frame.
+     */
+    private static void removePadding(int flags, ByteBuffer payload) throws ConnectionError {
+        if ((flags & PADDED) == 0) {
+            return;
+        }
+        if (!payload.hasRemaining()) {
+            throw new ConnectionError(PROTOCOL_ERROR, "Truncated padding");
+        }
+        int padding = payload.get() & 0xff;
+        if (padding > payload.remaining()) {
+            throw new ConnectionError(PROTOCOL_ERROR, "Padding longer than the frame");
+        }
+        payload.limit(payload.limit() - padding);
+    }
+
+    /**
+     * Handles a complete header block: opens a stream, or ends the body of an open one with trailers.
+     */
+    private void onHeaderBlock(int streamId, boolean endStream, int weight) throws IOException {
+        List<String> fields = new ArrayList<>();
+        try {
+            decoder.decode(ByteBuffer.wrap(headerBlock.toByteArray()), fields);
+        } catch (IOException e) {
+            throw new ConnectionError(COMPRESSION_ERROR, e.getMessage());
+        }
+        Stream stream;
+        synchronized (this) {
+            if (streamId <= lastStreamId) {
+                stream = streams.get(streamId);
+                if (stream != null && !stream.remoteClosed) {
+                    // trailers, which the services do not see, end the body
+                    if (!endStream) {
+                        cancel(List.of(reset(stream, PROTOCOL_ERROR, true)));
+                        return;
+                    }
+                    stream.remoteClosed = true;
+                    stream.pipe.finish();
+                }
+                // otherwise the stream was closed by the server and the frame crossed its reset
+                return;
+            }
+            lastStreamId = streamId;
+            if (goingAway) {
+                return;
+            }
+            if (streams.size() >= config.getMaxConcurrentStreams()) {
+                queueFrame(RST_STREAM, 0, streamId, intBytes(REFUSED_STREAM));
+                return;
+            }
+        }
+        HttpRequest request = toRequest(streamId, fields);
+        if (request == null) {
+            return;
+        }
+        stream = new Stream(streamId, weight, urgency(request), "HEAD".equals(request.getMethod()));
+        try {
+            BodyDecoder length = BodyDecoder.forRequest(request, config);
+            stream.expectedLength = length != null ? length.getContentLength()
+                    : request.getHeader("content-length") != null ? 0 : -1;
+        } catch (BadRequestException e) {
+            open(stream, null, endStream);
+            reject(stream, e);
+            return;
+        }
+        open(stream, request, endStream);
+    }
+
+    /**
+     * Rebuilds the HTTP/1 head of a request from its header fields and parses it, so the request
+     * is validated and read like any other. A malformed request resets its stream.
+     * @return the request, or null if it was malformed
+     */
+    private HttpRequest toRequest(int streamId, List<String> fields) {
+        String method = null;
+        String path = null;
+        String authority = null;
+        boolean scheme = false;
+        boolean regular = false;
+        boolean host = false;
+        String cookies = null;
+        StringBuilder headers = new StringBuilder(256);
+        boolean malformed = false;
+        for (int i = 0; i < fields.size() && !malformed; i += 2) {
+            String name = fields.get(i);
+            String value = fields.get(i + 1);
+            malformed = !isValidField(name, value);
+            if (name.startsWith(":")) {
+                // pseudo-headers come first and only once
+                malformed |= regular;
+                switch (name) {
+                    case ":method" -> {
+                        malformed |= method != null;
+                        method = value;
+                    }
+                    case ":path" -> {
+                        malformed |= path != null || value.isEmpty();
+                        path = value;
+                    }
+                    case ":authority" -> {
+                        malformed |= authority != null;
+                        authority = value;
+                    }
+                    case ":scheme" -> {
+                        malformed |= scheme;
+                        scheme = true;
+                    }
+                    default -> malformed = true;
+                }
+                continue;
+            }
+            regular = true;
+            if (isConnectionSpecific(name) || name.equals("te") && !value.equals("trailers")) {
+                malformed = true;
+            } else if (name.equals("cookie")) {
+                // cookie fields are sent separately in HTTP/2 and joined for HTTP/1
+                cookies = cookies == null ? value : cookies + "; " + value;
+            } else {
+                host |= name.equals("host");
+                headers.append(name).append(": ").append(value).append("\r\n");
+            }
+        }
+        if (malformed || method == null || path == null || !scheme) {
+            synchronized (this) {
+                queueFrame(RST_STREAM, 0, streamId, intBytes(PROTOCOL_ERROR));
+            }
+            return null;
+        }
+        StringBuilder head = new StringBuilder(headers.length() + path.length() + 64)
+                .append(method).append(' ').append(path).append(" HTTP/2.0\r\n");
+        if (authority != null && !host) {
+            head.append("host: ").append(authority).append("\r\n");
+        }
+        head.append(headers);
+        if (cookies != null) {
+            head.append("cookie: ").append(cookies).append("\r\n");
+        }
+        head.append("\r\n");
+        parser.reset();
+        try {
+            if (parser.parse(ByteBuffer.wrap(head.toString().getBytes(StandardCharsets.ISO_8859_1)))) {
+                return parser.request();
+            }
+        } catch (BadRequestException e) {
+            // reported below like any malformed request
+        }
+        parser.reset();
+        synchronized (this) {
+            queueFrame(RST_STREAM, 0, streamId, intBytes(PROTOCOL_ERROR));
+        }
+        return null;
+    }
+
+    /**
+     * Checks that a field has a lower case name and no characters that would break its HTTP/1 form.
+     */
+    private static boolean isValidField(String name, String value) {
+        if (name.isEmpty()) {
+            return false;
+        }
+        for (int i = name.startsWith(":") ? 1 : 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c <= ' ' || c == ':' || c >= 0x7f || c >= 'A' && c <= 'Z') {
+                return false;
+            }
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\r' || c == '\n' || c == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tells whether a header only makes sense on an HTTP/1 connection, and so is not allowed in HTTP/2.
+     */
+    private static boolean isConnectionSpecific(String name) {
+        return switch (name) {
+            case "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade" -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Gets the urgency a request asks for with its "priority" header, such as "u=1, i".
+     */
+    private static int urgency(HttpRequest request) {
+        String priority = request.getHeader("priority");
+        return priority != null ? urgency(priority) : DEFAULT_URGENCY;
+    }
+
+    private static int urgency(String priority) {
+        for (String parameter : priority.split(",")) {
+            String trimmed = parameter.trim();
+            if (trimmed.length() == 3 && trimmed.startsWith("u=") && trimmed.charAt(2) >= '0' && trimmed.charAt(2) <= '7') {
+                return trimmed.charAt(2) - '0';
+            }
+        }
+        return DEFAULT_URGENCY;
+    }
+
+    /**
+     * Registers a new stream and hands its request to the executor.
+     * @param stream the stream
+     * @param request its request, or null if it is answered with an error by the caller
+     * @param endStream whether the request has no body
+     */
+    private void open(Stream stream, HttpRequest request, boolean endStream) {
+        if (!endStream) {
+            stream.pipe = new BodyPipe(() -> refund(stream), config.getKeepAliveTimeout());
+            if (request != null) {
+                request.setBody(stream.pipe, stream.expectedLength, config);
+            }
+        }
+        synchronized (this) {
+            stream.remoteClosed = endStream;
+            stream.sendWindow = peerInitialWindow;
+            stream.pass = clock;
+            streams.put(stream.id, stream);
+        }
+        if (request != null) {
+            executor.execute(() -> respond(stream, request));
+        }
+    }
+
+    /**
+     * Answers the request of a stream, on the executor.
+     */
+    private void respond(Stream stream, HttpRequest request) {
+        HttpResponse response = new HttpResponse(stream);
+        response.setKeepAlive(true);
+        CompletableFuture<Void> done;
+        try {
+            done = server.handleRequestAsync(request, response);
+        } catch (IOException | RuntimeException e) {
+            done = CompletableFuture.failedFuture(e);
+        }
+        boolean reset;
+        synchronized (this) {
+            stream.response = done;
+            reset = stream.reset;
+        }
+        if (reset) {
+            done.cancel(true);
+        }
+        done.whenComplete((ignored, error) -> {
+            request.release();
+            if (error != null && !(error instanceof CancellationException)) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error;
+                System.err.println("Stream error: " + cause.getMessage());
+            }
+            stream.finish(error == null && response.isCommitted());
+        });
+    }
+
+    /**
+     * Answers a malformed request with the status of the error.
+     */
+    private void reject(Stream stream, BadRequestException error) {
+        HttpResponse response = new HttpResponse(stream);
+        response.setStatus(error.getStatusCode(), error.getStatusMessage());
+        metrics.recordStatus(error.getStatusCode());
+        try {
+            response.send(error.getMessage());
+        } catch (IOException ignored) {
+            // the stream was reset meanwhile
+        }
+        stream.finish(response.isCommitted());
+    }
+
+    /**
+     * Looks up a stream a frame refers to. Must be called holding the lock.
+     * @return the open stream, or null if it was closed already
+     * @throws ConnectionError if the stream was never opened
+     */
+    private Stream stream(int streamId) throws ConnectionError {
+        Stream stream = streams.get(streamId);
+        if (stream == null && streamId > lastStreamId) {
+            throw new ConnectionError(PROTOCOL_ERROR, "Frame on idle stream " + streamId);
+        }
+        return stream;
+    }
+
+    /**
+     * Resets a stream: its queued output is dropped, its body fails and it is forgotten.
+     * Must be called holding the lock.
+     * @param stream the stream
+     * @param errorCode the error sent with RST_STREAM
+     * @param send whether to send RST_STREAM, false when the client reset it
+     * @return the response to cancel outside the lock, or null
+     */
+    private CompletableFuture<Void> reset(Stream stream, int errorCode, boolean send) {
+        if (send) {
+            queueFrame(RST_STREAM, 0, stream.id, intBytes(errorCode));
+        }
+        stream.reset = true;
+        stream.outbound.clear();
+        stream.queued = 0;
+        streams.remove(stream.id);
+        if (stream.pipe != null) {
+            stream.pipe.fail(new IOException("Stream reset"));
+        }
+        notifyAll();
+        return stream.response;
+    }
+
+    /**
+     * Forgets a stream whose response was sent entirely. A request body still arriving is
+     * stopped with RST_STREAM and NO_ERROR, as the response no longer needs it.
+     * Must be called holding the lock.
+     */
+    private void ended(Stream stream) {
+        stream.ended = true;
+        streams.remove(stream.id);
+        if (!stream.remoteClosed) {
+            queueFrame(RST_STREAM, 0, stream.id, intBytes(NO_ERROR));
+            stream.pipe.fail(new IOException("Stream closed"));
+        }
+        notifyAll();
+    }
+
+    /**
+     * Queues a frame before the DATA frames. Must be called holding the lock.
+     */
+    private void queueFrame(int type, int flags, int streamId, byte[] payload) {
+        control.add(frameHeader(payload.length, type, flags, streamId));
+        if (payload.length > 0) {
+            control.add(ByteBuffer.wrap(payload));
+        }
+        notifyAll();
+    }
+
+    /**
+     * Queues a header block, split in CONTINUATION frames if needed. Must be called holding the lock,
+     * which keeps the blocks in the order they were compressed.
+     */
+    private void queueHeaders(int streamId, List<String> fields, boolean endStream) {
+        ByteArrayOutputStream block = new ByteArrayOutputStream(128);
+        encoder.encode(fields, block);
+        byte[] bytes = block.toByteArray();
+        int offset = 0;
+        do {
+            int length = Math.min(peerMaxFrameSize, bytes.length - offset);
+            boolean first = offset == 0;
+            int flags = (offset + length == bytes.length ? END_HEADERS : 0) | (first && endStream ? END_STREAM : 0);
+            control.add(frameHeader(length, first ? HEADERS : CONTINUATION, flags, streamId));
+            control.add(ByteBuffer.wrap(bytes, offset, length));
+            offset += length;
+        } while (offset < bytes.length);
+        notifyAll();
+    }
+
+    private static ByteBuffer frameHeader(int length, int type, int flags, int streamId) {
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_LENGTH);
+        header.put((byte) (length >>> 16)).put((byte) (length >>> 8)).put((byte) length)
+                .put((byte) type).put((byte) flags).putInt(streamId).flip();
+        return header;
+    }
+
+    private static byte[] intBytes(int value) {
+        return ByteBuffer.allocate(4).putInt(value).array();
+    }
+
+    /**
+     * Writes the queued frames until the connection ends. Control frames go first; then DATA
+     * frames of the stream chosen by {@link #nextStream()}, a quantum at a time.
+     * The socket is flushed whenever nothing is left to write.
+     */
+    private void writeFrames() {
+        boolean unflushed = false;
+        try {
+            while (true) {
+                List<ByteBuffer> batch = new ArrayList<>();
+                boolean finished;
+                synchronized (this) {
+                    while (control.isEmpty() && nextStream() == null && !closed && !(goingAway && streams.isEmpty())
+                            && !unflushed) {
+                        wait();
+                    }
+                    batch.addAll(control);
+                    control.clear();
+                    int budget = WRITE_QUANTUM;
+                    Stream stream;
+                    while (budget > 0 && (stream = nextStream()) != null) {
+                        budget -= takeData(stream, budget, batch);
+                    }
+                    finished = batch.isEmpty() && (closed || goingAway && streams.isEmpty());
+                    // services waiting for room in their stream can go on
+                    notifyAll();
+                }
+                for (ByteBuffer buffer : batch) {
+                    send(buffer);
+                }
+                if (!batch.isEmpty()) {
+                    unflushed = true;
+                    continue;
+                }
+                if (unflushed) {
+                    out.flush();
+                    unflushed = false;
+                }
+                if (finished) {
+                    break;
+                }
+            }
+            synchronized (this) {
+                if (!closed) {
+                    // all streams are answered after GOAWAY, the client closes its side in turn
+                    channel.shutdownOutput();
+                }
+            }
+        } catch (IOException e) {
+            abort();
+            close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void send(ByteBuffer buffer) throws IOException {
+        int count = buffer.remaining();
+        if (buffer.hasArray()) {
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), count);
+        } else {
+            byte[] copy = new byte[count];
+            buffer.duplicate().get(copy);
+            out.write(copy);
+        }
+        metrics.bytesSent(count);
+    }
+
+    /**
+     * Picks the stream whose DATA goes next: the lowest urgency first, and among equal urgencies
+     * the lowest pass, which grows with the bytes sent divided by the weight of the stream.
+     * Must be called holding the lock.
+     * @return the stream, or null if no stream can send now
+     */
+    private Stream nextStream() {
+        Stream next = null;
+        for (Stream stream : streams.values()) {
+            if (stream.isSendable() && (next == null || stream.urgency < next.urgency
+                    || stream.urgency == next.urgency && stream.pass < next.pass)) {
+                next = stream;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Takes one DATA frame of a stream, within the windows and the peer frame size.
+     * Must be called holding the lock.
+     * @param stream the stream, which can send
+     * @param budget the most bytes to take
+     * @param batch receives the frame header and payload
+     * @return the payload bytes taken
+     */
+    private int takeData(Stream stream, int budget, List<ByteBuffer> batch) {
+        int max = (int) Math.min(Math.min(budget, peerMaxFrameSize), Math.min(stream.sendWindow, sendWindow));
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_LENGTH);
+        batch.add(header);
+        int length = 0;
+        while (length < max && !stream.outbound.isEmpty()) {
+            ByteBuffer first = stream.outbound.peekFirst();
+            int take = Math.min(first.remaining(), max - length);
+            if (take == first.remaining()) {
+                batch.add(stream.outbound.pollFirst());
+            } else {
+                ByteBuffer part = first.duplicate();
+                part.limit(part.position() + take);
+                first.position(first.position() + take);
+                batch.add(part);
+            }
+            length += take;
+        }
+        boolean end = stream.outbound.isEmpty() && stream.endQueued;
+        header.put(frameHeader(length, DATA, end ? END_STREAM : 0, stream.id)).flip();
+        stream.sendWindow -= length;
+        sendWindow -= length;
+        stream.queued -= length;
+        clock = stream.pass;
+        stream.pass += ((long) length << 8) / stream.weight;
+        if (end) {
+            ended(stream);
+        }
+        return Math.max(length, 1);
+    }
+
+    /**
+     * One stream of the connection, and the transport of its response.
+     */
+    private final class Stream implements Transport {
+        final int id;
+        // Whether the request is HEAD, whose response has no body
+        final boolean headOnly;
+        // Scheduling: urgency from 0 to 7, weight from 1 to 256 and virtual time of the next frame
+        int urgency;
+        int weight;
+        long pass;
+
+        // Request side
+        // Pipe of the request body, null when the request has none
+        BodyPipe pipe;
+        // Declared length of the body, -1 if unknown, and body bytes received
+        long expectedLength = -1;
+        long received;
+        // The fields below are guarded by the connection
+        // Whether the client ended its side of the stream
+        boolean remoteClosed;
+        // Bytes the client may still send and the consumed ones not given back yet
+        long receiveWindow = DEFAULT_WINDOW;
+        int unacked;
+        // Future of the response, cancelled if the stream is reset
+        CompletableFuture<Void> response;
+
+        // Response side, guarded by the connection
+        // Bytes the server may still send on this stream
+        long sendWindow;
+        // Body bytes waiting for the writer, and their count
+        final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+        long queued;
+        // Head of the response as written by HttpResponse, until its end is seen
+        private final ByteArrayOutputStream head = new ByteArrayOutputStream(256);
+        private boolean headSent;
+        // Content length of the response, -1 if unknown, and body bytes queued so far
+        private long contentLength = -1;
+        private long bodyQueued;
+        // Whether END_STREAM goes with the last queued byte, was sent, or the stream was reset
+        boolean endQueued;
+        boolean ended;
+        boolean reset;
+
+        Stream(int id, int weight, int urgency, boolean headOnly) {
+            this.id = id;
+            this.weight = weight;
+            this.urgency = urgency;
+            this.headOnly = headOnly;
+        }
+
+        /**
+         * Tells whether the writer can send a frame of this stream now. Must be called holding the lock.
+         */
+        boolean isSendable() {
+            if (ended || reset) {
+                return false;
+            }
+            // an empty frame ending the stream needs no window
+            return outbound.isEmpty() ? endQueued : sendWindow > 0 && Http2Connection.this.sendWindow > 0;
+        }
+
+        @Override
+        public void write(ByteBuffer... buffers) throws IOException {
+            synchronized (Http2Connection.this) {
+                for (ByteBuffer buffer : buffers) {
+                    ensureOpen();
+                    if (!headSent && !readHead(buffer)) {
+                        continue;
+                    }
+                    queueBody(buffer);
+                }
+                Http2Connection.this.notifyAll();
+                if (Thread.currentThread() != reader) {
+                    while (queued > STREAM_HIGH_WATER_MARK && !reset && !closed) {
+                        try {
+                            Http2Connection.this.wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IOException("Interrupted while writing response");
+                        }
+                    }
+                    ensureOpen();
+                }
+            }
+        }
+
+        private void ensureOpen() throws IOException {
+            if (reset || closed) {
+                throw new IOException("Stream closed");
+            }
+        }
+
+        /**
+         * Collects the bytes of the HTTP/1 head written by the response, and sends it as HEADERS
+         * once complete. Must be called holding the lock.
+         * @param buffer bytes written, left positioned after the head
+         * @return true if the head is complete and the rest of the buffer is body
+         */
+        private boolean readHead(ByteBuffer buffer) {
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                head.write(b);
+                if (b == '\n' && endsHead()) {
+                    sendHead();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean endsHead() {
+            byte[] bytes = head.toByteArray();
+            int n = bytes.length;
+            return n >= 4 && bytes[n - 4] == '\r' && bytes[n - 3] == '\n' && bytes[n - 2] == '\r';
+        }
+
+        /**
+         * Turns the HTTP/1 head into HEADERS, without the connection-specific headers.
+         * Responses without a body end the stream with their HEADERS.
+         */
+        private void sendHead() {
+            String[] lines = head.toString(StandardCharsets.ISO_8859_1).split("\r\n");
+            int status = Integer.parseInt(lines[0].substring(9, 12));
+            List<String> fields = new ArrayList<>(2 * lines.length);
+            fields.add(":status");
+            fields.add(Integer.toString(status));
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon <= 0) {
+                    continue;
+                }
+                String name = lines[i].substring(0, colon).toLowerCase(Locale.ROOT);
+                String value = lines[i].substring(colon + 1).trim();
+                if (isConnectionSpecific(name)) {
+                    continue;
+                }
+                if (name.equals("content-length")) {
+                    contentLength = Long.parseLong(value);
+                }
+                fields.add(name);
+                fields.add(value);
+            }
+            headSent = true;
+            boolean end = headOnly || status == 204 || status == 304 || contentLength == 0;
+            queueHeaders(id, fields, end);
+            if (end) {
+                ended(this);
+            }
+        }
+
+        /**
+         * Queues body bytes for the writer. Must be called holding the lock.
+         */
+        private void queueBody(ByteBuffer buffer) {
+            if (ended || !buffer.hasRemaining()) {
+                // the body of a HEAD response is dropped
+                return;
+            }
+            if (outbound.isEmpty()) {
+                // a stream that was idle does not get the turns it missed
+                pass = Math.max(pass, clock);
+            }
+            outbound.add(buffer);
+            queued += buffer.remaining();
+            bodyQueued += buffer.remaining();
+            if (contentLength >= 0 && bodyQueued >= contentLength) {
+                endQueued = true;
+            }
+        }
+
+        /**
+         * Ends the stream once the response is complete, or resets it if it failed.
+         * @param complete whether the response was written entirely
+         */
+        void finish(boolean complete) {
+            CompletableFuture<Void> cancelled = null;
+            synchronized (Http2Connection.this) {
+                if (ended || reset) {
+                    return;
+                }
+                if (complete && headSent) {
+                    endQueued = true;
+                    Http2Connection.this.notifyAll();
+                } else if (!closed) {
+                    cancelled = Http2Connection.this.reset(this, INTERNAL_ERROR, true);
+                }
+            }
+            if (cancelled != null) {
+                cancelled.cancel(true);
+            }
+        }
+
+        @Override
+        public ResponseHeadWriter headWriter() {
+            return new ResponseHeadWriter(false);
+        }
+
+        @Override
+        public void transferFile(FileChannel file, long position, long count) throws IOException {
+            try (file) {
+                long end = position + count;
+                while (position < end) {
+                    ByteBuffer chunk = ByteBuffer.allocate((int) Math.min(DEFAULT_FRAME_SIZE, end - position));
+                    int read = file.read(chunk, position);
+                    if (read < 0) {
+                        throw new IOException("File truncated while sending");
+                    }
+                    position += read;
+                    write(chunk.flip());
+                }
+            }
+        }
+
+        @Override
+        public void flush() {
+            // the writer flushes the socket whenever it has nothing left to write
+        }
+    }
+
+    /**
+     * An error that ends the connection with a GOAWAY frame.
+     */
+    private static final class ConnectionError extends IOException {
+        private static final long serialVersionUID = 1L;
+        // Error code sent with GOAWAY
+        final int code;
+
+        ConnectionError(int code, String message) {
+            super(message);
+            this.code = code;
+        }
+    }
+}
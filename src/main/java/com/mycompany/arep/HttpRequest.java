@@ -4,49 +4,280 @@
  */
 package com.mycompany.arep;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Represents an HTTP request with parsed query parameters.
  * This class wraps a URI and provides convenient access to query parameters
- * extracted from the request URL.
+ * extracted from the request URL, together with the method, protocol version
+ * and headers sent by the client.
+ * <p>
+ * Requests read from a connection keep the raw bytes of their head and the offsets found
+ * by the {@link RequestParser}; each part is decoded into a string the first time it is asked for.
+ * Headers and query parameters are looked up in {@link FieldTable}s of those offsets.
+ * <p>
+ * The server reuses the request objects it creates, together with their buffers, once the
+ * response is complete: services must not keep a request, nor the maps and streams it returns,
+ * beyond their call, or beyond the future of an {@link AsyncService}.
  * 
  * @author daniel.aldana-b
  */
 public class HttpRequest {
-    /** The original URI of the request */
+    /** Methods whose string is shared instead of decoded for every request */
+    private static final String[] KNOWN_METHODS = {"GET", "POST", "PUT", "DELETE", "HEAD", "OPTIONS", "PATCH"};
+    /** Head buffers larger than this, grown by an unusual request, are dropped on recycling */
+    private static final int RETAINED_HEAD_CAPACITY = 4096;
+    /** The original URI of the request, null for requests read from a connection */
     private URI requri = null;
-    /** Map containing parsed query parameters (key-value pairs) */
-    private Map<String, String> queryParams = new HashMap<>();
+    /** Raw bytes of the request head, null for requests built from a URI */
+    private byte[] head;
+    /** Offsets of the request line parts in the head, indexed by the RequestParser constants */
+    private int[] requestLine;
+    /** Name start, name end, value start and value end of each header in the head */
+    private int[] headerOffsets = new int[0];
+    /** Number of offsets used in headerOffsets, four per header */
+    private int headerLength;
+    /** Offsets of the query parameters in the head or the raw query, indexed on first use */
+    private FieldTable params;
+    /** Whether params holds the parameters of the current head */
+    private boolean parsedParams;
+    /** Map view of the parameters, built when asked for */
+    private Map<String, List<String>> paramMap;
+    /** Offsets of the headers by case-insensitive name, indexed on first use */
+    private FieldTable headerTable;
+    /** Whether headerTable holds the headers of the current head */
+    private boolean indexedHeaders;
+    /** Header values keyed by lower-case name, built when asked for */
+    private Map<String, String> headers;
+    /** The request method (e.g., GET, POST) */
+    private String method = "GET";
+    /** The protocol version from the request line (e.g., HTTP/1.1) */
+    private String version = "HTTP/1.1";
+    /** The decoded path and query, cached after the first call */
+    private String path;
+    private String query;
+    /** The route that matched the request, holding the path parameter names */
+    private Router.Route<?> route;
+    /** Start and end offsets in the path of each path parameter */
+    private int[] pathParamOffsets;
+    /** The request body, read from the connection as it is consumed, null until set or asked for */
+    private InputStream body;
+    /** The declared body length, -1 when the body is chunked */
+    private long contentLength = 0;
+    /** The server settings limiting how much of the body is buffered */
+    private ServerConfig config;
+    /** Form fields decoded from the body, built on first use */
+    private Map<String, List<String>> form;
+    /** Parts of a multipart body, buffered on first use */
+    private List<Part> parts;
     
     /**
      * Constructs a new HttpRequest with the specified URI.
-     * Automatically parses query parameters from the URI's query string.
+     * Query parameters are parsed from the URI's query string when first requested.
      * 
      * @param uri the URI containing the request path and query parameters
      */
     public HttpRequest(URI uri) {
         this.requri = uri;
-        parseQueryParams();
+    }
+
+    /**
+     * Constructs a new HttpRequest over a request head parsed by a {@link RequestParser}.
+     *
+     * @param head the raw head bytes, owned by the request from now on
+     * @param requestLine the offsets of the request line parts
+     * @param headerOffsets four offsets per header: name start, name end, value start, value end
+     */
+    HttpRequest(byte[] head, int[] requestLine, int[] headerOffsets) {
+        this.head = head;
+        this.requestLine = requestLine;
+        this.headerOffsets = headerOffsets;
+        this.headerLength = headerOffsets.length;
+        this.method = null;
+        this.version = null;
+    }
+
+    /**
+     * Constructs an empty request to be filled by {@link RequestParser#request(HttpRequest)},
+     * whose buffers are kept when it is recycled.
+     */
+    HttpRequest() {
+        this.head = new byte[0];
+        this.requestLine = new int[RequestParser.REQUEST_LINE_FIELDS];
+        this.method = null;
+        this.version = null;
+    }
+
+    /**
+     * Gets a head buffer of at least the given size to be filled by the parser.
+     * @param length the number of head bytes
+     * @return the buffer, reused from the previous request when it is large enough
+     */
+    byte[] headBuffer(int length) {
+        if (head.length < length) {
+            head = new byte[Math.max(length, 2 * head.length)];
+        }
+        return head;
+    }
+
+    /**
+     * Gets the array of the request line offsets to be filled by the parser.
+     * @return the offsets, indexed by the RequestParser constants
+     */
+    int[] requestLineBuffer() {
+        return requestLine;
+    }
+
+    /**
+     * Gets an array for the header offsets to be filled by the parser.
+     * @param length the number of offsets, four per header
+     * @return the array, reused from the previous request when it is large enough
+     */
+    int[] headerBuffer(int length) {
+        if (headerOffsets.length < length) {
+            headerOffsets = new int[Math.max(length, 2 * headerOffsets.length)];
+        }
+        headerLength = length;
+        return headerOffsets;
+    }
+
+    /**
+     * Gets an array for the offsets of the path parameters, filled in by {@link Router#find}.
+     * @param length the number of offsets, two per parameter
+     * @return the array, reused from the previous request when it is large enough
+     */
+    int[] pathParamBuffer(int length) {
+        if (pathParamOffsets == null || pathParamOffsets.length < length) {
+            pathParamOffsets = new int[length];
+        }
+        return pathParamOffsets;
+    }
+
+    /**
+     * Forgets everything decoded from the previous head and its body, so the request can be
+     * filled again. The buffers and the field tables are kept; the maps built from them are
+     * not, since the access log may still hold the headers.
+     */
+    void recycle() {
+        if (head.length > RETAINED_HEAD_CAPACITY) {
+            head = new byte[0];
+        }
+        parsedParams = false;
+        paramMap = null;
+        indexedHeaders = false;
+        headers = null;
+        method = null;
+        version = null;
+        path = null;
+        query = null;
+        route = null;
+        body = null;
+        contentLength = 0;
+        config = null;
+        form = null;
+        parts = null;
     }
     
     /**
-     * Parses query parameters from the URI's query string.
-     * Extracts key-value pairs from the query string and stores them in the queryParams map.
-     * Query parameters should be in the format "key1=value1&key2=value2".
-     */
-    private void parseQueryParams() {
-        if (requri != null && requri.getQuery() != null) {
-            String query = requri.getQuery();
-            String[] pairs = query.split("&");
-            for (String pair : pairs) {
-                String[] keyValue = pair.split("=");
-                if (keyValue.length == 2) {
-                    queryParams.put(keyValue[0], keyValue[1]);
+     * Indexes the query parameters of the query string.
+     * Pairs are separated by '&amp;' and split at their first '='; keys and values are
+     * percent-decoded and '+' stands for a space. A key without '=' has an empty value
+     * and every value of a repeated key is kept, in order.
+     *
+     * @return the parameter offsets, decoded when a parameter is asked for
+     */
+    private FieldTable params() {
+        if (!parsedParams) {
+            if (params == null) {
+                params = new FieldTable(false, true);
+            }
+            if (head != null) {
+                params.reset(head);
+                if (requestLine[RequestParser.QUERY_START] >= 0) {
+                    params.addPairs(requestLine[RequestParser.QUERY_START], requestLine[RequestParser.QUERY_END]);
+                }
+            } else if (requri != null && requri.getRawQuery() != null) {
+                byte[] raw = requri.getRawQuery().getBytes(StandardCharsets.UTF_8);
+                params.reset(raw);
+                params.addPairs(0, raw.length);
+            } else {
+                params.reset(null);
+            }
+            parsedParams = true;
+        }
+        return params;
+    }
+
+    /**
+     * Indexes the headers of the head by name.
+     * @return the header offsets, decoded when a header is asked for
+     */
+    private FieldTable headerTable() {
+        if (!indexedHeaders) {
+            if (headerTable == null) {
+                headerTable = new FieldTable(true, false);
+            }
+            headerTable.reset(head);
+            for (int i = 0; i < headerLength; i += 4) {
+                headerTable.add(headerOffsets[i], headerOffsets[i + 1], headerOffsets[i + 2], headerOffsets[i + 3]);
+            }
+            indexedHeaders = true;
+        }
+        return headerTable;
+    }
+
+    /**
+     * Collects the values of a key of a table, in request order.
+     */
+    private static List<String> values(FieldTable table, int entry) {
+        if (entry < 0) {
+            return Collections.emptyList();
+        }
+        if (table.next(entry) < 0) {
+            return Collections.singletonList(table.value(entry));
+        }
+        List<String> values = new ArrayList<>(2);
+        for (; entry >= 0; entry = table.next(entry)) {
+            values.add(table.value(entry));
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    /**
+     * Decodes "key=value&amp;key=value" pairs from a range of bytes into a map, for form bodies.
+     *
+     * @param bytes the encoded bytes
+     * @param start the first index
+     * @param end the index after the last byte
+     * @param params the map receiving the decoded pairs
+     */
+    static void parseParams(byte[] bytes, int start, int end, Map<String, List<String>> params) {
+        int pairStart = start;
+        while (pairStart < end) {
+            int pairEnd = pairStart;
+            int equals = -1;
+            while (pairEnd < end && bytes[pairEnd] != '&') {
+                if (equals < 0 && bytes[pairEnd] == '=') {
+                    equals = pairEnd;
                 }
+                pairEnd++;
+            }
+            if (pairEnd > pairStart && equals != pairStart) {
+                int keyEnd = equals >= 0 ? equals : pairEnd;
+                String key = RequestParser.decode(bytes, pairStart, keyEnd, true);
+                String value = equals >= 0 ? RequestParser.decode(bytes, equals + 1, pairEnd, true) : "";
+                params.computeIfAbsent(key, k -> new ArrayList<>(1)).add(value);
             }
+            pairStart = pairEnd + 1;
         }
     }
     
@@ -54,28 +285,456 @@ public class HttpRequest {
      * Retrieves the value of a query parameter by its name.
      * 
      * @param paramName the name of the query parameter to retrieve
-     * @return the value of the parameter, or null if the parameter doesn't exist
+     * @return the first value of the parameter, or null if the parameter doesn't exist
      */
     public String getValue(String paramName) {
-        return queryParams.get(paramName);
+        FieldTable table = params();
+        int entry = table.find(paramName);
+        return entry >= 0 ? table.value(entry) : null;
     }
     
     /**
      * Retrieves the value of a query parameter by its name.
-     * This method is an alias for getValue() and provides the same functionality.
+     * This method is an alias for getValue() and provides the same functionality;
+     * use {@link #getParameterValues(String)} to get every value of a repeated parameter.
      * @param paramName the name of the query parameter to retrieve
-     * @return the value of the parameter, or null if the parameter doesn't exist
+     * @return the first value of the parameter, or null if the parameter doesn't exist
      */
     public String getValues(String paramName) {
-        return queryParams.get(paramName);
+        return getValue(paramName);
+    }
+
+    /**
+     * Retrieves every value of a query parameter, as sent in "?tag=a&amp;tag=b".
+     * @param paramName the name of the query parameter to retrieve
+     * @return the values in request order, empty if the parameter doesn't exist
+     */
+    public List<String> getParameterValues(String paramName) {
+        FieldTable table = params();
+        return values(table, table.find(paramName));
+    }
+
+    /**
+     * Retrieves all query parameters.
+     * @return an unmodifiable map of the values of each parameter, in request order
+     */
+    public Map<String, List<String>> getParameters() {
+        if (paramMap == null) {
+            FieldTable table = params();
+            Map<String, List<String>> map = new LinkedHashMap<>();
+            for (int i = 0; i < table.size(); i++) {
+                if (table.isFirst(i)) {
+                    map.put(table.key(i), values(table, i));
+                }
+            }
+            paramMap = Collections.unmodifiableMap(map);
+        }
+        return paramMap;
     }
     
+    /**
+     * Retrieves the body of the request as a stream. The bytes are read from the connection
+     * as the stream is consumed, after the transfer coding is removed; whatever is left unread
+     * is discarded once the response is sent. The body can only be read once, either through
+     * this stream or through the form and part accessors.
+     * @return the body stream, empty if the request has no body
+     */
+    public InputStream getBody() {
+        if (body == null) {
+            body = InputStream.nullInputStream();
+        }
+        return body;
+    }
+
+    /**
+     * Retrieves the length of the request body declared by the client.
+     * @return the content length, 0 without a body, or -1 if the body is chunked
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Reads the whole body as UTF-8 text.
+     * @return the body text
+     * @throws UncheckedIOException if the body cannot be read or is larger than the
+     *                              configured memory threshold (413)
+     */
+    public String getBodyAsString() {
+        try {
+            return new String(readLimited(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Retrieves the first value of a form field sent in the body, as
+     * application/x-www-form-urlencoded or multipart/form-data.
+     * @param name the field name
+     * @return the field value, or null if the field was not sent
+     * @throws UncheckedIOException if the body cannot be read or decoded
+     */
+    public String getFormValue(String name) {
+        List<String> values = getFormParams().get(name);
+        return values != null ? values.get(0) : null;
+    }
+
+    /**
+     * Retrieves the form fields sent in the body, as application/x-www-form-urlencoded or
+     * multipart/form-data. Reading them consumes the body; uploaded files are kept as
+     * {@link #getParts() parts}.
+     * @return the values of each field in request order, empty for other content types
+     * @throws UncheckedIOException if the body cannot be read or decoded, or a field is larger
+     *                              than the configured memory threshold (413)
+     */
+    public Map<String, List<String>> getFormParams() {
+        if (form == null) {
+            parseBody();
+        }
+        return Collections.unmodifiableMap(form);
+    }
+
+    /**
+     * Retrieves the parts of a multipart/form-data body, fields and files alike. Each part is
+     * buffered in memory up to the configured threshold, or in a temporary file beyond it;
+     * temporary files are deleted once the response is sent. Use {@link #getMultipart()} to
+     * process large uploads without buffering them.
+     * @return the parts in request order, empty for other content types
+     * @throws UncheckedIOException if the body cannot be read or decoded
+     */
+    public List<Part> getParts() {
+        if (parts == null) {
+            parseBody();
+        }
+        return Collections.unmodifiableList(parts);
+    }
+
+    /**
+     * Retrieves the first part with the given field name.
+     * @param name the field name
+     * @return the part, or null if there is none
+     * @throws UncheckedIOException if the body cannot be read or decoded
+     */
+    public Part getPart(String name) {
+        for (Part part : getParts()) {
+            if (name.equals(part.getName())) {
+                return part;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates a reader streaming the parts of a multipart body straight from the connection.
+     * @return the reader, or null if the body is not multipart
+     */
+    public MultipartReader getMultipart() {
+        String boundary = MultipartReader.boundary(getHeader("content-type"));
+        return boundary != null ? new MultipartReader(getBody(), boundary) : null;
+    }
+
+    /**
+     * Decodes a form or multipart body into form fields and buffered parts.
+     */
+    private void parseBody() {
+        Map<String, List<String>> fields = new LinkedHashMap<>();
+        List<Part> buffered = new ArrayList<>();
+        form = fields;
+        parts = buffered;
+        String contentType = getHeader("content-type");
+        if (contentType == null || contentLength == 0) {
+            return;
+        }
+        try {
+            int semicolon = contentType.indexOf(';');
+            String mediaType = (semicolon >= 0 ? contentType.substring(0, semicolon) : contentType).trim();
+            if (mediaType.equalsIgnoreCase("application/x-www-form-urlencoded")) {
+                byte[] bytes = readLimited();
+                parseParams(bytes, 0, bytes.length, fields);
+                return;
+            }
+            MultipartReader reader = getMultipart();
+            if (reader == null) {
+                return;
+            }
+            int threshold = config.getBodyMemoryThreshold();
+            for (Part part = reader.next(); part != null; part = reader.next()) {
+                buffered.add(part);
+                part.buffer(threshold);
+                if (part.getFileName() == null && part.getName() != null) {
+                    if (!part.isInMemory()) {
+                        throw new BadRequestException(413, "Content Too Large", "Form field too large: " + part.getName());
+                    }
+                    fields.computeIfAbsent(part.getName(), k -> new ArrayList<>(1)).add(part.getString());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads the rest of the body, which must fit in the configured memory threshold.
+     */
+    private byte[] readLimited() throws IOException {
+        int threshold = config != null ? config.getBodyMemoryThreshold() : Integer.MAX_VALUE - 8;
+        if (contentLength > threshold) {
+            throw new BadRequestException(413, "Content Too Large", "Request body too large to buffer");
+        }
+        InputStream in = getBody();
+        byte[] bytes = in.readNBytes(threshold);
+        if (in.read() >= 0) {
+            throw new BadRequestException(413, "Content Too Large", "Request body too large to buffer");
+        }
+        return bytes;
+    }
+
+    /**
+     * Attaches the body that follows the request head.
+     * @param body the decoded body stream
+     * @param contentLength the declared length, or -1 for a chunked body
+     * @param config the server settings limiting how much of the body is buffered
+     */
+    void setBody(InputStream body, long contentLength, ServerConfig config) {
+        this.body = body;
+        this.contentLength = contentLength;
+        this.config = config;
+    }
+
+    /**
+     * Tells whether the client waits for "100 Continue" before sending the body.
+     * @return true for HTTP/1.1 requests with a body and "Expect: 100-continue"
+     */
+    boolean expectsContinue() {
+        String expect = getHeader("expect");
+        return expect != null && expect.equalsIgnoreCase("100-continue") && contentLength != 0
+                && "HTTP/1.1".equals(getVersion());
+    }
+
+    /**
+     * Deletes the temporary files of buffered parts once the request is answered.
+     */
+    void release() {
+        if (parts != null) {
+            for (Part part : parts) {
+                try {
+                    part.delete();
+                } catch (IOException e) {
+                    System.err.println("Could not delete upload: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Retrieves the value of a path parameter of the matched route, such as "id" in "/users/{id}".
+     * The rest of the path matched by a trailing wildcard is available under the name "*".
+     *
+     * @param name the parameter name
+     * @return the parameter value, or null if the route has no such parameter
+     */
+    public String getPathParam(String name) {
+        if (route == null) {
+            return null;
+        }
+        for (int i = 0; i < route.getParamCount(); i++) {
+            if (route.getParamName(i).equals(name)) {
+                return getPath().substring(pathParamOffsets[2 * i], pathParamOffsets[2 * i + 1]);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Retrieves every path parameter of the matched route.
+     * @return the parameter values keyed by name, in pattern order
+     */
+    public Map<String, String> getPathParams() {
+        Map<String, String> params = new LinkedHashMap<>();
+        if (route != null) {
+            for (int i = 0; i < route.getParamCount(); i++) {
+                params.put(route.getParamName(i), getPath().substring(pathParamOffsets[2 * i], pathParamOffsets[2 * i + 1]));
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Records the route that matched the request.
+     * @param route the matched route
+     * @param offsets the parameter offsets filled in by {@link Router#find}
+     */
+    void setRoute(Router.Route<?> route, int[] offsets) {
+        this.route = route;
+        this.pathParamOffsets = offsets;
+    }
+
     /**
      * Retrieves the path component of the request URI.
-     * Returns the path without query parameters or fragment.
+     * Returns the percent-decoded path without query parameters or fragment.
      * @return the path component of the URI, or an empty string if the URI is null
      */
     public String getPath() {
-        return requri != null ? requri.getPath() : "";
+        if (path == null) {
+            if (head != null) {
+                int start = requestLine[RequestParser.PATH_START];
+                int end = requestLine[RequestParser.PATH_END];
+                path = start < end ? RequestParser.decode(head, start, end, false) : "/";
+            } else {
+                path = requri != null ? requri.getPath() : "";
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Retrieves the decoded query string of the request URI.
+     * @return the query string without the leading '?', or null if there is none
+     */
+    public String getQuery() {
+        if (query == null) {
+            if (head != null) {
+                int start = requestLine[RequestParser.QUERY_START];
+                query = start >= 0 ? RequestParser.decode(head, start, requestLine[RequestParser.QUERY_END], false) : null;
+            } else {
+                query = requri != null ? requri.getQuery() : null;
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Retrieves all request headers.
+     * Values of headers sent more than once are joined with ", ".
+     * @return an unmodifiable view of the headers keyed by lower-case name
+     */
+    public Map<String, String> getHeaders() {
+        if (headers == null) {
+            FieldTable table = headerTable();
+            Map<String, String> map = new LinkedHashMap<>();
+            for (int i = 0; i < table.size(); i++) {
+                if (table.isFirst(i)) {
+                    map.put(table.key(i), joined(table, i));
+                }
+            }
+            headers = Collections.unmodifiableMap(map);
+        }
+        return headers;
+    }
+
+    /**
+     * Retrieves the request method.
+     * @return the request method, e.g. "GET"
+     */
+    public String getMethod() {
+        if (method == null) {
+            method = method(head, requestLine[RequestParser.METHOD_END]);
+        }
+        return method;
+    }
+
+    /**
+     * Retrieves the protocol version sent in the request line.
+     * @return the protocol version, e.g. "HTTP/1.1"
+     */
+    public String getVersion() {
+        if (version == null) {
+            int start = requestLine[RequestParser.VERSION_START];
+            if (head[start + 5] == '1' && head[start + 7] == '1') {
+                version = "HTTP/1.1";
+            } else if (head[start + 5] == '1' && head[start + 7] == '0') {
+                version = "HTTP/1.0";
+            } else {
+                version = new String(head, start, requestLine[RequestParser.VERSION_END] - start, StandardCharsets.ISO_8859_1);
+            }
+        }
+        return version;
+    }
+
+    /**
+     * Replaces the protocol version, for a request that carries on over another protocol,
+     * such as an HTTP/1.1 request upgraded to HTTP/2.
+     * @param version the protocol version, e.g. "HTTP/2.0"
+     */
+    void setVersion(String version) {
+        this.version = version;
+    }
+
+    /**
+     * Retrieves the value of a request header.
+     * Headers are looked up by name in a table of offsets into the raw head, so only the
+     * values asked for are decoded. Values of headers sent more than once are joined with ", ".
+     * @param name the header name, case-insensitive
+     * @return the header value, or null if the header was not sent
+     */
+    public String getHeader(String name) {
+        FieldTable table = headerTable();
+        int entry = table.find(name);
+        return entry >= 0 ? joined(table, entry) : null;
+    }
+
+    /**
+     * Retrieves every value of a header sent more than once, such as several "Accept" lines.
+     * @param name the header name, case-insensitive
+     * @return the values in request order, empty if the header was not sent
+     */
+    public List<String> getHeaderValues(String name) {
+        FieldTable table = headerTable();
+        return values(table, table.find(name));
+    }
+
+    /**
+     * Joins the values of a header with ", ".
+     */
+    private static String joined(FieldTable table, int entry) {
+        String value = table.value(entry);
+        for (entry = table.next(entry); entry >= 0; entry = table.next(entry)) {
+            value = value + ", " + table.value(entry);
+        }
+        return value;
+    }
+
+    /**
+     * Gets the method from the raw head, sharing the string of the common methods.
+     */
+    private static String method(byte[] head, int end) {
+        for (String candidate : KNOWN_METHODS) {
+            if (candidate.length() == end && startsWith(head, candidate)) {
+                return candidate;
+            }
+        }
+        return new String(head, 0, end, StandardCharsets.ISO_8859_1);
+    }
+
+    private static boolean startsWith(byte[] bytes, String prefix) {
+        for (int i = 0; i < prefix.length(); i++) {
+            if (bytes[i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tells whether the client asked to keep the connection open.
+     * HTTP/1.1 connections are persistent unless "Connection: close" is sent,
+     * HTTP/1.0 connections only when "Connection: keep-alive" is sent.
+     * @return true if the connection may be reused for another request
+     */
+    public boolean isKeepAlive() {
+        String connection = getHeader("connection");
+        if (connection != null) {
+            for (String token : connection.split(",")) {
+                String option = token.trim();
+                if (option.equalsIgnoreCase("close")) {
+                    return false;
+                }
+                if (option.equalsIgnoreCase("keep-alive")) {
+                    return true;
+                }
+            }
+        }
+        return "HTTP/1.1".equals(getVersion());
     }
 }
@@ -4,20 +4,144 @@
  */
 package com.mycompany.arep;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
 /**
  * Represents an HTTP response with configurable status code, status message, and content type.
  * This class provides a way to configure HTTP response properties before sending the response
- * to the client.
+ * to the client. When bound to a {@link Transport} the response also knows how to write itself,
+ * framing the body with a content-length so the connection can be reused.
+ * <p>
+ * Large bodies can be streamed through {@link #getOutputStream()} or {@link #getChannel()}
+ * instead of being built in memory. A streamed body is sent with the length given to
+ * {@link #setContentLength} or, when it is unknown, with chunked transfer coding, so the
+ * memory used does not depend on the size of the body.
+ * <p>
+ * The server reuses the response objects bound to its connections once they are complete,
+ * so a service must not keep its response beyond its call, or beyond the future of an
+ * {@link AsyncService}.
  * 
  * @author daniel.aldana-b
  */
 public class HttpResponse {
+    // Content type of a response whose service sets none
+    private static final String DEFAULT_CONTENT_TYPE = "text/plain; charset=utf-8";
     //The MIME type and character encoding of the response body
-    private String contentType = "text/plain; charset=utf-8";
+    private String contentType = DEFAULT_CONTENT_TYPE;
     // The HTTP status code (e.g., 200, 404, 500)
     private int statusCode = 200;
     // The HTTP status message (e.g., "OK", "Not Found", "Internal Server Error")
     private String statusMessage = "OK";
+    // Additional headers, keyed by lower-case name
+    private final Map<String, String> headers = new LinkedHashMap<>();
+    // Destination of the serialized response, null when the response is only configured
+    private Transport transport;
+    // Whether the connection stays open after this response
+    private boolean keepAlive = false;
+    // Whether the status line and headers have already been written
+    private boolean committed = false;
+    // Length declared for a streamed body, -1 when unknown
+    private long contentLength = -1;
+    // Whether the client understands chunked transfer coding
+    private boolean chunkedAllowed = true;
+    // Whether streamed textual bodies may be compressed
+    private boolean compression = false;
+    // Content coding negotiated with the client for streamed bodies, null for none
+    private String streamCoding;
+    // Compression level used for streamed bodies
+    private int streamLevel;
+    // Body stream handed to the service, null until requested
+    private BodyStream body;
+    // Stream the service writes to: the body stream, or a compressing stream around it
+    private OutputStream bodyOutput;
+    // Whether a streamed body has been committed but not properly ended yet
+    private boolean unfinished = false;
+    // Bytes handed to the transport, head included
+    private long bytesSent;
+    // Whether a service may still use the response after it was answered, so it is not reused
+    private boolean abandoned;
+    // Session the connection switches to once this response is written, null to stay on HTTP
+    private WebSocketSession upgrade;
+    // Whether the response answers a HEAD request, so only its head is sent
+    private boolean headOnly;
+
+    /**
+     * Creates a response that is only used to collect settings from a service.
+     */
+    public HttpResponse() {
+        this((Transport) null);
+    }
+
+    /**
+     * Creates a response that writes itself to the given stream.
+     * @param out the stream the serialized response is written to
+     */
+    HttpResponse(OutputStream out) {
+        this(new StreamTransport(out));
+    }
+
+    /**
+     * Creates a response that writes itself through the given transport.
+     * @param transport the connection transport, or null for an unbound response
+     */
+    HttpResponse(Transport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Restores the initial settings so the response can answer another request.
+     * @param transport the connection transport the next response is written through, or null
+     */
+    void recycle(Transport transport) {
+        this.transport = transport;
+        contentType = DEFAULT_CONTENT_TYPE;
+        statusCode = 200;
+        statusMessage = "OK";
+        headers.clear();
+        keepAlive = false;
+        committed = false;
+        contentLength = -1;
+        chunkedAllowed = true;
+        compression = false;
+        streamCoding = null;
+        streamLevel = 0;
+        body = null;
+        bodyOutput = null;
+        unfinished = false;
+        bytesSent = 0;
+        abandoned = false;
+        upgrade = null;
+        headOnly = false;
+    }
+
+    /**
+     * Marks the response as possibly still used by a service after it was answered, such as
+     * one that timed out, so it is not reused for another request.
+     */
+    void abandon() {
+        abandoned = true;
+    }
+
+    /**
+     * Tells whether the response must not be reused.
+     * @return true once {@link #abandon()} was called
+     */
+    boolean isAbandoned() {
+        return abandoned;
+    }
     
     /**
      * Sets the content type of the HTTP response.
@@ -45,6 +169,83 @@ public class HttpResponse {
     public void setStatusMessage(String statusMessage) {
         this.statusMessage = statusMessage;
     }
+
+    /**
+     * Sets an additional response header, replacing any previous value.
+     * Content type, content length and connection are managed by the response itself.
+     * @param name the header name, case-insensitive
+     * @param value the header value
+     * @throws IllegalArgumentException if the name is not a token or frames the body
+     *         (content-length, transfer-encoding, connection), or if the value holds CR, LF,
+     *         NUL or a character outside ISO-8859-1
+     */
+    public void setHeader(String name, String value) {
+        String key = name.toLowerCase(Locale.ROOT);
+        if (name.isEmpty() || !name.chars().allMatch(c -> c < 0x80 && RequestParser.isTokenChar((byte) c))) {
+            throw new IllegalArgumentException("Invalid header name: " + name);
+        }
+        if (key.equals("content-length") || key.equals("transfer-encoding") || key.equals("connection")) {
+            throw new IllegalArgumentException("Header " + key + " is managed by the response");
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\r' || c == '\n' || c == 0 || c > 0xff) {
+                throw new IllegalArgumentException("Invalid character in header " + key);
+            }
+        }
+        headers.put(key, value);
+    }
+
+    /**
+     * Gets the value of an additional response header.
+     * @param name the header name, case-insensitive
+     * @return the header value, or null if it was not set
+     */
+    public String getHeader(String name) {
+        return headers.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Removes the additional headers, such as the validators of a representation that is not
+     * sent after all.
+     */
+    void clearHeaders() {
+        headers.clear();
+    }
+
+    /**
+     * Sets the entity tag identifying the current version of the response body.
+     * Unquoted values are quoted; a "W/" prefix marks a weak tag.
+     * @param etag the entity tag
+     */
+    public void setETag(String etag) {
+        if (!etag.startsWith("\"") && !etag.startsWith("W/\"")) {
+            etag = '"' + etag + '"';
+        }
+        setHeader("etag", etag);
+    }
+
+    /**
+     * Sets the time the response body last changed.
+     * @param millis the modification time in milliseconds since the epoch
+     */
+    public void setLastModified(long millis) {
+        setHeader("last-modified", Validators.httpDate(millis));
+    }
+
+    /**
+     * Tells whether the client already holds the version described by the entity tag and
+     * modification time set on this response, according to its If-None-Match and
+     * If-Modified-Since headers. A service can call it after setting the validators and
+     * return without building the body; a 304 response is then sent.
+     * @param req the request with the conditional headers
+     * @return true if the response will be 304 Not Modified
+     */
+    public boolean checkNotModified(HttpRequest req) {
+        String lastModified = getHeader("last-modified");
+        return Validators.isNotModified(req, getHeader("etag"),
+                lastModified != null ? Validators.parseHttpDate(lastModified) : -1);
+    }
     
     /**
      * Gets the current content type of the HTTP response.
@@ -70,4 +271,689 @@ public class HttpResponse {
     public String getStatusMessage() {
         return statusMessage;
     }
+
+    /**
+     * Tells whether the connection is kept open after this response.
+     * @return true if the response announces a persistent connection
+     */
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Sets whether the connection is kept open after this response.
+     * @param keepAlive true to announce a persistent connection
+     */
+    void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Sets whether the response answers a HEAD request. Its head is then sent as for a GET
+     * request, content-length included, but the body is dropped.
+     * @param headOnly true to send the head only
+     */
+    void setHeadOnly(boolean headOnly) {
+        this.headOnly = headOnly;
+    }
+
+    /**
+     * Tells whether the response has already been written.
+     * @return true once the status line and headers were sent
+     */
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    /**
+     * Sets the exact length of the body that will be streamed, so it is sent with a
+     * content-length instead of chunked transfer coding. Bodies with a known length are not
+     * compressed on the fly, since compression would change it.
+     * @param contentLength the number of body bytes, or -1 if unknown
+     */
+    public void setContentLength(long contentLength) {
+        if (contentLength < -1) {
+            throw new IllegalArgumentException("Invalid content length: " + contentLength);
+        }
+        if (body != null) {
+            throw new IllegalStateException("Body stream already requested");
+        }
+        this.contentLength = contentLength;
+    }
+
+    /**
+     * Gets the length declared for a streamed body.
+     * @return the number of body bytes, or -1 if unknown
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Gets a stream to write the response body in pieces, for bodies too large to build in memory.
+     * The status and headers must be set before the first bytes leave the buffer of the stream,
+     * which happens when it fills, on {@link OutputStream#flush()} or on close. The stream is closed
+     * by the server when the service returns. A body closed before the buffer first fills is sent
+     * with a content-length; otherwise the length set with {@link #setContentLength} is used, or
+     * chunked transfer coding when it is unknown. Textual bodies of unknown length are compressed
+     * when the client accepts it, unless a content-encoding header was set.
+     * @return the body stream, the same one on every call
+     * @throws IOException if the compressing stream cannot be created
+     */
+    public OutputStream getOutputStream() throws IOException {
+        if (bodyOutput == null) {
+            if (committed) {
+                throw new IllegalStateException("Response already committed");
+            }
+            body = new BodyStream();
+            bodyOutput = body;
+            if (compression && contentLength < 0 && getHeader("content-encoding") == null
+                    && ContentEncoding.isCompressible(contentType)) {
+                setHeader("vary", "accept-encoding");
+                if (streamCoding != null) {
+                    setContentEncoding(streamCoding);
+                    bodyOutput = ContentEncoding.encoder(body, streamCoding, streamLevel);
+                }
+            }
+        }
+        return bodyOutput;
+    }
+
+    /**
+     * Gets a channel to write the response body in pieces, such as from another channel.
+     * It writes to the same body as {@link #getOutputStream()}, with the same framing.
+     * @return the body channel
+     * @throws IOException if the compressing stream cannot be created
+     */
+    public WritableByteChannel getChannel() throws IOException {
+        OutputStream out = getOutputStream();
+        return out == body ? body : Channels.newChannel(out);
+    }
+
+    /**
+     * Tells whether the body is being streamed.
+     * @return true once {@link #getOutputStream()} or {@link #getChannel()} was called
+     */
+    boolean isStreaming() {
+        return bodyOutput != null;
+    }
+
+    /**
+     * Writes the last piece of a streamed body, if any, and ends the body.
+     * @param tail text appended to the body, or null
+     * @throws IOException if the body cannot be written or its length differs from the declared one
+     */
+    void finishBody(String tail) throws IOException {
+        if (tail != null) {
+            bodyOutput.write(tail.getBytes(StandardCharsets.UTF_8));
+        }
+        bodyOutput.close();
+    }
+
+    /**
+     * Drops a streamed body that was never committed, so another response can be sent instead,
+     * such as an error. A content encoding added by the stream is removed as well.
+     */
+    void discardBody() {
+        if (body == null) {
+            return;
+        }
+        body.discarded = true;
+        try {
+            // releases the compressor, if any
+            bodyOutput.close();
+        } catch (IOException ignored) {
+        }
+        if (bodyOutput != body) {
+            headers.remove("content-encoding");
+        }
+        body = null;
+        bodyOutput = null;
+    }
+
+    /**
+     * Tells whether the response was written entirely, framed so the client can find its end.
+     * The connection can only carry another request after a complete response.
+     * @return true if the response is committed and its body ended
+     */
+    boolean isComplete() {
+        return committed && !unfinished;
+    }
+
+    /**
+     * Sets how streamed bodies are framed and compressed for the client of this response.
+     * @param chunked whether the client understands chunked transfer coding
+     * @param compression whether textual bodies may be compressed
+     * @param coding the content coding accepted by the client, or null
+     * @param level the compression level
+     */
+    void setStreaming(boolean chunked, boolean compression, String coding, int level) {
+        this.chunkedAllowed = chunked;
+        this.compression = compression;
+        this.streamCoding = coding;
+        this.streamLevel = level;
+    }
+
+    /**
+     * Marks the body as encoded with a content coding.
+     * A strong entity tag becomes weak: the encoded bytes differ from the ones the service
+     * tagged, only their meaning is the same.
+     * @param coding the content coding
+     */
+    void setContentEncoding(String coding) {
+        setHeader("content-encoding", coding);
+        String etag = getHeader("etag");
+        if (etag != null && etag.startsWith("\"")) {
+            setHeader("etag", "W/" + etag);
+        }
+    }
+
+    /**
+     * Sets the status code and message in one call.
+     * @param statusCode the HTTP status code
+     * @param statusMessage the HTTP status message
+     */
+    void setStatus(int statusCode, String statusMessage) {
+        this.statusCode = statusCode;
+        this.statusMessage = statusMessage;
+    }
+
+    /**
+     * Writes the response with a UTF-8 encoded text body.
+     * @param body the response body
+     * @throws IOException if the response cannot be written
+     */
+    void send(String body) throws IOException {
+        send(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes the response with the given body.
+     * @param body the response body
+     * @throws IOException if the response cannot be written
+     */
+    void send(byte[] body) throws IOException {
+        send(ByteBuffer.wrap(body));
+    }
+
+    /**
+     * Writes the response with an in-memory body, such as a preloaded file.
+     * @param body the response body, written from its position to its limit
+     * @throws IOException if the response cannot be written
+     */
+    void send(ByteBuffer body) throws IOException {
+        ByteBuffer head = head(body.remaining());
+        if (headOnly) {
+            write(head);
+        } else {
+            write(head, body);
+        }
+    }
+
+    /**
+     * Writes a 304 Not Modified response, which has no body nor entity headers.
+     * The additional headers, such as the entity tag, are kept.
+     * @throws IOException if the response cannot be written
+     */
+    void sendNotModified() throws IOException {
+        Transport target = transport();
+        if (committed) {
+            throw new IllegalStateException("Response already committed");
+        }
+        committed = true;
+        setStatus(304, "Not Modified");
+        ResponseHeadWriter writer = target.headWriter().status(statusCode, statusMessage);
+        write(writeTail(writer).finish());
+    }
+
+    /**
+     * Writes a 101 Switching Protocols response, after which the connection carries the
+     * WebSocket session instead of HTTP. The additional headers are kept.
+     * @param protocol the protocol named in the upgrade header
+     * @param session the session the engine serves on the connection afterwards
+     * @throws IOException if the response cannot be written
+     */
+    void switchProtocols(String protocol, WebSocketSession session) throws IOException {
+        Transport target = transport();
+        if (committed) {
+            throw new IllegalStateException("Response already committed");
+        }
+        committed = true;
+        keepAlive = false;
+        setStatus(101, "Switching Protocols");
+        ResponseHeadWriter writer = target.headWriter().status(statusCode, statusMessage);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            writer.header(header.getKey(), header.getValue());
+        }
+        write(writer.date().upgrade(protocol).finish());
+        upgrade = session;
+    }
+
+    /**
+     * Gets the session the connection switches to after this response.
+     * @return the session, or null if the connection stays on HTTP
+     */
+    WebSocketSession getUpgrade() {
+        return upgrade;
+    }
+
+    /**
+     * Writes the response with a head prepared by {@link #encodeHead}, such as a cached one.
+     * The additional headers of this response and the connection header are appended to it.
+     * @param head the encoded status line and entity headers
+     * @param body the response body
+     * @throws IOException if the response cannot be written
+     */
+    void sendPrepared(ByteBuffer head, ByteBuffer body) throws IOException {
+        Transport target = transport();
+        if (committed) {
+            throw new IllegalStateException("Response already committed");
+        }
+        committed = true;
+        ByteBuffer tail = writeTail(target.headWriter()).finish();
+        if (headOnly) {
+            write(head, tail);
+        } else {
+            write(head, tail, body);
+        }
+    }
+
+    /**
+     * Writes the response with the content of a file as body.
+     * @param file the file to send
+     * @throws IOException if the file cannot be read or the response cannot be written
+     */
+    void sendFile(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file);
+        try {
+            sendFile(channel, channel.size());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the response with the first bytes of an open file as body.
+     * The file is handed to the transport, which sends it without copying it
+     * through the heap and closes it afterwards.
+     * @param file the open file
+     * @param size the number of bytes to send
+     * @throws IOException if the response cannot be written
+     */
+    void sendFile(FileChannel file, long size) throws IOException {
+        sendFile(file, 0, size);
+    }
+
+    /**
+     * Writes the response with a region of an open file as body, such as a requested range.
+     * The file is handed to the transport, which closes it afterwards.
+     * @param file the open file
+     * @param position the offset of the first byte to send
+     * @param count the number of bytes to send
+     * @throws IOException if the response cannot be written
+     */
+    void sendFile(FileChannel file, long position, long count) throws IOException {
+        try {
+            write(head(count));
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+        transferBody(file, position, count);
+    }
+
+    /**
+     * Writes the status line and headers, leaving the body to be written in pieces with
+     * {@link #writeBody} and {@link #transferBody}, such as the parts of a multipart body.
+     * @param contentLength the exact number of body bytes that will follow
+     * @throws IOException if the head cannot be written
+     */
+    void sendHead(long contentLength) throws IOException {
+        write(head(contentLength));
+    }
+
+    /**
+     * Writes and flushes the head of a response whose body is pushed afterwards for as long as
+     * the connection lasts, such as an event stream. The body has no length, so the connection
+     * closes once it ends.
+     * @return the transport the body is pushed through
+     * @throws IOException if the head cannot be written
+     */
+    Transport sendStreamHead() throws IOException {
+        keepAlive = false;
+        write(head(-1));
+        Transport target = transport();
+        target.flush();
+        return target;
+    }
+
+    /**
+     * Writes a piece of the body after {@link #sendHead}.
+     * @param body the bytes to write, owned by the transport afterwards
+     * @throws IOException if the bytes cannot be written
+     */
+    void writeBody(ByteBuffer... body) throws IOException {
+        if (!headOnly) {
+            write(body);
+        }
+    }
+
+    /**
+     * Writes a region of an open file as a piece of the body after {@link #sendHead}.
+     * @param file the open file, closed by the transport afterwards
+     * @param position the offset of the first byte to send
+     * @param count the number of bytes to send
+     * @throws IOException if the bytes cannot be written
+     */
+    void transferBody(FileChannel file, long position, long count) throws IOException {
+        if (headOnly) {
+            file.close();
+        } else {
+            transfer(file, position, count);
+        }
+    }
+
+    /**
+     * Gets the number of bytes written for this response so far, head and framing included.
+     * @return the bytes handed to the connection
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Writes buffers through the transport, counting their bytes.
+     * @param buffers the buffers to write, owned by the transport afterwards
+     * @throws IOException if the bytes cannot be written
+     */
+    private void write(ByteBuffer... buffers) throws IOException {
+        Transport target = transport();
+        long count = 0;
+        for (ByteBuffer buffer : buffers) {
+            count += buffer.remaining();
+        }
+        target.write(buffers);
+        bytesSent += count;
+    }
+
+    /**
+     * Writes a file region through the transport, counting its bytes.
+     * @param file the open file, closed by the transport afterwards
+     * @param position the offset of the first byte to send
+     * @param count the number of bytes to send
+     * @throws IOException if the bytes cannot be written
+     */
+    private void transfer(FileChannel file, long position, long count) throws IOException {
+        transport().transferFile(file, position, count);
+        bytesSent += count;
+    }
+
+    /**
+     * Gets the transport, failing if the response is not bound to a connection.
+     * @return the transport the response is written through
+     */
+    private Transport transport() {
+        if (transport == null) {
+            throw new IllegalStateException("Response is not bound to a connection");
+        }
+        return transport;
+    }
+
+    /**
+     * Serializes the status line and headers, committing the response.
+     * @param contentLength the exact number of body bytes that follow, or -1 to send no content-length
+     * @return the encoded head ready to be written
+     */
+    private ByteBuffer head(long contentLength) {
+        if (committed) {
+            throw new IllegalStateException("Response already committed");
+        }
+        Transport target = transport();
+        committed = true;
+        ResponseHeadWriter writer = target.headWriter().status(statusCode, statusMessage).contentType(contentType);
+        if (contentLength >= 0) {
+            writer.contentLength(contentLength);
+        }
+        return writeTail(writer).finish();
+    }
+
+    /**
+     * Writes the additional headers, the date and the connection header, ending the head.
+     * @param writer the writer holding the start of the head
+     * @return the writer
+     */
+    private ResponseHeadWriter writeTail(ResponseHeadWriter writer) {
+        if (keepAlive && transport().isClosing()) {
+            // the client must not send another request on a connection about to close
+            keepAlive = false;
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            writer.header(header.getKey(), header.getValue());
+        }
+        return writer.date().connection(keepAlive);
+    }
+
+    /**
+     * Encodes the status line and entity headers of a response, for heads prepared in advance.
+     * @param statusCode the HTTP status code
+     * @param statusMessage the HTTP status message
+     * @param contentType the MIME type of the body
+     * @param contentLength the exact number of body bytes
+     * @param headers additional header names and values, alternating
+     * @return a read-only buffer with the encoded head start
+     */
+    static ByteBuffer encodeHead(int statusCode, String statusMessage, String contentType, long contentLength,
+            String... headers) {
+        ResponseHeadWriter writer = new ResponseHeadWriter(false).status(statusCode, statusMessage)
+                .contentType(contentType).contentLength(contentLength);
+        for (int i = 0; i + 1 < headers.length; i += 2) {
+            writer.header(headers[i], headers[i + 1]);
+        }
+        ByteBuffer encoded = writer.finish();
+        return ByteBuffer.allocate(encoded.remaining()).put(encoded).flip().asReadOnlyBuffer();
+    }
+
+    /**
+     * Encodes the status line, content type, content length and additional headers of this
+     * response, so it can be sent again later with {@link #sendPrepared}, such as from a cache.
+     * @param contentLength the exact number of body bytes
+     * @return a read-only buffer with the encoded head, without date nor connection headers
+     */
+    ByteBuffer snapshotHead(long contentLength) {
+        ResponseHeadWriter writer = new ResponseHeadWriter(false).status(statusCode, statusMessage)
+                .contentType(contentType).contentLength(contentLength);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            writer.header(header.getKey(), header.getValue());
+        }
+        ByteBuffer encoded = writer.finish();
+        return ByteBuffer.allocate(encoded.remaining()).put(encoded).flip().asReadOnlyBuffer();
+    }
+
+    /**
+     * Body stream of the response. Bytes are collected in a buffer and written through the
+     * transport each time it fills; the first write commits the response with the framing
+     * chosen at that moment. The buffer is lent by the transport, handed back to it with the
+     * bytes and replaced by another one on the next write, so each piece is copied once and
+     * the transport can reuse its buffers.
+     */
+    private final class BodyStream extends OutputStream implements WritableByteChannel {
+        // Bytes not written yet, null until the first write after a drain
+        private ByteBuffer buffer;
+        // Body bytes already handed to the transport
+        private long written;
+        // Whether the body is sent in chunks
+        private boolean chunked;
+        // Whether the body has no length and ends when the connection closes
+        private boolean closeDelimited;
+        private boolean open = true;
+        // Whether the body was dropped, writes are then ignored
+        private boolean discarded;
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureOpen();
+            room().put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            ensureOpen();
+            while (length > 0) {
+                ByteBuffer target = room();
+                int n = Math.min(length, target.remaining());
+                target.put(bytes, offset, n);
+                offset += n;
+                length -= n;
+            }
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            int total = source.remaining();
+            while (source.hasRemaining()) {
+                ByteBuffer target = room();
+                if (source.remaining() <= target.remaining()) {
+                    target.put(source);
+                } else {
+                    int limit = source.limit();
+                    target.put(source.limit(source.position() + target.remaining()));
+                    source.limit(limit);
+                }
+            }
+            return total;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            ensureOpen();
+            if (!discarded) {
+                drain(false);
+                transport().flush();
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!open) {
+                return;
+            }
+            open = false;
+            if (discarded) {
+                return;
+            }
+            if (!committed && contentLength < 0) {
+                // the whole body fits in the buffer, its length is known after all
+                contentLength = count();
+            }
+            drain(true);
+            if (contentLength >= 0 && written != contentLength) {
+                throw new IOException("Response body has " + written + " bytes, " + contentLength + " were declared");
+            }
+            unfinished = closeDelimited;
+        }
+
+        private void ensureOpen() throws IOException {
+            if (!open) {
+                throw new IOException("Response body stream closed");
+            }
+        }
+
+        /**
+         * Gets the buffer with room for more bytes, writing it out first if it is full.
+         */
+        private ByteBuffer room() throws IOException {
+            if (buffer != null && !buffer.hasRemaining()) {
+                drain(false);
+            }
+            if (buffer == null) {
+                buffer = transport().bodyBuffer();
+            }
+            return buffer;
+        }
+
+        private int count() {
+            return buffer != null ? buffer.position() : 0;
+        }
+
+        /**
+         * Writes the buffered bytes, preceded by the head on the first call.
+         * @param last whether the body ends with these bytes
+         */
+        private void drain(boolean last) throws IOException {
+            if (discarded) {
+                if (buffer != null) {
+                    buffer.clear();
+                }
+                return;
+            }
+            List<ByteBuffer> pieces = new ArrayList<>(4);
+            if (!committed) {
+                pieces.add(startBody());
+            }
+            int count = count();
+            if (count > 0) {
+                if (contentLength >= 0 && written + count > contentLength) {
+                    throw new IOException("Response body exceeds the declared content-length of " + contentLength);
+                }
+                written += count;
+            }
+            if (headOnly) {
+                // the body of a HEAD response is counted for its length, then dropped
+                if (buffer != null) {
+                    buffer.clear();
+                }
+            } else if (count > 0) {
+                if (chunked) {
+                    pieces.add(ascii(Integer.toHexString(count) + "\r\n"));
+                }
+                // the buffer goes to the transport, the next write asks for another one
+                pieces.add(buffer.flip());
+                buffer = null;
+                if (chunked) {
+                    pieces.add(ascii("\r\n"));
+                }
+            }
+            if (last && chunked && !headOnly) {
+                pieces.add(ascii("0\r\n\r\n"));
+            }
+            if (!pieces.isEmpty()) {
+                HttpResponse.this.write(pieces.toArray(new ByteBuffer[0]));
+            }
+        }
+
+        /**
+         * Commits the response, choosing how the end of the body is marked.
+         * @return the encoded head
+         */
+        private ByteBuffer startBody() {
+            ByteBuffer head;
+            if (contentLength >= 0) {
+                head = head(contentLength);
+            } else if (chunkedAllowed) {
+                chunked = true;
+                headers.put("transfer-encoding", "chunked");
+                head = head(-1);
+            } else {
+                // HTTP/1.0 clients only find the end of the body when the connection closes
+                closeDelimited = true;
+                keepAlive = false;
+                head = head(-1);
+            }
+            unfinished = true;
+            return head;
+        }
+
+        private ByteBuffer ascii(String text) {
+            return ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1));
+        }
+    }
 }
@@ -6,10 +6,10 @@ package com.mycompany.arep;
 
 import java.net.*;
 import java.io.*;
-import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.time.LocalDate;
-import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 
@@ -17,114 +17,88 @@ import java.util.Map;
  * A lightweight HTTP server that provides web framework functionality.
  * This class implements a web server that can handle REST services, static file serving,
  * and provides a simple API for registering service endpoints.
+ * The static methods act on one default {@link WebServer}; create more instances
+ * to run several independent servers in the same JVM.
  * @author daniel.aldana-b
  */
 public class HttpServer {
-    //Map containing registered REST services mapped by their paths
-    public static Map<String, Service> services = new HashMap();
-    // Root directory for serving static files
-    public static String ROOT_DIRECTORY = "target/classes";
+    // Server settings such as port, execution mode and connection limits
+    public static final ServerConfig config = new ServerConfig();
+    // Root directory for serving static files; assigning it moves the files of the default server
+    public static volatile String ROOT_DIRECTORY = "target/classes";
+    // Default server behind the static methods, serving static files from ROOT_DIRECTORY
+    static final WebServer server = new WebServer(config) {
+        @Override
+        public void staticfiles(String localFilesPath) {
+            super.staticfiles(localFilesPath);
+            ROOT_DIRECTORY = super.getRootDirectory();
+        }
+
+        @Override
+        public String getRootDirectory() {
+            return ROOT_DIRECTORY;
+        }
+    };
+    //Map containing registered GET services mapped by their path patterns, a live view of the router
+    public static final Map<String, Service> services = server.router.routes("GET");
+
+    static {
+        // Legacy greeting endpoints, answering every method and any path below them
+        server.router.add(Router.ANY, "/app/helloget", (req, res) -> greeting(req, res, false));
+        server.router.add(Router.ANY, "/app/helloget/*", (req, res) -> greeting(req, res, false));
+        server.router.add(Router.ANY, "/app/hellopost", (req, res) -> greeting(req, res, true));
+        server.router.add(Router.ANY, "/app/hellopost/*", (req, res) -> greeting(req, res, true));
+    }
 
     /**
      * Starts the HTTP server and begins listening for incoming connections.
-     * The server runs continuously, accepting client connections and handling
-     * HTTP requests until manually stopped.
+     * The server runs continuously, accepting client connections with the engine
+     * selected in {@link #config} and handling HTTP requests until stopped with {@link #stop}
+     * or the JVM shuts down, which lets the requests in flight complete first.
      * 
      * @param args command line arguments (not used)
-     * @throws IOException if an I/O error occurs during server operation
+     * @throws IOException if the port cannot be bound
      * @throws URISyntaxException if there's an error parsing request URIs
      */
     public static void runServer(String[] args) throws IOException, URISyntaxException {
-        ServerSocket serverSocket = null;
         try {
-            serverSocket = new ServerSocket(35000);
+            server.start();
         } catch (IOException e) {
-            System.err.println("Could not listen on port: 35000.");
-            System.exit(1);
+            System.err.println("Could not listen on port: " + config.getPort() + ".");
+            throw e;
         }
-        Socket clientSocket = null;
-        boolean running = true;
-        while (running) {
-            try {
-                System.out.println("Listo para recibir ...");
-                clientSocket = serverSocket.accept();
-            } catch (IOException e) {
-                System.err.println("Accept failed.");
-                System.exit(1);
-            }
-            PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true);
-            BufferedReader in = new BufferedReader(
-                    new InputStreamReader(
-                            clientSocket.getInputStream()));
-            String inputLine, outputLine;
-            String path = null;
-            boolean firstLine = true;
-            URI requri = null;
-            while ((inputLine = in.readLine()) != null) {
-                if (firstLine) {
-                    requri = new URI(inputLine.split(" ")[1]);
-                    System.out.println("Path: " + requri.getPath());
-                    firstLine = false;
-                }
-                System.out.println("Received: " + inputLine);
-                if (!in.ready()) {
-                    break;
-                }
-            }
-            handleRequest(requri, out, clientSocket);
-            //out.println(outputLine);
-            out.close();
-            in.close();
-            clientSocket.close();
+        Thread shutdown = new Thread(() -> server.stop(Duration.ofMillis(config.getShutdownTimeout())),
+                "http-server-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdown);
+        try {
+            server.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdown);
+        } catch (IllegalStateException e) {
+            // the JVM is already shutting down and running the hook
         }
-        serverSocket.close();
     }
-    
+
     /**
      * Handles an incoming HTTP request and generates the appropriate response.
-     * This method routes requests to the appropriate handler based on the URI path:
+     * This method routes requests to the appropriate handler based on the URI path.
+     * Kept for callers that work with a raw socket; the response is written to the
+     * socket output stream and the connection is announced as closing.
      * @param uri    the request URI containing the path and query parameters
-     * @param out    the writer to send responses to the client
-     * @param socket the client socket used for file streaming
+     * @param out    the writer to send responses to the client, flushed before the response is written
+     * @param socket the client socket the response is written to
      * @throws IOException if an I/O error occurs when handling the request
      */
     public static void handleRequest(URI uri, PrintWriter out, Socket socket) throws IOException {
-        
-        if(uri != null && uri.getPath().startsWith("/app/helloget")){
-            String output = greetingService(uri, false);
-            invokeService(uri);
-            out.println(output);
-        }else if(uri != null && uri.getPath().startsWith("/app/hellopost")) {
-            String output = greetingService(uri, true);
-            out.println(output);
-        }
-        // Check for registered REST services
-        else if(uri != null && services.containsKey(uri.getPath())) {
-            String output = invokeService(uri);
-            out.println(output);
-        }
-        else{
-            // Handle static files
-            Path directory = Path.of(ROOT_DIRECTORY, uri.getPath());
-            if(Files.isDirectory(directory)){
-                directory = directory.resolve("index.html");
-            }
-            if(Files.exists(directory)){
-                String output = "HTTP/1.1 200 OK\r\n" + "content-type: " + getType(directory) + "\r\n"
-                        +"content-length: " + Files.size(directory) + "\r\n\r\n";
-                try (OutputStream outputStream = socket.getOutputStream()) {
-                    outputStream.write(output.getBytes());
-                    Files.copy(directory, outputStream);
-                }
-            } else {
-                String outputLine = "HTTP/1.1 404 Not Found\r\n"  + "content-type: text/plain; charset=utf-8\r\n"
-                        + "\r\n" + "File not found";
-                out.println(outputLine);
-            }
-        }
-
+        out.flush();
+        OutputStream outputStream = socket.getOutputStream();
+        server.handleRequest(new HttpRequest(uri), new HttpResponse(new StreamTransport(outputStream, socket.getChannel())));
+        outputStream.flush();
     }
-    
+
     /**
      * Determines the MIME type of a given file based on its extension.
      * Supports common web file types including HTML, CSS, JavaScript, images, and JSON.
@@ -169,30 +143,182 @@ public class HttpServer {
      * @return an HTTP response string with status, headers, and JSON body
      */
     public static String greetingService(URI uri, boolean time){
-        String user;
-        try{
-            user = uri.getQuery().split("=")[1];
-        } catch (Exception e) {
-            return "HTTP/1.1 400 Bad Request\r\n" + "content-type: text/plain; charset=utf-8\r\n"
-                    + "\r\n" + "{\"msg\": \"Name not found\"}";
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try {
+            greetingService(new HttpRequest(uri), new HttpResponse(buffer), time);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the JSON greeting response of the legacy greeting endpoints.
+     *
+     * @param req  the request containing the query parameter (?name=value) or, for POST, a "name" form field
+     * @param res  the response to write
+     * @param time if true, includes the current date in the response
+     * @throws IOException if the response cannot be written
+     */
+    static void greetingService(HttpRequest req, HttpResponse res, boolean time) throws IOException {
+        res.send(greeting(req, res, time));
+    }
+
+    /**
+     * Builds the JSON greeting, setting the status and content type of the response.
+     *
+     * @param req  the request containing the query parameter (?name=value) or, for POST, a "name" form field
+     * @param res  the response to configure
+     * @param time if true, includes the current date in the greeting
+     * @return the response body
+     */
+    private static String greeting(HttpRequest req, HttpResponse res, boolean time) {
+        // a form posted in the body takes precedence over the query string
+        String user = "POST".equals(req.getMethod()) ? req.getFormValue("name") : null;
+        if (user == null) {
+            try{
+                user = req.getQuery().split("=")[1];
+            } catch (Exception e) {
+                res.setStatus(400, "Bad Request");
+                return "{\"msg\": \"Name not found\"}";
+            }
         }
-        String response = "HTTP/1.1 200 OK \r\n" + "content-type: application/json; charset=utf-8\r\n"
-                + "\r\n";
-        response = response + "{\"msg\": \"Hello " + user;
-        response = time? response + "today's date is" + LocalDate.now() + "\"}":response+ "\"}";
-        System.out.println(response);
-        return response;
+        String body = "{\"msg\": \"Hello " + user;
+        body = time? body + "today's date is" + LocalDate.now() + "\"}":body+ "\"}";
+        res.setContentType("application/json; charset=utf-8");
+        return body;
     }
     
     /**
      * Registers a REST service endpoint with the specified path.
-     * The service will be invoked when a request is made to the specified path.
+     * The service will be invoked when a GET request is made to the specified path.
+     * Paths may contain parameters such as "/users/{id}", read with
+     * {@link HttpRequest#getPathParam}, and end with a "*" wildcard such as "/files/*".
      * 
-     * @param path the URL path for the service (e.g., "/hello", "/api/users")
+     * @param path the URL path for the service (e.g., "/hello", "/api/users/{id}")
      * @param s the service implementation to handle requests to this path
      */
     public static void get(String path, Service s){
-        services.put(path,s);
+        server.get(path, s);
+    }
+
+    /**
+     * Registers a REST service answering POST requests to the specified path.
+     *
+     * @param path the URL path pattern for the service
+     * @param s the service implementation to handle requests to this path
+     */
+    public static void post(String path, Service s){
+        server.post(path, s);
+    }
+
+    /**
+     * Registers a REST service answering PUT requests to the specified path.
+     *
+     * @param path the URL path pattern for the service
+     * @param s the service implementation to handle requests to this path
+     */
+    public static void put(String path, Service s){
+        server.put(path, s);
+    }
+
+    /**
+     * Registers a REST service answering DELETE requests to the specified path.
+     *
+     * @param path the URL path pattern for the service
+     * @param s the service implementation to handle requests to this path
+     */
+    public static void delete(String path, Service s){
+        server.delete(path, s);
+    }
+    
+    /**
+     * Registers a service that streams its response body, answering the given method.
+     * Streamed bodies are sent in pieces as they are written, see {@link HttpResponse#getOutputStream()}.
+     *
+     * @param method the request method, such as "GET"
+     * @param path the URL path pattern for the service
+     * @param s the service implementation to handle requests to this path
+     */
+    public static void stream(String method, String path, StreamingService s){
+        server.stream(method, path, s);
+    }
+    
+    /**
+     * Registers a service that answers asynchronously, answering the given method.
+     * The server thread is released as soon as the service returns its future, see {@link AsyncService}.
+     *
+     * @param method the request method, such as "GET"
+     * @param path the URL path pattern for the service
+     * @param s the service implementation to handle requests to this path
+     */
+    public static void async(String method, String path, AsyncService s){
+        server.async(method, path, s);
+    }
+    
+    /**
+     * Registers a WebSocket endpoint at the specified path, see {@link WebSocketHandler}.
+     *
+     * @param path the URL path pattern for the endpoint
+     * @param handler the handler of the sessions opened on this path
+     */
+    public static void websocket(String path, WebSocketHandler handler){
+        server.websocket(path, handler);
+    }
+    
+    /**
+     * Registers a Server-Sent Events service at the specified path, see {@link EventStreamService}.
+     *
+     * @param path the URL path pattern for the service
+     * @param s the service handed the stream of every client, such as an {@link EventTopic}
+     */
+    public static void events(String path, EventStreamService s){
+        server.events(path, s);
+    }
+    
+    /**
+     * Gets the cache of static files, mainly to read its statistics.
+     *
+     * @return the static file cache
+     */
+    public static StaticCache getStaticCache() {
+        return server.getStaticCache();
+    }
+    
+    /**
+     * Gets the access log of the server, mainly to flush it or read how many entries it dropped.
+     *
+     * @return the access log
+     */
+    public static AccessLog getAccessLog() {
+        return server.getAccessLog();
+    }
+    
+    /**
+     * Gets the limit of the requests handled at the same time, mainly to read its state.
+     *
+     * @return the admission control
+     */
+    public static AdmissionControl getAdmissionControl() {
+        return server.getAdmissionControl();
+    }
+    
+    /**
+     * Gets the metrics of the server, also served in the Prometheus text format at "/metrics".
+     *
+     * @return the metrics registry
+     */
+    public static ServerMetrics getMetrics() {
+        return server.getMetrics();
+    }
+    
+    /**
+     * Gets the default server the static methods act on.
+     *
+     * @return the default server
+     */
+    public static WebServer getServer() {
+        return server;
     }
     
     /**
@@ -202,7 +328,16 @@ public class HttpServer {
      * @param localFilesPath the path to the static files directory
      */
     public static void staticfiles(String localFilesPath){
-        ROOT_DIRECTORY = "target/classes" + localFilesPath;
+        server.staticfiles(localFilesPath);
+    }
+
+    /**
+     * Gets the root directory the static files are served from.
+     *
+     * @return the directory path, below target/classes
+     */
+    public static String getRootDirectory() {
+        return server.getRootDirectory();
     }
     
     /**
@@ -210,13 +345,23 @@ public class HttpServer {
      * This is a convenience method that calls runServer().
      * 
      * @param args command line arguments passed to runServer()
-     * @throws IOException if an I/O error occurs during server operation
+     * @throws IOException if the port cannot be bound
      * @throws URISyntaxException if there's an error parsing request URIs
      */
     public static void start(String[] args) throws IOException, URISyntaxException{
         runServer(args);
     }
     
+    /**
+     * Stops the HTTP server gracefully, see {@link WebServer#stop(Duration)}.
+     * 
+     * @param timeout the time given to the requests in flight
+     * @return true if every connection finished in time, false if some had to be cut
+     */
+    public static boolean stop(Duration timeout){
+        return server.stop(timeout);
+    }
+    
     /**
      * Invokes a registered REST service for the given URI.
      * Creates HttpRequest and HttpResponse objects and passes them to the service.
@@ -226,17 +371,6 @@ public class HttpServer {
      * @return a complete HTTP response string with headers and body, or a 404 error if service not found
      */
     public static String invokeService(URI uri){
-        String key = uri.getPath();
-        Service s = services.get(key);
-        if (s != null) {
-            HttpRequest req = new HttpRequest(uri);
-            HttpResponse res = new HttpResponse();
-            String serviceResponse = s.invoke(req, res);
-            return "HTTP/1.1 " + res.getStatusCode() + " " + res.getStatusMessage() + "\r\n" 
-                   + "content-type: " + res.getContentType() + "\r\n"
-                   + "\r\n" + serviceResponse;
-        }
-        return "HTTP/1.1 404 Not Found\r\n" + "content-type: text/plain; charset=utf-8\r\n"
-               + "\r\n" + "Service not found";
+        return server.invokeService(uri);
     }
 }
@@ -0,0 +1,265 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Streaming decoder of multipart bodies (RFC 7578 / RFC 2046). Parts are returned one at a
+ * time and their content is read straight from the body through a fixed-size buffer, so
+ * uploaded files of any size are never held in memory.
+ * <pre>
+ * MultipartReader reader = req.getMultipart();
+ * for (Part part = reader.next(); part != null; part = reader.next()) {
+ *     part.getInputStream().transferTo(destination);
+ * }
+ * </pre>
+ *
+ * @author daniel.aldana-b
+ */
+public class MultipartReader {
+    // Size of the read buffer, besides room for one delimiter
+    private static final int BUFFER_SIZE = 8192;
+    // Largest header section accepted for one part
+    private static final int MAX_PART_HEADER_SIZE = 16 * 1024;
+
+    // Body being decoded
+    private final InputStream in;
+    // "\r\n--" followed by the boundary, which ends each part
+    private final byte[] delimiter;
+    private final byte[] buffer;
+    // Unread bytes of the buffer, between pos and limit
+    private int pos;
+    private int limit;
+    private boolean eof;
+    // Content stream of the part being read, null before the first part
+    private PartStream current;
+    private boolean finished;
+
+    /**
+     * Creates a reader of a multipart body.
+     * @param in the body stream
+     * @param boundary the boundary parameter of the content type
+     */
+    public MultipartReader(InputStream in, String boundary) {
+        if (boundary == null || boundary.isEmpty() || boundary.length() > 70) {
+            throw new IllegalArgumentException("Invalid multipart boundary: " + boundary);
+        }
+        this.in = in;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.buffer = new byte[BUFFER_SIZE + delimiter.length];
+        // the first delimiter may start the body, pretend a line break precedes it
+        buffer[0] = '\r';
+        buffer[1] = '\n';
+        limit = 2;
+    }
+
+    /**
+     * Gets the boundary of a multipart content type.
+     * @param contentType the content-type header of a request
+     * @return the boundary, or null if the content type is not multipart or has no boundary
+     */
+    public static String boundary(String contentType) {
+        if (contentType == null || !contentType.trim().toLowerCase(Locale.ROOT).startsWith("multipart/")) {
+            return null;
+        }
+        return Part.parameter(contentType, "boundary");
+    }
+
+    /**
+     * Moves to the next part, skipping whatever was not read of the current one.
+     * @return the next part, or null after the last one
+     * @throws IOException if the body cannot be read or is not a valid multipart body
+     */
+    public Part next() throws IOException {
+        if (finished) {
+            return null;
+        }
+        if (current == null) {
+            skipPreamble();
+        } else {
+            current.skipRest();
+        }
+        if (!ensure(2)) {
+            throw new BadRequestException("Unexpected end of multipart body");
+        }
+        if (buffer[pos] == '-' && buffer[pos + 1] == '-') {
+            // close delimiter, the epilogue that may follow is ignored
+            finished = true;
+            return null;
+        }
+        String line = readLine(MAX_PART_HEADER_SIZE);
+        if (!line.trim().isEmpty()) {
+            throw new BadRequestException("Malformed multipart delimiter");
+        }
+        Map<String, String> headers = new LinkedHashMap<>();
+        int headerSize = 0;
+        while (!(line = readLine(MAX_PART_HEADER_SIZE - headerSize)).isEmpty()) {
+            headerSize += line.length() + 2;
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                throw new BadRequestException("Malformed multipart header: " + line);
+            }
+            headers.merge(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim(),
+                    (first, second) -> first + ", " + second);
+        }
+        current = new PartStream();
+        return new Part(headers, current);
+    }
+
+    /**
+     * Skips everything up to the end of the first delimiter.
+     */
+    private void skipPreamble() throws IOException {
+        while (true) {
+            int index = indexOfDelimiter();
+            if (index >= 0) {
+                pos = index + delimiter.length;
+                return;
+            }
+            pos = Math.max(pos, limit - delimiter.length + 1);
+            if (!fill()) {
+                throw new BadRequestException("Multipart boundary not found");
+            }
+        }
+    }
+
+    /**
+     * Reads a line ending in CRLF or LF, decoded as UTF-8.
+     * @param maxLength the longest line accepted
+     */
+    private String readLine(int maxLength) throws IOException {
+        int scanned = pos;
+        while (true) {
+            for (int i = scanned; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    int end = i > pos && buffer[i - 1] == '\r' ? i - 1 : i;
+                    String line = new String(buffer, pos, end - pos, StandardCharsets.UTF_8);
+                    pos = i + 1;
+                    return line;
+                }
+            }
+            if (limit - pos >= Math.min(maxLength, BUFFER_SIZE)) {
+                throw new BadRequestException(431, "Request Header Fields Too Large", "Multipart headers too large");
+            }
+            scanned = limit - pos;
+            if (!fill()) {
+                throw new BadRequestException("Unexpected end of multipart body");
+            }
+            // fill moved the unread bytes to the start of the buffer
+            scanned = pos + scanned;
+        }
+    }
+
+    /**
+     * Makes sure the buffer holds at least some unread bytes.
+     * @return false if the body ends first
+     */
+    private boolean ensure(int count) throws IOException {
+        while (limit - pos < count) {
+            if (!fill()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Moves the unread bytes to the start of the buffer and reads more after them.
+     * @return false at the end of the body
+     */
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+        limit -= pos;
+        pos = 0;
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            eof = true;
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+
+    /**
+     * Finds the next delimiter among the unread bytes.
+     * @return its index, or -1 if it is not complete in the buffer
+     */
+    private int indexOfDelimiter() {
+        int last = limit - delimiter.length;
+        outer:
+        for (int i = pos; i <= last; i++) {
+            if (buffer[i] != '\r') {
+                continue;
+            }
+            for (int j = 1; j < delimiter.length; j++) {
+                if (buffer[i + j] != delimiter[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Content of the current part, ending right before the next delimiter.
+     */
+    private class PartStream extends InputStream {
+        private boolean done;
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (done || current != this) {
+                return -1;
+            }
+            if (length == 0) {
+                return 0;
+            }
+            while (true) {
+                int index = indexOfDelimiter();
+                int available = index >= 0 ? index - pos : limit - pos - delimiter.length + 1;
+                if (index == pos) {
+                    done = true;
+                    pos += delimiter.length;
+                    return -1;
+                }
+                if (available > 0) {
+                    int count = Math.min(length, available);
+                    System.arraycopy(buffer, pos, bytes, offset, count);
+                    pos += count;
+                    return count;
+                }
+                if (!fill()) {
+                    throw new BadRequestException("Unexpected end of multipart body");
+                }
+            }
+        }
+
+        /**
+         * Skips the unread content, up to the next delimiter.
+         */
+        void skipRest() throws IOException {
+            byte[] skip = new byte[BUFFER_SIZE];
+            while (read(skip, 0, skip.length) >= 0) {
+                // discard
+            }
+        }
+    }
+}
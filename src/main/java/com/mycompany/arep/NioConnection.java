@@ -0,0 +1,835 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * State of one connection served by a {@link NioEventLoop}.
+ * Requests are parsed on the loop thread straight from a pooled read buffer and
+ * handled one at a time on the worker executor, which keeps pipelined responses
+ * in order. Request bodies are decoded on the loop too and passed to the worker
+ * through a bounded {@link BodyPipe}. Responses are queued by the handler and written by the loop with
+ * gathering writes, or with {@link FileChannel#transferTo} for file bodies.
+ * A handler producing data faster than the client reads it waits until the queue drains.
+ * While an {@link AsyncService} completes its response no thread is held; the loop keeps
+ * reading so a client closing the connection cancels the service.
+ * Requests are parsed into contexts reused from the loop pool, and streamed bodies are collected
+ * in buffers lent by the loop that go back to it once written.
+ * After a WebSocket handshake the loop decodes the frames of the session. Frames sent to a
+ * session and events pushed to an event stream are queued without ever blocking the sender;
+ * a client letting too much output queue up is disconnected.
+ *
+ * @author daniel.aldana-b
+ */
+class NioConnection implements Transport {
+    // Queued bytes above which a writing handler waits for the queue to drain
+    private static final long HIGH_WATER_MARK = 256 * 1024;
+    // Queued bytes below which a waiting handler resumes
+    private static final long LOW_WATER_MARK = 64 * 1024;
+    // Maximum number of buffers handed to one gathering write
+    private static final int MAX_GATHER = 64;
+    // Queued bytes above which pushed bytes, WebSocket frames or events, are refused
+    private static final long MAX_PUSH_QUEUE = 1024 * 1024;
+    private static final byte[] NO_DATA = new byte[0];
+
+    // Loop owning this connection
+    private final NioEventLoop loop;
+    // Client channel
+    private final SocketChannel channel;
+    // Registration of the channel in the loop selector
+    private final SelectionKey key;
+
+    // The fields below are only touched by the loop thread
+    // Pooled buffer holding unparsed input, null when there is none
+    private ByteBuffer input;
+    // Parser of the request head being received, which may span several reads
+    private final RequestParser parser;
+    // Decoder of the request body still arriving, null when there is none
+    private BodyDecoder decoder;
+    // Pipe handing that body to the worker, null once the worker stopped reading it
+    private BodyPipe pipe;
+    // Context of the request being received or handled, null between requests
+    private RequestContext context;
+    // Whether a request is being handled by a worker
+    private boolean busy;
+    // Response an asynchronous service is completing, null when there is none
+    private CompletableFuture<Void> awaiting;
+    // Whether the connection closes once the queued output is written
+    private boolean closeAfterFlush;
+    // Number of requests received on this connection
+    private int served;
+    // Time of the last read or completed response
+    private long lastActivity = System.currentTimeMillis();
+    // WebSocket session the connection switched to, null while it serves HTTP
+    private WebSocketSession webSocket;
+    // Whether the silent WebSocket client was pinged since the last read
+    private boolean pinged;
+
+    // The fields below are guarded by this object, handlers write from worker threads
+    // Response buffers and file regions waiting to be written
+    private final ArrayDeque<Pending> outbound = new ArrayDeque<>();
+    // Number of buffered bytes waiting in the outbound queue, file regions are not counted
+    private long queuedBytes;
+    // Whether the connection has been closed
+    private boolean closed;
+    // Writer of response heads, its direct buffer is sent by gathering writes without a copy
+    private final ResponseHeadWriter heads = new ResponseHeadWriter(true);
+    // Body buffer lent to the response and not written yet, returned to the pool once written
+    private ByteBuffer lentBody;
+
+    /**
+     * Creates the state of a registered connection.
+     * @param loop the loop owning the connection
+     * @param channel the non-blocking client channel
+     * @param key the registration of the channel
+     */
+    NioConnection(NioEventLoop loop, SocketChannel channel, SelectionKey key) {
+        this.loop = loop;
+        this.channel = channel;
+        this.key = key;
+        this.parser = new RequestParser(loop.config());
+        loop.metrics().connectionOpened();
+    }
+
+    /**
+     * Reads the available bytes and starts handling the complete requests.
+     */
+    void onReadable() {
+        if (input == null) {
+            input = loop.buffers().acquire();
+        }
+        int read;
+        try {
+            read = channel.read(input);
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        if (read < 0) {
+            close();
+            return;
+        }
+        loop.metrics().bytesReceived(read);
+        lastActivity = System.currentTimeMillis();
+        pinged = false;
+        processInput();
+    }
+
+    /**
+     * Continues writing the queued output once the channel accepts more bytes.
+     */
+    void onWritable() {
+        flushOutbound();
+    }
+
+    /**
+     * Decodes the body of the current request and parses the buffered input while no request
+     * is being handled. A partial head is kept by the parser, so the read buffer can be released
+     * between reads.
+     */
+    private void processInput() {
+        input.flip();
+        try {
+            while (!closeAfterFlush && input != null && input.hasRemaining()) {
+                if (webSocket != null) {
+                    webSocket.receive(input);
+                    break;
+                }
+                if (decoder != null) {
+                    if (pipe != null && pipe.isFull()) {
+                        break;
+                    }
+                    if (!decodeBody()) {
+                        break;
+                    }
+                    continue;
+                }
+                if (busy) {
+                    break;
+                }
+                HttpRequest request;
+                try {
+                    if (!parser.parse(input)) {
+                        break;
+                    }
+                    context = loop.contexts().acquire(this);
+                    request = parser.request(context.request());
+                    decoder = BodyDecoder.forRequest(request, loop.config());
+                } catch (BadRequestException e) {
+                    reject(e);
+                    break;
+                }
+                if (decoder == null && loop.config().isHttp2() && Http2Connection.accepts(request)
+                        && !hasQueuedOutput()) {
+                    switchToHttp2(request);
+                    break;
+                }
+                startRequest(request);
+            }
+        } finally {
+            if (input != null && input.compact().position() == 0) {
+                loop.buffers().release(input);
+                input = null;
+            }
+            updateReadInterest();
+        }
+    }
+
+    /**
+     * Decodes buffered body bytes into the pipe, or drops them if the worker stopped reading.
+     * @return false if the body is malformed and the connection is closing
+     */
+    private boolean decodeBody() {
+        try {
+            ByteBuffer data = decoder.decode(input);
+            if (pipe != null) {
+                pipe.offer(data);
+            }
+        } catch (BadRequestException e) {
+            decoder = null;
+            if (pipe != null) {
+                pipe.fail(e);
+                pipe = null;
+            }
+            if (busy) {
+                closeAfterFlush = true;
+            } else {
+                reject(e);
+            }
+            return false;
+        }
+        if (decoder.isFinished()) {
+            decoder = null;
+            if (pipe != null) {
+                pipe.finish();
+                pipe = null;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads from the channel only while there is somewhere to put the bytes: a request body
+     * with room in its pipe, the next request once the current one is answered, or the
+     * WebSocket session while its handler keeps up.
+     */
+    private void updateReadInterest() {
+        if (!key.isValid()) {
+            return;
+        }
+        // while a response is awaited, reading only watches for the client closing the connection
+        boolean read = !closeAfterFlush && (webSocket != null ? !webSocket.isBacklogged()
+                : decoder != null ? pipe == null || !pipe.isFull()
+                : !busy || awaiting != null && (input == null || input.hasRemaining()));
+        int ops = key.interestOps();
+        key.interestOps(read ? ops | SelectionKey.OP_READ : ops & ~SelectionKey.OP_READ);
+    }
+
+    /**
+     * Continues decoding input once the worker has made room for it, in the pipe of a body
+     * or in the event queue of a WebSocket session.
+     */
+    private void resumeInput() {
+        if (isClosed()) {
+            return;
+        }
+        if (input != null) {
+            processInput();
+        } else {
+            updateReadInterest();
+        }
+    }
+
+    /**
+     * Hands the connection over to HTTP/2, which is served with blocking I/O on its own threads:
+     * the channel leaves the selector, and the bytes already received go with it.
+     * The connection slot is given back when the HTTP/2 connection ends.
+     * @param request the request that started HTTP/2
+     */
+    private void switchToHttp2(HttpRequest request) {
+        // the request goes on with the HTTP/2 connection, its context is not reused
+        context.release(false);
+        context = null;
+        ByteBuffer buffered = ByteBuffer.allocate(input.remaining()).put(input).flip();
+        loop.buffers().release(input);
+        input = null;
+        synchronized (this) {
+            // the loop neither writes nor closes the channel any more
+            closed = true;
+        }
+        loop.handOff(key, () -> {
+            Thread thread = new Thread(() -> serveHttp2(request, buffered), "http2-connection");
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    /**
+     * Serves the connection as HTTP/2 until it ends, then closes it.
+     */
+    private void serveHttp2(HttpRequest request, ByteBuffer buffered) {
+        try {
+            channel.configureBlocking(true);
+            channel.socket().setSoTimeout(loop.config().getKeepAliveTimeout());
+            loop.serveHttp2(new Http2Connection(loop.server(), loop.config(), loop.metrics(),
+                    loop.dispatcher()::execute, channel, buffered), request);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Connection error: " + e.getMessage());
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            loop.dispatcher().release();
+            loop.metrics().connectionClosed();
+        }
+    }
+
+    /**
+     * Hands a parsed request to a worker. Reading goes on only to receive its body.
+     * @param request the parsed request
+     */
+    private void startRequest(HttpRequest request) {
+        served++;
+        boolean keepAlive = request.isKeepAlive()
+                && served < loop.config().getMaxKeepAliveRequests();
+        if (decoder != null) {
+            pipe = new BodyPipe(() -> loop.execute(this::resumeInput), loop.config().getKeepAliveTimeout());
+            request.setBody(pipe, decoder.getContentLength(), loop.config());
+            if (request.expectsContinue()) {
+                try {
+                    write(ResponseHeadWriter.continueLine());
+                } catch (IOException e) {
+                    close();
+                    return;
+                }
+            }
+        }
+        busy = true;
+        HttpResponse response = context.response();
+        loop.dispatcher().execute(() -> {
+            response.setKeepAlive(keepAlive);
+            CompletableFuture<Void> done;
+            try {
+                done = loop.server().handleRequestAsync(request, response);
+            } catch (IOException | RuntimeException e) {
+                done = CompletableFuture.failedFuture(e);
+            }
+            if (!done.isDone()) {
+                CompletableFuture<Void> pending = done;
+                loop.execute(() -> awaitResponse(pending));
+            }
+            done.whenComplete((ignored, error) -> {
+                request.release();
+                if (error != null && !(error instanceof CancellationException)) {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error;
+                    System.err.println("Connection error: " + cause.getMessage());
+                }
+                boolean reuse = keepAlive && error == null && response.isComplete() && response.isKeepAlive();
+                // a service that failed or was cancelled may still hold the request and response
+                boolean recycle = error == null;
+                loop.execute(() -> finishRequest(reuse, recycle));
+            });
+        });
+    }
+
+    /**
+     * Watches the connection while an asynchronous service completes the response.
+     * @param done the future of the response
+     */
+    private void awaitResponse(CompletableFuture<Void> done) {
+        if (!busy || done.isDone()) {
+            return;
+        }
+        if (isClosed()) {
+            done.cancel(true);
+            return;
+        }
+        awaiting = done;
+        updateReadInterest();
+    }
+
+    /**
+     * Resumes reading after a response was produced, or schedules the close.
+     * @param keepAlive whether the connection may serve another request
+     * @param recycle whether the request context can be reused
+     */
+    private void finishRequest(boolean keepAlive, boolean recycle) {
+        WebSocketSession session = recycle ? context.response().getUpgrade() : null;
+        if (session != null) {
+            switchToWebSocket(session);
+            return;
+        }
+        context.release(recycle);
+        context = null;
+        busy = false;
+        awaiting = null;
+        lastActivity = System.currentTimeMillis();
+        if (pipe != null) {
+            // the rest of an unread body is skipped before the next request
+            pipe.close();
+            pipe = null;
+        }
+        if (!keepAlive || loop.isDraining()) {
+            closeAfterFlush = true;
+        }
+        flushOutbound();
+        if (isClosed() || closeAfterFlush) {
+            return;
+        }
+        if (input != null) {
+            processInput();
+        } else {
+            updateReadInterest();
+        }
+    }
+
+    /**
+     * Serves a WebSocket session on the connection once its handshake response is queued.
+     * The bytes received after the handshake are the first frames of the session.
+     * @param session the session opened by the handshake
+     */
+    private void switchToWebSocket(WebSocketSession session) {
+        // the request goes on with the session, its context is not reused
+        context.release(false);
+        context = null;
+        busy = false;
+        awaiting = null;
+        lastActivity = System.currentTimeMillis();
+        if (isClosed()) {
+            return;
+        }
+        webSocket = session;
+        session.connect(new WebSocketOutput(), loop.dispatcher()::execute, () -> loop.execute(this::resumeInput));
+        if (loop.isDraining()) {
+            session.close(WebSocketCodec.GOING_AWAY, "Server shutting down");
+        }
+        flushOutbound();
+        if (isClosed() || closeAfterFlush) {
+            return;
+        }
+        if (input != null) {
+            processInput();
+        } else {
+            updateReadInterest();
+        }
+    }
+
+    /**
+     * Queues pushed bytes without waiting for the client to read the bytes before them, so one
+     * thread can send a WebSocket frame or an event to many connections.
+     */
+    @Override
+    public boolean offer(ByteBuffer buffer) throws IOException {
+        boolean wasEmpty;
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Connection closed");
+            }
+            if (queuedBytes > MAX_PUSH_QUEUE) {
+                return false;
+            }
+            wasEmpty = outbound.isEmpty();
+            queuedBytes += buffer.remaining();
+            outbound.add(new Pending(buffer, false));
+        }
+        if (loop.inEventLoop()) {
+            flushOutbound();
+        } else if (wasEmpty) {
+            // otherwise a flush is already scheduled, or waits for the channel to become writable
+            loop.execute(this::flushOutbound);
+        }
+        return true;
+    }
+
+    /**
+     * Closes the WebSocket connection once its queued frames are written.
+     */
+    private void closeWebSocket() {
+        if (!isClosed()) {
+            closeAfterFlush = true;
+            updateReadInterest();
+            flushOutbound();
+        }
+    }
+
+    /**
+     * Answers a malformed request with the status of the error and closes the connection.
+     * @param error the description of the problem
+     */
+    private void reject(BadRequestException error) {
+        closeAfterFlush = true;
+        if (context != null) {
+            context.release(true);
+            context = null;
+        }
+        HttpResponse response = new HttpResponse(this);
+        response.setStatus(error.getStatusCode(), error.getStatusMessage());
+        loop.metrics().recordStatus(error.getStatusCode());
+        try {
+            response.send(error.getMessage());
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    @Override
+    public void write(ByteBuffer... buffers) throws IOException {
+        boolean mustWait;
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Connection closed");
+            }
+            for (ByteBuffer buffer : buffers) {
+                boolean pooled = buffer == lentBody;
+                if (pooled) {
+                    lentBody = null;
+                }
+                if (buffer.hasRemaining()) {
+                    queuedBytes += buffer.remaining();
+                    outbound.add(new Pending(buffer, pooled));
+                } else if (pooled) {
+                    loop.bodyBuffers().release(buffer);
+                }
+            }
+            mustWait = queuedBytes >= HIGH_WATER_MARK;
+        }
+        if (loop.inEventLoop()) {
+            flushOutbound();
+        } else if (mustWait) {
+            loop.execute(this::flushOutbound);
+            awaitDrain();
+        }
+    }
+
+    @Override
+    public synchronized ResponseHeadWriter headWriter() {
+        // the previous head may still wait in the queue, such as behind a pipelined response
+        return outbound.isEmpty() ? heads.reset() : new ResponseHeadWriter(false);
+    }
+
+    @Override
+    public synchronized ByteBuffer bodyBuffer() {
+        // a buffer lent before and never written, such as one of a discarded body, is left to the GC
+        lentBody = loop.bodyBuffers().acquire();
+        return lentBody;
+    }
+
+    @Override
+    public void transferFile(FileChannel file, long position, long count) throws IOException {
+        synchronized (this) {
+            if (closed || count == 0) {
+                file.close();
+                if (closed) {
+                    throw new IOException("Connection closed");
+                }
+                return;
+            }
+            outbound.add(new Pending(file, position, position + count));
+        }
+        if (loop.inEventLoop()) {
+            flushOutbound();
+        }
+    }
+
+    @Override
+    public boolean isClosing() {
+        return loop.isDraining();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (loop.inEventLoop()) {
+            flushOutbound();
+        } else {
+            loop.execute(this::flushOutbound);
+        }
+    }
+
+    /**
+     * Blocks a handler thread until the loop has written most of the queued output.
+     * @throws IOException if the connection closes or the thread is interrupted while waiting
+     */
+    private synchronized void awaitDrain() throws IOException {
+        try {
+            while (!closed && queuedBytes > LOW_WATER_MARK) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing response");
+        }
+        if (closed) {
+            throw new IOException("Connection closed");
+        }
+    }
+
+    /**
+     * Writes as much queued output as the channel accepts, using gathering writes for
+     * buffers and zero-copy transfers for file regions.
+     * Waits for the channel to become writable again when the socket buffer is full.
+     */
+    private void flushOutbound() {
+        try {
+            while (true) {
+                Pending first;
+                ByteBuffer[] batch = null;
+                synchronized (this) {
+                    if (closed) {
+                        return;
+                    }
+                    first = outbound.peekFirst();
+                    if (first == null) {
+                        break;
+                    }
+                    if (first.file == null) {
+                        batch = gatherBuffers();
+                    }
+                }
+                boolean drained;
+                if (batch != null) {
+                    long written = channel.write(batch);
+                    loop.metrics().bytesSent(written);
+                    drained = !batch[batch.length - 1].hasRemaining();
+                    synchronized (this) {
+                        queuedBytes -= written;
+                        while (!outbound.isEmpty() && outbound.peekFirst().isDone()) {
+                            Pending done = outbound.pollFirst();
+                            if (done.pooled) {
+                                loop.bodyBuffers().release(done.buffer);
+                            }
+                        }
+                        notifyAll();
+                    }
+                } else {
+                    long sent = first.file.transferTo(first.position, first.end - first.position, channel);
+                    loop.metrics().bytesSent(sent);
+                    first.position += sent;
+                    drained = first.isDone();
+                    if (drained) {
+                        first.file.close();
+                        synchronized (this) {
+                            outbound.pollFirst();
+                        }
+                    } else if (first.position >= first.file.size()) {
+                        throw new IOException("File truncated while sending");
+                    }
+                }
+                if (!drained) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        if (closeAfterFlush && !busy) {
+            close();
+        }
+    }
+
+    /**
+     * Collects the buffers at the head of the queue, up to the next file region.
+     * Must be called holding the lock of this connection.
+     * @return the buffers for one gathering write
+     */
+    private ByteBuffer[] gatherBuffers() {
+        int count = 0;
+        for (Pending pending : outbound) {
+            if (pending.file != null || count == MAX_GATHER) {
+                break;
+            }
+            count++;
+        }
+        ByteBuffer[] batch = new ByteBuffer[count];
+        int i = 0;
+        for (Pending pending : outbound) {
+            if (i == count) {
+                break;
+            }
+            batch[i++] = pending.buffer;
+        }
+        return batch;
+    }
+
+    /**
+     * Closes the connection if it has waited too long for a new request.
+     * @param now the current time in milliseconds
+     * @param timeout the idle timeout in milliseconds
+     */
+    void closeIfIdle(long now, long timeout) {
+        if (webSocket != null) {
+            long idle = now - lastActivity;
+            int webSocketTimeout = loop.config().getWebSocketIdleTimeout();
+            if (idle > webSocketTimeout) {
+                close();
+            } else if (idle > webSocketTimeout / 2 && !pinged) {
+                pinged = true;
+                webSocket.ping(NO_DATA);
+            }
+            return;
+        }
+        if (!busy && now - lastActivity > timeout && !hasQueuedOutput()) {
+            close();
+        }
+    }
+
+    /**
+     * Closes the connection if it waits for a new request, or once its queued output is written
+     * if it has no request either. A connection with a request in flight or arriving is left to
+     * close after the response. A WebSocket session is closed with status 1001.
+     */
+    void drain() {
+        if (webSocket != null) {
+            webSocket.close(WebSocketCodec.GOING_AWAY, "Server shutting down");
+            return;
+        }
+        if (busy || decoder != null || parser.isStarted() || input != null && input.position() > 0) {
+            return;
+        }
+        if (hasQueuedOutput()) {
+            closeAfterFlush = true;
+            updateReadInterest();
+        } else {
+            close();
+        }
+    }
+
+    /**
+     * Tells whether response bytes are still waiting to be written.
+     * @return true if the outbound queue is not empty
+     */
+    private synchronized boolean hasQueuedOutput() {
+        return !outbound.isEmpty();
+    }
+
+    /**
+     * Tells whether the connection has been closed.
+     * @return true once closed
+     */
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Closes the channel and gives back its buffer and connection slot.
+     * Must be called from the loop thread.
+     */
+    void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Pending pending : outbound) {
+                if (pending.file != null) {
+                    try {
+                        pending.file.close();
+                    } catch (IOException ignored) {
+                    }
+                } else if (pending.pooled) {
+                    loop.bodyBuffers().release(pending.buffer);
+                }
+            }
+            outbound.clear();
+            queuedBytes = 0;
+            notifyAll();
+        }
+        if (pipe != null) {
+            pipe.fail(new IOException("Connection closed inside request body"));
+            pipe = null;
+        }
+        if (awaiting != null) {
+            awaiting.cancel(true);
+            awaiting = null;
+        }
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        if (input != null) {
+            loop.buffers().release(input);
+            input = null;
+        }
+        if (context != null && !busy) {
+            // a request was received without being handed to a worker, which would release it
+            context.release(false);
+            context = null;
+        }
+        loop.dispatcher().release();
+        loop.metrics().connectionClosed();
+        if (webSocket != null) {
+            webSocket.closed();
+        }
+    }
+
+    /**
+     * Connection of the WebSocket session served by this connection.
+     */
+    private final class WebSocketOutput implements WebSocketSession.Connection {
+        @Override
+        public boolean send(ByteBuffer frame) throws IOException {
+            return offer(frame);
+        }
+
+        @Override
+        public void close() {
+            if (loop.inEventLoop()) {
+                closeWebSocket();
+            } else {
+                loop.execute(NioConnection.this::closeWebSocket);
+            }
+        }
+    }
+
+    /**
+     * An entry of the outbound queue: either a buffer or a region of a file.
+     */
+    private static final class Pending {
+        // Bytes to write, null for a file region
+        final ByteBuffer buffer;
+        // Whether the buffer goes back to the body buffer pool once written
+        final boolean pooled;
+        // File to transfer, null for a buffer
+        final FileChannel file;
+        // Next file offset to transfer
+        long position;
+        // File offset where the region ends
+        final long end;
+
+        Pending(ByteBuffer buffer, boolean pooled) {
+            this.buffer = buffer;
+            this.pooled = pooled;
+            this.file = null;
+            this.end = 0;
+        }
+
+        Pending(FileChannel file, long position, long end) {
+            this.buffer = null;
+            this.pooled = false;
+            this.file = file;
+            this.position = position;
+            this.end = end;
+        }
+
+        boolean isDone() {
+            return file == null ? !buffer.hasRemaining() : position >= end;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Engine built on non-blocking channels.
+ * A single acceptor spreads the accepted connections over a few {@link NioEventLoop}s,
+ * which read and parse requests and write responses. Request handlers run on the
+ * worker executor, so a thread is only used while a request is being processed and
+ * idle connections cost no thread at all.
+ * While draining, the loops keep running until the engine is closed so the connections
+ * with a request in flight can finish it.
+ *
+ * @author daniel.aldana-b
+ */
+class NioEngine implements ServerEngine {
+    // Server settings
+    private final ServerConfig config;
+    // Metrics counting connections and transferred bytes
+    private final ServerMetrics metrics;
+    // Server answering the requests
+    private final WebServer server;
+    // Listening channel, null until bound
+    private ServerSocketChannel serverChannel;
+    // Event loops, null until serving starts
+    private volatile NioEventLoop[] running;
+    // Set once draining starts
+    private volatile boolean draining;
+    // Released when the engine closes
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    /**
+     * Creates a NIO engine for the given configuration.
+     * @param config the server configuration
+     * @param metrics the metrics counting connections and transferred bytes
+     * @param server the server answering the requests
+     */
+    NioEngine(ServerConfig config, ServerMetrics metrics, WebServer server) {
+        this.config = config;
+        this.metrics = metrics;
+        this.server = server;
+    }
+
+    @Override
+    public void bind() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(config.getPort()), config.getAcceptBacklog());
+    }
+
+    @Override
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public void serve() throws IOException {
+        NioEventLoop[] loops = new NioEventLoop[config.getEventLoopThreads()];
+        try (ConnectionDispatcher dispatcher = new ConnectionDispatcher(config)) {
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new NioEventLoop(config, dispatcher, metrics, server);
+                loops[i].start("nio-event-loop-" + (i + 1));
+            }
+            running = loops;
+            if (draining) {
+                drainLoops(loops);
+            }
+            int next = 0;
+            while (serverChannel.isOpen()) {
+                try {
+                    dispatcher.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                SocketChannel channel;
+                try {
+                    channel = serverChannel.accept();
+                } catch (ClosedChannelException e) {
+                    dispatcher.release();
+                    break;
+                } catch (IOException e) {
+                    dispatcher.release();
+                    System.err.println("Accept failed: " + e.getMessage());
+                    continue;
+                }
+                loops[next].register(channel);
+                next = (next + 1) % loops.length;
+            }
+            if (draining) {
+                // the loops finish the requests in flight until the engine is closed
+                try {
+                    closed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        } finally {
+            for (NioEventLoop loop : loops) {
+                if (loop != null) {
+                    loop.shutdown();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void drain() {
+        draining = true;
+        try {
+            serverChannel.close();
+        } catch (IOException ignored) {
+        }
+        NioEventLoop[] loops = running;
+        if (loops != null) {
+            drainLoops(loops);
+        }
+    }
+
+    private static void drainLoops(NioEventLoop[] loops) {
+        for (NioEventLoop loop : loops) {
+            loop.drain();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed.countDown();
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
+        NioEventLoop[] loops = running;
+        if (loops != null) {
+            // closing the connections frees the slot an acceptor may be waiting for
+            for (NioEventLoop loop : loops) {
+                loop.shutdown();
+            }
+        }
+    }
+}
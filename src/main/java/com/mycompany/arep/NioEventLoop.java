@@ -0,0 +1,311 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Selector thread serving a share of the NIO engine connections.
+ * All the connection I/O happens on this thread; other threads hand work to it
+ * through {@link #execute(Runnable)}.
+ *
+ * @author daniel.aldana-b
+ */
+class NioEventLoop implements Runnable {
+    // Capacity of the read buffers, which is also the largest request head accepted
+    static final int READ_BUFFER_SIZE = 16 * 1024;
+    // Milliseconds between two scans for idle connections
+    private static final long IDLE_CHECK_INTERVAL = 1000;
+
+    // Server settings
+    private final ServerConfig config;
+    // Executor running the request handlers and limiting open connections
+    private final ConnectionDispatcher dispatcher;
+    // Metrics counting connections and transferred bytes
+    private final ServerMetrics metrics;
+    // Server answering the requests
+    private final WebServer server;
+    // Selector multiplexing the connections of this loop
+    private final Selector selector;
+    // Work submitted from other threads
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // Read buffers shared by the connections of this loop
+    private final BufferPool buffers = new BufferPool(READ_BUFFER_SIZE, 64);
+    // Buffers lent to the bodies streamed by the workers, given back once written
+    private final BufferPool bodyBuffers = new BufferPool(Transport.BODY_BUFFER_SIZE, 64, false);
+    // Requests and responses reused by the connections of this loop
+    private final RequestContext.Pool contexts = new RequestContext.Pool(256);
+    // HTTP/2 connections taken out of the selector, each served by threads of its own
+    private final Set<Http2Connection> http2 = ConcurrentHashMap.newKeySet();
+    // Thread running the loop
+    private Thread thread;
+    // Cleared to stop the loop
+    private volatile boolean running = true;
+    // Set once the engine drains, connections then close after their current request
+    private volatile boolean draining;
+
+    /**
+     * Creates an event loop with its own selector.
+     * @param config the server configuration
+     * @param dispatcher the executor for request handlers
+     * @param metrics the metrics counting connections and transferred bytes
+     * @param server the server answering the requests
+     * @throws IOException if the selector cannot be opened
+     */
+    NioEventLoop(ServerConfig config, ConnectionDispatcher dispatcher, ServerMetrics metrics, WebServer server)
+            throws IOException {
+        this.config = config;
+        this.dispatcher = dispatcher;
+        this.metrics = metrics;
+        this.server = server;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Starts the loop on a new daemon thread.
+     * @param name the thread name
+     */
+    void start(String name) {
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the loop, closing its connections, and waits for the thread to end.
+     */
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Closes the idle connections and lets the others close after their current request.
+     */
+    void drain() {
+        draining = true;
+        for (Http2Connection connection : http2) {
+            connection.drain();
+        }
+        execute(() -> {
+            for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                ((NioConnection) key.attachment()).drain();
+            }
+        });
+    }
+
+    /**
+     * Tells whether the loop is draining its connections.
+     * @return true once {@link #drain()} was called
+     */
+    boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * Adopts a freshly accepted channel.
+     * @param channel the accepted channel, still in blocking mode
+     */
+    void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new NioConnection(this, channel, key));
+            } catch (IOException e) {
+                dispatcher.release();
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        });
+    }
+
+    /**
+     * Takes a channel out of the selector. The task runs on the loop thread once the channel
+     * is deregistered, when it can be switched to blocking mode.
+     * @param key the registration of the channel
+     * @param task the task taking over the channel
+     */
+    void handOff(SelectionKey key, Runnable task) {
+        key.cancel();
+        tasks.add(task);
+        // the next select deregisters the key before the tasks run
+        selector.wakeup();
+    }
+
+    /**
+     * Serves a connection handed over to HTTP/2 until it ends, draining and closing it with the loop.
+     * @param connection the HTTP/2 connection
+     * @param request the request that started HTTP/2
+     * @throws IOException if the socket fails
+     */
+    void serveHttp2(Http2Connection connection, HttpRequest request) throws IOException {
+        http2.add(connection);
+        try {
+            // checked after joining the set, so a concurrent drain either sees or drains it
+            if (draining) {
+                connection.drain();
+            }
+            connection.serve(request);
+        } finally {
+            http2.remove(connection);
+        }
+    }
+
+    /**
+     * Runs a task on the loop thread.
+     * @param task the task to run
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Tells whether the caller runs on the loop thread.
+     * @return true when called from the loop thread
+     */
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    @Override
+    public void run() {
+        long nextIdleCheck = System.currentTimeMillis() + IDLE_CHECK_INTERVAL;
+        try {
+            while (running) {
+                selector.select(IDLE_CHECK_INTERVAL);
+                runTasks();
+                Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    SelectionKey key = selected.next();
+                    selected.remove();
+                    NioConnection connection = (NioConnection) key.attachment();
+                    if (key.isValid() && key.isReadable()) {
+                        connection.onReadable();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.onWritable();
+                    }
+                }
+                long now = System.currentTimeMillis();
+                if (now >= nextIdleCheck) {
+                    closeIdleConnections(now);
+                    nextIdleCheck = now + IDLE_CHECK_INTERVAL;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            // requests cut by the shutdown never give their context back
+            contexts.close();
+            for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                ((NioConnection) key.attachment()).close();
+            }
+            for (Http2Connection connection : http2) {
+                connection.close();
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Runs the tasks submitted by other threads.
+     */
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * Closes the connections that stayed idle longer than the keep-alive timeout.
+     * @param now the current time in milliseconds
+     */
+    private void closeIdleConnections(long now) {
+        for (SelectionKey key : new ArrayList<>(selector.keys())) {
+            ((NioConnection) key.attachment()).closeIfIdle(now, config.getKeepAliveTimeout());
+        }
+    }
+
+    /**
+     * Gets the server configuration.
+     * @return the server configuration
+     */
+    ServerConfig config() {
+        return config;
+    }
+
+    /**
+     * Gets the executor for request handlers.
+     * @return the dispatcher
+     */
+    ConnectionDispatcher dispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Gets the server answering the requests.
+     * @return the server
+     */
+    WebServer server() {
+        return server;
+    }
+
+    /**
+     * Gets the metrics of the server.
+     * @return the metrics registry
+     */
+    ServerMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Gets the read buffer pool of this loop.
+     * @return the buffer pool, only used from the loop thread
+     */
+    BufferPool buffers() {
+        return buffers;
+    }
+
+    /**
+     * Gets the pool of the buffers lent to streamed response bodies.
+     * @return the buffer pool, used from the worker threads too
+     */
+    BufferPool bodyBuffers() {
+        return bodyBuffers;
+    }
+
+    /**
+     * Gets the pool of request contexts of this loop.
+     * @return the context pool, only usable from the loop thread
+     */
+    RequestContext.Pool contexts() {
+        return contexts;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * One part of a multipart/form-data request body: a form field or an uploaded file.
+ * Parts returned by {@link MultipartReader#next()} are streamed straight from the connection
+ * and must be read before moving to the next one. Parts returned by {@link HttpRequest#getParts()}
+ * are buffered, in memory or in a temporary file depending on their size, and can be read
+ * any number of times until the request is answered.
+ *
+ * @author daniel.aldana-b
+ */
+public class Part {
+    // Part headers keyed by lower-case name
+    private final Map<String, String> headers;
+    // Field name and file name from the content-disposition header
+    private final String name;
+    private final String fileName;
+    // Content read from the connection, for streamed parts
+    private final InputStream stream;
+    // Content saved by buffer(), null for streamed parts
+    private SpillBuffer content;
+
+    /**
+     * Creates a part whose content is read from a stream.
+     * @param headers the part headers keyed by lower-case name
+     * @param stream the part content
+     */
+    Part(Map<String, String> headers, InputStream stream) {
+        this.headers = Collections.unmodifiableMap(headers);
+        this.stream = stream;
+        String disposition = headers.get("content-disposition");
+        this.name = disposition != null ? parameter(disposition, "name") : null;
+        this.fileName = disposition != null ? parameter(disposition, "filename") : null;
+    }
+
+    /**
+     * Gets the name of the form field.
+     * @return the field name, or null if the part has none
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the name of the uploaded file as sent by the client.
+     * The name is not sanitized and must not be used as a path as it is.
+     * @return the file name, or null if the part is a plain field
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Gets the media type of the content.
+     * @return the content type, "text/plain" if the part does not declare one
+     */
+    public String getContentType() {
+        String contentType = headers.get("content-type");
+        return contentType != null ? contentType : "text/plain";
+    }
+
+    /**
+     * Gets a header of the part.
+     * @param name the header name, case-insensitive
+     * @return the header value, or null if it was not sent
+     */
+    public String getHeader(String name) {
+        return headers.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Gets all the headers of the part.
+     * @return the headers keyed by lower-case name
+     */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Opens the content of the part.
+     * @return the content stream; for a streamed part, always the same live stream
+     * @throws IOException if a buffered part cannot be opened
+     */
+    public InputStream getInputStream() throws IOException {
+        return content != null ? content.openStream() : stream;
+    }
+
+    /**
+     * Gets the size of the content.
+     * @return the number of bytes, or -1 for a streamed part
+     */
+    public long getSize() {
+        return content != null ? content.size() : -1;
+    }
+
+    /**
+     * Tells whether the buffered content of the part is held in memory.
+     * @return false for streamed parts and for parts saved to a temporary file
+     */
+    public boolean isInMemory() {
+        return content != null && content.isInMemory();
+    }
+
+    /**
+     * Reads the content as UTF-8 text.
+     * @return the content
+     * @throws IOException if the content cannot be read
+     */
+    public String getString() throws IOException {
+        if (content != null) {
+            return new String(content.toByteArray(), StandardCharsets.UTF_8);
+        }
+        return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Saves the content to a file, replacing it if it exists. A part held in a temporary file
+     * is moved rather than copied, so it can only be written once.
+     * @param target the destination file
+     * @throws IOException if the content cannot be saved
+     */
+    public void write(Path target) throws IOException {
+        if (content != null && !content.isInMemory()) {
+            content.close();
+            Files.move(content.getFile(), target, StandardCopyOption.REPLACE_EXISTING);
+            return;
+        }
+        try (InputStream in = getInputStream()) {
+            Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Removes the temporary file holding the content, if any.
+     * Buffered parts are deleted automatically once the request is answered.
+     * @throws IOException if the file cannot be deleted
+     */
+    public void delete() throws IOException {
+        if (content != null) {
+            content.delete();
+        }
+    }
+
+    /**
+     * Reads the rest of the streamed content into a buffer, so the connection can move on.
+     * @param threshold the size above which the content goes to a temporary file
+     * @throws IOException if the content cannot be read or saved
+     */
+    void buffer(int threshold) throws IOException {
+        SpillBuffer buffer = new SpillBuffer(threshold);
+        try (buffer) {
+            stream.transferTo(buffer);
+        } catch (IOException e) {
+            buffer.delete();
+            throw e;
+        }
+        content = buffer;
+    }
+
+    /**
+     * Extracts a parameter from a header value such as
+     * {@code form-data; name="field"; filename="photo.jpg"}. Quoted values may contain
+     * semicolons and backslash escapes.
+     *
+     * @param header the header value
+     * @param parameter the parameter name, case-insensitive
+     * @return the unquoted parameter value, or null if it is not present
+     */
+    static String parameter(String header, String parameter) {
+        int i = header.indexOf(';');
+        while (i >= 0 && i < header.length()) {
+            i++;
+            while (i < header.length() && (header.charAt(i) == ' ' || header.charAt(i) == '\t')) {
+                i++;
+            }
+            int equals = header.indexOf('=', i);
+            if (equals < 0) {
+                return null;
+            }
+            String key = header.substring(i, equals).trim();
+            StringBuilder value = new StringBuilder();
+            i = equals + 1;
+            if (i < header.length() && header.charAt(i) == '"') {
+                for (i++; i < header.length() && header.charAt(i) != '"'; i++) {
+                    if (header.charAt(i) == '\\' && i + 1 < header.length()) {
+                        i++;
+                    }
+                    value.append(header.charAt(i));
+                }
+                i = header.indexOf(';', i);
+            } else {
+                int end = header.indexOf(';', i);
+                value.append(header.substring(i, end >= 0 ? end : header.length()).trim());
+                i = end;
+            }
+            if (key.equalsIgnoreCase(parameter)) {
+                return value.toString();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.lang.ref.Cleaner;
+import java.util.ArrayDeque;
+
+/**
+ * A request and a response reused from one request to the next, together with their buffers.
+ * The head of each request is parsed into the request of a context and the response is bound
+ * again to the connection, so answering small requests on a persistent connection allocates
+ * little beyond the strings the services ask for.
+ * <p>
+ * Contexts are taken from a {@link Pool} when a head arrives and given back once the response
+ * is complete. A context whose response may still be used, such as by a service that timed out
+ * or failed, is released without being reused. With assertions enabled, as in tests, or with
+ * -Darep.leakDetection=true, every context handed out is tracked: one that becomes unreachable
+ * without being released is reported on the standard error with the code that acquired it.
+ * Releasing a context twice always fails.
+ *
+ * @author daniel.aldana-b
+ */
+class RequestContext {
+    // Whether acquired contexts are tracked to report the ones never released
+    static final boolean LEAK_DETECTION = RequestContext.class.desiredAssertionStatus()
+            || Boolean.getBoolean("arep.leakDetection");
+
+    // The reused request and response
+    private final HttpRequest request = new HttpRequest();
+    private final HttpResponse response = new HttpResponse((Transport) null);
+    // Pool the context returns to
+    private final Pool pool;
+    // Whether the context is handed out
+    private boolean inUse;
+    // Tracking of the current use, null when leak detection is off
+    private Lease lease;
+
+    private RequestContext(Pool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Gets the request, filled by {@link RequestParser#request(HttpRequest)}.
+     * @return the request of the context
+     */
+    HttpRequest request() {
+        return request;
+    }
+
+    /**
+     * Gets the response, bound to the transport of the connection that acquired the context.
+     * @return the response of the context
+     */
+    HttpResponse response() {
+        return response;
+    }
+
+    /**
+     * Gives the context back once the request is answered.
+     * @param reuse false if a service may still hold the request or response, such as one that
+     *              failed or was cancelled; the context is then dropped instead of reused
+     * @throws IllegalStateException if the context was already released
+     */
+    void release(boolean reuse) {
+        if (!inUse) {
+            throw new IllegalStateException("Request context released twice");
+        }
+        inUse = false;
+        if (lease != null) {
+            lease.released = true;
+            lease.cleanable.clean();
+            lease = null;
+        }
+        if (reuse && !response.isAbandoned()) {
+            request.recycle();
+            response.recycle(null);
+            pool.offer(this);
+        }
+    }
+
+    /**
+     * Pool of the contexts of an event loop, or of a single blocking connection.
+     * Contexts are acquired and released by the thread owning the pool, it is not thread safe.
+     */
+    static class Pool {
+        // Maximum number of free contexts kept for reuse
+        private final int maxPooled;
+        // Contexts ready for reuse
+        private final ArrayDeque<RequestContext> free = new ArrayDeque<>();
+        // Set once the owner stops, contexts still out are then not reported as leaks
+        private volatile boolean closed;
+
+        /**
+         * Creates an empty pool.
+         * @param maxPooled maximum number of free contexts kept for reuse
+         */
+        Pool(int maxPooled) {
+            this.maxPooled = maxPooled;
+        }
+
+        /**
+         * Takes a context from the pool, creating one if none is free.
+         * @param transport the connection the response is written to
+         * @return the context, with an empty request and a fresh response
+         */
+        RequestContext acquire(Transport transport) {
+            RequestContext context = free.pollFirst();
+            if (context == null) {
+                context = new RequestContext(this);
+            }
+            context.inUse = true;
+            context.response.recycle(transport);
+            if (LEAK_DETECTION) {
+                context.lease = new Lease(this);
+                context.lease.cleanable = Tracker.CLEANER.register(context, context.lease);
+            }
+            return context;
+        }
+
+        private void offer(RequestContext context) {
+            if (!closed && free.size() < maxPooled) {
+                free.addFirst(context);
+            }
+        }
+
+        /**
+         * Drops the free contexts once the owner stops. Contexts still handed out, such as
+         * those of requests cut by the shutdown, are not reported as leaks.
+         */
+        void close() {
+            closed = true;
+            free.clear();
+        }
+    }
+
+    /**
+     * One use of a context, reported when the context is collected before being released.
+     * It holds no reference to the context, so the context can become unreachable.
+     */
+    private static final class Lease implements Runnable {
+        // Stack of the acquisition, to name the caller that acquired the context
+        private final Throwable origin = new Throwable("Request context acquired here");
+        private final Pool pool;
+        private volatile boolean released;
+        private Cleaner.Cleanable cleanable;
+
+        Lease(Pool pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public void run() {
+            if (!released && !pool.closed) {
+                System.err.println("Request context leaked: collected without being released, acquired at "
+                        + acquiredAt());
+            }
+        }
+
+        /**
+         * Gets the first caller outside this class, where the context was acquired.
+         */
+        private String acquiredAt() {
+            for (StackTraceElement frame : origin.getStackTrace()) {
+                if (!frame.getClassName().startsWith(RequestContext.class.getName())) {
+                    return frame.toString();
+                }
+            }
+            return "an unknown caller";
+        }
+    }
+
+    /**
+     * Holder of the cleaner thread, started the first time a context is tracked.
+     */
+    private static final class Tracker {
+        static final Cleaner CLEANER = Cleaner.create();
+    }
+}
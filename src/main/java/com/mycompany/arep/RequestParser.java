@@ -0,0 +1,408 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Incremental parser of HTTP/1.x request heads working on raw bytes.
+ * <p>
+ * Bytes are fed as they arrive, in chunks of any size; the parser copies the head into a
+ * buffer it reuses between requests and validates each line as soon as it is complete,
+ * recording only offsets. It stops right after the empty line ending the head, so pipelined
+ * requests and bodies are left in the input. No strings are built while parsing: the
+ * {@link HttpRequest} created at the end decodes the method, path, query and headers when
+ * they are first asked for.
+ * <p>
+ * One parser belongs to one connection and is not thread-safe.
+ *
+ * @author daniel.aldana-b
+ */
+class RequestParser {
+    // Initial and retained size of the head buffer
+    private static final int INITIAL_CAPACITY = 512;
+    private static final int RETAINED_CAPACITY = 4096;
+    // Indexes of the request line offsets
+    static final int METHOD_END = 0;
+    static final int TARGET_START = 1;
+    static final int PATH_START = 2;
+    static final int PATH_END = 3;
+    static final int QUERY_START = 4;
+    static final int QUERY_END = 5;
+    static final int VERSION_START = 6;
+    static final int VERSION_END = 7;
+    static final int REQUEST_LINE_FIELDS = 8;
+
+    // Server settings with the size limits
+    private final ServerConfig config;
+    // Bytes of the head received so far
+    private byte[] head = new byte[INITIAL_CAPACITY];
+    private int length;
+    // Start of the line being received
+    private int lineStart;
+    // Start of the header section, -1 while the request line is received
+    private int headersStart = -1;
+    // Offsets of the request line parts
+    private int[] requestLine = new int[REQUEST_LINE_FIELDS];
+    // Name start, name end, value start and value end of each header
+    private int[] headers = new int[4 * 16];
+    private int headerCount;
+
+    /**
+     * Creates a parser enforcing the limits of a configuration.
+     * @param config the server configuration
+     */
+    RequestParser(ServerConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Consumes bytes from a buffer until the request head is complete.
+     * The buffer position is left just after the head, or at its limit if more bytes are needed.
+     *
+     * @param in the received bytes, between position and limit
+     * @return true if a whole head was parsed and {@link #request} can be called
+     * @throws BadRequestException if the head is malformed or exceeds a limit
+     */
+    boolean parse(ByteBuffer in) throws BadRequestException {
+        while (in.hasRemaining()) {
+            int start = in.position();
+            int limit = in.limit();
+            int end = start;
+            while (end < limit && in.get(end) != '\n') {
+                end++;
+            }
+            boolean lineComplete = end < limit;
+            int count = (lineComplete ? end + 1 : end) - start;
+            reserve(count);
+            in.get(head, length, count);
+            length += count;
+            if (lineComplete && endLine()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tells whether part of a request head was received.
+     * @return true if bytes of an unfinished head are held
+     */
+    boolean isStarted() {
+        return length > 0;
+    }
+
+    /**
+     * Creates the request from the parsed head and makes the parser ready for the next one.
+     * @return the request, which keeps a copy of the head bytes
+     */
+    HttpRequest request() {
+        HttpRequest request = new HttpRequest(Arrays.copyOf(head, length), requestLine.clone(),
+                Arrays.copyOf(headers, 4 * headerCount));
+        reset();
+        return request;
+    }
+
+    /**
+     * Fills a recycled request with the parsed head and makes the parser ready for the next one.
+     * The head is copied into the buffers of the request, which are only grown when too small,
+     * so serving a connection allocates nothing for heads of the usual size.
+     * @param target the request to fill, recycled or new
+     * @return the request
+     */
+    HttpRequest request(HttpRequest target) {
+        System.arraycopy(head, 0, target.headBuffer(length), 0, length);
+        System.arraycopy(requestLine, 0, target.requestLineBuffer(), 0, REQUEST_LINE_FIELDS);
+        System.arraycopy(headers, 0, target.headerBuffer(4 * headerCount), 0, 4 * headerCount);
+        reset();
+        return target;
+    }
+
+    /**
+     * Forgets any partial head, shrinking the buffer if a large head made it grow.
+     */
+    void reset() {
+        length = 0;
+        lineStart = 0;
+        headersStart = -1;
+        headerCount = 0;
+        if (head.length > RETAINED_CAPACITY) {
+            head = new byte[INITIAL_CAPACITY];
+        }
+    }
+
+    /**
+     * Makes room for more head bytes, enforcing the size limits.
+     */
+    private void reserve(int count) throws BadRequestException {
+        int needed = length + count;
+        if (headersStart < 0) {
+            if (needed - lineStart > config.getMaxRequestLineLength() + 2) {
+                throw new BadRequestException(414, "URI Too Long", "Request line too long");
+            }
+        } else if (needed - headersStart > config.getMaxHeaderSize()) {
+            throw new BadRequestException(431, "Request Header Fields Too Large", "Request headers too large");
+        }
+        if (needed > head.length) {
+            head = Arrays.copyOf(head, Math.max(needed, head.length * 2));
+        }
+    }
+
+    /**
+     * Processes the line that just ended with a line feed.
+     * @return true if it was the empty line ending the head
+     */
+    private boolean endLine() throws BadRequestException {
+        int end = length - 1;
+        if (end > lineStart && head[end - 1] == '\r') {
+            end--;
+        }
+        for (int i = lineStart; i < end; i++) {
+            if (head[i] == '\r') {
+                throw new BadRequestException("Bare carriage return in request head");
+            }
+        }
+        if (headersStart < 0) {
+            if (end == lineStart) {
+                // tolerate empty lines left over between pipelined requests
+                length = lineStart;
+                return false;
+            }
+            parseRequestLine(lineStart, end);
+            headersStart = length;
+        } else if (end == lineStart) {
+            return true;
+        } else {
+            parseHeader(lineStart, end);
+        }
+        lineStart = length;
+        return false;
+    }
+
+    /**
+     * Splits and validates "METHOD SP request-target SP HTTP-version".
+     */
+    private void parseRequestLine(int start, int end) throws BadRequestException {
+        int methodEnd = start;
+        while (methodEnd < end && isTokenChar(head[methodEnd])) {
+            methodEnd++;
+        }
+        if (methodEnd == start || methodEnd == end || head[methodEnd] != ' ') {
+            throw new BadRequestException("Malformed request line");
+        }
+        int targetStart = methodEnd + 1;
+        int targetEnd = targetStart;
+        while (targetEnd < end && head[targetEnd] != ' ') {
+            targetEnd++;
+        }
+        int versionStart = targetEnd + 1;
+        if (targetEnd == targetStart || targetEnd == end || !isVersion(versionStart, end)) {
+            throw new BadRequestException("Malformed request line");
+        }
+        requestLine[METHOD_END] = methodEnd;
+        requestLine[TARGET_START] = targetStart;
+        requestLine[VERSION_START] = versionStart;
+        requestLine[VERSION_END] = end;
+        parseTarget(targetStart, targetEnd);
+    }
+
+    /**
+     * Locates the path and query of the request target and validates its characters and escapes.
+     * Absolute targets such as "http://host/path" are reduced to their path.
+     */
+    private void parseTarget(int start, int end) throws BadRequestException {
+        for (int i = start; i < end; i++) {
+            byte b = head[i];
+            if (b <= ' ' || b == 0x7f) {
+                throw new BadRequestException("Invalid character in request target");
+            }
+            if (b == '%' && (i + 2 >= end || hex(head[i + 1]) < 0 || hex(head[i + 2]) < 0)) {
+                throw new BadRequestException("Invalid escape in request target");
+            }
+        }
+        int pathStart = start;
+        if (head[start] != '/' && head[start] != '*') {
+            int scheme = indexOf(start, end, (byte) ':');
+            if (scheme > start && scheme + 2 < end && head[scheme + 1] == '/' && head[scheme + 2] == '/') {
+                int slash = indexOf(scheme + 3, end, (byte) '/');
+                int question = indexOf(scheme + 3, end, (byte) '?');
+                pathStart = slash >= 0 && (question < 0 || slash < question) ? slash : -1;
+                if (pathStart < 0) {
+                    // "http://host" or "http://host?q" has an empty path, served as "/"
+                    pathStart = question >= 0 ? question : end;
+                }
+            }
+        }
+        int fragment = indexOf(pathStart, end, (byte) '#');
+        int targetEnd = fragment >= 0 ? fragment : end;
+        int question = indexOf(pathStart, targetEnd, (byte) '?');
+        requestLine[PATH_START] = pathStart;
+        requestLine[PATH_END] = question >= 0 ? question : targetEnd;
+        checkPath(pathStart, requestLine[PATH_END]);
+        requestLine[QUERY_START] = question >= 0 ? question + 1 : -1;
+        requestLine[QUERY_END] = targetEnd;
+    }
+
+    /**
+     * Validates the decoded path: escapes must not stand for control characters, such as the
+     * NUL that no file name may hold, and escaped bytes must form valid UTF-8.
+     */
+    private void checkPath(int start, int end) throws BadRequestException {
+        boolean multibyte = false;
+        for (int i = start; i < end; i++) {
+            if (head[i] == '%') {
+                int b = hex(head[i + 1]) << 4 | hex(head[i + 2]);
+                if (b < ' ' || b == 0x7f) {
+                    throw new BadRequestException("Invalid character in request path");
+                }
+                multibyte |= b >= 0x80;
+                i += 2;
+            }
+        }
+        if (multibyte) {
+            byte[] decoded = new byte[end - start];
+            int length = 0;
+            for (int i = start; i < end; i++) {
+                if (head[i] == '%') {
+                    decoded[length++] = (byte) (hex(head[i + 1]) << 4 | hex(head[i + 2]));
+                    i += 2;
+                } else {
+                    decoded[length++] = head[i];
+                }
+            }
+            try {
+                StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(decoded, 0, length));
+            } catch (CharacterCodingException e) {
+                throw new BadRequestException("Invalid UTF-8 in request path");
+            }
+        }
+    }
+
+    /**
+     * Splits and validates "name: value", trimming the optional white space around the value.
+     */
+    private void parseHeader(int start, int end) throws BadRequestException {
+        if (headerCount == config.getMaxHeaders()) {
+            throw new BadRequestException(431, "Request Header Fields Too Large", "Too many headers");
+        }
+        int colon = start;
+        while (colon < end && isTokenChar(head[colon])) {
+            colon++;
+        }
+        if (colon == start || colon == end || head[colon] != ':') {
+            // also rejects obsolete line folding, which starts with white space
+            throw new BadRequestException("Malformed header");
+        }
+        int valueStart = colon + 1;
+        while (valueStart < end && (head[valueStart] == ' ' || head[valueStart] == '\t')) {
+            valueStart++;
+        }
+        int valueEnd = end;
+        while (valueEnd > valueStart && (head[valueEnd - 1] == ' ' || head[valueEnd - 1] == '\t')) {
+            valueEnd--;
+        }
+        if (4 * headerCount + 4 > headers.length) {
+            headers = Arrays.copyOf(headers, headers.length * 2);
+        }
+        int index = 4 * headerCount++;
+        headers[index] = start;
+        headers[index + 1] = colon;
+        headers[index + 2] = valueStart;
+        headers[index + 3] = valueEnd;
+    }
+
+    /**
+     * Checks "HTTP/" DIGIT "." DIGIT.
+     */
+    private boolean isVersion(int start, int end) {
+        return end - start == 8 && head[start] == 'H' && head[start + 1] == 'T' && head[start + 2] == 'T'
+                && head[start + 3] == 'P' && head[start + 4] == '/' && isDigit(head[start + 5])
+                && head[start + 6] == '.' && isDigit(head[start + 7]);
+    }
+
+    private int indexOf(int start, int end, byte b) {
+        for (int i = start; i < end; i++) {
+            if (head[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /**
+     * Tells whether a byte may appear in a method or header name (RFC 9110 tchar).
+     */
+    static boolean isTokenChar(byte b) {
+        if ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || isDigit(b)) {
+            return true;
+        }
+        switch (b) {
+            case '!', '#', '$', '%', '&', '\'', '*', '+', '-', '.', '^', '_', '`', '|', '~':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Gets the value of a hexadecimal digit.
+     * @return the value, or -1 if the byte is not a hexadecimal digit
+     */
+    static int hex(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        }
+        if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        }
+        if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * Percent-decodes a range of bytes as UTF-8 text.
+     * Invalid escapes are kept as they are.
+     *
+     * @param bytes the encoded bytes
+     * @param start the first index
+     * @param end the index after the last byte
+     * @param plusAsSpace whether '+' stands for a space, as in query strings and form bodies
+     * @return the decoded text
+     */
+    static String decode(byte[] bytes, int start, int end, boolean plusAsSpace) {
+        int i = start;
+        while (i < end && bytes[i] != '%' && (bytes[i] != '+' || !plusAsSpace) && bytes[i] >= 0) {
+            i++;
+        }
+        if (i == end) {
+            // plain ASCII, the common case
+            return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+        }
+        byte[] decoded = new byte[end - start];
+        int length = i - start;
+        System.arraycopy(bytes, start, decoded, 0, length);
+        for (; i < end; i++) {
+            byte b = bytes[i];
+            if (b == '%' && i + 2 < end && hex(bytes[i + 1]) >= 0 && hex(bytes[i + 2]) >= 0) {
+                decoded[length++] = (byte) (hex(bytes[i + 1]) << 4 | hex(bytes[i + 2]));
+                i += 2;
+            } else if (b == '+' && plusAsSpace) {
+                decoded[length++] = ' ';
+            } else {
+                decoded[length++] = b;
+            }
+        }
+        return new String(decoded, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opt-in cache of the responses of a GET service, for endpoints that compute the same body
+ * again on every call. Responses are keyed by path, the chosen query parameters and the
+ * content coding sent to the client, and kept serialized, so a hit writes the stored bytes
+ * without calling the service. Concurrent misses for the same key are coalesced: one request
+ * calls the service and the others wait for its response.
+ * <pre>
+ * ResponseCache cache = new ResponseCache(60_000, "digits");
+ * HttpServer.get("/pi", cache.wrap((req, res) -&gt; computePi(req.getValue("digits"))));
+ * </pre>
+ * Only 200 responses are stored. The service keeps control through the cache-control header
+ * it sets: no-store, no-cache and private keep the response out of the cache, and s-maxage or
+ * max-age replace the time to live. Responses setting cookies or streaming their body are
+ * never stored. Entries beyond the entry or byte limit are evicted least recently used first.
+ *
+ * @author daniel.aldana-b
+ */
+public class ResponseCache {
+    // Milliseconds a stored response is served, unless the service sets a max-age
+    private final long ttl;
+    // Query parameters that tell responses apart, the others are ignored
+    private final List<String> keyParams;
+    // Limits of the cache
+    private volatile int maxEntries = 1000;
+    private volatile long maxBytes = 16L * 1024 * 1024;
+    // Stored responses keyed by path, parameters and coding, least recently used first; guarded by this object
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Responses being computed, awaited by the concurrent misses of the same key
+    private final ConcurrentMap<String, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+    // Total bytes held by the stored responses
+    private final AtomicLong bytes = new AtomicLong();
+    // Statistics
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates an empty cache.
+     * @param ttl the milliseconds a response is served from the cache, must be positive
+     * @param keyParams the query parameters that select different responses; others are ignored
+     */
+    public ResponseCache(long ttl, String... keyParams) {
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("ttl must be positive");
+        }
+        this.ttl = ttl;
+        this.keyParams = List.of(keyParams);
+    }
+
+    /**
+     * Wraps a service so its GET responses go through this cache.
+     * Requests with other methods call the service every time.
+     * @param service the service computing the responses
+     * @return the service to register
+     */
+    public Service wrap(Service service) {
+        return new Cached(this, service);
+    }
+
+    /**
+     * Gets the maximum number of stored responses.
+     * @return the entry limit
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Sets the maximum number of stored responses.
+     * @param maxEntries the entry limit, must be positive
+     */
+    public void setMaxEntries(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Gets the maximum number of bytes held by the stored responses.
+     * @return the byte limit
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Sets the maximum number of bytes held by the stored responses, heads included.
+     * @param maxBytes the byte limit, must be positive
+     */
+    public void setMaxBytes(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Builds the key of a request.
+     * @param req the request
+     * @param coding the content coding sent to the client, or null
+     * @return the key
+     */
+    String key(HttpRequest req, String coding) {
+        StringBuilder key = new StringBuilder(64).append(req.getPath());
+        for (String param : keyParams) {
+            key.append('\0').append(param);
+            for (String value : req.getParameterValues(param)) {
+                key.append('=').append(value);
+            }
+        }
+        return key.append('\0').append(coding != null ? coding : "").toString();
+    }
+
+    /**
+     * Looks up a stored response that is still fresh.
+     * @param key the key of the request
+     * @return the response, or null on a miss
+     */
+    Entry get(String key) {
+        Entry entry;
+        synchronized (this) {
+            // the lookup moves the entry to the most recently used end
+            entry = entries.get(key);
+            if (entry != null && System.currentTimeMillis() >= entry.expires) {
+                remove(key, entry);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry;
+    }
+
+    /**
+     * Registers a request about to compute the response of a key, unless another one already is.
+     * @param key the key of the request
+     * @param pending the future the caller completes with {@link #finish}
+     * @return null if the caller computes the response, or the future of the request computing it
+     */
+    CompletableFuture<Entry> join(String key, CompletableFuture<Entry> pending) {
+        CompletableFuture<Entry> leader = loading.putIfAbsent(key, pending);
+        if (leader != null) {
+            coalesced.increment();
+        }
+        return leader;
+    }
+
+    /**
+     * Hands the computed response, or null if it could not be stored, to the waiting requests.
+     * @param key the key of the request
+     * @param pending the future registered with {@link #join}
+     * @param entry the stored response, or null
+     */
+    void finish(String key, CompletableFuture<Entry> pending, Entry entry) {
+        loading.remove(key, pending);
+        pending.complete(entry);
+    }
+
+    /**
+     * Finds how long a response may be stored, from the status, headers and cache-control it was
+     * given by the service.
+     * @param res the response configured by the service
+     * @return the milliseconds the response stays fresh, 0 if it must not be stored
+     */
+    long freshness(HttpResponse res) {
+        if (res.getStatusCode() != 200 || res.getHeader("set-cookie") != null) {
+            return 0;
+        }
+        String cacheControl = res.getHeader("cache-control");
+        if (cacheControl == null) {
+            return ttl;
+        }
+        long maxAge = -1;
+        long sharedMaxAge = -1;
+        for (String directive : cacheControl.toLowerCase(Locale.ROOT).split(",")) {
+            directive = directive.trim();
+            if (directive.equals("no-store") || directive.equals("no-cache") || directive.startsWith("private")) {
+                return 0;
+            }
+            if (directive.startsWith("s-maxage=")) {
+                sharedMaxAge = seconds(directive.substring(9));
+            } else if (directive.startsWith("max-age=")) {
+                maxAge = seconds(directive.substring(8));
+            }
+        }
+        long age = sharedMaxAge >= 0 ? sharedMaxAge : maxAge;
+        return age >= 0 ? age * 1000 : ttl;
+    }
+
+    /**
+     * Parses a delta-seconds value, 0 if it is not a number.
+     */
+    private static long seconds(String value) {
+        try {
+            return Math.max(0, Long.parseLong(value.replace("\"", "").trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Stores a serialized response, evicting the least recently used ones past the limits.
+     * Responses larger than the whole byte limit are not stored.
+     * @param key the key of the request
+     * @param head the encoded status line and headers, without date and connection
+     * @param body the encoded body
+     * @param res the response the head was encoded from
+     * @param freshness the milliseconds the response stays fresh
+     * @return the stored entry, or null if it is too large
+     */
+    synchronized Entry put(String key, ByteBuffer head, byte[] body, HttpResponse res, long freshness) {
+        String lastModified = res.getHeader("last-modified");
+        Entry entry = new Entry(head, ByteBuffer.wrap(body).asReadOnlyBuffer(), res.getHeader("etag"),
+                lastModified != null ? Validators.parseHttpDate(lastModified) : -1, freshness);
+        if (entry.weight() > maxBytes) {
+            return null;
+        }
+        Entry previous = entries.put(key, entry);
+        bytes.addAndGet(entry.weight() - (previous != null ? previous.weight() : 0));
+        while (entries.size() > maxEntries || bytes.get() > maxBytes) {
+            if (!evictOldest()) {
+                break;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Removes the least recently used entry, the first in access order. Must be called holding the lock.
+     * @return false if the cache is empty
+     */
+    private boolean evictOldest() {
+        Iterator<Entry> oldest = entries.values().iterator();
+        if (!oldest.hasNext()) {
+            return false;
+        }
+        Entry entry = oldest.next();
+        oldest.remove();
+        bytes.addAndGet(-entry.weight());
+        evictions.increment();
+        return true;
+    }
+
+    private synchronized boolean remove(String key, Entry entry) {
+        if (entries.remove(key, entry)) {
+            bytes.addAndGet(-entry.weight());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes every stored response, such as after the data behind them changed.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes.set(0);
+    }
+
+    /**
+     * Gets the number of requests answered from the cache.
+     * @return the hit count
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of requests that found no fresh response, coalesced ones included.
+     * @return the miss count
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the number of misses that waited for another request to compute the response.
+     * @return the coalesced miss count
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * Gets the number of responses evicted to stay within the limits.
+     * @return the eviction count
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Gets the number of stored responses.
+     * @return the entry count
+     */
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the number of bytes held by the stored responses.
+     * @return the bytes in use
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Service whose GET responses go through a cache, as returned by {@link #wrap}.
+     * Called outside the server, such as through {@link HttpServer#invokeService(java.net.URI)},
+     * it simply calls the wrapped service.
+     */
+    static final class Cached implements Service {
+        final ResponseCache cache;
+        final Service service;
+
+        Cached(ResponseCache cache, Service service) {
+            this.cache = cache;
+            this.service = service;
+        }
+
+        @Override
+        public String invoke(HttpRequest req, HttpResponse res) {
+            return service.invoke(req, res);
+        }
+    }
+
+    /**
+     * A stored response.
+     */
+    static final class Entry {
+        // Status line and headers, without the date and connection headers
+        final ByteBuffer head;
+        final ByteBuffer body;
+        // Validators of the body, for conditional requests
+        final String etag;
+        final long lastModified;
+        // Time the response was stored and time it stops being served
+        final long created = System.currentTimeMillis();
+        final long expires;
+
+        Entry(ByteBuffer head, ByteBuffer body, String etag, long lastModified, long freshness) {
+            this.head = head;
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expires = created + freshness;
+        }
+
+        long weight() {
+            return head.capacity() + body.capacity();
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serializes the status line and headers of HTTP/1.1 responses straight into a reusable
+ * byte buffer. Status lines, header names and common content types are kept as pre-encoded
+ * byte arrays, numbers are written digit by digit and the date header is formatted once per
+ * second, so writing a head builds no intermediate strings.
+ * <pre>
+ * ByteBuffer head = writer.reset().status(200, "OK").contentType("text/plain")
+ *         .contentLength(5).date().connection(true).finish();
+ * </pre>
+ * The buffer returned by {@link #finish()} is the writer's own: it must be written out before
+ * the writer is reset. Instances are not thread safe, each connection owns one.
+ *
+ * @author daniel.aldana-b
+ */
+public final class ResponseHeadWriter {
+    // Capacity of a new buffer, enough for the heads of most responses
+    private static final int INITIAL_CAPACITY = 512;
+    // Largest buffer kept between heads, bigger ones are dropped on reset
+    private static final int MAX_RETAINED_CAPACITY = 8192;
+    // Most content types cached, so services with dynamic types cannot grow the cache forever
+    private static final int MAX_CACHED_TYPES = 64;
+
+    private static final byte[] HTTP_1_1 = ascii("HTTP/1.1 ");
+    private static final byte[] CONTENT_LENGTH = ascii("content-length: ");
+    private static final byte[] COLON = ascii(": ");
+    private static final byte[] CRLF = ascii("\r\n");
+    private static final byte[] KEEP_ALIVE = ascii("connection: keep-alive\r\n\r\n");
+    private static final byte[] CLOSE = ascii("connection: close\r\n\r\n");
+    private static final byte[] UPGRADE = ascii("connection: upgrade\r\nupgrade: ");
+    private static final byte[] CONTINUE = ascii("HTTP/1.1 100 Continue\r\n\r\n");
+
+    // Status lines by code, for the reason phrases the server uses
+    private static final byte[][] STATUS_LINES = new byte[600][];
+    // Reason phrase each pre-encoded status line was built with
+    private static final String[] REASONS = new String[600];
+    // Encoded "content-type: ...\r\n" lines by content type
+    private static final Map<String, byte[]> CONTENT_TYPES = new ConcurrentHashMap<>();
+    // Date line of the current second, replaced when the second changes
+    private static volatile DateLine date = new DateLine(Long.MIN_VALUE, null);
+
+    static {
+        statusLine(100, "Continue");
+        statusLine(101, "Switching Protocols");
+        statusLine(200, "OK");
+        statusLine(201, "Created");
+        statusLine(202, "Accepted");
+        statusLine(204, "No Content");
+        statusLine(206, "Partial Content");
+        statusLine(301, "Moved Permanently");
+        statusLine(302, "Found");
+        statusLine(304, "Not Modified");
+        statusLine(307, "Temporary Redirect");
+        statusLine(308, "Permanent Redirect");
+        statusLine(400, "Bad Request");
+        statusLine(401, "Unauthorized");
+        statusLine(403, "Forbidden");
+        statusLine(404, "Not Found");
+        statusLine(405, "Method Not Allowed");
+        statusLine(408, "Request Timeout");
+        statusLine(413, "Content Too Large");
+        statusLine(414, "URI Too Long");
+        statusLine(416, "Range Not Satisfiable");
+        statusLine(417, "Expectation Failed");
+        statusLine(429, "Too Many Requests");
+        statusLine(431, "Request Header Fields Too Large");
+        statusLine(500, "Internal Server Error");
+        statusLine(501, "Not Implemented");
+        statusLine(503, "Service Unavailable");
+        statusLine(504, "Gateway Timeout");
+        for (String type : new String[] {"text/plain; charset=utf-8", "text/html", "text/css",
+                "application/javascript", "application/json", "image/png", "image/jpeg", "image/gif",
+                "image/svg+xml", "image/x-icon", "application/octet-stream"}) {
+            contentTypeLine(type);
+        }
+    }
+
+    // Whether the head is handed out in a direct buffer
+    private final boolean direct;
+    // Head being written; plain array stores are cheaper than buffer puts byte by byte
+    private byte[] bytes = new byte[INITIAL_CAPACITY];
+    private int count;
+    // Buffer handed out by finish(), wrapping bytes or, for a direct writer, receiving a copy
+    private ByteBuffer buffer;
+
+    /**
+     * Creates a writer.
+     * @param direct true to hand out a direct buffer, which channels send without copying it first;
+     *               false for a heap buffer, cheaper when the bytes are copied into a stream anyway
+     */
+    public ResponseHeadWriter(boolean direct) {
+        this.direct = direct;
+        this.buffer = direct ? ByteBuffer.allocateDirect(INITIAL_CAPACITY) : ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Starts a new head, discarding the bytes of the previous one.
+     * @return this writer
+     */
+    public ResponseHeadWriter reset() {
+        if (bytes.length > MAX_RETAINED_CAPACITY) {
+            bytes = new byte[INITIAL_CAPACITY];
+            buffer = direct ? ByteBuffer.allocateDirect(INITIAL_CAPACITY) : ByteBuffer.wrap(bytes);
+        }
+        count = 0;
+        return this;
+    }
+
+    /**
+     * Writes the status line.
+     * @param statusCode the HTTP status code
+     * @param statusMessage the reason phrase
+     * @return this writer
+     */
+    public ResponseHeadWriter status(int statusCode, String statusMessage) {
+        if (statusCode >= 0 && statusCode < STATUS_LINES.length && STATUS_LINES[statusCode] != null
+                && REASONS[statusCode].equals(statusMessage)) {
+            return put(STATUS_LINES[statusCode]);
+        }
+        put(HTTP_1_1).number(statusCode).put((byte) ' ');
+        return text(statusMessage).put(CRLF);
+    }
+
+    /**
+     * Writes the content-type header.
+     * @param contentType the MIME type of the body
+     * @return this writer
+     */
+    public ResponseHeadWriter contentType(String contentType) {
+        byte[] line = CONTENT_TYPES.get(contentType);
+        if (line == null) {
+            line = contentTypeLine(contentType);
+        }
+        return put(line);
+    }
+
+    /**
+     * Writes the content-length header.
+     * @param contentLength the number of body bytes
+     * @return this writer
+     */
+    public ResponseHeadWriter contentLength(long contentLength) {
+        return put(CONTENT_LENGTH).number(contentLength).put(CRLF);
+    }
+
+    /**
+     * Writes a header.
+     * @param name the lower-case header name
+     * @param value the header value, without CR, LF or characters outside ISO-8859-1; the values
+     *              set on a response are checked by {@link HttpResponse#setHeader}
+     * @return this writer
+     */
+    public ResponseHeadWriter header(String name, String value) {
+        return text(name).put(COLON).text(value).put(CRLF);
+    }
+
+    /**
+     * Writes the date header with the current time, formatted at most once per second.
+     * @return this writer
+     */
+    public ResponseHeadWriter date() {
+        long second = System.currentTimeMillis() / 1000;
+        DateLine current = date;
+        if (current.second != second) {
+            // racing threads format the same line, the last one is kept
+            current = new DateLine(second, ascii("date: " + Validators.httpDate(second * 1000) + "\r\n"));
+            date = current;
+        }
+        return put(current.line);
+    }
+
+    /**
+     * Writes the connection header and the empty line ending the head.
+     * @param keepAlive whether the connection stays open after the response
+     * @return this writer
+     */
+    public ResponseHeadWriter connection(boolean keepAlive) {
+        return put(keepAlive ? KEEP_ALIVE : CLOSE);
+    }
+
+    /**
+     * Writes the headers switching the connection to another protocol and the empty line ending the head.
+     * @param protocol the protocol the connection goes on with, such as "websocket"
+     * @return this writer
+     */
+    public ResponseHeadWriter upgrade(String protocol) {
+        return put(UPGRADE).text(protocol).put(CRLF).put(CRLF);
+    }
+
+    /**
+     * Gets the bytes written since the last reset.
+     * @return the writer's buffer, positioned at the head and limited to its end; valid until the next reset
+     */
+    public ByteBuffer finish() {
+        if (buffer.capacity() < count) {
+            buffer = direct ? ByteBuffer.allocateDirect(bytes.length) : ByteBuffer.wrap(bytes);
+        }
+        buffer.clear();
+        if (direct) {
+            buffer.put(bytes, 0, count).flip();
+        } else {
+            buffer.limit(count);
+        }
+        return buffer;
+    }
+
+    /**
+     * Gets the interim response telling a client that sent "Expect: 100-continue" to go on.
+     * @return a new read-only buffer with the encoded interim response
+     */
+    public static ByteBuffer continueLine() {
+        return ByteBuffer.wrap(CONTINUE).asReadOnlyBuffer();
+    }
+
+    private ResponseHeadWriter put(byte[] encoded) {
+        ensure(encoded.length);
+        System.arraycopy(encoded, 0, bytes, count, encoded.length);
+        count += encoded.length;
+        return this;
+    }
+
+    private ResponseHeadWriter put(byte b) {
+        ensure(1);
+        bytes[count++] = b;
+        return this;
+    }
+
+    /**
+     * Writes text as ISO-8859-1, like {@link String#getBytes} would but without the copy.
+     */
+    private ResponseHeadWriter text(String text) {
+        int length = text.length();
+        ensure(length);
+        byte[] target = bytes;
+        int position = count;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            target[position++] = c <= 0xff ? (byte) c : (byte) '?';
+        }
+        count = position;
+        return this;
+    }
+
+    /**
+     * Writes the decimal digits of a non-negative number.
+     */
+    private ResponseHeadWriter number(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative number in response head: " + value);
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        ensure(digits);
+        count += digits;
+        for (int i = count - 1; i >= count - digits; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return this;
+    }
+
+    /**
+     * Grows the array, keeping its content, so that it has room for more bytes.
+     */
+    private void ensure(int more) {
+        if (bytes.length - count < more) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, count + more));
+        }
+    }
+
+    private static void statusLine(int statusCode, String statusMessage) {
+        STATUS_LINES[statusCode] = ascii("HTTP/1.1 " + statusCode + ' ' + statusMessage + "\r\n");
+        REASONS[statusCode] = statusMessage;
+    }
+
+    private static byte[] contentTypeLine(String contentType) {
+        byte[] line = ascii("content-type: " + contentType + "\r\n");
+        if (CONTENT_TYPES.size() < MAX_CACHED_TYPES) {
+            CONTENT_TYPES.putIfAbsent(contentType, line);
+        }
+        return line;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Encoded date header for one second.
+     */
+    private static final class DateLine {
+        final long second;
+        final byte[] line;
+
+        DateLine(long second, byte[] line) {
+            this.second = second;
+            this.line = line;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Bounded lock-free queue with many producers and a single consumer, backed by a ring of slots.
+ * Each slot carries a sequence number telling whether it is free for the producer of a given
+ * position or holds an element for the consumer, so producers only compete on one
+ * compare-and-set and never wait for each other, and the consumer never touches the producer
+ * counter.
+ *
+ * @param <T> the type of the elements
+ * @author daniel.aldana-b
+ */
+class RingBuffer<T> {
+    // Slot elements, null while a slot is free
+    private final AtomicReferenceArray<T> elements;
+    // Position each slot is ready for: p when free for the producer of p, p + 1 once it holds p's element
+    private final AtomicLongArray sequences;
+    private final int mask;
+    // Next position to be claimed by a producer
+    private final AtomicLong tail = new AtomicLong();
+    // Next position to be taken by the consumer, only written by the consumer thread
+    private volatile long head;
+
+    /**
+     * Creates an empty ring.
+     * @param capacity the minimum number of elements held, rounded up to a power of two
+     */
+    RingBuffer(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid ring capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.elements = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Adds an element if there is room. May be called from any thread.
+     * @param element the element, not null
+     * @return false if the ring is full
+     */
+    boolean offer(T element) {
+        while (true) {
+            long position = tail.get();
+            int slot = (int) position & mask;
+            long sequence = sequences.get(slot);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.lazySet(slot, element);
+                    // publishes the element to the consumer
+                    sequences.set(slot, position + 1);
+                    return true;
+                }
+            } else if (sequence < position) {
+                // the slot still holds the element from one lap before
+                return false;
+            }
+            // another producer claimed the position, try the next one
+        }
+    }
+
+    /**
+     * Takes the available elements in order. Must only be called from the consumer thread.
+     * @param consumer receives each element
+     * @param max the most elements taken
+     * @return the number of elements taken
+     */
+    int drain(Consumer<? super T> consumer, int max) {
+        long position = head;
+        int taken = 0;
+        while (taken < max) {
+            int slot = (int) position & mask;
+            if (sequences.get(slot) != position + 1) {
+                // empty, or claimed by a producer that has not stored its element yet
+                break;
+            }
+            T element = elements.get(slot);
+            elements.lazySet(slot, null);
+            // frees the slot for the producer one lap ahead
+            sequences.set(slot, position + mask + 1);
+            head = ++position;
+            taken++;
+            consumer.accept(element);
+        }
+        return taken;
+    }
+
+    /**
+     * Gets the number of elements added since the ring was created.
+     * @return the count of claimed positions, including elements still being stored
+     */
+    long getProduced() {
+        return tail.get();
+    }
+
+    /**
+     * Gets the number of elements taken since the ring was created.
+     * @return the count of consumed positions
+     */
+    long getConsumed() {
+        return head;
+    }
+}
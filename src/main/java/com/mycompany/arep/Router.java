@@ -0,0 +1,560 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Routes request paths to handlers with one radix tree per HTTP method.
+ * <p>
+ * Patterns are made of static text, path parameters such as {@code /users/{id}} matching one
+ * non-empty segment, and a trailing wildcard such as {@code /files/*} matching the rest of the
+ * path, captured under the name "*". Static text wins over parameters, and parameters over
+ * wildcards. Handlers registered for {@link #ANY} answer every method without a more specific route.
+ * HEAD requests fall back to the GET routes.
+ * <p>
+ * Registrations mark the trees as outdated and they are compiled again on the next lookup.
+ * Patterns without parameters are also kept in a hash table, so the most common lookups cost
+ * one hash probe. Lookups take no lock and allocate nothing: parameters are returned as
+ * offsets into the path.
+ *
+ * @param <T> the type of the handlers
+ * @author daniel.aldana-b
+ */
+public final class Router<T> {
+    /** Method name for routes answering every method */
+    public static final String ANY = "*";
+
+    // Registered patterns by method, in registration order
+    private final Map<String, Map<String, T>> patterns = new ConcurrentHashMap<>();
+    // Compiled trees by method, null when a registration changed since the last compilation
+    private volatile Map<String, Tree<T>> trees;
+    // Largest number of parameters of a compiled route
+    private volatile int maxParams;
+
+    /**
+     * Registers a handler for a method and path pattern, replacing any previous one.
+     *
+     * @param method the HTTP method, or {@link #ANY}
+     * @param pattern the path pattern, starting with '/'
+     * @param handler the handler
+     * @throws IllegalArgumentException if the pattern is malformed
+     */
+    public synchronized void add(String method, String pattern, T handler) {
+        if (handler == null) {
+            throw new IllegalArgumentException("handler must not be null");
+        }
+        parse(pattern);
+        patterns.computeIfAbsent(method, key -> Collections.synchronizedMap(new LinkedHashMap<>()))
+                .put(pattern, handler);
+        trees = null;
+    }
+
+    /**
+     * Unregisters the handler of a method and path pattern.
+     *
+     * @param method the HTTP method, or {@link #ANY}
+     * @param pattern the path pattern as it was registered
+     * @return the removed handler, or null if there was none
+     */
+    public synchronized T remove(String method, String pattern) {
+        Map<String, T> routes = patterns.get(method);
+        T removed = routes != null ? routes.remove(pattern) : null;
+        if (removed != null) {
+            trees = null;
+        }
+        return removed;
+    }
+
+    /**
+     * Unregisters every handler of a method.
+     *
+     * @param method the HTTP method, or {@link #ANY}
+     */
+    public synchronized void clear(String method) {
+        Map<String, T> routes = patterns.get(method);
+        if (routes != null && !routes.isEmpty()) {
+            routes.clear();
+            trees = null;
+        }
+    }
+
+    /**
+     * Gets a live view of the routes of a method, keyed by pattern.
+     * Changes made through the view register and unregister routes.
+     *
+     * @param method the HTTP method, or {@link #ANY}
+     * @return the routes of the method
+     */
+    public Map<String, T> routes(String method) {
+        return new RouteMap(method);
+    }
+
+    /**
+     * Gets the largest number of parameters a route can capture.
+     * Arrays passed to {@link #find} need twice as many elements.
+     *
+     * @return the maximum number of parameters
+     */
+    public int getMaxParams() {
+        compiled();
+        return maxParams;
+    }
+
+    /**
+     * Finds the route answering a request. A HEAD request without a route of its own is
+     * answered by the GET route, as HTTP requires.
+     * The start and end offsets in the path of the i-th parameter of the route are stored
+     * at indexes 2i and 2i+1 of {@code captures}; routes needing more room than it has are skipped.
+     *
+     * @param method the HTTP method of the request
+     * @param path the decoded request path
+     * @param captures the array receiving the parameter offsets, may be null if no route has parameters
+     * @return the route, or null if none matches
+     */
+    public Route<T> find(String method, String path, int[] captures) {
+        Map<String, Tree<T>> compiled = compiled();
+        Tree<T> tree = compiled.get(method);
+        Route<T> route = tree != null ? tree.find(path, captures) : null;
+        if (route == null && "HEAD".equals(method)) {
+            tree = compiled.get("GET");
+            route = tree != null ? tree.find(path, captures) : null;
+        }
+        if (route == null) {
+            tree = compiled.get(ANY);
+            route = tree != null ? tree.find(path, captures) : null;
+        }
+        return route;
+    }
+
+    /**
+     * Lists the methods with a route matching a path, to answer 405 Method Not Allowed.
+     * HEAD is listed wherever GET is.
+     *
+     * @param path the decoded request path
+     * @return the methods, empty if no route matches the path
+     */
+    public List<String> allowedMethods(String path) {
+        int[] captures = new int[2 * getMaxParams()];
+        List<String> methods = new ArrayList<>();
+        for (Map.Entry<String, Tree<T>> tree : compiled().entrySet()) {
+            if (tree.getValue().find(path, captures) != null) {
+                methods.add(tree.getKey());
+            }
+        }
+        if (methods.contains("GET") && !methods.contains("HEAD")) {
+            methods.add("HEAD");
+        }
+        Collections.sort(methods);
+        return methods;
+    }
+
+    /**
+     * Gets the compiled trees, compiling them if a registration changed.
+     */
+    private Map<String, Tree<T>> compiled() {
+        Map<String, Tree<T>> compiled = trees;
+        return compiled != null ? compiled : compile();
+    }
+
+    /**
+     * Builds one tree per method from the registered patterns.
+     */
+    private synchronized Map<String, Tree<T>> compile() {
+        if (trees != null) {
+            return trees;
+        }
+        Map<String, Tree<T>> compiled = new HashMap<>();
+        int params = 0;
+        for (Map.Entry<String, Map<String, T>> method : patterns.entrySet()) {
+            List<Map.Entry<String, T>> routes;
+            synchronized (method.getValue()) {
+                routes = new ArrayList<>(method.getValue().entrySet());
+            }
+            if (routes.isEmpty()) {
+                continue;
+            }
+            Tree<T> tree = new Tree<>();
+            for (Map.Entry<String, T> route : routes) {
+                Route<T> compiledRoute = insert(tree.root, method.getKey(), route.getKey(), route.getValue());
+                params = Math.max(params, compiledRoute.paramNames.length);
+                if (compiledRoute.paramNames.length == 0) {
+                    tree.exact.put(compiledRoute.pattern, compiledRoute);
+                }
+            }
+            compiled.put(method.getKey(), tree);
+        }
+        maxParams = params;
+        trees = compiled;
+        return compiled;
+    }
+
+    /**
+     * Adds a pattern to a tree.
+     */
+    private static <T> Route<T> insert(Node<T> root, String method, String pattern, T handler) {
+        List<String> tokens = parse(pattern);
+        List<String> names = new ArrayList<>();
+        Node<T> node = root;
+        for (String token : tokens) {
+            if (token.equals("*")) {
+                if (node.wildcard == null) {
+                    node.wildcard = new Node<>("");
+                }
+                node = node.wildcard;
+                names.add("*");
+            } else if (token.startsWith("{")) {
+                if (node.param == null) {
+                    node.param = new Node<>("");
+                }
+                node = node.param;
+                names.add(token.substring(1, token.length() - 1));
+            } else {
+                node = insertStatic(node, token);
+            }
+        }
+        Route<T> route = new Route<>(method, pattern, handler, names.toArray(new String[0]));
+        node.route = route;
+        return route;
+    }
+
+    /**
+     * Adds static text below a node, splitting the children sharing a prefix with it.
+     * @return the node the text ends at
+     */
+    private static <T> Node<T> insertStatic(Node<T> node, String text) {
+        while (!text.isEmpty()) {
+            Node<T> child = node.child(text.charAt(0));
+            if (child == null) {
+                child = new Node<>(text);
+                node.addChild(child);
+                return child;
+            }
+            int common = 0;
+            int max = Math.min(text.length(), child.prefix.length());
+            while (common < max && text.charAt(common) == child.prefix.charAt(common)) {
+                common++;
+            }
+            if (common < child.prefix.length()) {
+                // split the child: its head becomes a new node holding the rest as a child
+                Node<T> tail = child.copy(child.prefix.substring(common));
+                child.reset(child.prefix.substring(0, common));
+                child.addChild(tail);
+            }
+            node = child;
+            text = text.substring(common);
+        }
+        return node;
+    }
+
+    /**
+     * Matches the rest of a path against a subtree, backtracking from static text to
+     * parameters and then to wildcards.
+     */
+    private static <T> Route<T> match(Node<T> node, String path, int index, int[] captures, int depth) {
+        String prefix = node.prefix;
+        int length = prefix.length();
+        if (path.length() - index < length || !path.regionMatches(index, prefix, 0, length)) {
+            return null;
+        }
+        index += length;
+        if (index == path.length() && node.route != null) {
+            return node.route;
+        }
+        if (index < path.length()) {
+            Node<T> child = node.child(path.charAt(index));
+            if (child != null) {
+                Route<T> route = match(child, path, index, captures, depth);
+                if (route != null) {
+                    return route;
+                }
+            }
+            if (node.param != null && captures != null && 2 * depth + 1 < captures.length) {
+                int end = path.indexOf('/', index);
+                if (end < 0) {
+                    end = path.length();
+                }
+                if (end > index) {
+                    Route<T> route = match(node.param, path, end, captures, depth + 1);
+                    if (route != null) {
+                        captures[2 * depth] = index;
+                        captures[2 * depth + 1] = end;
+                        return route;
+                    }
+                }
+            }
+        }
+        if (node.wildcard != null && node.wildcard.route != null && captures != null
+                && 2 * depth + 1 < captures.length) {
+            captures[2 * depth] = index;
+            captures[2 * depth + 1] = path.length();
+            return node.wildcard.route;
+        }
+        return null;
+    }
+
+    /**
+     * Splits a pattern into static text, "{name}" parameters and a trailing "*".
+     * @throws IllegalArgumentException if the pattern is malformed
+     */
+    private static List<String> parse(String pattern) {
+        if (pattern == null || !pattern.startsWith("/")) {
+            throw new IllegalArgumentException("Route pattern must start with '/': " + pattern);
+        }
+        List<String> tokens = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        int start = 0;
+        int i = 0;
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i);
+            if (c == '{') {
+                int close = pattern.indexOf('}', i);
+                int next = close + 1;
+                if (close < 0 || close == i + 1 || pattern.charAt(i - 1) != '/'
+                        || (next < pattern.length() && pattern.charAt(next) != '/')) {
+                    throw new IllegalArgumentException("Parameters must be whole segments such as /{id}: " + pattern);
+                }
+                String name = pattern.substring(i + 1, close);
+                if (names.contains(name)) {
+                    throw new IllegalArgumentException("Duplicate parameter " + name + ": " + pattern);
+                }
+                names.add(name);
+                tokens.add(pattern.substring(start, i));
+                tokens.add(pattern.substring(i, next));
+                start = i = next;
+            } else if (c == '*') {
+                if (i != pattern.length() - 1 || pattern.charAt(i - 1) != '/') {
+                    throw new IllegalArgumentException("Wildcards must be the last segment such as /files/*: " + pattern);
+                }
+                tokens.add(pattern.substring(start, i));
+                tokens.add("*");
+                start = i = pattern.length();
+            } else {
+                i++;
+            }
+        }
+        tokens.add(pattern.substring(start));
+        tokens.removeIf(String::isEmpty);
+        return tokens;
+    }
+
+    /**
+     * A registered route: its method, pattern, handler and parameter names.
+     *
+     * @param <T> the type of the handler
+     */
+    public static final class Route<T> {
+        // HTTP method the route answers, or ANY
+        private final String method;
+        // Pattern the route was registered with
+        private final String pattern;
+        // Handler of the route
+        private final T handler;
+        // Names of the parameters, in the order they appear in the pattern
+        private final String[] paramNames;
+
+        Route(String method, String pattern, T handler, String[] paramNames) {
+            this.method = method;
+            this.pattern = pattern;
+            this.handler = handler;
+            this.paramNames = paramNames;
+        }
+
+        /**
+         * Gets the HTTP method the route answers.
+         * @return the method, or {@link Router#ANY}
+         */
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * Gets the pattern the route was registered with.
+         * @return the path pattern
+         */
+        public String getPattern() {
+            return pattern;
+        }
+
+        /**
+         * Gets the handler of the route.
+         * @return the handler
+         */
+        public T getHandler() {
+            return handler;
+        }
+
+        /**
+         * Gets the names of the parameters of the route, "*" standing for the wildcard.
+         * @return the parameter names in pattern order
+         */
+        public String[] getParamNames() {
+            return paramNames.clone();
+        }
+
+        /**
+         * Gets the number of parameters of the route.
+         * @return the parameter count
+         */
+        public int getParamCount() {
+            return paramNames.length;
+        }
+
+        /**
+         * Gets the name of one parameter without copying the names.
+         * @param index the position of the parameter in the pattern
+         * @return the parameter name
+         */
+        public String getParamName(int index) {
+            return paramNames[index];
+        }
+
+        @Override
+        public String toString() {
+            return method + " " + pattern;
+        }
+    }
+
+    /**
+     * The compiled routes of one method.
+     */
+    private static final class Tree<T> {
+        // Root of the radix tree with every route
+        final Node<T> root = new Node<>("");
+        // Routes without parameters by path
+        final Map<String, Route<T>> exact = new HashMap<>();
+
+        Route<T> find(String path, int[] captures) {
+            Route<T> route = exact.get(path);
+            return route != null ? route : match(root, path, 0, captures, 0);
+        }
+    }
+
+    /**
+     * A node of a radix tree: a run of static text followed by the ways the path can continue.
+     */
+    private static final class Node<T> {
+        // Static text matched by this node
+        String prefix;
+        // First characters of the static children, parallel to children
+        char[] firsts = new char[0];
+        // Static children, each starting with a different character
+        @SuppressWarnings("unchecked")
+        Node<T>[] children = (Node<T>[]) new Node<?>[0];
+        // Child matching one parameter segment
+        Node<T> param;
+        // Child matching the rest of the path
+        Node<T> wildcard;
+        // Route ending at this node
+        Route<T> route;
+
+        Node(String prefix) {
+            this.prefix = prefix;
+        }
+
+        Node<T> child(char first) {
+            char[] chars = firsts;
+            for (int i = 0; i < chars.length; i++) {
+                if (chars[i] == first) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        void addChild(Node<T> child) {
+            firsts = Arrays.copyOf(firsts, firsts.length + 1);
+            firsts[firsts.length - 1] = child.prefix.charAt(0);
+            children = Arrays.copyOf(children, children.length + 1);
+            children[children.length - 1] = child;
+        }
+
+        Node<T> copy(String newPrefix) {
+            Node<T> copy = new Node<>(newPrefix);
+            copy.firsts = firsts;
+            copy.children = children;
+            copy.param = param;
+            copy.wildcard = wildcard;
+            copy.route = route;
+            return copy;
+        }
+
+        @SuppressWarnings("unchecked")
+        void reset(String newPrefix) {
+            prefix = newPrefix;
+            firsts = new char[0];
+            children = (Node<T>[]) new Node<?>[0];
+            param = null;
+            wildcard = null;
+            route = null;
+        }
+    }
+
+    /**
+     * Map view of the routes of one method.
+     */
+    private final class RouteMap extends AbstractMap<String, T> {
+        // Method whose routes are shown
+        private final String method;
+
+        RouteMap(String method) {
+            this.method = method;
+        }
+
+        @Override
+        public T get(Object pattern) {
+            Map<String, T> routes = patterns.get(method);
+            return routes != null ? routes.get(pattern) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object pattern) {
+            return get(pattern) != null;
+        }
+
+        @Override
+        public T put(String pattern, T handler) {
+            T previous = get(pattern);
+            add(method, pattern, handler);
+            return previous;
+        }
+
+        @Override
+        public T remove(Object pattern) {
+            return pattern instanceof String ? Router.this.remove(method, (String) pattern) : null;
+        }
+
+        @Override
+        public void clear() {
+            Router.this.clear(method);
+        }
+
+        @Override
+        public int size() {
+            Map<String, T> routes = patterns.get(method);
+            return routes != null ? routes.size() : 0;
+        }
+
+        @Override
+        public Set<Map.Entry<String, T>> entrySet() {
+            Map<String, T> routes = patterns.get(method);
+            if (routes == null) {
+                return Collections.emptySet();
+            }
+            synchronized (routes) {
+                return Collections.unmodifiableMap(new LinkedHashMap<>(routes)).entrySet();
+            }
+        }
+    }
+}
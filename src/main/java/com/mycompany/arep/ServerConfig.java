@@ -0,0 +1,832 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.nio.file.Path;
+
+/**
+ * Holds the tunable settings used by the HTTP server.
+ * All values have sensible defaults so a server can be started without any configuration.
+ *
+ * @author daniel.aldana-b
+ */
+public class ServerConfig {
+    // TCP port the server listens on
+    private int port = 35000;
+    // I/O engine accepting and serving connections
+    private EngineType engine = EngineType.BLOCKING;
+    // Number of selector threads used by the NIO engine
+    private int eventLoopThreads = Runtime.getRuntime().availableProcessors();
+    // Strategy used to execute accepted connections
+    private ExecutionMode executionMode = ExecutionMode.VIRTUAL_THREADS;
+    // Size of the platform thread pool used when virtual threads are not in use
+    private int workerThreads = 200;
+    // Maximum number of connections being served (or waiting to be served) at the same time
+    private int maxConnections = 1000;
+    // Connections the operating system queues before the server accepts them
+    private int acceptBacklog = 1024;
+    // Maximum number of requests handled at the same time
+    private int maxConcurrentRequests = 1000;
+    // Whether the request limit adapts to the observed latency, maxConcurrentRequests then being its ceiling
+    private boolean adaptiveConcurrency = false;
+    // Maximum number of requests waiting for the limit, beyond which they are rejected at once
+    private int maxQueuedRequests = 100;
+    // Milliseconds a request waits for the limit before it is rejected
+    private long queueTimeout = 1000;
+    // Seconds a rejected client is asked to wait before retrying
+    private int retryAfter = 1;
+    // Milliseconds an idle persistent connection waits for its next request
+    private int keepAliveTimeout = 5000;
+    // Maximum number of requests served over one persistent connection
+    private int maxKeepAliveRequests = 100;
+    // Whether clients may switch to cleartext HTTP/2, by prior knowledge or with "Upgrade: h2c"
+    private boolean http2 = true;
+    // Maximum number of HTTP/2 streams a client may have open on one connection
+    private int maxConcurrentStreams = 100;
+    // Largest WebSocket message accepted, in bytes once decompressed
+    private int webSocketMaxMessageSize = 1024 * 1024;
+    // Milliseconds a WebSocket connection may stay silent; it is pinged halfway and closed at the end
+    private int webSocketIdleTimeout = 60_000;
+    // Whether WebSocket messages may be compressed with the permessage-deflate extension
+    private boolean webSocketCompression = true;
+    // Milliseconds an event stream may stay silent before it is sent a heartbeat comment
+    private int eventStreamHeartbeatInterval = 15_000;
+    // Milliseconds an asynchronous service has to complete its response
+    private long asyncTimeout = 30_000;
+    // Milliseconds the requests in flight are given to complete when the server shuts down
+    private long shutdownTimeout = 30_000;
+    // Longest request line accepted, in bytes
+    private int maxRequestLineLength = 8192;
+    // Largest header section accepted, in bytes
+    private int maxHeaderSize = 16 * 1024;
+    // Maximum number of header fields accepted
+    private int maxHeaders = 100;
+    // Largest request body accepted, in bytes
+    private long maxBodySize = 100L * 1024 * 1024;
+    // Buffered request bodies and uploaded parts up to this size in bytes are kept in memory
+    private int bodyMemoryThreshold = 256 * 1024;
+    // Static files up to this size in bytes are cached in memory
+    private int staticBufferThreshold = 64 * 1024;
+    // Maximum bytes held by the static file cache
+    private long staticBufferBudget = 32L * 1024 * 1024;
+    // Whether responses are compressed for clients that accept it
+    private boolean compression = true;
+    // Bodies smaller than this size in bytes are sent uncompressed
+    private int compressionThreshold = 1024;
+    // Deflate level used to compress responses, from 1 to 9
+    private int compressionLevel = 6;
+    // Whether answered requests are written to the access log, null to log only to a configured file
+    private Boolean accessLog;
+    // File the access log is written to, null for the standard output
+    private Path accessLogFile;
+    // Size in bytes at which the access log file is rolled over
+    private long accessLogMaxFileSize = 10L * 1024 * 1024;
+    // Number of rolled over access log files kept
+    private int accessLogMaxFiles = 5;
+    // Number of entries the access log holds while they wait to be written
+    private int accessLogBufferSize = 8192;
+    // Whether requests wait for room when the access log buffer is full, instead of dropping their entry
+    private boolean accessLogBlockWhenFull = false;
+    // Whether the access log also records every request header, for debugging
+    private volatile boolean logHeaders = false;
+
+    /**
+     * Gets the TCP port the server listens on.
+     * @return the listening port
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Sets the TCP port the server listens on.
+     * @param port the listening port, 0 for any free port
+     */
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Gets the I/O engine accepting and serving connections.
+     * @return the engine type
+     */
+    public EngineType getEngine() {
+        return engine;
+    }
+
+    /**
+     * Sets the I/O engine accepting and serving connections.
+     * @param engine the engine type
+     */
+    public void setEngine(EngineType engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Gets the number of selector threads used by the NIO engine.
+     * @return the number of event loops
+     */
+    public int getEventLoopThreads() {
+        return eventLoopThreads;
+    }
+
+    /**
+     * Sets the number of selector threads used by the NIO engine.
+     * One per core is usually enough since handlers run on the worker executor.
+     * @param eventLoopThreads the number of event loops, must be positive
+     */
+    public void setEventLoopThreads(int eventLoopThreads) {
+        if (eventLoopThreads <= 0) {
+            throw new IllegalArgumentException("eventLoopThreads must be positive");
+        }
+        this.eventLoopThreads = eventLoopThreads;
+    }
+
+    /**
+     * Gets the strategy used to execute accepted connections.
+     * @return the execution mode
+     */
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * Sets the strategy used to execute accepted connections.
+     * With the NIO engine it decides where request handlers run.
+     * @param executionMode the execution mode
+     */
+    public void setExecutionMode(ExecutionMode executionMode) {
+        this.executionMode = executionMode;
+    }
+
+    /**
+     * Gets the number of platform threads used to serve connections.
+     * @return the size of the platform thread pool
+     */
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    /**
+     * Sets the number of platform threads used to serve connections.
+     * Only used in {@link ExecutionMode#PLATFORM_THREADS} mode or as the virtual thread fallback.
+     * @param workerThreads the size of the platform thread pool, must be positive
+     */
+    public void setWorkerThreads(int workerThreads) {
+        if (workerThreads <= 0) {
+            throw new IllegalArgumentException("workerThreads must be positive");
+        }
+        this.workerThreads = workerThreads;
+    }
+
+    /**
+     * Gets the maximum number of in-flight connections.
+     * @return the in-flight connection limit
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Sets the maximum number of in-flight connections.
+     * When the limit is reached the accept loop waits until a connection finishes.
+     * @param maxConnections the in-flight connection limit, must be positive
+     */
+    public void setMaxConnections(int maxConnections) {
+        if (maxConnections <= 0) {
+            throw new IllegalArgumentException("maxConnections must be positive");
+        }
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * Gets the number of connections the operating system queues before they are accepted.
+     * @return the accept backlog
+     */
+    public int getAcceptBacklog() {
+        return acceptBacklog;
+    }
+
+    /**
+     * Sets the number of connections the operating system queues before they are accepted,
+     * read when the server binds. The system may cap it, such as to somaxconn on Linux.
+     * @param acceptBacklog the accept backlog, must be positive
+     */
+    public void setAcceptBacklog(int acceptBacklog) {
+        if (acceptBacklog <= 0) {
+            throw new IllegalArgumentException("acceptBacklog must be positive");
+        }
+        this.acceptBacklog = acceptBacklog;
+    }
+
+    /**
+     * Gets the maximum number of requests handled at the same time.
+     * @return the request limit, or the ceiling of the adaptive limit
+     */
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    /**
+     * Sets the maximum number of requests handled at the same time, see {@link AdmissionControl}.
+     * @param maxConcurrentRequests the request limit, must be positive
+     */
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        if (maxConcurrentRequests <= 0) {
+            throw new IllegalArgumentException("maxConcurrentRequests must be positive");
+        }
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+    /**
+     * Tells whether the request limit adapts to the observed latency.
+     * @return true if the limit is adaptive
+     */
+    public boolean isAdaptiveConcurrency() {
+        return adaptiveConcurrency;
+    }
+
+    /**
+     * Enables or disables the adaptive request limit, which lowers the limit when latency
+     * rises and raises it up to {@link #getMaxConcurrentRequests()} while latency holds.
+     * @param adaptiveConcurrency true to adapt the limit to the observed latency
+     */
+    public void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+        this.adaptiveConcurrency = adaptiveConcurrency;
+    }
+
+    /**
+     * Gets the maximum number of requests waiting for the request limit.
+     * @return the queue size
+     */
+    public int getMaxQueuedRequests() {
+        return maxQueuedRequests;
+    }
+
+    /**
+     * Sets the maximum number of requests waiting for the request limit.
+     * Requests arriving when the queue is full are answered with 503 at once.
+     * @param maxQueuedRequests the queue size, 0 to reject as soon as the limit is reached
+     */
+    public void setMaxQueuedRequests(int maxQueuedRequests) {
+        if (maxQueuedRequests < 0) {
+            throw new IllegalArgumentException("maxQueuedRequests must not be negative");
+        }
+        this.maxQueuedRequests = maxQueuedRequests;
+    }
+
+    /**
+     * Gets how long a request waits for the request limit.
+     * @return the queue timeout in milliseconds
+     */
+    public long getQueueTimeout() {
+        return queueTimeout;
+    }
+
+    /**
+     * Sets how long a request waits for the request limit before it is answered with 503.
+     * @param queueTimeout the queue timeout in milliseconds, must be positive
+     */
+    public void setQueueTimeout(long queueTimeout) {
+        if (queueTimeout <= 0) {
+            throw new IllegalArgumentException("queueTimeout must be positive");
+        }
+        this.queueTimeout = queueTimeout;
+    }
+
+    /**
+     * Gets the delay rejected clients are asked to wait, sent in the retry-after header.
+     * @return the delay in seconds
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Sets the delay rejected clients are asked to wait, sent in the retry-after header.
+     * @param retryAfter the delay in seconds, must be positive
+     */
+    public void setRetryAfter(int retryAfter) {
+        if (retryAfter <= 0) {
+            throw new IllegalArgumentException("retryAfter must be positive");
+        }
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Gets how long an idle persistent connection waits for its next request.
+     * @return the idle timeout in milliseconds
+     */
+    public int getKeepAliveTimeout() {
+        return keepAliveTimeout;
+    }
+
+    /**
+     * Sets how long an idle persistent connection waits for its next request.
+     * @param keepAliveTimeout the idle timeout in milliseconds, must be positive
+     */
+    public void setKeepAliveTimeout(int keepAliveTimeout) {
+        if (keepAliveTimeout <= 0) {
+            throw new IllegalArgumentException("keepAliveTimeout must be positive");
+        }
+        this.keepAliveTimeout = keepAliveTimeout;
+    }
+
+    /**
+     * Gets how long an {@link AsyncService} has to complete its response.
+     * @return the timeout in milliseconds
+     */
+    public long getAsyncTimeout() {
+        return asyncTimeout;
+    }
+
+    /**
+     * Sets how long an {@link AsyncService} has to complete its response before it is
+     * cancelled and the request is answered with 503.
+     * @param asyncTimeout the timeout in milliseconds, must be positive
+     */
+    public void setAsyncTimeout(long asyncTimeout) {
+        if (asyncTimeout <= 0) {
+            throw new IllegalArgumentException("asyncTimeout must be positive");
+        }
+        this.asyncTimeout = asyncTimeout;
+    }
+
+    /**
+     * Gets how long the requests in flight may take to complete when the JVM shuts down.
+     * @return the timeout in milliseconds
+     */
+    public long getShutdownTimeout() {
+        return shutdownTimeout;
+    }
+
+    /**
+     * Sets how long the requests in flight may take to complete when the JVM shuts down
+     * a server started with {@link HttpServer#start}, before their connections are cut.
+     * @param shutdownTimeout the timeout in milliseconds, must be positive
+     */
+    public void setShutdownTimeout(long shutdownTimeout) {
+        if (shutdownTimeout <= 0) {
+            throw new IllegalArgumentException("shutdownTimeout must be positive");
+        }
+        this.shutdownTimeout = shutdownTimeout;
+    }
+
+    /**
+     * Gets the maximum number of requests served over one persistent connection.
+     * @return the per-connection request limit
+     */
+    public int getMaxKeepAliveRequests() {
+        return maxKeepAliveRequests;
+    }
+
+    /**
+     * Sets the maximum number of requests served over one persistent connection.
+     * A value of 1 disables persistent connections.
+     * @param maxKeepAliveRequests the per-connection request limit, must be positive
+     */
+    public void setMaxKeepAliveRequests(int maxKeepAliveRequests) {
+        if (maxKeepAliveRequests <= 0) {
+            throw new IllegalArgumentException("maxKeepAliveRequests must be positive");
+        }
+        this.maxKeepAliveRequests = maxKeepAliveRequests;
+    }
+
+    /**
+     * Tells whether clients may switch to cleartext HTTP/2.
+     * @return true if HTTP/2 is enabled
+     */
+    public boolean isHttp2() {
+        return http2;
+    }
+
+    /**
+     * Sets whether clients may switch to cleartext HTTP/2, either by starting the connection with
+     * the HTTP/2 preface or by asking for it with "Upgrade: h2c". When disabled both are served
+     * as HTTP/1.1 requests and the upgrade is ignored.
+     * @param http2 true to enable HTTP/2
+     */
+    public void setHttp2(boolean http2) {
+        this.http2 = http2;
+    }
+
+    /**
+     * Gets the maximum number of HTTP/2 streams a client may have open on one connection.
+     * @return the stream limit
+     */
+    public int getMaxConcurrentStreams() {
+        return maxConcurrentStreams;
+    }
+
+    /**
+     * Sets the maximum number of HTTP/2 streams a client may have open on one connection.
+     * Streams beyond it are refused, and the client may retry them later.
+     * @param maxConcurrentStreams the stream limit, must be positive
+     */
+    public void setMaxConcurrentStreams(int maxConcurrentStreams) {
+        if (maxConcurrentStreams <= 0) {
+            throw new IllegalArgumentException("maxConcurrentStreams must be positive");
+        }
+        this.maxConcurrentStreams = maxConcurrentStreams;
+    }
+
+    /**
+     * Gets the largest WebSocket message accepted.
+     * @return the limit in bytes
+     */
+    public int getWebSocketMaxMessageSize() {
+        return webSocketMaxMessageSize;
+    }
+
+    /**
+     * Sets the largest WebSocket message accepted, counting every fragment once decompressed.
+     * Larger messages close the session with status 1009 (message too big).
+     * @param webSocketMaxMessageSize the limit in bytes, must be positive
+     */
+    public void setWebSocketMaxMessageSize(int webSocketMaxMessageSize) {
+        if (webSocketMaxMessageSize <= 0) {
+            throw new IllegalArgumentException("webSocketMaxMessageSize must be positive");
+        }
+        this.webSocketMaxMessageSize = webSocketMaxMessageSize;
+    }
+
+    /**
+     * Gets how long a WebSocket connection may stay silent.
+     * @return the timeout in milliseconds
+     */
+    public int getWebSocketIdleTimeout() {
+        return webSocketIdleTimeout;
+    }
+
+    /**
+     * Sets how long a WebSocket connection may stay silent. A connection silent for half of it
+     * is sent a ping, which a live client answers, and one still silent at the end is closed.
+     * @param webSocketIdleTimeout the timeout in milliseconds, must be positive
+     */
+    public void setWebSocketIdleTimeout(int webSocketIdleTimeout) {
+        if (webSocketIdleTimeout <= 0) {
+            throw new IllegalArgumentException("webSocketIdleTimeout must be positive");
+        }
+        this.webSocketIdleTimeout = webSocketIdleTimeout;
+    }
+
+    /**
+     * Tells whether WebSocket messages may be compressed.
+     * @return true if the permessage-deflate extension is accepted
+     */
+    public boolean isWebSocketCompression() {
+        return webSocketCompression;
+    }
+
+    /**
+     * Sets whether WebSocket messages may be compressed with the permessage-deflate extension
+     * (RFC 7692) for clients that offer it.
+     * @param webSocketCompression true to accept the extension
+     */
+    public void setWebSocketCompression(boolean webSocketCompression) {
+        this.webSocketCompression = webSocketCompression;
+    }
+
+    /**
+     * Gets how long an event stream may stay silent before it is sent a heartbeat.
+     * @return the interval in milliseconds
+     */
+    public int getEventStreamHeartbeatInterval() {
+        return eventStreamHeartbeatInterval;
+    }
+
+    /**
+     * Sets how long an event stream may stay silent before it is sent a heartbeat, a comment
+     * line that keeps proxies from timing the stream out and finds the clients that are gone.
+     * @param eventStreamHeartbeatInterval the interval in milliseconds, must be positive
+     */
+    public void setEventStreamHeartbeatInterval(int eventStreamHeartbeatInterval) {
+        if (eventStreamHeartbeatInterval <= 0) {
+            throw new IllegalArgumentException("eventStreamHeartbeatInterval must be positive");
+        }
+        this.eventStreamHeartbeatInterval = eventStreamHeartbeatInterval;
+    }
+
+    /**
+     * Gets the longest request line accepted.
+     * @return the limit in bytes
+     */
+    public int getMaxRequestLineLength() {
+        return maxRequestLineLength;
+    }
+
+    /**
+     * Sets the longest request line accepted; longer ones are answered with 414 URI Too Long.
+     * @param maxRequestLineLength the limit in bytes, must be positive
+     */
+    public void setMaxRequestLineLength(int maxRequestLineLength) {
+        if (maxRequestLineLength <= 0) {
+            throw new IllegalArgumentException("maxRequestLineLength must be positive");
+        }
+        this.maxRequestLineLength = maxRequestLineLength;
+    }
+
+    /**
+     * Gets the largest header section accepted.
+     * @return the limit in bytes
+     */
+    public int getMaxHeaderSize() {
+        return maxHeaderSize;
+    }
+
+    /**
+     * Sets the largest header section accepted; larger ones are answered with
+     * 431 Request Header Fields Too Large.
+     * @param maxHeaderSize the limit in bytes, must be positive
+     */
+    public void setMaxHeaderSize(int maxHeaderSize) {
+        if (maxHeaderSize <= 0) {
+            throw new IllegalArgumentException("maxHeaderSize must be positive");
+        }
+        this.maxHeaderSize = maxHeaderSize;
+    }
+
+    /**
+     * Gets the maximum number of header fields accepted.
+     * @return the header count limit
+     */
+    public int getMaxHeaders() {
+        return maxHeaders;
+    }
+
+    /**
+     * Sets the maximum number of header fields accepted; requests with more are answered with
+     * 431 Request Header Fields Too Large.
+     * @param maxHeaders the header count limit, must be positive
+     */
+    public void setMaxHeaders(int maxHeaders) {
+        if (maxHeaders <= 0) {
+            throw new IllegalArgumentException("maxHeaders must be positive");
+        }
+        this.maxHeaders = maxHeaders;
+    }
+
+    /**
+     * Gets the largest request body accepted.
+     * @return the limit in bytes
+     */
+    public long getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    /**
+     * Sets the largest request body accepted; larger bodies are answered with 413 Content Too Large.
+     * @param maxBodySize the limit in bytes, must not be negative
+     */
+    public void setMaxBodySize(long maxBodySize) {
+        if (maxBodySize < 0) {
+            throw new IllegalArgumentException("maxBodySize must not be negative");
+        }
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * Gets the size up to which buffered request content is kept in memory.
+     * @return the size threshold in bytes
+     */
+    public int getBodyMemoryThreshold() {
+        return bodyMemoryThreshold;
+    }
+
+    /**
+     * Sets the size up to which buffered request content is kept in memory. Uploaded files
+     * above it are written to a temporary file; form bodies and fields above it are rejected
+     * with 413 Content Too Large, since they are decoded into strings.
+     * @param bodyMemoryThreshold the size threshold in bytes, must be positive
+     */
+    public void setBodyMemoryThreshold(int bodyMemoryThreshold) {
+        if (bodyMemoryThreshold <= 0) {
+            throw new IllegalArgumentException("bodyMemoryThreshold must be positive");
+        }
+        this.bodyMemoryThreshold = bodyMemoryThreshold;
+    }
+
+    /**
+     * Gets the size up to which static files are cached in memory.
+     * @return the size threshold in bytes
+     */
+    public int getStaticBufferThreshold() {
+        return staticBufferThreshold;
+    }
+
+    /**
+     * Sets the size up to which static files are cached in memory.
+     * Larger files are sent from disk with zero-copy transfers; 0 disables the cache.
+     * @param staticBufferThreshold the size threshold in bytes, must not be negative
+     */
+    public void setStaticBufferThreshold(int staticBufferThreshold) {
+        if (staticBufferThreshold < 0) {
+            throw new IllegalArgumentException("staticBufferThreshold must not be negative");
+        }
+        this.staticBufferThreshold = staticBufferThreshold;
+    }
+
+    /**
+     * Gets the maximum bytes held by the static file cache.
+     * @return the memory budget in bytes
+     */
+    public long getStaticBufferBudget() {
+        return staticBufferBudget;
+    }
+
+    /**
+     * Sets the maximum bytes held by the static file cache.
+     * The least recently used files are evicted when the budget is exceeded.
+     * @param staticBufferBudget the memory budget in bytes, must not be negative
+     */
+    public void setStaticBufferBudget(long staticBufferBudget) {
+        if (staticBufferBudget < 0) {
+            throw new IllegalArgumentException("staticBufferBudget must not be negative");
+        }
+        this.staticBufferBudget = staticBufferBudget;
+    }
+
+    /**
+     * Tells whether responses are compressed for clients that accept it.
+     * @return true if gzip and deflate encodings are negotiated
+     */
+    public boolean isCompression() {
+        return compression;
+    }
+
+    /**
+     * Enables or disables the compression of responses.
+     * @param compression true to negotiate gzip and deflate encodings
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Gets the size below which bodies are sent uncompressed.
+     * @return the size threshold in bytes
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Sets the size below which bodies are sent uncompressed.
+     * Small bodies gain little from compression and still cost CPU.
+     * @param compressionThreshold the size threshold in bytes, must not be negative
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        if (compressionThreshold < 0) {
+            throw new IllegalArgumentException("compressionThreshold must not be negative");
+        }
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * Gets the deflate level used to compress responses.
+     * @return the compression level
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Sets the deflate level used to compress responses.
+     * Static files are compressed once and cached, so a high level mostly costs CPU on dynamic responses.
+     * @param compressionLevel the compression level, from 1 (fastest) to 9 (smallest)
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        if (compressionLevel < 1 || compressionLevel > 9) {
+            throw new IllegalArgumentException("compressionLevel must be between 1 and 9");
+        }
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Tells whether answered requests are written to the access log. Unless it was set, the
+     * access log is enabled when a file is configured, so nothing is written to the standard
+     * output by default.
+     * @return true if the access log is enabled
+     */
+    public boolean isAccessLog() {
+        return accessLog != null ? accessLog : accessLogFile != null;
+    }
+
+    /**
+     * Sets whether answered requests are written to the access log.
+     * @param accessLog true to enable the access log, to the standard output if no file is set
+     */
+    public void setAccessLog(boolean accessLog) {
+        this.accessLog = accessLog;
+    }
+
+    /**
+     * Gets the file the access log is written to.
+     * @return the log file, or null for the standard output
+     */
+    public Path getAccessLogFile() {
+        return accessLogFile;
+    }
+
+    /**
+     * Sets the file the access log is written to. Entries are appended; once the file reaches
+     * the maximum size it is renamed with a ".1" suffix, older files shifting to ".2" and so on.
+     * @param accessLogFile the log file, or null for the standard output
+     */
+    public void setAccessLogFile(Path accessLogFile) {
+        this.accessLogFile = accessLogFile;
+    }
+
+    /**
+     * Gets the size at which the access log file is rolled over.
+     * @return the size in bytes
+     */
+    public long getAccessLogMaxFileSize() {
+        return accessLogMaxFileSize;
+    }
+
+    /**
+     * Sets the size at which the access log file is rolled over.
+     * @param accessLogMaxFileSize the size in bytes, must be positive
+     */
+    public void setAccessLogMaxFileSize(long accessLogMaxFileSize) {
+        if (accessLogMaxFileSize <= 0) {
+            throw new IllegalArgumentException("accessLogMaxFileSize must be positive");
+        }
+        this.accessLogMaxFileSize = accessLogMaxFileSize;
+    }
+
+    /**
+     * Gets the number of rolled over access log files kept.
+     * @return the number of old files
+     */
+    public int getAccessLogMaxFiles() {
+        return accessLogMaxFiles;
+    }
+
+    /**
+     * Sets the number of rolled over access log files kept; older ones are deleted.
+     * @param accessLogMaxFiles the number of old files, must not be negative
+     */
+    public void setAccessLogMaxFiles(int accessLogMaxFiles) {
+        if (accessLogMaxFiles < 0) {
+            throw new IllegalArgumentException("accessLogMaxFiles must not be negative");
+        }
+        this.accessLogMaxFiles = accessLogMaxFiles;
+    }
+
+    /**
+     * Gets the number of entries the access log holds while they wait to be written.
+     * @return the buffer capacity
+     */
+    public int getAccessLogBufferSize() {
+        return accessLogBufferSize;
+    }
+
+    /**
+     * Sets the number of entries the access log holds while they wait to be written.
+     * @param accessLogBufferSize the buffer capacity, rounded up to a power of two
+     */
+    public void setAccessLogBufferSize(int accessLogBufferSize) {
+        if (accessLogBufferSize < 1 || accessLogBufferSize > 1 << 30) {
+            throw new IllegalArgumentException("accessLogBufferSize must be between 1 and 2^30");
+        }
+        this.accessLogBufferSize = accessLogBufferSize;
+    }
+
+    /**
+     * Tells whether requests wait for room when the access log buffer is full.
+     * @return true to wait, false to drop the entry
+     */
+    public boolean isAccessLogBlockWhenFull() {
+        return accessLogBlockWhenFull;
+    }
+
+    /**
+     * Sets whether requests wait for room when the access log buffer is full. Dropping keeps
+     * latency unaffected by a slow log destination; dropped entries are counted in the metrics.
+     * @param accessLogBlockWhenFull true to wait, false to drop the entry
+     */
+    public void setAccessLogBlockWhenFull(boolean accessLogBlockWhenFull) {
+        this.accessLogBlockWhenFull = accessLogBlockWhenFull;
+    }
+
+    /**
+     * Tells whether the access log also records every request header.
+     * @return true if headers are logged
+     */
+    public boolean isLogHeaders() {
+        return logHeaders;
+    }
+
+    /**
+     * Sets whether the access log also records every request header. Meant for debugging,
+     * it can be switched while the server runs.
+     * @param logHeaders true to log headers
+     */
+    public void setLogHeaders(boolean logHeaders) {
+        this.logHeaders = logHeaders;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Accepts client connections and feeds their requests to {@link WebServer#handleRequest(HttpRequest, HttpResponse)}.
+ *
+ * @author daniel.aldana-b
+ */
+interface ServerEngine extends Closeable {
+
+    /**
+     * Opens the listening socket on the configured port.
+     * @throws IOException if the port cannot be bound
+     */
+    void bind() throws IOException;
+
+    /**
+     * Gets the port the engine listens on.
+     * @return the bound port, which differs from the configured one when that is 0
+     */
+    int getPort();
+
+    /**
+     * Accepts and serves connections until the engine is closed.
+     * @throws IOException if the listening socket fails
+     */
+    void serve() throws IOException;
+
+    /**
+     * Starts a graceful shutdown: the listening socket is closed, idle connections are closed
+     * and the others close once their current response is written. Closing the engine
+     * afterwards cuts the connections that are still open.
+     */
+    void drain();
+
+    /**
+     * Creates the engine selected in the configuration.
+     * @param config the server configuration
+     * @param metrics the metrics counting connections and transferred bytes
+     * @param server the server answering the requests
+     * @return a new, unbound engine
+     */
+    static ServerEngine create(ServerConfig config, ServerMetrics metrics, WebServer server) {
+        return config.getEngine() == EngineType.NIO ? new NioEngine(config, metrics, server)
+                : new BlockingEngine(config, metrics, server);
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry of the server metrics: requests and latency by route, responses by status code,
+ * bytes received and sent, open connections and static cache efficiency. Recording a request
+ * takes no lock and allocates nothing once its route has been seen; counters are
+ * {@link LongAdder}s and latencies go to a {@link LatencyHistogram} per route.
+ * <p>
+ * The registry is also the service of the built-in "/metrics" endpoint, which answers with
+ * the Prometheus text exposition format. Latency quantiles cover the whole life of the server.
+ *
+ * @author daniel.aldana-b
+ */
+public class ServerMetrics implements Service {
+    // Route label of requests answered with the static files
+    public static final String STATIC_ROUTE = "static";
+    // Route label of requests no service nor file answered
+    public static final String UNMATCHED_ROUTE = "unmatched";
+    // Content type of the Prometheus text exposition format
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    // Quantiles reported for the latency histograms
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+    private static final String[] QUANTILE_LABELS = {"0.5", "0.99", "0.999"};
+
+    // Latency histograms in microseconds, keyed by route method and then by route pattern
+    private final ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>> routes = new ConcurrentHashMap<>();
+    // Responses by status code, created on first use
+    private final ConcurrentMap<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+    // Counters for the common status codes, indexed by code, so they skip the boxed lookup
+    private final LongAdder[] commonStatuses = new LongAdder[600];
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder activeConnections = new LongAdder();
+    private final LongAdder accessLogDropped = new LongAdder();
+    // Cache whose hit rate is reported, may be null
+    private final StaticCache staticCache;
+    // Request limit whose state is reported, may be null
+    private final AdmissionControl admission;
+
+    /**
+     * Creates an empty registry.
+     * @param staticCache the cache of static files whose statistics are exposed, or null
+     */
+    public ServerMetrics(StaticCache staticCache) {
+        this(staticCache, null);
+    }
+
+    /**
+     * Creates an empty registry.
+     * @param staticCache the cache of static files whose statistics are exposed, or null
+     * @param admission the request limit whose state is exposed, or null
+     */
+    public ServerMetrics(StaticCache staticCache, AdmissionControl admission) {
+        this.staticCache = staticCache;
+        this.admission = admission;
+        for (int code : new int[] {200, 201, 204, 206, 301, 302, 304, 400, 404, 405, 413, 500, 503}) {
+            commonStatuses[code] = new LongAdder();
+            statuses.put(code, commonStatuses[code]);
+        }
+    }
+
+    /**
+     * Records an answered request.
+     * @param method the method of the matched route, {@link Router#ANY} if no service answered
+     * @param route the pattern of the matched route, or {@link #STATIC_ROUTE} or {@link #UNMATCHED_ROUTE}
+     * @param statusCode the status code of the response
+     * @param nanos the time taken to answer, in nanoseconds
+     */
+    void recordRequest(String method, String route, int statusCode, long nanos) {
+        histogram(method, route).record(nanos / 1000);
+        recordStatus(statusCode);
+    }
+
+    /**
+     * Records a response sent without reaching a route, such as the rejection of a malformed request.
+     * @param statusCode the status code of the response
+     */
+    void recordStatus(int statusCode) {
+        LongAdder counter = statusCode >= 0 && statusCode < commonStatuses.length ? commonStatuses[statusCode] : null;
+        if (counter == null) {
+            counter = statuses.computeIfAbsent(statusCode, code -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    /**
+     * Counts bytes read from clients.
+     * @param count the number of bytes
+     */
+    void bytesReceived(long count) {
+        bytesReceived.add(count);
+    }
+
+    /**
+     * Counts bytes written to clients.
+     * @param count the number of bytes
+     */
+    void bytesSent(long count) {
+        bytesSent.add(count);
+    }
+
+    /**
+     * Counts an accepted connection.
+     */
+    void connectionOpened() {
+        connections.increment();
+        activeConnections.increment();
+    }
+
+    /**
+     * Counts a closed connection.
+     */
+    void connectionClosed() {
+        activeConnections.decrement();
+    }
+
+    /**
+     * Counts an access log entry dropped because the log buffer was full.
+     */
+    void accessLogDropped() {
+        accessLogDropped.increment();
+    }
+
+    /**
+     * Gets the latency histogram of a route, in microseconds, creating it if needed.
+     * @param method the method the route was registered for
+     * @param route the route pattern
+     * @return the histogram
+     */
+    public LatencyHistogram histogram(String method, String route) {
+        ConcurrentMap<String, LatencyHistogram> byRoute = routes.get(method);
+        if (byRoute == null) {
+            byRoute = routes.computeIfAbsent(method, m -> new ConcurrentHashMap<>());
+        }
+        LatencyHistogram histogram = byRoute.get(route);
+        return histogram != null ? histogram : byRoute.computeIfAbsent(route, r -> new LatencyHistogram());
+    }
+
+    /**
+     * Gets the number of responses sent with a status code.
+     * @param statusCode the status code
+     * @return the response count
+     */
+    public long getStatusCount(int statusCode) {
+        LongAdder counter = statuses.get(statusCode);
+        return counter != null ? counter.sum() : 0;
+    }
+
+    /**
+     * Gets the number of bytes read from clients.
+     * @return the received bytes
+     */
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    /**
+     * Gets the number of bytes written to clients.
+     * @return the sent bytes
+     */
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    /**
+     * Gets the number of connections currently open.
+     * @return the open connections
+     */
+    public long getActiveConnections() {
+        return activeConnections.sum();
+    }
+
+    /**
+     * Gets the number of connections accepted since the server started.
+     * @return the accepted connections
+     */
+    public long getConnections() {
+        return connections.sum();
+    }
+
+    /**
+     * Answers the metrics endpoint with every metric in the Prometheus text format.
+     * @param req the request
+     * @param res the response, whose content type is set
+     * @return the metrics
+     */
+    @Override
+    public String invoke(HttpRequest req, HttpResponse res) {
+        res.setContentType(CONTENT_TYPE);
+        res.setHeader("cache-control", "no-store");
+        return scrape();
+    }
+
+    /**
+     * Writes every metric in the Prometheus text exposition format.
+     * @return the metrics, one sample per line
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        // sorted so consecutive scrapes list the series in the same order
+        Map<String, Map<String, LatencyHistogram>> sorted = new TreeMap<>();
+        for (Map.Entry<String, ConcurrentMap<String, LatencyHistogram>> method : routes.entrySet()) {
+            sorted.put(method.getKey(), new TreeMap<>(method.getValue()));
+        }
+
+        header(out, "http_requests_total", "counter", "Requests answered, by matched route.");
+        for (Map.Entry<String, Map<String, LatencyHistogram>> method : sorted.entrySet()) {
+            for (Map.Entry<String, LatencyHistogram> route : method.getValue().entrySet()) {
+                out.append("http_requests_total");
+                labels(out, method.getKey(), route.getKey(), null);
+                out.append(' ').append(route.getValue().getCount()).append('\n');
+            }
+        }
+
+        header(out, "http_request_duration_seconds", "summary", "Time to answer requests, by matched route.");
+        for (Map.Entry<String, Map<String, LatencyHistogram>> method : sorted.entrySet()) {
+            for (Map.Entry<String, LatencyHistogram> route : method.getValue().entrySet()) {
+                LatencyHistogram histogram = route.getValue();
+                long[] values = histogram.getValuesAtQuantiles(QUANTILES);
+                for (int i = 0; i < QUANTILES.length; i++) {
+                    out.append("http_request_duration_seconds");
+                    labels(out, method.getKey(), route.getKey(), QUANTILE_LABELS[i]);
+                    out.append(' ').append(seconds(values[i])).append('\n');
+                }
+                out.append("http_request_duration_seconds_sum");
+                labels(out, method.getKey(), route.getKey(), null);
+                out.append(' ').append(seconds(histogram.getSum())).append('\n');
+                out.append("http_request_duration_seconds_count");
+                labels(out, method.getKey(), route.getKey(), null);
+                out.append(' ').append(histogram.getCount()).append('\n');
+            }
+        }
+
+        header(out, "http_responses_total", "counter", "Responses sent, by status code.");
+        for (Map.Entry<Integer, LongAdder> status : new TreeMap<>(statuses).entrySet()) {
+            long count = status.getValue().sum();
+            if (count > 0) {
+                out.append("http_responses_total{code=\"").append(status.getKey()).append("\"} ")
+                        .append(count).append('\n');
+            }
+        }
+
+        sample(out, "http_received_bytes_total", "counter", "Bytes read from clients.", getBytesReceived());
+        sample(out, "http_sent_bytes_total", "counter", "Bytes written to clients.", getBytesSent());
+        sample(out, "http_connections_total", "counter", "Connections accepted.", getConnections());
+        sample(out, "http_active_connections", "gauge", "Connections currently open.", getActiveConnections());
+        sample(out, "access_log_dropped_total", "counter", "Access log entries dropped because the log buffer was full.",
+                accessLogDropped.sum());
+
+        if (admission != null) {
+            sample(out, "http_requests_in_flight", "gauge", "Requests being handled.", admission.getInFlight());
+            sample(out, "http_requests_queued", "gauge", "Requests waiting for the concurrency limit.",
+                    admission.getQueued());
+            sample(out, "http_concurrency_limit", "gauge", "Requests that may be handled at the same time.",
+                    admission.getLimit());
+            sample(out, "http_requests_rejected_total", "counter", "Requests shed with 503 because the server was saturated.",
+                    admission.getRejected());
+        }
+
+        if (staticCache != null) {
+            long hits = staticCache.getHits();
+            long misses = staticCache.getMisses();
+            sample(out, "static_cache_hits_total", "counter", "Static file lookups answered from memory.", hits);
+            sample(out, "static_cache_misses_total", "counter", "Static file lookups that went to the disk.", misses);
+            header(out, "static_cache_hit_ratio", "gauge", "Share of static file lookups answered from memory.");
+            out.append("static_cache_hit_ratio ").append(hits + misses > 0 ? (double) hits / (hits + misses) : 0)
+                    .append('\n');
+            sample(out, "static_cache_evictions_total", "counter", "Cached files evicted to stay within budget.",
+                    staticCache.getEvictions());
+            sample(out, "static_cache_bytes", "gauge", "Bytes held by the cached files.", staticCache.getBytes());
+        }
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String type, String help, long value) {
+        header(out, name, type, help);
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void labels(StringBuilder out, String method, String route, String quantile) {
+        out.append("{method=\"");
+        escape(out, method);
+        out.append("\",route=\"");
+        escape(out, route);
+        out.append('"');
+        if (quantile != null) {
+            out.append(",quantile=\"").append(quantile).append('"');
+        }
+        out.append('}');
+    }
+
+    /**
+     * Escapes a label value as the exposition format requires.
+     */
+    private static void escape(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                out.append('\\').append(c);
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    private static String seconds(long micros) {
+        return Double.toString(micros / 1_000_000.0);
+    }
+}
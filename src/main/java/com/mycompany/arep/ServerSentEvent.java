@@ -0,0 +1,132 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An event of the text/event-stream format, serialized once when it is created.
+ * <pre>
+ * id: 42
+ * event: price
+ * data: {"symbol": "ACME", "price": 12.5}
+ *
+ * </pre>
+ * Every {@link EventStream} it is sent to queues a view of the same read-only bytes, so an
+ * event published to many subscribers is neither serialized nor copied once per subscriber.
+ * Events are immutable and thread safe.
+ *
+ * @author daniel.aldana-b
+ */
+public final class ServerSentEvent {
+    // Comment line sent to silent streams
+    private static final ByteBuffer HEARTBEAT = ByteBuffer.wrap(":\n\n".getBytes(StandardCharsets.US_ASCII))
+            .asReadOnlyBuffer();
+
+    // Event id, null for none
+    private final String id;
+    // Event type, null for the default "message" type
+    private final String event;
+    // Event data
+    private final String data;
+    // Serialized event
+    private final ByteBuffer encoded;
+
+    /**
+     * Creates an event.
+     * @param id the id the client sends back in Last-Event-ID when it reconnects, or null
+     * @param event the event type, or null for the default "message" type
+     * @param data the data; each line is sent as a data field
+     */
+    public ServerSentEvent(String id, String event, String data) {
+        this.id = checkField("id", id);
+        this.event = checkField("event", event);
+        this.data = data;
+        this.encoded = encode(id, event, data);
+    }
+
+    /**
+     * Creates an event with only data.
+     * @param data the data
+     * @return the event
+     */
+    public static ServerSentEvent of(String data) {
+        return new ServerSentEvent(null, null, data);
+    }
+
+    /**
+     * Gets the id of the event.
+     * @return the id, or null
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Gets the type of the event.
+     * @return the type, or null for the default "message" type
+     */
+    public String getEvent() {
+        return event;
+    }
+
+    /**
+     * Gets the data of the event.
+     * @return the data
+     */
+    public String getData() {
+        return data;
+    }
+
+    /**
+     * Gets the serialized event for one stream.
+     * @return a new view of the shared bytes, owned by the caller
+     */
+    ByteBuffer encoded() {
+        return encoded.duplicate();
+    }
+
+    /**
+     * Gets the comment sent to keep a silent stream alive.
+     * @return a new view of the shared bytes, owned by the caller
+     */
+    static ByteBuffer heartbeat() {
+        return HEARTBEAT.duplicate();
+    }
+
+    private static String checkField(String name, String value) {
+        if (value != null && (value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0 || value.indexOf('\0') >= 0)) {
+            throw new IllegalArgumentException("Invalid event " + name + ": " + value);
+        }
+        return value;
+    }
+
+    /**
+     * Serializes the fields, splitting the data on CRLF, CR and LF into data lines.
+     */
+    private static ByteBuffer encode(String id, String event, String data) {
+        StringBuilder text = new StringBuilder(data.length() + 32);
+        if (id != null) {
+            text.append("id: ").append(id).append('\n');
+        }
+        if (event != null) {
+            text.append("event: ").append(event).append('\n');
+        }
+        int start = 0;
+        for (int i = 0; i <= data.length(); i++) {
+            char c = i < data.length() ? data.charAt(i) : '\n';
+            if (c == '\n' || c == '\r') {
+                text.append("data: ").append(data, start, i).append('\n');
+                if (c == '\r' && i + 1 < data.length() && data.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                start = i + 1;
+            }
+        }
+        text.append('\n');
+        return ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+    }
+}
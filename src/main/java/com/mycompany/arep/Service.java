@@ -5,6 +5,10 @@
 package com.mycompany.arep;
 
 /**
+ * REST service returning its whole body as a string.
+ * The server encodes the string and sends it with a content-length. A service may still
+ * stream a large body through {@link HttpResponse#getOutputStream()}; the returned string,
+ * if any, is then appended to the streamed body. See {@link StreamingService}.
  *
  * @author daniel.aldana-b
  */
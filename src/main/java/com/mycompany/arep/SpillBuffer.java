@@ -0,0 +1,126 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Buffer for request content of unknown size, such as an uploaded file. Bytes are kept in
+ * memory up to a threshold; beyond it everything is moved to a temporary file, so large uploads
+ * do not fill the heap. The temporary file is removed by {@link #delete()}.
+ *
+ * @author daniel.aldana-b
+ */
+class SpillBuffer extends OutputStream {
+    // Size above which the content moves to a file
+    private final int threshold;
+    // Content while it is in memory
+    private byte[] memory = new byte[256];
+    // Temporary file holding the content once spilled, and its open stream while writing
+    private Path file;
+    private OutputStream fileOut;
+    private long size;
+
+    /**
+     * Creates an empty buffer.
+     * @param threshold the size in bytes above which the content is written to a temporary file
+     */
+    SpillBuffer(int threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (fileOut == null && size + length > threshold) {
+            file = Files.createTempFile("arep-upload", ".tmp");
+            fileOut = Files.newOutputStream(file);
+            fileOut.write(memory, 0, (int) size);
+            memory = null;
+        }
+        if (fileOut != null) {
+            fileOut.write(bytes, offset, length);
+        } else {
+            if (size + length > memory.length) {
+                memory = Arrays.copyOf(memory, (int) Math.min(threshold, Math.max(size + length, 2L * memory.length)));
+            }
+            System.arraycopy(bytes, offset, memory, (int) size, length);
+        }
+        size += length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (fileOut != null) {
+            fileOut.close();
+            fileOut = null;
+        }
+    }
+
+    /**
+     * Gets the number of bytes written.
+     * @return the content size
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Tells whether the content is held in memory.
+     * @return false once the content was moved to a temporary file
+     */
+    boolean isInMemory() {
+        return file == null;
+    }
+
+    /**
+     * Gets the temporary file holding the content.
+     * @return the file, or null while the content is in memory
+     */
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * Opens a stream reading the content from the beginning.
+     * @return the content stream
+     * @throws IOException if the temporary file cannot be opened
+     */
+    InputStream openStream() throws IOException {
+        close();
+        return file != null ? Files.newInputStream(file) : new ByteArrayInputStream(memory, 0, (int) size);
+    }
+
+    /**
+     * Gets the content as an array, reading the temporary file if needed.
+     * @return a copy of the content
+     * @throws IOException if the temporary file cannot be read
+     */
+    byte[] toByteArray() throws IOException {
+        close();
+        return file != null ? Files.readAllBytes(file) : Arrays.copyOf(memory, (int) size);
+    }
+
+    /**
+     * Removes the temporary file, if any.
+     * @throws IOException if the file cannot be deleted
+     */
+    void delete() throws IOException {
+        close();
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,428 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory cache of static files ready to be written to clients.
+ * Lookups take no lock and touch no disk. The cache is bounded by a byte budget and
+ * evicts the least recently used files when it is exceeded. Cached files are
+ * invalidated when a {@link WatchService} reports a change in their directory; for
+ * directories that cannot be watched, each hit checks the file modification time.
+ * Each entry also keeps the compressed variants of its file once they are first requested.
+ *
+ * @author daniel.aldana-b
+ */
+public class StaticCache implements AutoCloseable {
+    // Server settings with the byte budget
+    private final ServerConfig config;
+    // Cached files keyed by the resolved path they were requested with
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+    // Directories registered with the watch service
+    private final Set<Path> watchedDirectories = ConcurrentHashMap.newKeySet();
+    // Directories that could not be watched and fall back to modification time checks
+    private final Set<Path> unwatchableDirectories = ConcurrentHashMap.newKeySet();
+    // Logical clock ordering the accesses for LRU eviction
+    private final AtomicLong clock = new AtomicLong();
+    // Total bytes held by the cached entries
+    private final AtomicLong bytes = new AtomicLong();
+    // Statistics
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    // Watch service notifying file changes, null if the file system offers none
+    private final WatchService watcher;
+
+    /**
+     * Creates an empty cache and starts watching for file changes.
+     * @param config the server configuration with the byte budget
+     */
+    StaticCache(ServerConfig config) {
+        this.config = config;
+        WatchService service;
+        try {
+            service = FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            service = null;
+        }
+        this.watcher = service;
+        if (watcher != null) {
+            Thread thread = new Thread(this::watch, "static-cache-watcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Looks up a cached file.
+     * @param key the resolved path of the request
+     * @return the cached file, or null on a miss
+     */
+    Entry get(Path key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.checkModified && entry.isStale()) {
+            invalidate(key, entry);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        entry.lastAccess = clock.incrementAndGet();
+        hits.increment();
+        return entry;
+    }
+
+    /**
+     * Starts watching the directory of a file that is about to be read into the cache.
+     * Must be called before reading the file, so changes made while it is read are not missed.
+     * @param file the file to watch
+     * @return true if changes are notified, false if the modification time must be checked on every hit
+     */
+    boolean watch(Path file) {
+        Path directory = file.getParent();
+        if (watcher == null || directory == null || unwatchableDirectories.contains(directory)) {
+            return false;
+        }
+        if (watchedDirectories.contains(directory)) {
+            return true;
+        }
+        try {
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            watchedDirectories.add(directory);
+            return true;
+        } catch (IOException | UnsupportedOperationException | ClosedWatchServiceException e) {
+            unwatchableDirectories.add(directory);
+            return false;
+        }
+    }
+
+    /**
+     * Adds a file to the cache, evicting the least recently used files if the budget is exceeded.
+     * Files larger than the whole budget are not cached.
+     * @param key the resolved path of the request
+     * @param entry the file ready to be served
+     */
+    synchronized void put(Path key, Entry entry) {
+        long budget = config.getStaticBufferBudget();
+        if (entry.weight() > budget) {
+            return;
+        }
+        entry.lastAccess = clock.incrementAndGet();
+        Entry previous = entries.put(key, entry);
+        bytes.addAndGet(entry.weight() - (previous != null ? previous.weight() : 0));
+        if (bytes.get() > budget) {
+            evict(budget);
+        }
+    }
+
+    /**
+     * Adds a compressed variant to a cached entry and accounts for its bytes, evicting the least
+     * recently used files if the budget is exceeded. Nothing is added if the entry was removed
+     * meanwhile, so the bytes of a removed entry are never counted.
+     * @param key the resolved path of the request
+     * @param entry the entry the variant belongs to
+     * @param coding the content coding of the variant
+     * @param variant the variant, or the identity one if compression does not pay off
+     */
+    synchronized void addVariant(Path key, Entry entry, String coding, Variant variant) {
+        if (entries.get(key) != entry) {
+            return;
+        }
+        long weight = entry.weight();
+        entry.setVariant(coding, variant);
+        long budget = config.getStaticBufferBudget();
+        if (bytes.addAndGet(entry.weight() - weight) > budget) {
+            evict(budget);
+        }
+    }
+
+    /**
+     * Removes least recently used entries until the cache fits in the budget.
+     * @param budget the byte budget
+     */
+    private synchronized void evict(long budget) {
+        while (bytes.get() > budget) {
+            Map.Entry<Path, Entry> oldest = null;
+            for (Map.Entry<Path, Entry> candidate : entries.entrySet()) {
+                if (oldest == null || candidate.getValue().lastAccess < oldest.getValue().lastAccess) {
+                    oldest = candidate;
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            if (entries.remove(oldest.getKey(), oldest.getValue())) {
+                bytes.addAndGet(-oldest.getValue().weight());
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Removes one entry because its file changed.
+     * @param key the key of the entry
+     * @param entry the entry expected under that key
+     */
+    private synchronized void invalidate(Path key, Entry entry) {
+        if (entries.remove(key, entry)) {
+            bytes.addAndGet(-entry.weight());
+            invalidations.increment();
+        }
+    }
+
+    /**
+     * Removes every entry served from, requested as, or precompressed in the given path.
+     * @param changed the path reported as created, deleted or modified
+     */
+    private void invalidate(Path changed) {
+        for (Map.Entry<Path, Entry> entry : entries.entrySet()) {
+            Entry value = entry.getValue();
+            if (entry.getKey().equals(changed) || value.file.equals(changed) || value.precompressed.equals(changed)) {
+                invalidate(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Removes every entry.
+     */
+    public void clear() {
+        for (Map.Entry<Path, Entry> entry : entries.entrySet()) {
+            invalidate(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Processes the watch service events until the cache is closed.
+     */
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                Path directory = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        clear();
+                    } else {
+                        invalidate(directory.resolve((Path) event.context()));
+                    }
+                }
+                if (!key.reset()) {
+                    watchedDirectories.remove(directory);
+                    invalidateDirectory(directory);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // the cache was closed
+        }
+    }
+
+    /**
+     * Removes every entry whose file is inside a directory that is no longer watched.
+     * @param directory the directory
+     */
+    private void invalidateDirectory(Path directory) {
+        for (Map.Entry<Path, Entry> entry : entries.entrySet()) {
+            if (directory.equals(entry.getValue().file.getParent())) {
+                invalidate(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Stops watching for file changes.
+     */
+    @Override
+    public void close() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Gets the number of lookups answered from the cache.
+     * @return the hit count
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of lookups that had to go to the disk.
+     * @return the miss count
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the number of entries removed to stay within the byte budget.
+     * @return the eviction count
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Gets the number of entries removed because their file changed.
+     * @return the invalidation count
+     */
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    /**
+     * Gets the number of cached files.
+     * @return the entry count
+     */
+    public int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the bytes held by the cached files, headers included.
+     * @return the cached bytes
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * An encoding of a static file ready to be written: its pre-encoded head, its body and its entity tag.
+     */
+    static final class Variant {
+        // Status line, entity headers and validators, already encoded
+        final ByteBuffer head;
+        // Read-only direct buffer with the encoded content
+        final ByteBuffer body;
+        // Strong entity tag of the encoded content
+        final String etag;
+        // Content coding of the body, null for the file as it is on disk
+        final String coding;
+
+        Variant(ByteBuffer head, ByteBuffer body, String etag, String coding) {
+            this.head = head;
+            this.body = body;
+            this.etag = etag;
+            this.coding = coding;
+        }
+
+        /**
+         * Gets the memory held by the variant.
+         * @return the head and body size in bytes
+         */
+        long weight() {
+            return head.capacity() + body.capacity();
+        }
+    }
+
+    /**
+     * A static file ready to be written: its variants and its MIME type.
+     */
+    static final class Entry {
+        // File the content was read from
+        final Path file;
+        // Sibling file with the gzip content prepared in advance, if it exists
+        final Path precompressed;
+        // The file content as it is on disk
+        final Variant identity;
+        // MIME type of the file
+        final String contentType;
+        // File modification time when it was read
+        final long modified;
+        // Modification time formatted for the last-modified header
+        final String lastModified;
+        // Whether each hit must compare the modification time
+        final boolean checkModified;
+        // Logical time of the last access
+        volatile long lastAccess;
+        // Compressed variants, built on first use; identity when compression does not pay off
+        private volatile Variant gzip;
+        private volatile Variant deflate;
+
+        Entry(Path file, Variant identity, String contentType, long modified, boolean checkModified) {
+            this.file = file;
+            this.precompressed = StaticFiles.precompressed(file);
+            this.identity = identity;
+            this.contentType = contentType;
+            this.modified = modified;
+            this.lastModified = Validators.httpDate(modified);
+            this.checkModified = checkModified;
+        }
+
+        /**
+         * Gets a compressed variant of the file.
+         * @param coding the content coding
+         * @return the variant, or null if it was not built yet
+         */
+        Variant variant(String coding) {
+            return ContentEncoding.GZIP.equals(coding) ? gzip : deflate;
+        }
+
+        /**
+         * Stores a compressed variant of the file. Must be called holding the cache lock, so the
+         * weight of the entry only changes while the cache counts it.
+         * @param coding the content coding
+         * @param variant the variant, or the identity one if compression does not pay off
+         */
+        private void setVariant(String coding, Variant variant) {
+            if (ContentEncoding.GZIP.equals(coding)) {
+                gzip = variant;
+            } else {
+                deflate = variant;
+            }
+        }
+
+        /**
+         * Gets the memory held by the entry.
+         * @return the size in bytes of every variant
+         */
+        long weight() {
+            long weight = identity.weight();
+            Variant compressed = gzip;
+            if (compressed != null && compressed != identity) {
+                weight += compressed.weight();
+            }
+            compressed = deflate;
+            if (compressed != null && compressed != identity) {
+                weight += compressed.weight();
+            }
+            return weight;
+        }
+
+        /**
+         * Tells whether the file changed on disk since it was read.
+         * @return true if the file was modified or removed
+         */
+        boolean isStale() {
+            try {
+                return Files.getLastModifiedTime(file).toMillis() != modified;
+            } catch (IOException e) {
+                return true;
+            }
+        }
+    }
+}
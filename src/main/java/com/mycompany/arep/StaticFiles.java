@@ -0,0 +1,396 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Serves the static files found under the configured root directory.
+ * Files up to the configured size are kept in a {@link StaticCache} together with their
+ * encoded headers, so a hit is written without touching the disk or recomputing the
+ * MIME type. Larger files are sent with zero-copy transfers.
+ * <p>
+ * Textual files are compressed for clients sending Accept-Encoding. A sibling file with
+ * the ".gz" suffix, prepared at build time, is preferred over compressing the file; otherwise
+ * cached files are compressed on first request and the result is kept next to the original,
+ * so each file is compressed at most once.
+ * <p>
+ * Cached files carry an entity tag computed once from their content, larger files one
+ * derived from their size and modification time. Requests whose If-None-Match or
+ * If-Modified-Since header shows the client copy is current are answered with 304 Not Modified.
+ * <p>
+ * Range requests are answered with 206 Partial Content, as a single part or as
+ * multipart/byteranges, reading only the requested regions of the file or cached buffer.
+ *
+ * @author daniel.aldana-b
+ */
+class StaticFiles {
+    // Server settings with the caching threshold
+    private final ServerConfig config;
+    // Cache of small files ready to be written
+    private final StaticCache cache;
+
+    /**
+     * Creates the static file handler.
+     * @param config the server configuration
+     * @param cache the cache holding small files
+     */
+    StaticFiles(ServerConfig config, StaticCache cache) {
+        this.config = config;
+        this.cache = cache;
+    }
+
+    /**
+     * Writes the file matching a request path, if there is one.
+     * Directories are answered with their index.html. Paths escaping the root are ignored.
+     *
+     * @param rootDirectory the directory static files are served from
+     * @param req the request, whose path selects the file
+     * @param res the response to write
+     * @return true if a file was sent, false if nothing matches the path
+     * @throws IOException if the file cannot be read or the response cannot be written
+     */
+    boolean serve(String rootDirectory, HttpRequest req, HttpResponse res) throws IOException {
+        Path root = Path.of(rootDirectory).toAbsolutePath().normalize();
+        Path key = Path.of(rootDirectory, req.getPath()).toAbsolutePath().normalize();
+        if (!key.startsWith(root)) {
+            return false;
+        }
+        StaticCache.Entry cached = cache.get(key);
+        if (cached != null) {
+            send(key, cached, req, res);
+            return true;
+        }
+        Path file = key;
+        BasicFileAttributes attributes = attributes(file);
+        if (attributes != null && attributes.isDirectory()) {
+            file = file.resolve("index.html");
+            attributes = attributes(file);
+        }
+        if (attributes == null || !attributes.isRegularFile()) {
+            return false;
+        }
+        String contentType = HttpServer.getType(file);
+        res.setContentType(contentType);
+        long size = attributes.size();
+        long modified = attributes.lastModifiedTime().toMillis();
+        if (size > config.getStaticBufferThreshold() || config.getStaticBufferThreshold() == 0) {
+            sendLarge(file, contentType, size, modified, req, res);
+            return true;
+        }
+        boolean watched = cache.watch(file);
+        ByteBuffer body = read(file, size);
+        String etag = Validators.strongETag(body);
+        String lastModified = Validators.httpDate(modified);
+        ByteBuffer head = compressible(contentType)
+                ? HttpResponse.encodeHead(200, "OK", contentType, body.remaining(), "accept-ranges", "bytes",
+                        "etag", etag, "last-modified", lastModified, "vary", "accept-encoding")
+                : HttpResponse.encodeHead(200, "OK", contentType, body.remaining(), "accept-ranges", "bytes",
+                        "etag", etag, "last-modified", lastModified);
+        StaticCache.Entry entry = new StaticCache.Entry(file, new StaticCache.Variant(head, body, etag, null),
+                contentType, modified, !watched);
+        cache.put(key, entry);
+        send(key, entry, req, res);
+        return true;
+    }
+
+    /**
+     * Writes a cached file in the encoding negotiated with the client.
+     * @param key the resolved path of the request
+     * @param entry the cached file
+     * @param req the request
+     * @param res the response to write
+     * @throws IOException if the response cannot be written
+     */
+    private void send(Path key, StaticCache.Entry entry, HttpRequest req, HttpResponse res) throws IOException {
+        StaticCache.Variant variant = entry.identity;
+        String coding = negotiate(req, entry.contentType, entry.identity.body.remaining());
+        if (coding != null) {
+            variant = entry.variant(coding);
+            if (variant == null) {
+                variant = compress(key, entry, coding);
+            }
+        }
+        res.setContentType(entry.contentType);
+        boolean notModified = Validators.isNotModified(req, variant.etag, entry.modified);
+        List<ByteRanges.Range> ranges = notModified ? null
+                : ranges(req, variant.body.remaining(), variant.etag, entry.modified);
+        if (!notModified && ranges == null) {
+            res.sendPrepared(variant.head.duplicate(), variant.body.duplicate());
+            return;
+        }
+        // the prepared head cannot be used, so its headers are set one by one
+        res.setHeader("etag", variant.etag);
+        res.setHeader("last-modified", entry.lastModified);
+        if (compressible(entry.contentType)) {
+            res.setHeader("vary", "accept-encoding");
+        }
+        if (notModified) {
+            res.sendNotModified();
+            return;
+        }
+        res.setHeader("accept-ranges", "bytes");
+        if (variant.coding != null) {
+            res.setHeader("content-encoding", variant.coding);
+        }
+        sendRanges(res, ranges, variant.body.remaining(), variant.body, null);
+    }
+
+    /**
+     * Builds and caches a compressed variant of a cached file.
+     * Concurrent requests for the same variant wait for the first one instead of compressing again.
+     * @param key the resolved path of the request
+     * @param entry the cached file
+     * @param coding the content coding
+     * @return the compressed variant, or the identity one if compression does not make the file smaller
+     * @throws IOException if the precompressed file cannot be read
+     */
+    private StaticCache.Variant compress(Path key, StaticCache.Entry entry, String coding) throws IOException {
+        synchronized (entry) {
+            StaticCache.Variant variant = entry.variant(coding);
+            if (variant != null) {
+                return variant;
+            }
+            ByteBuffer identity = entry.identity.body;
+            ByteBuffer body = null;
+            if (ContentEncoding.GZIP.equals(coding)) {
+                BasicFileAttributes attributes = attributes(entry.precompressed);
+                if (attributes != null && attributes.isRegularFile() && attributes.size() <= Integer.MAX_VALUE
+                        && attributes.lastModifiedTime().toMillis() >= entry.modified) {
+                    body = read(entry.precompressed, attributes.size());
+                }
+            }
+            if (body == null) {
+                byte[] content = new byte[identity.remaining()];
+                identity.duplicate().get(content);
+                byte[] compressed = ContentEncoding.encode(content, coding, config.getCompressionLevel());
+                body = ByteBuffer.allocateDirect(compressed.length).put(compressed).flip().asReadOnlyBuffer();
+            }
+            if (body.remaining() >= identity.remaining()) {
+                variant = entry.identity;
+            } else {
+                String etag = Validators.variantETag(entry.identity.etag, coding);
+                ByteBuffer head = HttpResponse.encodeHead(200, "OK", entry.contentType, body.remaining(),
+                        "content-encoding", coding, "accept-ranges", "bytes", "etag", etag,
+                        "last-modified", entry.lastModified, "vary", "accept-encoding");
+                variant = new StaticCache.Variant(head, body, etag, coding);
+            }
+            // an entry removed meanwhile keeps no variant, the next request builds a new entry
+            cache.addVariant(key, entry, coding, variant);
+            return variant;
+        }
+    }
+
+    /**
+     * Writes a file too large to be cached with a zero-copy transfer.
+     * Such files are not compressed on the fly; their precompressed sibling is sent instead
+     * when the client accepts gzip and the sibling is not older than the file. Their entity tag
+     * comes from the metadata of the file sent.
+     * @param file the file
+     * @param contentType the MIME type of the file
+     * @param size the size of the file
+     * @param modified the modification time of the file
+     * @param req the request
+     * @param res the response to write
+     * @throws IOException if the file cannot be read or the response cannot be written
+     */
+    private void sendLarge(Path file, String contentType, long size, long modified, HttpRequest req,
+            HttpResponse res) throws IOException {
+        Path sent = file;
+        long sentSize = size;
+        String etag = Validators.metadataETag(size, modified);
+        if (compressible(contentType)) {
+            res.setHeader("vary", "accept-encoding");
+            if (ContentEncoding.GZIP.equals(negotiate(req, contentType, size))) {
+                Path sibling = precompressed(file);
+                BasicFileAttributes attributes = attributes(sibling);
+                if (attributes != null && attributes.isRegularFile()
+                        && attributes.lastModifiedTime().toMillis() >= modified) {
+                    sent = sibling;
+                    sentSize = attributes.size();
+                    etag = Validators.variantETag(
+                            Validators.metadataETag(sentSize, attributes.lastModifiedTime().toMillis()),
+                            ContentEncoding.GZIP);
+                }
+            }
+        }
+        res.setHeader("etag", etag);
+        res.setLastModified(modified);
+        if (Validators.isNotModified(req, etag, modified)) {
+            res.sendNotModified();
+            return;
+        }
+        if (sent != file) {
+            res.setHeader("content-encoding", ContentEncoding.GZIP);
+        }
+        res.setHeader("accept-ranges", "bytes");
+        List<ByteRanges.Range> ranges = ranges(req, sentSize, etag, modified);
+        if (ranges != null) {
+            sendRanges(res, ranges, sentSize, null, sent);
+            return;
+        }
+        res.sendFile(FileChannel.open(sent), sentSize);
+    }
+
+    /**
+     * Gets the ranges a request asks for, if they apply.
+     * @param req the request with the Range and If-Range headers
+     * @param length the length of the representation
+     * @param etag the entity tag of the representation
+     * @param modified the modification time of the file
+     * @return the satisfiable ranges, possibly none, or null to send the whole representation
+     */
+    private static List<ByteRanges.Range> ranges(HttpRequest req, long length, String etag, long modified) {
+        String range = req.getHeader("range");
+        if (range == null || !"GET".equals(req.getMethod()) || !Validators.isRangeCurrent(req, etag, modified)) {
+            return null;
+        }
+        return ByteRanges.parse(range, length);
+    }
+
+    /**
+     * Writes a 206 response with the requested ranges, or a 416 response if none is satisfiable,
+     * which only keeps the content-range header.
+     * A single range is the whole body; several ranges form a multipart/byteranges body.
+     * The bytes come from the cached content if there is one, otherwise from positioned
+     * transfers of the file.
+     * @param res the response, with the representation headers already set
+     * @param ranges the satisfiable ranges in ascending order
+     * @param length the length of the representation
+     * @param content the cached representation, or null to read the file
+     * @param file the file to read when nothing is cached
+     * @throws IOException if the file cannot be read or the response cannot be written
+     */
+    private static void sendRanges(HttpResponse res, List<ByteRanges.Range> ranges, long length,
+            ByteBuffer content, Path file) throws IOException {
+        if (ranges.isEmpty()) {
+            // the representation headers describe a body that is not sent
+            res.clearHeaders();
+            res.setStatus(416, "Range Not Satisfiable");
+            res.setContentType("text/plain; charset=utf-8");
+            res.setHeader("content-range", "bytes */" + length);
+            res.send("Range not satisfiable");
+            return;
+        }
+        res.setStatus(206, "Partial Content");
+        if (ranges.size() == 1) {
+            ByteRanges.Range range = ranges.get(0);
+            res.setHeader("content-range", range.contentRange(length));
+            if (content != null) {
+                res.send(slice(content, range));
+            } else {
+                res.sendFile(FileChannel.open(file), range.first, range.length());
+            }
+            return;
+        }
+        String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong());
+        String partType = res.getContentType();
+        ByteBuffer[] partHeads = new ByteBuffer[ranges.size()];
+        ByteBuffer closing = ByteBuffer.wrap(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        long total = closing.remaining();
+        for (int i = 0; i < partHeads.length; i++) {
+            ByteRanges.Range range = ranges.get(i);
+            String partHead = "\r\n--" + boundary + "\r\ncontent-type: " + partType
+                    + "\r\ncontent-range: " + range.contentRange(length) + "\r\n\r\n";
+            partHeads[i] = ByteBuffer.wrap(partHead.getBytes(StandardCharsets.ISO_8859_1));
+            total += partHeads[i].remaining() + range.length();
+        }
+        res.setContentType("multipart/byteranges; boundary=" + boundary);
+        res.sendHead(total);
+        for (int i = 0; i < partHeads.length; i++) {
+            ByteRanges.Range range = ranges.get(i);
+            if (content != null) {
+                res.writeBody(partHeads[i], slice(content, range));
+            } else {
+                res.writeBody(partHeads[i]);
+                res.transferBody(FileChannel.open(file), range.first, range.length());
+            }
+        }
+        res.writeBody(closing);
+    }
+
+    /**
+     * Gets a view of a range of a cached buffer.
+     * @param content the cached buffer, starting at position 0
+     * @param range the range
+     * @return a buffer sharing the content, limited to the range
+     */
+    private static ByteBuffer slice(ByteBuffer content, ByteRanges.Range range) {
+        return content.duplicate().limit((int) (range.last + 1)).position((int) range.first);
+    }
+
+
+    /**
+     * Tells whether files of a type are compressed when the client accepts it.
+     * @param contentType the MIME type
+     * @return true if compression is enabled and the type is textual
+     */
+    private boolean compressible(String contentType) {
+        return config.isCompression() && ContentEncoding.isCompressible(contentType);
+    }
+
+    /**
+     * Chooses the content coding of a file for a request.
+     * @param req the request with the Accept-Encoding header
+     * @param contentType the MIME type of the file
+     * @param size the size of the file
+     * @return the content coding, or null to send the file as it is
+     */
+    private String negotiate(HttpRequest req, String contentType, long size) {
+        if (!compressible(contentType) || size < config.getCompressionThreshold()) {
+            return null;
+        }
+        return ContentEncoding.negotiate(req.getHeader("accept-encoding"));
+    }
+
+    /**
+     * Gets the path of the gzip file prepared in advance for a file.
+     * @param file the file
+     * @return the sibling path with the ".gz" suffix
+     */
+    static Path precompressed(Path file) {
+        return file.resolveSibling(file.getFileName() + ".gz");
+    }
+
+    /**
+     * Reads the attributes of a file with a single lookup.
+     * @param file the file
+     * @return its attributes, or null if it does not exist
+     * @throws IOException if the attributes cannot be read
+     */
+    private static BasicFileAttributes attributes(Path file) throws IOException {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads a small file into a read-only direct buffer.
+     * @param file the file
+     * @param size the expected size of the file
+     * @return the content, shorter than expected if the file shrank meanwhile
+     * @throws IOException if the file cannot be read
+     */
+    private static ByteBuffer read(Path file, long size) throws IOException {
+        ByteBuffer content = ByteBuffer.allocateDirect((int) size);
+        try (FileChannel channel = FileChannel.open(file)) {
+            while (content.hasRemaining() && channel.read(content) >= 0) {
+                // keep reading until the buffer is full or the file ends
+            }
+        }
+        return content.flip().asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Transport that writes responses to an output stream, used by the blocking engine
+ * and to render responses in memory. When the stream belongs to a socket channel,
+ * files are sent with zero-copy transfers straight to that channel.
+ *
+ * @author daniel.aldana-b
+ */
+class StreamTransport implements Transport {
+    // Stream receiving the response bytes
+    private final OutputStream out;
+    // Channel under the stream used for file transfers, null if there is none
+    private final WritableByteChannel channel;
+    // Metrics counting the bytes sent, null when they are not counted
+    private final ServerMetrics metrics;
+    // Writer of response heads, whose buffer is copied into the stream as soon as it is written
+    private final ResponseHeadWriter heads = new ResponseHeadWriter(false);
+    // Buffer lent for streamed bodies, free again as soon as it is written since writes copy it
+    private ByteBuffer body;
+
+    /**
+     * Creates a transport writing to the given stream.
+     * @param out the stream receiving the response bytes
+     */
+    StreamTransport(OutputStream out) {
+        this(out, null);
+    }
+
+    /**
+     * Creates a transport writing to the given stream, sending files to the underlying channel.
+     * @param out the stream receiving the response bytes
+     * @param channel the blocking channel the stream writes to, or null
+     */
+    StreamTransport(OutputStream out, WritableByteChannel channel) {
+        this(out, channel, null);
+    }
+
+    /**
+     * Creates a transport writing to the given stream that counts the bytes it sends.
+     * @param out the stream receiving the response bytes
+     * @param channel the blocking channel the stream writes to, or null
+     * @param metrics the metrics counting the bytes sent, or null
+     */
+    StreamTransport(OutputStream out, WritableByteChannel channel, ServerMetrics metrics) {
+        this.out = out;
+        this.channel = channel;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void write(ByteBuffer... buffers) throws IOException {
+        for (ByteBuffer buffer : buffers) {
+            if (metrics != null) {
+                metrics.bytesSent(buffer.remaining());
+            }
+            if (buffer.hasArray()) {
+                out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                buffer.position(buffer.limit());
+            } else if (channel != null) {
+                // Direct buffers go straight to the channel without a heap copy
+                out.flush();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } else {
+                byte[] copy = new byte[buffer.remaining()];
+                buffer.get(copy);
+                out.write(copy);
+            }
+        }
+    }
+
+    @Override
+    public ResponseHeadWriter headWriter() {
+        return heads.reset();
+    }
+
+    @Override
+    public ByteBuffer bodyBuffer() {
+        if (body == null) {
+            body = ByteBuffer.allocate(BODY_BUFFER_SIZE);
+        }
+        return body.clear();
+    }
+
+    @Override
+    public void transferFile(FileChannel file, long position, long count) throws IOException {
+        try (file) {
+            WritableByteChannel target = channel;
+            if (target != null) {
+                // Bytes buffered in the stream must reach the socket before the file
+                out.flush();
+            } else {
+                target = Channels.newChannel(out);
+            }
+            long end = position + count;
+            while (position < end) {
+                long sent = file.transferTo(position, end - position, target);
+                if (sent <= 0 && position >= file.size()) {
+                    throw new IOException("File truncated while sending");
+                }
+                position += sent;
+            }
+            if (metrics != null) {
+                metrics.bytesSent(count);
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+}
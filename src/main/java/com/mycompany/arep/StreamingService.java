@@ -0,0 +1,45 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Service that writes its body to the response instead of returning it, through
+ * {@link HttpResponse#getOutputStream()} or {@link HttpResponse#getChannel()}.
+ * Memory use stays constant however large the body is.
+ * Registered with {@link HttpServer#stream}, or anywhere a {@link Service} is accepted.
+ *
+ * @author daniel.aldana-b
+ */
+@FunctionalInterface
+public interface StreamingService extends Service {
+
+    /**
+     * Handles a request, writing the response body in pieces.
+     * @param req the request
+     * @param res the response, whose status and headers must be set before the body is written
+     * @throws IOException if the body cannot be written
+     */
+    void handle(HttpRequest req, HttpResponse res) throws IOException;
+
+    /**
+     * Adapts the streaming service to the {@link Service} contract: the body is written to
+     * the response and nothing is returned.
+     * @param req the request
+     * @param res the response
+     * @return always null
+     */
+    @Override
+    default String invoke(HttpRequest req, HttpResponse res) {
+        try {
+            handle(req, res);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Destination of the bytes of HTTP responses.
+ * Each server engine provides its own implementation, so responses are written
+ * the same way whether the connection is served by a blocking socket or by a selector.
+ *
+ * @author daniel.aldana-b
+ */
+interface Transport {
+    // Capacity of the buffers collecting streamed body bytes
+    int BODY_BUFFER_SIZE = 8192;
+
+    /**
+     * Writes the remaining bytes of the given buffers, in order.
+     * The transport takes ownership of the buffers, callers must not modify them afterwards.
+     * @param buffers the buffers to write
+     * @throws IOException if the connection is closed or the write fails
+     */
+    void write(ByteBuffer... buffers) throws IOException;
+
+    /**
+     * Gets a writer to serialize the head of the next response, reset and ready to use.
+     * The buffer it produces is handed to {@link #write} like any other; the transport
+     * reuses it for later heads once it has been written out.
+     * @return the head writer
+     */
+    ResponseHeadWriter headWriter();
+
+    /**
+     * Lends a buffer to collect the bytes of a streamed body, which is then handed back to
+     * {@link #write} with the bytes. Transports may take it from a pool and reuse it once it
+     * has been written out, so the caller must not touch it after writing it.
+     * @return an empty heap buffer
+     */
+    default ByteBuffer bodyBuffer() {
+        return ByteBuffer.allocate(BODY_BUFFER_SIZE);
+    }
+
+    /**
+     * Writes a region of a file, after any bytes written before.
+     * Implementations use {@link FileChannel#transferTo} so the kernel can send the
+     * file without copying it through the Java heap. The transport takes ownership
+     * of the file channel and closes it once the region is written or the write fails.
+     * @param file the open file
+     * @param position the offset of the first byte to send
+     * @param count the number of bytes to send
+     * @throws IOException if the connection is closed or the transfer fails
+     */
+    void transferFile(FileChannel file, long position, long count) throws IOException;
+
+    /**
+     * Pushes any buffered bytes to the client.
+     * @throws IOException if the connection is closed or the write fails
+     */
+    void flush() throws IOException;
+
+    /**
+     * Writes bytes pushed to the client outside of a request, such as an event sent to many
+     * streams by one publisher thread, and flushes them. Transports that can queue them without
+     * waiting for the client to read refuse them instead when too much output already waits;
+     * the others write them like {@link #write}, blocking while the client is slow.
+     * @param buffer the bytes to write, owned by the transport afterwards
+     * @return false if the bytes were refused because the client reads too slowly
+     * @throws IOException if the connection is closed or the write fails
+     */
+    default boolean offer(ByteBuffer buffer) throws IOException {
+        write(buffer);
+        flush();
+        return true;
+    }
+
+    /**
+     * Tells whether the connection closes after the current response whatever the client asked,
+     * such as while the server shuts down.
+     * @return true if the response must announce the connection as closing
+     */
+    default boolean isClosing() {
+        return false;
+    }
+}
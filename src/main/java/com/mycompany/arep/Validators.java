@@ -0,0 +1,160 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Cache validators: entity tags, HTTP dates and the evaluation of conditional requests.
+ *
+ * @author daniel.aldana-b
+ */
+class Validators {
+
+    private Validators() {
+    }
+
+    /**
+     * Builds a strong entity tag from the content of a representation.
+     * @param content the bytes of the representation, read from its position to its limit
+     * @return the quoted entity tag
+     */
+    static String strongETag(ByteBuffer content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(content.duplicate());
+            byte[] hash = Arrays.copyOf(digest.digest(), 12);
+            return '"' + Base64.getUrlEncoder().withoutPadding().encodeToString(hash) + '"';
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Builds an entity tag from file metadata, for files too large to hash.
+     * Like the tags of common web servers it is strong, so If-Range can resume downloads;
+     * the file changing within the same millisecond while keeping its size would go unnoticed.
+     * @param size the file size
+     * @param modified the file modification time in milliseconds
+     * @return the quoted entity tag
+     */
+    static String metadataETag(long size, long modified) {
+        return "\"" + Long.toHexString(size) + '-' + Long.toHexString(modified) + '"';
+    }
+
+    /**
+     * Derives the entity tag of an encoded variant from the tag of the identity representation.
+     * @param etag the entity tag of the identity representation
+     * @param coding the content coding of the variant
+     * @return the entity tag of the variant
+     */
+    static String variantETag(String etag, String coding) {
+        return etag.substring(0, etag.length() - 1) + '-' + coding + '"';
+    }
+
+    /**
+     * Formats a time as an HTTP date, such as "Sun, 06 Nov 1994 08:49:37 GMT".
+     * @param millis the time in milliseconds since the epoch
+     * @return the HTTP date
+     */
+    static String httpDate(long millis) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC));
+    }
+
+    /**
+     * Parses an HTTP date.
+     * @param date the HTTP date, may be null
+     * @return the time in milliseconds since the epoch, or -1 if the date is missing or invalid
+     */
+    static long parseHttpDate(String date) {
+        if (date == null) {
+            return -1;
+        }
+        try {
+            return ZonedDateTime.parse(date.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Evaluates If-None-Match and If-Modified-Since against the validators of a representation.
+     * If-None-Match takes precedence when both are present, and only GET and HEAD requests are
+     * answered with 304.
+     *
+     * @param req the request with the conditional headers
+     * @param etag the entity tag of the representation, or null if it has none
+     * @param lastModified the modification time in milliseconds, or -1 if unknown
+     * @return true if the client copy is current and a 304 response must be sent
+     */
+    static boolean isNotModified(HttpRequest req, String etag, long lastModified) {
+        String method = req.getMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            return false;
+        }
+        String ifNoneMatch = req.getHeader("if-none-match");
+        if (ifNoneMatch != null) {
+            return etag != null && matches(ifNoneMatch, etag);
+        }
+        long ifModifiedSince = parseHttpDate(req.getHeader("if-modified-since"));
+        return ifModifiedSince >= 0 && lastModified >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    /**
+     * Evaluates If-Range, which makes a Range header apply only if the client copy is current.
+     * Entity tags use the strong comparison, so a weak tag never matches; dates must be exact.
+     *
+     * @param req the request with the If-Range header
+     * @param etag the entity tag of the representation, or null if it has none
+     * @param lastModified the modification time in milliseconds, or -1 if unknown
+     * @return true if the Range header must be honored
+     */
+    static boolean isRangeCurrent(HttpRequest req, String etag, long lastModified) {
+        String ifRange = req.getHeader("if-range");
+        if (ifRange == null) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return etag != null && etag.startsWith("\"") && etag.equals(ifRange);
+        }
+        long date = parseHttpDate(ifRange);
+        return date >= 0 && lastModified >= 0 && date / 1000 == lastModified / 1000;
+    }
+
+    /**
+     * Compares an If-None-Match list with an entity tag using the weak comparison.
+     * @param ifNoneMatch the header value, "*" or a list of entity tags
+     * @param etag the entity tag of the representation
+     * @return true if any listed tag matches
+     */
+    static boolean matches(String ifNoneMatch, String etag) {
+        String opaque = opaque(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || opaque(tag).equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the weak indicator of an entity tag.
+     */
+    private static String opaque(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+}
@@ -24,9 +24,9 @@ public class WebApplication {
                 return "Hello World";
             }
         });
-        get("/pi", (req, resp) -> {
+        get("/pi", new ResponseCache(60_000).wrap((req, resp) -> {
             return String.valueOf(Math.PI); 
-        });
+        }));
         start(args);
     }
 }
@@ -0,0 +1,844 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * An HTTP server instance with its own routes, static files, metrics and listening port.
+ * Several instances can run in the same JVM, each one configured by its own {@link ServerConfig}.
+ * <pre>
+ * WebServer server = new WebServer(config);
+ * server.get("/hello", (req, res) -&gt; "Hello " + req.getValue("name"));
+ * server.start();
+ * ...
+ * server.stop(Duration.ofSeconds(30));
+ * </pre>
+ * A port of 0 binds any free port, read back with {@link #getPort()} once started.
+ * {@link #stop(Duration)} stops accepting connections, lets the requests in flight finish and
+ * closes the connections as they become idle, so no request is dropped while the server goes down.
+ * {@link HttpServer} keeps the original static API on top of a default instance.
+ *
+ * @author daniel.aldana-b
+ */
+public class WebServer {
+    // Milliseconds between two checks for open connections while stopping
+    private static final long DRAIN_CHECK_INTERVAL = 10;
+
+    // Router holding the REST services of every HTTP method
+    final Router<Service> router = new Router<>();
+    // Server settings such as port, execution mode and connection limits
+    private final ServerConfig config;
+    // Root directory for serving static files
+    private volatile String rootDirectory = "target/classes";
+    // Cache of small static files, with hit, miss and eviction counters
+    private final StaticCache staticCache;
+    // Handler serving the files under the root directory
+    private final StaticFiles staticFiles;
+    // Limit of the requests handled at the same time
+    private final AdmissionControl admission;
+    // Request, connection and cache metrics, served at /metrics
+    private final ServerMetrics metrics;
+    // Log of the answered requests, written by a background thread
+    private final AccessLog accessLog;
+
+    // The fields below are guarded by this object
+    // Engine accepting the connections, null until started
+    private ServerEngine engine;
+    // Thread running the engine
+    private Thread serveThread;
+    // Whether the server has been stopped, it cannot be started again
+    private boolean stopped;
+
+    /**
+     * Creates a server with the default settings.
+     */
+    public WebServer() {
+        this(new ServerConfig());
+    }
+
+    /**
+     * Creates a server. Routes are registered before or after it is started.
+     * @param config the settings of the server, read when it starts and while it runs
+     */
+    public WebServer(ServerConfig config) {
+        this.config = config;
+        this.staticCache = new StaticCache(config);
+        this.staticFiles = new StaticFiles(config, staticCache);
+        this.admission = new AdmissionControl(config);
+        this.metrics = new ServerMetrics(staticCache, admission);
+        this.accessLog = new AccessLog(config, metrics);
+        // Built-in metrics endpoint in the Prometheus text format
+        get("/metrics", metrics);
+    }
+
+    /**
+     * Binds the configured port and starts serving connections on a new thread.
+     * Returns once the server accepts connections.
+     * @throws IOException if the port cannot be bound
+     * @throws IllegalStateException if the server was already started
+     */
+    public synchronized void start() throws IOException {
+        if (engine != null || stopped) {
+            throw new IllegalStateException("Server already started");
+        }
+        ServerEngine created = ServerEngine.create(config, metrics, this);
+        created.bind();
+        engine = created;
+        serveThread = new Thread(() -> {
+            try {
+                created.serve();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Server error: " + e.getMessage());
+            }
+        }, "http-server-" + created.getPort());
+        serveThread.start();
+    }
+
+    /**
+     * Stops the server gracefully. New connections are refused at once, idle connections are
+     * closed and the requests in flight are given until the timeout to complete, their
+     * connections closing after the response. Connections still open at the deadline are cut.
+     * The threads of the server, its file watcher and access log are released before returning.
+     * A server that was never started only releases its resources.
+     * @param timeout the time given to the requests in flight
+     * @return true if every connection finished in time, false if some had to be cut
+     */
+    public boolean stop(Duration timeout) {
+        ServerEngine running;
+        Thread thread;
+        synchronized (this) {
+            if (stopped) {
+                return true;
+            }
+            stopped = true;
+            running = engine;
+            thread = serveThread;
+        }
+        boolean drained = true;
+        if (running != null) {
+            running.drain();
+            drained = awaitConnections(System.nanoTime() + timeout.toNanos());
+            try {
+                running.close();
+            } catch (IOException e) {
+                System.err.println("Could not close the server: " + e.getMessage());
+            }
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        staticCache.close();
+        accessLog.close();
+        return drained;
+    }
+
+    /**
+     * Waits for the open connections to close.
+     * @param deadline the System.nanoTime() at which to give up
+     * @return true if every connection closed
+     */
+    private boolean awaitConnections(long deadline) {
+        try {
+            while (metrics.getActiveConnections() > 0) {
+                if (System.nanoTime() >= deadline) {
+                    return false;
+                }
+                Thread.sleep(DRAIN_CHECK_INTERVAL);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return metrics.getActiveConnections() == 0;
+        }
+    }
+
+    /**
+     * Waits until the server is stopped, such as by a shutdown hook.
+     * Returns at once if the server was never started.
+     * @throws InterruptedException if the caller is interrupted while waiting
+     */
+    public void join() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            thread = serveThread;
+        }
+        if (thread != null) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Gets the port the server listens on.
+     * @return the bound port once started, the configured port before
+     */
+    public synchronized int getPort() {
+        return engine != null ? engine.getPort() : config.getPort();
+    }
+
+    /**
+     * Tells whether the server accepts connections.
+     * @return true between {@link #start()} and {@link #stop(Duration)}
+     */
+    public synchronized boolean isRunning() {
+        return engine != null && !stopped;
+    }
+
+    /**
+     * Gets the settings of the server.
+     * @return the server configuration
+     */
+    public ServerConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Handles an HTTP request by writing the appropriate response, waiting for an
+     * {@link AsyncService} to complete it.
+     * @param req the request to answer
+     * @param res the response bound to the client connection
+     * @throws IOException if an I/O error occurs when handling the request
+     */
+    void handleRequest(HttpRequest req, HttpResponse res) throws IOException {
+        await(handleRequestAsync(req, res));
+    }
+
+    /**
+     * Starts handling an HTTP request.
+     * The router picks the REST service registered for the method and path; a path only
+     * registered for other methods is answered with 405, and anything else with the static files.
+     * Only an {@link AsyncService} answers after the call returns, and an event stream ends after
+     * it; the others are done with it.
+     * Requests go through the {@link AdmissionControl} first, which may hold them in its queue
+     * or have them answered with 503; only the metrics endpoint skips it, so the server can be
+     * watched while it is saturated.
+     * The route, status and latency of every request are recorded in the metrics and the access log.
+     * @param req the request to answer, in use until the returned future completes
+     * @param res the response bound to the client connection
+     * @return a future completed once the response is written, failed if it could not be;
+     *         cancelling it cancels the asynchronous service
+     * @throws IOException if an I/O error occurs when handling a synchronous request
+     */
+    CompletableFuture<Void> handleRequestAsync(HttpRequest req, HttpResponse res) throws IOException {
+        long start = System.nanoTime();
+        String method = Router.ANY;
+        String label = ServerMetrics.UNMATCHED_ROUTE;
+        boolean async = false;
+        long admitted = -1;
+        res.setHeadOnly("HEAD".equals(req.getMethod()));
+        try {
+            Router.Route<Service> route = route(req);
+            if (route != null) {
+                method = route.getMethod();
+                label = route.getPattern();
+            }
+            if (route == null || route.getHandler() != metrics) {
+                if (!admission.admit()) {
+                    writeOverloaded(res);
+                    return CompletableFuture.completedFuture(null);
+                }
+                admitted = System.nanoTime();
+            }
+            if (route != null) {
+                Service handler = route.getHandler();
+                if (handler instanceof AsyncService || handler instanceof EventStreamEndpoint) {
+                    CompletableFuture<Void> done;
+                    if (handler instanceof EventStreamEndpoint) {
+                        done = ((EventStreamEndpoint) handler).open(req, res);
+                        // an open stream holds no thread, so it stops counting against the limit
+                        if (admitted >= 0) {
+                            admission.release(System.nanoTime() - admitted);
+                            admitted = -1;
+                        }
+                    } else {
+                        done = invokeAsync((AsyncService) handler, req, res);
+                    }
+                    async = true;
+                    String routeMethod = method;
+                    String routeLabel = label;
+                    long admittedAt = admitted;
+                    // completed once the request is recorded, so the engine recycles it only afterwards
+                    CompletableFuture<Void> recorded = new CompletableFuture<>();
+                    done.whenComplete((ignored, error) -> {
+                        try {
+                            if (admittedAt >= 0) {
+                                admission.release(System.nanoTime() - admittedAt);
+                            }
+                            record(routeMethod, routeLabel, req, res, start);
+                        } finally {
+                            if (error != null) {
+                                recorded.completeExceptionally(error);
+                            } else {
+                                recorded.complete(null);
+                            }
+                        }
+                    });
+                    recorded.whenComplete((ignored, error) -> {
+                        if (recorded.isCancelled()) {
+                            done.cancel(true);
+                        }
+                    });
+                    return recorded;
+                }
+                invokeService(handler, req, res);
+                return CompletableFuture.completedFuture(null);
+            }
+            List<String> allowed = router.allowedMethods(req.getPath());
+            if (!allowed.isEmpty()) {
+                res.setStatus(405, "Method Not Allowed");
+                res.setHeader("allow", String.join(", ", allowed));
+                res.send("Method not allowed");
+            }
+            // Handle static files
+            else if (staticFiles.serve(getRootDirectory(), req, res)) {
+                label = ServerMetrics.STATIC_ROUTE;
+            } else {
+                res.setStatus(404, "Not Found");
+                res.send("File not found");
+            }
+        } finally {
+            if (!async) {
+                if (admitted >= 0) {
+                    admission.release(System.nanoTime() - admitted);
+                }
+                record(method, label, req, res, start);
+            }
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Answers a request the admission control rejected, asking the client to retry later.
+     *
+     * @param res the response
+     * @throws IOException if the response cannot be written
+     */
+    private void writeOverloaded(HttpResponse res) throws IOException {
+        res.setContentType("text/plain; charset=utf-8");
+        res.setStatus(503, "Service Unavailable");
+        res.setHeader("retry-after", Integer.toString(config.getRetryAfter()));
+        res.send("Server busy, retry later");
+    }
+
+    /**
+     * Records an answered request in the metrics and the access log.
+     */
+    private void record(String method, String label, HttpRequest req, HttpResponse res, long start) {
+        long elapsed = System.nanoTime() - start;
+        metrics.recordRequest(method, label, res.getStatusCode(), elapsed);
+        accessLog.log(req, res, elapsed);
+    }
+
+    /**
+     * Waits for a response being written, rethrowing the error that kept it from completing.
+     *
+     * @param done the future of the response
+     * @throws IOException if the response could not be written
+     */
+    private static void await(CompletableFuture<Void> done) throws IOException {
+        try {
+            done.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Finds the service route matching a request and records its path parameters in the request.
+     *
+     * @param req the request
+     * @return the matching route, or null if no service answers the request
+     */
+    Router.Route<Service> route(HttpRequest req) {
+        int maxParams = router.getMaxParams();
+        int[] offsets = maxParams > 0 ? req.pathParamBuffer(2 * maxParams) : null;
+        Router.Route<Service> route = router.find(req.getMethod(), req.getPath(), offsets);
+        if (route != null) {
+            req.setRoute(route, offsets);
+        }
+        return route;
+    }
+
+    /**
+     * Registers a REST service answering GET requests to the specified path.
+     * Paths may contain parameters such as "/users/{id}", read with
+     * {@link HttpRequest#getPathParam}, and end with a "*" wildcard such as "/files/*".
+     *
+     * @param path the URL path for the service (e.g., "/hello", "/api/users/{id}")
+     * @param s the service implementation to handle requests to this path
+     */
+    public void get(String path, Service s) {
+        router.add("GET", path, s);
+    }
+
+    /**
+     * Registers a REST service answering POST requests to the specified path.
+     *
+     * @param path the URL path pattern for the service
+     * @param s the service implementation to handle requests to this path
+     */
+    public void post(String path, Service s) {
+        router.add("POST", path, s);
+    }
+
+    /**
+     * Registers a REST service answering PUT requests to the specified path.
+     *
+     * @param path the URL path pattern for the service
+     * @param s the service implementation to handle requests to this path
+     */
+    public void put(String path, Service s) {
+        router.add("PUT", path, s);
+    }
+
+    /**
+     * Registers a REST service answering DELETE requests to the specified path.
+     *
+     * @param path the URL path pattern for the service
+     * @param s the service implementation to handle requests to this path
+     */
+    public void delete(String path, Service s) {
+        router.add("DELETE", path, s);
+    }
+
+    /**
+     * Registers a service that streams its response body, answering the given method.
+     * Streamed bodies are sent in pieces as they are written, see {@link HttpResponse#getOutputStream()}.
+     *
+     * @param method the request method, such as "GET"
+     * @param path the URL path pattern for the service
+     * @param s the service implementation to handle requests to this path
+     */
+    public void stream(String method, String path, StreamingService s) {
+        router.add(method, path, s);
+    }
+
+    /**
+     * Registers a service that answers asynchronously, answering the given method.
+     * The server thread is released as soon as the service returns its future, see {@link AsyncService}.
+     *
+     * @param method the request method, such as "GET"
+     * @param path the URL path pattern for the service
+     * @param s the service implementation to handle requests to this path
+     */
+    public void async(String method, String path, AsyncService s) {
+        router.add(method, path, s);
+    }
+
+    /**
+     * Registers a WebSocket endpoint at the specified path, answering the GET requests that
+     * open a session. The handler receives the messages of every session, see {@link WebSocketHandler}.
+     *
+     * @param path the URL path pattern for the endpoint
+     * @param handler the handler of the sessions opened on this path
+     */
+    public void websocket(String path, WebSocketHandler handler) {
+        router.add("GET", path, new WebSocketEndpoint(handler, config));
+    }
+
+    /**
+     * Registers a Server-Sent Events service at the specified path, answering the GET requests
+     * with a stream of events that stays open, see {@link EventStreamService}.
+     *
+     * @param path the URL path pattern for the service
+     * @param s the service handed the stream of every client, such as an {@link EventTopic}
+     */
+    public void events(String path, EventStreamService s) {
+        router.add("GET", path, new EventStreamEndpoint(s, config));
+    }
+
+    /**
+     * Sets the root directory for serving static files.
+     * The directory path is relative to the target/classes directory.
+     *
+     * @param localFilesPath the path to the static files directory
+     */
+    public void staticfiles(String localFilesPath) {
+        rootDirectory = "target/classes" + localFilesPath;
+    }
+
+    /**
+     * Gets the directory static files are served from.
+     *
+     * @return the root directory
+     */
+    public String getRootDirectory() {
+        return rootDirectory;
+    }
+
+    /**
+     * Gets the cache of static files, mainly to read its statistics.
+     *
+     * @return the static file cache
+     */
+    public StaticCache getStaticCache() {
+        return staticCache;
+    }
+
+    /**
+     * Gets the access log of the server, mainly to flush it or read how many entries it dropped.
+     *
+     * @return the access log
+     */
+    public AccessLog getAccessLog() {
+        return accessLog;
+    }
+
+    /**
+     * Gets the limit of the requests handled at the same time, mainly to read its state.
+     *
+     * @return the admission control
+     */
+    public AdmissionControl getAdmissionControl() {
+        return admission;
+    }
+
+    /**
+     * Gets the metrics of the server, also served in the Prometheus text format at "/metrics".
+     *
+     * @return the metrics registry
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Invokes a registered REST service for the given URI, without a connection.
+     * Returns a properly formatted HTTP response string.
+     *
+     * @param uri the request URI containing the path and query parameters
+     * @return a complete HTTP response string with headers and body, or a 404 error if service not found
+     */
+    public String invokeService(URI uri) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try {
+            invokeService(new HttpRequest(uri), new HttpResponse(buffer));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Invokes the registered REST service matching the request method and path and writes its response.
+     * A missing service produces a 404 response.
+     *
+     * @param req the request to pass to the service
+     * @param res the response to configure and write
+     * @throws IOException if the response cannot be written
+     */
+    void invokeService(HttpRequest req, HttpResponse res) throws IOException {
+        Router.Route<Service> route = route(req);
+        if (route == null) {
+            res.setStatus(404, "Not Found");
+            res.send("Service not found");
+            return;
+        }
+        invokeService(route.getHandler(), req, res);
+    }
+
+    /**
+     * Invokes a REST service and writes its response.
+     * A failing service produces a 500 response, or the status of the error if it could not read
+     * the request body, or a closed connection if it failed after part of a streamed body was sent. A streamed body is ended once the service returns.
+     * Textual bodies above the compression threshold are compressed when the client accepts it,
+     * unless the service already chose a content encoding. If the service set an entity tag or
+     * modification time matching the conditional headers of the request, a 304 response is sent
+     * instead of the body. An {@link AsyncService} is waited for. A WebSocket endpoint answers
+     * the handshake, and the engine serves the session on the connection afterwards. An event
+     * stream is waited for until it closes.
+     *
+     * @param s the service
+     * @param req the request to pass to the service
+     * @param res the response to configure and write
+     * @throws IOException if the response cannot be written or the service failed while streaming
+     */
+    void invokeService(Service s, HttpRequest req, HttpResponse res) throws IOException {
+        if (s instanceof AsyncService) {
+            await(invokeAsync((AsyncService) s, req, res));
+            return;
+        }
+        if (s instanceof WebSocketEndpoint) {
+            ((WebSocketEndpoint) s).handshake(req, res);
+            return;
+        }
+        if (s instanceof EventStreamEndpoint) {
+            await(((EventStreamEndpoint) s).open(req, res));
+            return;
+        }
+        if (s instanceof ResponseCache.Cached && "GET".equals(req.getMethod())) {
+            invokeCached((ResponseCache.Cached) s, req, res);
+            return;
+        }
+        prepare(req, res);
+        String serviceResponse;
+        try {
+            serviceResponse = s.invoke(req, res);
+        } catch (RuntimeException e) {
+            writeFailure(req, res, e);
+            return;
+        }
+        writeResult(req, res, serviceResponse);
+    }
+
+    /**
+     * Answers a request from the cache of its service, or calls the service and stores its
+     * response. Of the concurrent misses of one key only the first calls the service; the
+     * others wait for it, holding their thread, and send the stored response, or call the
+     * service themselves if the response could not be stored.
+     *
+     * @param cached the service and its cache
+     * @param req the request to pass to the service
+     * @param res the response to write
+     * @throws IOException if the response cannot be written or the service failed while streaming
+     */
+    private void invokeCached(ResponseCache.Cached cached, HttpRequest req, HttpResponse res) throws IOException {
+        ResponseCache cache = cached.cache;
+        String coding = config.isCompression() ? ContentEncoding.negotiate(req.getHeader("accept-encoding")) : null;
+        String key = cache.key(req, coding);
+        ResponseCache.Entry entry = cache.get(key);
+        if (entry == null) {
+            CompletableFuture<ResponseCache.Entry> pending = new CompletableFuture<>();
+            CompletableFuture<ResponseCache.Entry> leader = cache.join(key, pending);
+            if (leader == null) {
+                try {
+                    entry = computeCached(cached, key, req, res);
+                } finally {
+                    cache.finish(key, pending, entry);
+                }
+                return;
+            }
+            entry = leader.join();
+            if (entry == null) {
+                invokeService(cached.service, req, res);
+                return;
+            }
+        }
+        if (Validators.isNotModified(req, entry.etag, entry.lastModified)) {
+            if (entry.etag != null) {
+                res.setHeader("etag", entry.etag);
+            }
+            res.sendNotModified();
+            return;
+        }
+        res.setHeader("age", Long.toString((System.currentTimeMillis() - entry.created) / 1000));
+        res.sendPrepared(entry.head.duplicate(), entry.body.duplicate());
+    }
+
+    /**
+     * Calls a cached service, stores its response if it may be and writes it.
+     *
+     * @return the stored response, or null if it was not stored
+     */
+    private ResponseCache.Entry computeCached(ResponseCache.Cached cached, String key, HttpRequest req,
+            HttpResponse res) throws IOException {
+        prepare(req, res);
+        String serviceResponse;
+        try {
+            serviceResponse = cached.service.invoke(req, res);
+        } catch (RuntimeException e) {
+            writeFailure(req, res, e);
+            return null;
+        }
+        long freshness = cached.cache.freshness(res);
+        if (res.isStreaming() || freshness <= 0) {
+            writeResult(req, res, serviceResponse);
+            return null;
+        }
+        byte[] body = encodeBody(req, res, (serviceResponse != null ? serviceResponse : "").getBytes(StandardCharsets.UTF_8));
+        ResponseCache.Entry entry = cached.cache.put(key, res.snapshotHead(body.length), body, res, freshness);
+        if (res.checkNotModified(req)) {
+            res.sendNotModified();
+        } else {
+            res.send(body);
+        }
+        return entry;
+    }
+
+    /**
+     * Starts an asynchronous service and writes its response once its future completes, from
+     * the thread completing it. A future that does not complete within the configured timeout is
+     * cancelled and answered with 503, and one that fails is answered like a failing service.
+     *
+     * @param s the service
+     * @param req the request to pass to the service
+     * @param res the response to configure and write
+     * @return a future completed once the response is written; cancelling it cancels the service
+     */
+    CompletableFuture<Void> invokeAsync(AsyncService s, HttpRequest req, HttpResponse res) {
+        prepare(req, res);
+        CompletableFuture<String> future;
+        try {
+            future = s.invokeAsync(req, res);
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<String> service = future != null ? future : CompletableFuture.completedFuture(null);
+        // the timeout completes a copy, so the service sees a cancellation rather than a timeout
+        CompletableFuture<Void> done = service.copy().orTimeout(config.getAsyncTimeout(), TimeUnit.MILLISECONDS)
+                .handle((body, error) -> {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error;
+                    try {
+                        if (cause == null) {
+                            writeResult(req, res, body);
+                        } else if (cause instanceof TimeoutException) {
+                            service.cancel(true);
+                            writeTimeout(req, res);
+                        } else {
+                            writeFailure(req, res, cause instanceof RuntimeException
+                                    ? (RuntimeException) cause : new CompletionException(cause));
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return null;
+                });
+        done.whenComplete((ignored, error) -> {
+            if (error instanceof CancellationException) {
+                service.cancel(true);
+            }
+        });
+        return done;
+    }
+
+    /**
+     * Sets how a streamed service body is framed and compressed for the client.
+     * Only HTTP/1.1 has chunked transfer coding, HTTP/2 frames the body itself.
+     */
+    private void prepare(HttpRequest req, HttpResponse res) {
+        res.setStreaming("HTTP/1.1".equals(req.getVersion()), config.isCompression(),
+                config.isCompression() ? ContentEncoding.negotiate(req.getHeader("accept-encoding")) : null,
+                config.getCompressionLevel());
+    }
+
+    /**
+     * Answers an asynchronous service that did not complete in time.
+     *
+     * @param req the request
+     * @param res the response, which the service may have started to stream
+     * @throws IOException if the response cannot be written, or part of the body was already sent
+     */
+    private static void writeTimeout(HttpRequest req, HttpResponse res) throws IOException {
+        System.err.println("Service " + req.getPath() + " timed out");
+        // the cancelled service may still be running and must not meet the next request
+        res.abandon();
+        if (res.isCommitted()) {
+            throw new IOException("Service timed out while streaming its response");
+        }
+        res.discardBody();
+        res.setContentType("text/plain; charset=utf-8");
+        res.setStatus(503, "Service Unavailable");
+        res.send("Service timed out");
+    }
+
+    /**
+     * Answers a service that failed.
+     *
+     * @param req the request
+     * @param res the response, which the service may have started to stream
+     * @param e the failure
+     * @throws IOException if the response cannot be written, or part of the body was already sent
+     */
+    private static void writeFailure(HttpRequest req, HttpResponse res, RuntimeException e) throws IOException {
+        if (res.isCommitted()) {
+            reportFailure(req, e);
+            // part of the body is already on its way, only closing the connection tells the client
+            throw new IOException("Service failed while streaming its response", e);
+        }
+        res.discardBody();
+        res.setContentType("text/plain; charset=utf-8");
+        if (e instanceof UncheckedIOException && e.getCause() instanceof BadRequestException) {
+            // the request body was malformed or too large, its remaining bytes cannot be trusted
+            BadRequestException error = (BadRequestException) e.getCause();
+            res.setStatus(error.getStatusCode(), error.getStatusMessage());
+            res.setKeepAlive(false);
+            res.send(error.getMessage());
+            return;
+        }
+        reportFailure(req, e);
+        res.setStatus(500, "Internal Server Error");
+        res.send("Internal Server Error");
+    }
+
+    /**
+     * Reports a failure of the code serving a request on the error output.
+     *
+     * @param req the request being served
+     * @param e the failure
+     */
+    static void reportFailure(HttpRequest req, Throwable e) {
+        System.err.println("Service " + req.getPath() + " failed: " + e);
+    }
+
+    /**
+     * Writes the body returned by a service, ending a streamed body, answering a matching
+     * conditional request with 304 and compressing the body when it is worth it.
+     *
+     * @param req the request
+     * @param res the response configured by the service
+     * @param serviceResponse the returned body, or null
+     * @throws IOException if the response cannot be written
+     */
+    private void writeResult(HttpRequest req, HttpResponse res, String serviceResponse) throws IOException {
+        if (res.isStreaming()) {
+            res.finishBody(serviceResponse);
+            return;
+        }
+        if (res.getStatusCode() == 200 && res.checkNotModified(req)) {
+            res.sendNotModified();
+            return;
+        }
+        byte[] body = (serviceResponse != null ? serviceResponse : "").getBytes(StandardCharsets.UTF_8);
+        res.send(encodeBody(req, res, body));
+    }
+
+    /**
+     * Compresses a dynamic response body if the client accepts an encoding and it is worth it.
+     *
+     * @param req the request with the Accept-Encoding header
+     * @param res the response, which receives the content-encoding and vary headers; a strong
+     *            entity tag becomes weak when the body is compressed
+     * @param body the uncompressed body
+     * @return the body to send
+     */
+    private byte[] encodeBody(HttpRequest req, HttpResponse res, byte[] body) {
+        if (!config.isCompression() || res.getHeader("content-encoding") != null
+                || !ContentEncoding.isCompressible(res.getContentType())) {
+            return body;
+        }
+        res.setHeader("vary", "accept-encoding");
+        String coding = ContentEncoding.negotiate(req.getHeader("accept-encoding"));
+        if (coding == null || body.length < config.getCompressionThreshold()) {
+            return body;
+        }
+        byte[] compressed = ContentEncoding.encode(body, coding, config.getCompressionLevel());
+        if (compressed.length >= body.length) {
+            return body;
+        }
+        res.setContentEncoding(coding);
+        return compressed;
+    }
+}
@@ -0,0 +1,545 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Frame codec of the WebSocket protocol (RFC 6455) with the permessage-deflate extension (RFC 7692).
+ * The decoder is fed the bytes of a connection as they arrive, in pieces of any size, and
+ * reports whole messages: fragments are joined, payloads unmasked, compressed messages
+ * inflated and text checked to be UTF-8. It keeps partial frame headers itself, so it always
+ * consumes all the bytes it is given. Instances are not thread safe; the encoding methods are.
+ * <p>
+ * The server always compresses without context takeover: each message is deflated on its own,
+ * so one compressed frame can be sent to every session that negotiated the extension.
+ *
+ * @author daniel.aldana-b
+ */
+final class WebSocketCodec {
+    // Opcodes
+    static final int CONTINUATION = 0x0;
+    static final int TEXT = 0x1;
+    static final int BINARY = 0x2;
+    static final int CLOSE = 0x8;
+    static final int PING = 0x9;
+    static final int PONG = 0xa;
+
+    // Close status codes
+    static final int NORMAL_CLOSURE = 1000;
+    static final int GOING_AWAY = 1001;
+    static final int PROTOCOL_ERROR = 1002;
+    static final int UNSUPPORTED_DATA = 1003;
+    static final int NO_STATUS = 1005;
+    static final int ABNORMAL_CLOSURE = 1006;
+    static final int INVALID_DATA = 1007;
+    static final int POLICY_VIOLATION = 1008;
+    static final int MESSAGE_TOO_BIG = 1009;
+    static final int INTERNAL_ERROR = 1011;
+
+    // Extension accepted in the handshake, and how the server answers it
+    static final String DEFLATE = "permessage-deflate";
+    static final String DEFLATE_RESPONSE = "permessage-deflate; server_no_context_takeover";
+    // Largest payload of a control frame
+    static final int MAX_CONTROL_PAYLOAD = 125;
+    // Messages shorter than this are sent uncompressed, deflating them saves nothing
+    static final int MIN_DEFLATE_SIZE = 128;
+
+    // Bytes that end every flushed deflate block, left out of compressed messages
+    private static final byte[] DEFLATE_TAIL = {0, 0, (byte) 0xff, (byte) 0xff};
+    // Message buffer allocated at first, and the largest one kept between messages
+    private static final int INITIAL_MESSAGE_CAPACITY = 1024;
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    // Deflaters kept for reuse, native memory is costly to allocate per message
+    private static final int MAX_POOLED_DEFLATERS = 8;
+    private static final ArrayDeque<Deflater> DEFLATERS = new ArrayDeque<>();
+
+    // Receiver of the decoded messages and control frames
+    private final Listener listener;
+    // Largest message accepted, in bytes once decompressed
+    private final int maxMessageSize;
+    // Inflater of compressed messages, null without the extension; the client may keep its context
+    private final Inflater inflater;
+
+    // Header of the frame being received
+    private final byte[] header = new byte[14];
+    private int headerLength;
+    // Whether the header of the current frame was read and its payload is arriving
+    private boolean inFrame;
+    // Fields of the current frame
+    private boolean fin;
+    private int opcode;
+    private final byte[] mask = new byte[4];
+    private int maskIndex;
+    private long remaining;
+    // Payload of the current control frame
+    private final byte[] control = new byte[MAX_CONTROL_PAYLOAD];
+    private int controlLength;
+    // Opcode of the message being received, 0 between messages
+    private int messageOpcode;
+    // Whether that message is compressed
+    private boolean messageCompressed;
+    // Payload of the message received so far
+    private byte[] message = new byte[INITIAL_MESSAGE_CAPACITY];
+    private int messageLength;
+    // Set once a close frame arrived or the input was found malformed; later bytes are ignored
+    private boolean done;
+
+    /**
+     * Creates a decoder.
+     * @param listener the receiver of the decoded messages
+     * @param maxMessageSize the largest message accepted, in bytes once decompressed
+     * @param compressed whether permessage-deflate was negotiated
+     */
+    WebSocketCodec(Listener listener, int maxMessageSize, boolean compressed) {
+        this.listener = listener;
+        this.maxMessageSize = maxMessageSize;
+        this.inflater = compressed ? new Inflater(true) : null;
+    }
+
+    /**
+     * Decodes bytes received from the client, reporting each complete message or control frame.
+     * @param in the received bytes, all consumed
+     * @throws FrameException if the client broke the protocol; the connection must be closed
+     *                        with the status code of the exception
+     */
+    void decode(ByteBuffer in) throws FrameException {
+        if (done) {
+            in.position(in.limit());
+            return;
+        }
+        try {
+            while (true) {
+                if (!inFrame) {
+                    if (!readHeader(in)) {
+                        return;
+                    }
+                    inFrame = true;
+                }
+                if (remaining > 0) {
+                    if (!in.hasRemaining()) {
+                        return;
+                    }
+                    readPayload(in);
+                    if (remaining > 0) {
+                        return;
+                    }
+                }
+                inFrame = false;
+                endFrame();
+                if (done) {
+                    in.position(in.limit());
+                    return;
+                }
+            }
+        } catch (FrameException e) {
+            done = true;
+            in.position(in.limit());
+            throw e;
+        }
+    }
+
+    /**
+     * Tells whether the input has ended: a close frame arrived or the client broke the protocol.
+     * @return true once later bytes are ignored
+     */
+    boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Frees the inflater. The decoder must not be used afterwards.
+     */
+    void end() {
+        done = true;
+        if (inflater != null) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Collects the bytes of a frame header, which may span several reads, and checks it.
+     * @return false if more bytes are needed
+     */
+    private boolean readHeader(ByteBuffer in) throws FrameException {
+        while (headerLength < headerSize()) {
+            if (!in.hasRemaining()) {
+                return false;
+            }
+            header[headerLength++] = in.get();
+        }
+        headerLength = 0;
+        int first = header[0] & 0xff;
+        fin = (first & 0x80) != 0;
+        boolean rsv1 = (first & 0x40) != 0;
+        opcode = first & 0x0f;
+        if ((first & 0x30) != 0) {
+            throw new FrameException(PROTOCOL_ERROR, "Reserved bits set");
+        }
+        if ((header[1] & 0x80) == 0) {
+            throw new FrameException(PROTOCOL_ERROR, "Client frames must be masked");
+        }
+        long length = header[1] & 0x7f;
+        int position = 2;
+        if (length == 126) {
+            length = (header[2] & 0xff) << 8 | header[3] & 0xff;
+            position = 4;
+        } else if (length == 127) {
+            length = 0;
+            for (int i = 2; i < 10; i++) {
+                length = length << 8 | header[i] & 0xff;
+            }
+            if (length < 0) {
+                throw new FrameException(PROTOCOL_ERROR, "Invalid frame length");
+            }
+            position = 10;
+        }
+        System.arraycopy(header, position, mask, 0, 4);
+        if (opcode >= CLOSE) {
+            if (opcode > PONG) {
+                throw new FrameException(PROTOCOL_ERROR, "Unknown opcode " + opcode);
+            }
+            if (!fin || rsv1 || length > MAX_CONTROL_PAYLOAD) {
+                throw new FrameException(PROTOCOL_ERROR, "Invalid control frame");
+            }
+            controlLength = 0;
+        } else if (opcode == CONTINUATION) {
+            if (messageOpcode == 0) {
+                throw new FrameException(PROTOCOL_ERROR, "Continuation frame without a message");
+            }
+            if (rsv1) {
+                throw new FrameException(PROTOCOL_ERROR, "Reserved bit set on a continuation frame");
+            }
+        } else if (opcode == TEXT || opcode == BINARY) {
+            if (messageOpcode != 0) {
+                throw new FrameException(PROTOCOL_ERROR, "Expected a continuation frame");
+            }
+            if (rsv1 && inflater == null) {
+                throw new FrameException(PROTOCOL_ERROR, "Compressed frame without the extension");
+            }
+            messageOpcode = opcode;
+            messageCompressed = rsv1;
+            messageLength = 0;
+        } else {
+            throw new FrameException(PROTOCOL_ERROR, "Unknown opcode " + opcode);
+        }
+        if (opcode < CLOSE && messageLength + length > maxMessageSize) {
+            throw new FrameException(MESSAGE_TOO_BIG, "Message larger than " + maxMessageSize + " bytes");
+        }
+        remaining = length;
+        maskIndex = 0;
+        return true;
+    }
+
+    /**
+     * Gets the size of the header being collected, as far as its first bytes tell.
+     */
+    private int headerSize() {
+        if (headerLength < 2) {
+            return 2;
+        }
+        int length = header[1] & 0x7f;
+        return 2 + (length == 126 ? 2 : length == 127 ? 8 : 0) + ((header[1] & 0x80) != 0 ? 4 : 0);
+    }
+
+    /**
+     * Unmasks the available payload bytes of the current frame into the message or control buffer.
+     */
+    private void readPayload(ByteBuffer in) {
+        int count = (int) Math.min(remaining, in.remaining());
+        byte[] target;
+        int offset;
+        if (opcode >= CLOSE) {
+            target = control;
+            offset = controlLength;
+            controlLength += count;
+        } else {
+            ensureCapacity(messageLength + count);
+            target = message;
+            offset = messageLength;
+            messageLength += count;
+        }
+        in.get(target, offset, count);
+        for (int i = 0; i < count; i++) {
+            target[offset + i] ^= mask[(maskIndex + i) & 3];
+        }
+        maskIndex = (maskIndex + count) & 3;
+        remaining -= count;
+    }
+
+    /**
+     * Reports a control frame, or the message the current frame ends.
+     */
+    private void endFrame() throws FrameException {
+        if (opcode >= CLOSE) {
+            byte[] payload = Arrays.copyOf(control, controlLength);
+            if (opcode == PING) {
+                listener.onPing(payload);
+            } else if (opcode == PONG) {
+                listener.onPong(payload);
+            } else {
+                done = true;
+                readClose(payload);
+            }
+            return;
+        }
+        if (!fin) {
+            return;
+        }
+        byte[] data = messageCompressed ? inflate() : Arrays.copyOf(message, messageLength);
+        int type = messageOpcode;
+        messageOpcode = 0;
+        messageLength = 0;
+        if (message.length > MAX_RETAINED_CAPACITY) {
+            message = new byte[INITIAL_MESSAGE_CAPACITY];
+        }
+        if (type == TEXT) {
+            listener.onText(utf8(data, 0, data.length));
+        } else {
+            listener.onBinary(data);
+        }
+    }
+
+    /**
+     * Checks the status code and reason of a close frame and reports them.
+     */
+    private void readClose(byte[] payload) throws FrameException {
+        if (payload.length == 0) {
+            listener.onClose(NO_STATUS, "");
+            return;
+        }
+        if (payload.length == 1) {
+            throw new FrameException(PROTOCOL_ERROR, "Invalid close frame");
+        }
+        int code = (payload[0] & 0xff) << 8 | payload[1] & 0xff;
+        if (!isValidCloseCode(code)) {
+            throw new FrameException(PROTOCOL_ERROR, "Invalid close code " + code);
+        }
+        listener.onClose(code, utf8(payload, 2, payload.length - 2));
+    }
+
+    /**
+     * Inflates the current message, which is missing the tail of its last deflate block.
+     */
+    private byte[] inflate() throws FrameException {
+        ensureCapacity(messageLength + DEFLATE_TAIL.length);
+        System.arraycopy(DEFLATE_TAIL, 0, message, messageLength, DEFLATE_TAIL.length);
+        inflater.setInput(message, 0, messageLength + DEFLATE_TAIL.length);
+        byte[] out = new byte[(int) Math.min(maxMessageSize + 1L, Math.max(INITIAL_MESSAGE_CAPACITY, 2L * messageLength))];
+        int count = 0;
+        try {
+            while (true) {
+                if (count == out.length) {
+                    if (count > maxMessageSize) {
+                        throw new FrameException(MESSAGE_TOO_BIG, "Message larger than " + maxMessageSize + " bytes");
+                    }
+                    out = Arrays.copyOf(out, (int) Math.min(maxMessageSize + 1L, 2L * out.length));
+                }
+                int inflated = inflater.inflate(out, count, out.length - count);
+                count += inflated;
+                if (inflated == 0 && (inflater.needsInput() || inflater.finished() || inflater.needsDictionary())) {
+                    break;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new FrameException(INVALID_DATA, "Invalid compressed message");
+        }
+        if (count > maxMessageSize) {
+            throw new FrameException(MESSAGE_TOO_BIG, "Message larger than " + maxMessageSize + " bytes");
+        }
+        return Arrays.copyOf(out, count);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (message.length < capacity) {
+            message = Arrays.copyOf(message, Math.max(capacity, 2 * message.length));
+        }
+    }
+
+    /**
+     * Decodes UTF-8 text, rejecting malformed sequences as the protocol requires.
+     */
+    private static String utf8(byte[] bytes, int offset, int length) throws FrameException {
+        try {
+            return StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(bytes, offset, length)).toString();
+        } catch (CharacterCodingException e) {
+            throw new FrameException(INVALID_DATA, "Invalid UTF-8 text");
+        }
+    }
+
+    /**
+     * Tells whether a status code may be sent in a close frame.
+     * @param code the status code
+     * @return true for the defined codes that are not reserved, and the registered and private ranges
+     */
+    static boolean isValidCloseCode(int code) {
+        return code >= 1000 && code <= 1003 || code >= 1007 && code <= 1011 || code >= 3000 && code <= 4999;
+    }
+
+    /**
+     * Encodes an unmasked final frame, as the server sends them.
+     * @param opcode the frame opcode
+     * @param compressed whether the payload is a compressed message, which sets the first reserved bit
+     * @param payload the payload
+     * @return a new buffer holding the frame
+     */
+    static ByteBuffer encode(int opcode, boolean compressed, byte[] payload) {
+        int length = payload.length;
+        int headerSize = length < 126 ? 2 : length < 65536 ? 4 : 10;
+        ByteBuffer frame = ByteBuffer.allocate(headerSize + length);
+        frame.put((byte) (0x80 | (compressed ? 0x40 : 0) | opcode));
+        if (length < 126) {
+            frame.put((byte) length);
+        } else if (length < 65536) {
+            frame.put((byte) 126).putShort((short) length);
+        } else {
+            frame.put((byte) 127).putLong(length);
+        }
+        return frame.put(payload).flip();
+    }
+
+    /**
+     * Encodes the payload of a close frame.
+     * @param code the status code
+     * @param reason the reason, at most 123 bytes once encoded
+     * @return the payload
+     */
+    static byte[] closePayload(int code, String reason) {
+        if (!isValidCloseCode(code)) {
+            throw new IllegalArgumentException("Invalid close code " + code);
+        }
+        byte[] text = reason.getBytes(StandardCharsets.UTF_8);
+        if (text.length > MAX_CONTROL_PAYLOAD - 2) {
+            throw new IllegalArgumentException("Close reason longer than 123 bytes");
+        }
+        byte[] payload = new byte[2 + text.length];
+        payload[0] = (byte) (code >> 8);
+        payload[1] = (byte) code;
+        System.arraycopy(text, 0, payload, 2, text.length);
+        return payload;
+    }
+
+    /**
+     * Compresses a whole message on its own, without the tail of the last block.
+     * @param data the message payload
+     * @return the compressed payload
+     */
+    static byte[] deflate(byte[] data) {
+        Deflater deflater;
+        synchronized (DEFLATERS) {
+            deflater = DEFLATERS.pollFirst();
+        }
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+        try {
+            deflater.setInput(data);
+            byte[] out = new byte[data.length / 2 + 64];
+            int count = 0;
+            while (true) {
+                count += deflater.deflate(out, count, out.length - count, Deflater.SYNC_FLUSH);
+                if (count < out.length) {
+                    break;
+                }
+                out = Arrays.copyOf(out, 2 * out.length);
+            }
+            // a sync flush ends with an empty stored block, which the receiver adds back
+            return Arrays.copyOf(out, count - DEFLATE_TAIL.length);
+        } finally {
+            deflater.reset();
+            synchronized (DEFLATERS) {
+                if (DEFLATERS.size() < MAX_POOLED_DEFLATERS) {
+                    DEFLATERS.addFirst(deflater);
+                    deflater = null;
+                }
+            }
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Tells whether a client offers permessage-deflate with parameters the server supports.
+     * The server cannot shrink its compression window, so offers limiting it are declined.
+     * @param offers the values of the sec-websocket-extensions headers
+     * @return true if the extension can be accepted with {@link #DEFLATE_RESPONSE}
+     */
+    static boolean acceptsDeflate(List<String> offers) {
+        for (String header : offers) {
+            for (String offer : header.split(",")) {
+                String[] params = offer.split(";");
+                if (!params[0].trim().equalsIgnoreCase(DEFLATE)) {
+                    continue;
+                }
+                boolean supported = true;
+                for (int i = 1; i < params.length && supported; i++) {
+                    String param = params[i].trim().toLowerCase(Locale.ROOT);
+                    int equals = param.indexOf('=');
+                    String name = equals < 0 ? param : param.substring(0, equals).trim();
+                    String value = equals < 0 ? null : param.substring(equals + 1).trim().replace("\"", "");
+                    supported = switch (name) {
+                        case "server_no_context_takeover", "client_no_context_takeover" -> value == null;
+                        case "client_max_window_bits" -> true;
+                        case "server_max_window_bits" -> "15".equals(value);
+                        default -> false;
+                    };
+                }
+                if (supported) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Receiver of what the decoder finds in the input, called on the decoding thread.
+     */
+    interface Listener {
+        void onText(String text);
+
+        void onBinary(byte[] data);
+
+        void onPing(byte[] payload);
+
+        void onPong(byte[] payload);
+
+        /**
+         * Reports the close frame of the client, after which no more input is decoded.
+         * @param code the status code, {@link #NO_STATUS} if the frame had none
+         * @param reason the reason, possibly empty
+         */
+        void onClose(int code, String reason);
+    }
+
+    /**
+     * Violation of the protocol by the client, with the status code to close the connection with.
+     */
+    static final class FrameException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int code;
+
+        FrameException(int code, String message) {
+            super(message);
+            this.code = code;
+        }
+
+        int getCode() {
+            return code;
+        }
+    }
+}
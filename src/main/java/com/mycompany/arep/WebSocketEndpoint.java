@@ -0,0 +1,134 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * Route of a {@link WebSocketHandler}, answering the opening handshake of RFC 6455.
+ * A valid upgrade request is answered with 101 Switching Protocols and a new
+ * {@link WebSocketSession}, which the engine serves on the connection once the response
+ * is written. Other requests are answered with 426 Upgrade Required or 400 Bad Request.
+ *
+ * @author daniel.aldana-b
+ */
+final class WebSocketEndpoint implements Service {
+    // Appended to the client key before hashing it into the accept header
+    private static final String KEY_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    // Handler of the sessions opened on this route
+    private final WebSocketHandler handler;
+    // Server settings, for the message size limit and compression
+    private final ServerConfig config;
+
+    /**
+     * Creates the route of a handler.
+     * @param handler the handler of the sessions
+     * @param config the server configuration
+     */
+    WebSocketEndpoint(WebSocketHandler handler, ServerConfig config) {
+        this.handler = handler;
+        this.config = config;
+    }
+
+    /**
+     * Answers a request that reached the endpoint without going through the handshake.
+     * @param req the request
+     * @param res the response
+     * @return the body telling the client to upgrade
+     */
+    @Override
+    public String invoke(HttpRequest req, HttpResponse res) {
+        res.setStatus(426, "Upgrade Required");
+        res.setHeader("upgrade", "websocket");
+        return "WebSocket upgrade required";
+    }
+
+    /**
+     * Answers the opening handshake, switching the connection to the WebSocket protocol if it is valid.
+     * @param req the upgrade request
+     * @param res the response bound to the client connection
+     * @throws IOException if the response cannot be written
+     */
+    void handshake(HttpRequest req, HttpResponse res) throws IOException {
+        String key = req.getHeader("sec-websocket-key");
+        // a HEAD request reaches the endpoint through its GET route, but cannot open a session
+        if (!"GET".equals(req.getMethod()) || !"HTTP/1.1".equals(req.getVersion()) || !hasToken(req.getHeader("upgrade"), "websocket")
+                || !hasToken(req.getHeader("connection"), "upgrade") || key == null) {
+            reject(res, 426, "Upgrade Required", "WebSocket upgrade required");
+            return;
+        }
+        String version = req.getHeader("sec-websocket-version");
+        if (version == null || !"13".equals(version.trim())) {
+            res.setHeader("sec-websocket-version", "13");
+            reject(res, 426, "Upgrade Required", "Unsupported WebSocket version");
+            return;
+        }
+        key = key.trim();
+        if (!isValidKey(key)) {
+            reject(res, 400, "Bad Request", "Invalid WebSocket key");
+            return;
+        }
+        boolean compressed = config.isWebSocketCompression()
+                && WebSocketCodec.acceptsDeflate(req.getHeaderValues("sec-websocket-extensions"));
+        res.setHeader("sec-websocket-accept", accept(key));
+        if (compressed) {
+            res.setHeader("sec-websocket-extensions", WebSocketCodec.DEFLATE_RESPONSE);
+        }
+        res.switchProtocols("websocket", new WebSocketSession(handler, req, compressed, config));
+    }
+
+    private static void reject(HttpResponse res, int statusCode, String statusMessage, String body)
+            throws IOException {
+        res.setStatus(statusCode, statusMessage);
+        res.setHeader("upgrade", "websocket");
+        res.send(body);
+    }
+
+    /**
+     * Tells whether a comma separated header value contains a token, ignoring case.
+     */
+    private static boolean hasToken(String value, String token) {
+        if (value == null) {
+            return false;
+        }
+        for (String part : value.split(",")) {
+            if (part.trim().equalsIgnoreCase(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tells whether a key is the base64 encoding of 16 bytes, as the protocol requires.
+     */
+    private static boolean isValidKey(String key) {
+        try {
+            return Base64.getDecoder().decode(key).length == 16;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Computes the sec-websocket-accept value proving the server understood the handshake.
+     * @param key the sec-websocket-key of the request
+     * @return the base64 SHA-1 hash of the key and the protocol GUID
+     */
+    static String accept(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] hash = sha1.digest((key + KEY_GUID).getBytes(StandardCharsets.ISO_8859_1));
+            return Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+    }
+}
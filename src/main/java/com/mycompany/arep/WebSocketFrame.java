@@ -0,0 +1,97 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A WebSocket message encoded once, to be sent to many sessions.
+ * <pre>
+ * WebSocketFrame frame = WebSocketFrame.text("{\"price\": 42}");
+ * frame.broadcast(sessions);
+ * </pre>
+ * The frame is encoded the first time a session needs it, plainly or compressed with
+ * permessage-deflate, and every session then queues a view of the same read-only bytes:
+ * sending to a thousand sessions does not copy the message a thousand times. Frames are
+ * immutable and thread safe.
+ *
+ * @author daniel.aldana-b
+ */
+public final class WebSocketFrame {
+    // Opcode of the message, text or binary
+    private final int opcode;
+    // Payload of the message
+    private final byte[] payload;
+    // Encoded frame for the sessions without compression, null until needed
+    private ByteBuffer plain;
+    // Encoded frame for the sessions with compression, null until needed; the plain frame
+    // if compressing does not make the message smaller
+    private ByteBuffer deflated;
+
+    private WebSocketFrame(int opcode, byte[] payload) {
+        this.opcode = opcode;
+        this.payload = payload;
+    }
+
+    /**
+     * Creates a text message.
+     * @param text the text
+     * @return the frame
+     */
+    public static WebSocketFrame text(String text) {
+        return new WebSocketFrame(WebSocketCodec.TEXT, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Creates a binary message.
+     * @param data the data, copied
+     * @return the frame
+     */
+    public static WebSocketFrame binary(byte[] data) {
+        return new WebSocketFrame(WebSocketCodec.BINARY, data.clone());
+    }
+
+    /**
+     * Sends the message to every open session. Closed sessions, and sessions whose client
+     * reads too slowly to take another message, are skipped.
+     * @param sessions the sessions
+     * @return the number of sessions the message was queued for
+     */
+    public int broadcast(Iterable<WebSocketSession> sessions) {
+        int sent = 0;
+        for (WebSocketSession session : sessions) {
+            if (session.send(this)) {
+                sent++;
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * Gets the encoded frame for one session.
+     * @param compressed whether the session negotiated permessage-deflate
+     * @return a new view of the shared encoded bytes, owned by the caller
+     */
+    synchronized ByteBuffer encoded(boolean compressed) {
+        if (compressed && payload.length >= WebSocketCodec.MIN_DEFLATE_SIZE) {
+            if (deflated == null) {
+                byte[] compressedPayload = WebSocketCodec.deflate(payload);
+                deflated = compressedPayload.length < payload.length
+                        ? WebSocketCodec.encode(opcode, true, compressedPayload).asReadOnlyBuffer()
+                        : plain();
+            }
+            return deflated.duplicate();
+        }
+        return plain().duplicate();
+    }
+
+    private ByteBuffer plain() {
+        if (plain == null) {
+            plain = WebSocketCodec.encode(opcode, false, payload).asReadOnlyBuffer();
+        }
+        return plain;
+    }
+}
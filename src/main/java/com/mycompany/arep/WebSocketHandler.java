@@ -0,0 +1,67 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+/**
+ * Endpoint answering the messages of WebSocket sessions, registered with
+ * {@link HttpServer#websocket}.
+ * <pre>
+ * HttpServer.websocket("/echo", (session, text) -&gt; session.send(text));
+ * </pre>
+ * The events of one session are delivered one at a time and in order, so a handler needs no
+ * locking for the state of a single session; events of different sessions may run at the same
+ * time. With the NIO engine they run on the worker executor and reading from a session pauses
+ * while too many of its events wait; with the blocking engine they run on the connection thread.
+ * An exception thrown by a handler is reported on the error output like a failed service,
+ * passed to {@link #onError} and closes the session with status 1011.
+ *
+ * @author daniel.aldana-b
+ */
+@FunctionalInterface
+public interface WebSocketHandler {
+
+    /**
+     * Called once the handshake is done, before any message.
+     * @param session the new session
+     */
+    default void onOpen(WebSocketSession session) {
+    }
+
+    /**
+     * Called for each text message, once all its fragments have arrived.
+     * @param session the session
+     * @param text the message
+     */
+    void onText(WebSocketSession session, String text);
+
+    /**
+     * Called for each binary message, once all its fragments have arrived.
+     * Closes the session with status 1003 unless overridden.
+     * @param session the session
+     * @param data the message
+     */
+    default void onBinary(WebSocketSession session, byte[] data) {
+        session.close(WebSocketCodec.UNSUPPORTED_DATA, "Binary messages not supported");
+    }
+
+    /**
+     * Called once the connection of the session is gone, the last event of the session.
+     * @param session the session
+     * @param code the status code of the close handshake, 1006 if the connection was lost
+     *             without one and 1005 if the client sent none
+     * @param reason the reason given with the status code, possibly empty
+     */
+    default void onClose(WebSocketSession session, int code, String reason) {
+    }
+
+    /**
+     * Called when the client breaks the protocol or another event of the session fails.
+     * The session is closed afterwards. Does nothing by default.
+     * @param session the session
+     * @param error the failure
+     */
+    default void onError(WebSocketSession session, Throwable error) {
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.arep;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One WebSocket connection, handed to the {@link WebSocketHandler} of its endpoint.
+ * Messages can be sent from any thread at any time while the session is open; they are
+ * written in the order they are sent. With the NIO engine sending never blocks: a client that
+ * lets too much data queue up is disconnected instead. With the blocking engine the sending
+ * thread writes the frame itself.
+ * <p>
+ * The server answers pings, and pings a connection that stays silent for half of
+ * {@link ServerConfig#getWebSocketIdleTimeout()}, closing it if it is still silent at the end.
+ *
+ * @author daniel.aldana-b
+ */
+public final class WebSocketSession {
+    // Handler events waiting above which the engine stops reading from the connection
+    static final int MAX_PENDING_EVENTS = 64;
+    private static final byte[] EMPTY = new byte[0];
+
+    // Handler receiving the events of the session
+    private final WebSocketHandler handler;
+    // Handshake request
+    private final HttpRequest request;
+    // Whether permessage-deflate was negotiated
+    private final boolean compressed;
+    // Decoder of the received frames, used by the reading thread only
+    private final WebSocketCodec codec;
+    // Handler events in order, run one at a time
+    private final Queue<Runnable> events = new ConcurrentLinkedQueue<>();
+    // Number of queued or running events, the one that makes it non-zero starts the runner
+    private final AtomicInteger pending = new AtomicInteger();
+
+    // Set once by the engine taking the connection over
+    private volatile Executor executor;
+    private volatile Runnable resume;
+
+    // The fields below are guarded by this object
+    // Connection carrying the session, null until the engine takes it over
+    private Connection connection;
+    // Whether a close frame was sent, after which no more frames are
+    private boolean closeSent;
+    // Whether the connection is gone
+    private boolean closed;
+    // Status code and reason of the close handshake, the first one sent or received
+    private int closeCode;
+    private String closeReason = "";
+
+    /**
+     * Creates a session for an accepted handshake.
+     * @param handler the handler of the endpoint
+     * @param request the handshake request
+     * @param compressed whether permessage-deflate was negotiated
+     * @param config the server configuration
+     */
+    WebSocketSession(WebSocketHandler handler, HttpRequest request, boolean compressed, ServerConfig config) {
+        this.handler = handler;
+        this.request = request;
+        this.compressed = compressed;
+        this.codec = new WebSocketCodec(new Decoded(), config.getWebSocketMaxMessageSize(), compressed);
+    }
+
+    /**
+     * Gets the handshake request, to read its path parameters, query parameters or headers.
+     * @return the request that opened the session
+     */
+    public HttpRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * Tells whether messages can still be sent.
+     * @return false once the session started closing
+     */
+    public synchronized boolean isOpen() {
+        return connection != null && !closeSent && !closed;
+    }
+
+    /**
+     * Sends a text message.
+     * @param text the message
+     * @return false if the session is closed or the message could not be queued
+     */
+    public boolean send(String text) {
+        return send(WebSocketFrame.text(text));
+    }
+
+    /**
+     * Sends a binary message.
+     * @param data the message
+     * @return false if the session is closed or the message could not be queued
+     */
+    public boolean send(byte[] data) {
+        return send(WebSocketFrame.binary(data));
+    }
+
+    /**
+     * Sends a message encoded beforehand, sharing its bytes with the other sessions it is sent to.
+     * @param frame the message
+     * @return false if the session is closed or the message could not be queued
+     * @see WebSocketFrame#broadcast
+     */
+    public boolean send(WebSocketFrame frame) {
+        return write(frame.encoded(compressed));
+    }
+
+    /**
+     * Sends a ping, which the client answers with a pong.
+     * @param data the application data, at most 125 bytes
+     * @return false if the session is closed or the ping could not be queued
+     */
+    public boolean ping(byte[] data) {
+        if (data.length > WebSocketCodec.MAX_CONTROL_PAYLOAD) {
+            throw new IllegalArgumentException("Ping data longer than 125 bytes");
+        }
+        return write(WebSocketCodec.encode(WebSocketCodec.PING, false, data));
+    }
+
+    /**
+     * Closes the session normally, with status 1000.
+     */
+    public void close() {
+        close(WebSocketCodec.NORMAL_CLOSURE, "");
+    }
+
+    /**
+     * Closes the session: sends a close frame and closes the connection once it is written.
+     * Does nothing if the session is already closing.
+     * @param code the status code, such as 1000 for a normal closure or 1001 when going away
+     * @param reason the reason, at most 123 bytes once encoded
+     */
+    public void close(int code, String reason) {
+        byte[] payload = WebSocketCodec.closePayload(code, reason);
+        Connection target;
+        synchronized (this) {
+            if (connection == null || closeSent || closed) {
+                return;
+            }
+            closeSent = true;
+            closeCode = code;
+            closeReason = reason;
+            target = connection;
+            try {
+                target.send(WebSocketCodec.encode(WebSocketCodec.CLOSE, false, payload));
+            } catch (IOException ignored) {
+            }
+        }
+        target.close();
+    }
+
+    /**
+     * Starts the session on a connection whose handshake response was written.
+     * @param connection the connection carrying the session
+     * @param executor the executor running the handler events
+     * @param resume called once few enough events wait for reading to go on, or null if the
+     *               events never wait, such as when they run on the reading thread
+     */
+    void connect(Connection connection, Executor executor, Runnable resume) {
+        this.executor = executor;
+        this.resume = resume;
+        synchronized (this) {
+            this.connection = connection;
+        }
+        dispatch(() -> handler.onOpen(this));
+    }
+
+    /**
+     * Decodes bytes received from the client. Called by the reading thread only.
+     * @param input the received bytes, all consumed
+     */
+    void receive(ByteBuffer input) {
+        try {
+            codec.decode(input);
+        } catch (WebSocketCodec.FrameException e) {
+            dispatch(() -> handler.onError(this, e));
+            close(e.getCode(), e.getMessage());
+        }
+    }
+
+    /**
+     * Tells whether the client sent its last frame, its close frame or a malformed one.
+     * Called by the reading thread only.
+     * @return true once no more input is decoded
+     */
+    boolean isInputDone() {
+        return codec.isDone();
+    }
+
+    /**
+     * Tells whether so many handler events wait that the engine should stop reading.
+     * @return true until the handler catches up
+     */
+    boolean isBacklogged() {
+        return pending.get() >= MAX_PENDING_EVENTS;
+    }
+
+    /**
+     * Ends the session once its connection is gone, delivering the last event to the handler.
+     * Called by the engine, once.
+     */
+    void closed() {
+        int code;
+        String reason;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            code = closeCode != 0 ? closeCode : WebSocketCodec.ABNORMAL_CLOSURE;
+            reason = closeReason;
+        }
+        codec.end();
+        dispatch(() -> handler.onClose(this, code, reason));
+    }
+
+    /**
+     * Queues a frame on the connection, unless the session is closing.
+     * A client too slow to take it is disconnected.
+     */
+    private boolean write(ByteBuffer frame) {
+        Connection target;
+        synchronized (this) {
+            if (connection == null || closeSent || closed) {
+                return false;
+            }
+            target = connection;
+            try {
+                if (target.send(frame)) {
+                    return true;
+                }
+            } catch (IOException e) {
+                return false;
+            }
+            closeSent = true;
+            closeCode = WebSocketCodec.POLICY_VIOLATION;
+            closeReason = "Client too slow";
+        }
+        target.close();
+        return false;
+    }
+
+    /**
+     * Queues a handler event, starting a runner if none is running.
+     */
+    private void dispatch(Runnable event) {
+        events.add(event);
+        if (pending.getAndIncrement() == 0) {
+            try {
+                executor.execute(this::runEvents);
+            } catch (RejectedExecutionException e) {
+                // the server is stopping, the events are dropped
+                events.clear();
+                pending.set(0);
+            }
+        }
+    }
+
+    /**
+     * Runs the queued handler events one after another until none is left.
+     */
+    private void runEvents() {
+        int left;
+        do {
+            Runnable event = events.poll();
+            try {
+                event.run();
+            } catch (RuntimeException e) {
+                WebServer.reportFailure(request, e);
+                try {
+                    handler.onError(this, e);
+                } catch (RuntimeException ignored) {
+                }
+                close(WebSocketCodec.INTERNAL_ERROR, "Internal error");
+            }
+            left = pending.decrementAndGet();
+            if (left == MAX_PENDING_EVENTS / 2 && resume != null) {
+                resume.run();
+            }
+        } while (left > 0);
+    }
+
+    /**
+     * Receives what the decoder finds, on the reading thread.
+     */
+    private final class Decoded implements WebSocketCodec.Listener {
+        @Override
+        public void onText(String text) {
+            dispatch(() -> handler.onText(WebSocketSession.this, text));
+        }
+
+        @Override
+        public void onBinary(byte[] data) {
+            dispatch(() -> handler.onBinary(WebSocketSession.this, data));
+        }
+
+        @Override
+        public void onPing(byte[] payload) {
+            write(WebSocketCodec.encode(WebSocketCodec.PONG, false, payload));
+        }
+
+        @Override
+        public void onPong(byte[] payload) {
+            // any input keeps the connection alive, the engine tracks it
+        }
+
+        @Override
+        public void onClose(int code, String reason) {
+            Connection target;
+            synchronized (WebSocketSession.this) {
+                target = connection;
+                if (!closeSent) {
+                    closeSent = true;
+                    closeCode = code;
+                    closeReason = reason;
+                    // the reply echoes the status code, or carries none if the client sent none
+                    byte[] payload = code == WebSocketCodec.NO_STATUS ? EMPTY : WebSocketCodec.closePayload(code, "");
+                    try {
+                        target.send(WebSocketCodec.encode(WebSocketCodec.CLOSE, false, payload));
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+            target.close();
+        }
+    }
+
+    /**
+     * The connection of a session, provided by the engine serving it.
+     */
+    interface Connection {
+
+        /**
+         * Queues an encoded frame.
+         * @param frame the frame, owned by the connection afterwards
+         * @return false if too much output already waits for the client and the frame was dropped
+         * @throws IOException if the connection is closed
+         */
+        boolean send(ByteBuffer frame) throws IOException;
+
+        /**
+         * Closes the connection once the queued frames are written.
+         */
+        void close();
+    }
+}
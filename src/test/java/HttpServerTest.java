@@ -2,14 +2,55 @@ import com.mycompany.arep.HttpServer;
 import com.mycompany.arep.HttpRequest;
 import com.mycompany.arep.HttpResponse;
 import com.mycompany.arep.Service;
+import com.mycompany.arep.ServerConfig;
+import com.mycompany.arep.ExecutionMode;
+import com.mycompany.arep.StaticCache;
+import com.mycompany.arep.ContentEncoding;
+import com.mycompany.arep.Router;
+import com.mycompany.arep.MultipartReader;
+import com.mycompany.arep.Part;
+import com.mycompany.arep.ResponseHeadWriter;
+import com.mycompany.arep.ServerMetrics;
+import com.mycompany.arep.LatencyHistogram;
+import com.mycompany.arep.AccessLog;
+import com.mycompany.arep.AsyncService;
+import com.mycompany.arep.ResponseCache;
+import com.mycompany.arep.WebServer;
+import com.mycompany.arep.EngineType;
+import com.mycompany.arep.AdmissionControl;
+import com.mycompany.arep.WebSocketFrame;
+import com.mycompany.arep.WebSocketHandler;
+import com.mycompany.arep.WebSocketSession;
+import com.mycompany.arep.EventTopic;
+import com.mycompany.arep.ServerSentEvent;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.*;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import static org.junit.Assert.*;
 
@@ -124,6 +165,61 @@ public class HttpServerTest {
         assertEquals("/test", request.getPath());
     }
 
+    @Test
+    public void testHttpRequestDecodesRepeatedAndEscapedParams() throws Exception {
+        URI uri = new URI("/test?tag=a&tag=b+c&name=Jos%C3%A9&flag&empty=");
+        HttpRequest request = new HttpRequest(uri);
+
+        assertEquals("a", request.getValues("tag"));
+        assertEquals(java.util.Arrays.asList("a", "b c"), request.getParameterValues("tag"));
+        assertEquals("Jos\u00e9", request.getValue("name"));
+        assertEquals("", request.getValue("flag"));
+        assertEquals("", request.getValue("empty"));
+        assertTrue(request.getParameterValues("missing").isEmpty());
+    }
+
+    @Test
+    public void testHttpRequestIndexesManyParams() throws Exception {
+        StringBuilder query = new StringBuilder("k%65y=first");
+        for (int i = 0; i < 40; i++) {
+            query.append("&p").append(i).append('=').append(i).append("&key=").append(i);
+        }
+        HttpRequest request = new HttpRequest(new URI("/test?" + query));
+
+        assertEquals("first", request.getValue("key"));
+        assertEquals(41, request.getParameterValues("key").size());
+        assertEquals("39", request.getParameterValues("key").get(40));
+        assertEquals("17", request.getValue("p17"));
+        assertNull(request.getValue("KEY"));
+        assertEquals(41, request.getParameters().size());
+        assertEquals("key", request.getParameters().keySet().iterator().next());
+    }
+
+    @Test
+    public void testRepeatedHeadersAreLookedUpIgnoringCase() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        config.setCompression(false);
+        WebServer server = new WebServer(config);
+        server.get("/headers", (req, res) -> req.getHeaderValues("accept") + " " + req.getHeader("ACCEPT")
+                + " " + req.getHeader("X-Missing") + " " + req.getHeaders().get("x-one"));
+        server.start();
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(("GET /headers HTTP/1.1\r\nHost: test\r\nAccept: text/html\r\nX-One: 1\r\n"
+                    + "accept: */*\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            assertTrue(response, response.endsWith("[text/html, */*] text/html, */* null 1"));
+        } finally {
+            server.stop(Duration.ofSeconds(5));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testServerConfigRejectsInvalidHeaderLimit() {
+        new ServerConfig().setMaxHeaderSize(0);
+    }
+
     @Test
     public void testHttpResponseConfiguration() {
         HttpResponse response = new HttpResponse();
@@ -137,6 +233,53 @@ public class HttpServerTest {
         assertEquals("Created", response.getStatusMessage());
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetHeaderRejectsNamesThatAreNotTokens() {
+        new HttpResponse().setHeader("x name:", "value");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetHeaderRejectsLineBreaksInValues() {
+        new HttpResponse().setHeader("location", "/next\r\nset-cookie: session=stolen");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetHeaderRejectsFramingHeaders() {
+        new HttpResponse().setHeader("Content-Length", "0");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetHeaderRejectsCharactersOutsideLatin1() {
+        new HttpResponse().setHeader("x-name", "\u0100");
+    }
+
+    @Test
+    public void testHeaderFromRequestDataCannotSplitTheResponse() throws Exception {
+        for (EngineType engine : EngineType.values()) {
+            ServerConfig config = new ServerConfig();
+            config.setPort(0);
+            config.setEngine(engine);
+            WebServer server = new WebServer(config);
+            server.get("/redirect", (req, res) -> {
+                res.setStatusCode(302);
+                res.setStatusMessage("Found");
+                res.setHeader("location", req.getValue("to"));
+                return "";
+            });
+            server.start();
+            try {
+                String response = request(server.getPort(), "/redirect?to=%2F%0D%0Ax-injected:%20yes");
+                assertTrue(engine + ": " + response, response.startsWith("HTTP/1.1 500 Internal Server Error\r\n"));
+                assertFalse(response, response.contains("x-injected"));
+                response = request(server.getPort(), "/redirect?to=%2Fhome");
+                assertTrue(response, response.startsWith("HTTP/1.1 302 Found\r\n"));
+                assertTrue(response, response.contains("location: /home\r\n"));
+            } finally {
+                server.stop(Duration.ofSeconds(5));
+            }
+        }
+    }
+
     @Test
     public void testStaticFileFound() throws Exception {
         // Create a test file in the webroot directory
@@ -192,6 +335,20 @@ public class HttpServerTest {
         assertEquals("application/octet-stream", HttpServer.getType(Path.of("unknown.xyz")));
     }
 
+    @Test
+    public void testAssigningRootDirectoryMovesTheStaticFiles() throws Exception {
+        Path directory = Files.createDirectories(Path.of("target/classes/moved-root"));
+        Files.writeString(directory.resolve("moved.txt"), "moved file");
+        HttpServer.ROOT_DIRECTORY = "target/classes/moved-root";
+        assertEquals("target/classes/moved-root", HttpServer.getRootDirectory());
+        assertTrue(fetch("/moved.txt").endsWith("moved file"));
+        assertTrue(fetch("/script.js").contains("404 Not Found"));
+
+        HttpServer.staticfiles("/webroot");
+        assertEquals("target/classes/webroot", HttpServer.ROOT_DIRECTORY);
+        assertTrue(fetch("/moved.txt").contains("404 Not Found"));
+    }
+
     @Test
     public void testStaticFilesDirectoryConfiguration() {
         // Test that staticfiles method properly configures the root directory
@@ -219,4 +376,1608 @@ public class HttpServerTest {
         assertTrue(response.contains("application/json"));
         assertTrue(response.contains("{\"message\": \"Hello World\"}"));
     }
+
+    @Test
+    public void testServerConfigDefaults() {
+        ServerConfig config = new ServerConfig();
+
+        assertEquals(35000, config.getPort());
+        assertEquals(ExecutionMode.VIRTUAL_THREADS, config.getExecutionMode());
+        assertTrue(config.getWorkerThreads() > 0);
+        assertTrue(config.getMaxConnections() > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testServerConfigRejectsInvalidConnectionLimit() {
+        new ServerConfig().setMaxConnections(0);
+    }
+
+    @Test
+    public void testServiceResponseIsFramedWithContentLength() throws Exception {
+        HttpServer.get("/framed", (req, res) -> "héllo");
+
+        String response = HttpServer.invokeService(new URI("/framed"));
+
+        assertTrue(response.contains("content-length: 6\r\n"));
+        assertTrue(response.contains("connection: close\r\n"));
+        assertTrue(response.endsWith("\r\n\r\nhéllo"));
+    }
+
+    @Test
+    public void testStaticFileOutsideRootIsNotServed() throws Exception {
+        ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+        PrintWriter out = new PrintWriter(byteOut, true);
+        Socket fakeSocket = new Socket() {
+            @Override
+            public OutputStream getOutputStream() {
+                return byteOut;
+            }
+        };
+
+        HttpServer.handleRequest(new URI("/../../../pom.xml"), out, fakeSocket);
+
+        String response = byteOut.toString();
+        assertTrue(response.contains("404 Not Found"));
+    }
+
+    @Test
+    public void testStaticFileBodyMatchesFile() throws Exception {
+        ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+        PrintWriter out = new PrintWriter(byteOut, true);
+        Socket fakeSocket = new Socket() {
+            @Override
+            public OutputStream getOutputStream() {
+                return byteOut;
+            }
+        };
+
+        HttpServer.handleRequest(new URI("/style.css"), out, fakeSocket);
+
+        String expected = Files.readString(Path.of(HttpServer.ROOT_DIRECTORY, "style.css"));
+        String response = byteOut.toString(java.nio.charset.StandardCharsets.UTF_8);
+        assertTrue(response.contains("200 OK"));
+        assertTrue(response.contains("text/css"));
+        assertTrue(response.endsWith("\r\n\r\n" + expected));
+    }
+
+    @Test
+    public void testStaticCacheHitsAndInvalidation() throws Exception {
+        Path file = Path.of(HttpServer.ROOT_DIRECTORY, "cache-test.txt");
+        Files.writeString(file, "first");
+        try {
+            StaticCache cache = HttpServer.getStaticCache();
+            long hits = cache.getHits();
+
+            assertTrue(fetch("/cache-test.txt").endsWith("first"));
+            assertTrue(fetch("/cache-test.txt").endsWith("first"));
+            // the watch events of the write may still invalidate the entry read first
+            for (int i = 0; i < 50 && cache.getHits() == hits; i++) {
+                Thread.sleep(100);
+                assertTrue(fetch("/cache-test.txt").endsWith("first"));
+            }
+            assertTrue(cache.getHits() > hits);
+
+            Files.writeString(file, "second version");
+            String response = fetch("/cache-test.txt");
+            for (int i = 0; i < 50 && !response.endsWith("second version"); i++) {
+                Thread.sleep(100);
+                response = fetch("/cache-test.txt");
+            }
+            assertTrue(response.endsWith("second version"));
+            assertTrue(response.contains("content-length: 14"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testStaticCacheCountsVariantsCompressedWhileInvalidated() throws Exception {
+        Path directory = Files.createDirectories(Path.of(HttpServer.ROOT_DIRECTORY, "cache-race"));
+        for (int i = 0; i < 4; i++) {
+            Files.writeString(directory.resolve("file" + i + ".css"), ("line " + i + " of a compressible file\n").repeat(400));
+        }
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        WebServer server = new WebServer(config);
+        server.staticfiles("/webroot");
+        server.start();
+        ExecutorService clients = Executors.newFixedThreadPool(4);
+        try {
+            StaticCache cache = server.getStaticCache();
+            AtomicInteger failures = new AtomicInteger();
+            List<Future<?>> done = new ArrayList<>();
+            for (int c = 0; c < 4; c++) {
+                int client = c;
+                done.add(clients.submit(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        String coding = (i + client) % 2 == 0 ? "gzip" : "deflate";
+                        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+                            socket.setSoTimeout(5000);
+                            socket.getOutputStream().write(("GET /cache-race/file" + (i % 4) + ".css HTTP/1.1\r\nhost: test\r\n"
+                                    + "accept-encoding: " + coding + "\r\nconnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                            String head = new String(socket.getInputStream().readAllBytes(), StandardCharsets.ISO_8859_1);
+                            if (!head.startsWith("HTTP/1.1 200 OK") || !head.contains("content-encoding: " + coding)) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            // entries are removed while the clients compress their variants
+            while (!done.stream().allMatch(Future::isDone)) {
+                cache.clear();
+            }
+            for (Future<?> client : done) {
+                client.get(60, TimeUnit.SECONDS);
+            }
+            assertEquals(0, failures.get());
+            cache.clear();
+            assertEquals(0, cache.getSize());
+            assertEquals(0, cache.getBytes());
+        } finally {
+            clients.shutdownNow();
+            server.stop(Duration.ofSeconds(5));
+            for (int i = 0; i < 4; i++) {
+                Files.deleteIfExists(directory.resolve("file" + i + ".css"));
+            }
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @Test
+    public void testContentEncodingNegotiation() {
+        assertEquals("gzip", ContentEncoding.negotiate("gzip, deflate, br"));
+        assertEquals("deflate", ContentEncoding.negotiate("gzip;q=0.5, deflate"));
+        assertEquals("deflate", ContentEncoding.negotiate("gzip;q=0, *"));
+        assertEquals("gzip", ContentEncoding.negotiate("*;q=0.8"));
+        assertNull(ContentEncoding.negotiate("br, identity"));
+        assertNull(ContentEncoding.negotiate(null));
+        assertTrue(ContentEncoding.isCompressible("application/javascript; charset=utf-8"));
+        assertFalse(ContentEncoding.isCompressible("image/png"));
+    }
+
+    @Test
+    public void testContentEncodingRoundTrip() throws Exception {
+        byte[] content = "hello hello hello hello hello hello hello".repeat(50).getBytes("UTF-8");
+
+        byte[] gzip = ContentEncoding.encode(content, ContentEncoding.GZIP, 6);
+        byte[] deflate = ContentEncoding.encode(content, ContentEncoding.DEFLATE, 1);
+
+        assertTrue(gzip.length < content.length);
+        assertArrayEquals(content, new GZIPInputStream(new ByteArrayInputStream(gzip)).readAllBytes());
+        assertArrayEquals(content, new InflaterInputStream(new ByteArrayInputStream(deflate)).readAllBytes());
+    }
+
+    @Test
+    public void testStaticFileWithoutAcceptEncodingIsNotCompressed() throws Exception {
+        String response = fetch("/style.css");
+
+        assertTrue(response.contains("vary: accept-encoding"));
+        assertFalse(response.contains("content-encoding"));
+        assertTrue(response.endsWith(Files.readString(Path.of(HttpServer.ROOT_DIRECTORY, "style.css"))));
+    }
+
+    @Test
+    public void testStaticFileHasValidators() throws Exception {
+        String response = fetch("/time.jpg");
+
+        assertTrue(response.contains("200 OK"));
+        assertTrue(response.matches("(?s).*\r\netag: \"[^\"]+\"\r\n.*"));
+        assertTrue(response.contains("last-modified: "));
+        assertTrue(response.contains("accept-ranges: bytes"));
+    }
+
+    @Test
+    public void testUnsatisfiableRangeOnlyDescribesTheLength() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        WebServer server = new WebServer(config);
+        server.staticfiles("/webroot");
+        server.start();
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(("GET /style.css HTTP/1.1\r\nhost: test\r\nrange: bytes=100000-\r\n"
+                    + "connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            long length = Files.size(Path.of(HttpServer.ROOT_DIRECTORY, "style.css"));
+            assertTrue(response, response.startsWith("HTTP/1.1 416 Range Not Satisfiable\r\n"));
+            assertTrue(response, response.contains("content-range: bytes */" + length + "\r\n"));
+            assertTrue(response, response.contains("content-type: text/plain"));
+            assertFalse(response, response.contains("etag") || response.contains("last-modified"));
+        } finally {
+            server.stop(Duration.ofSeconds(5));
+        }
+    }
+
+    @Test
+    public void testSingleRangeIsSentAsPartialContent() throws Exception {
+        for (EngineType engine : EngineType.values()) {
+            for (String name : writeRangeFiles()) {
+                String content = Files.readString(Path.of(HttpServer.ROOT_DIRECTORY, "ranges", name));
+                WebServer server = startStaticServer(engine);
+                try {
+                    String response = request(server.getPort(), "/ranges/" + name, "range: bytes=10-19\r\n");
+                    String label = engine + " " + name + ": " + response;
+                    assertTrue(label, response.startsWith("HTTP/1.1 206 Partial Content\r\n"));
+                    assertTrue(label, response.contains("content-range: bytes 10-19/" + content.length() + "\r\n"));
+                    assertTrue(label, response.contains("content-length: 10\r\n"));
+                    assertEquals(label, content.substring(10, 20), response.substring(response.indexOf("\r\n\r\n") + 4));
+                    // a suffix range counts from the end
+                    response = request(server.getPort(), "/ranges/" + name, "range: bytes=-5\r\n");
+                    assertTrue(response, response.endsWith(content.substring(content.length() - 5)));
+                } finally {
+                    server.stop(Duration.ofSeconds(5));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSeveralRangesAreMergedIntoMultipartByteranges() throws Exception {
+        for (EngineType engine : EngineType.values()) {
+            for (String name : writeRangeFiles()) {
+                String content = Files.readString(Path.of(HttpServer.ROOT_DIRECTORY, "ranges", name));
+                int length = content.length();
+                WebServer server = startStaticServer(engine);
+                try {
+                    // 20-29 and 25-34 overlap and are sent as one part
+                    String response = request(server.getPort(), "/ranges/" + name,
+                            "range: bytes=25-34, 0-4, 20-29\r\n");
+                    String label = engine + " " + name + ": " + response;
+                    assertTrue(label, response.startsWith("HTTP/1.1 206 Partial Content\r\n"));
+                    int typeStart = response.indexOf("content-type: multipart/byteranges; boundary=");
+                    assertTrue(label, typeStart >= 0);
+                    String boundary = response.substring(response.indexOf('=', typeStart) + 1,
+                            response.indexOf("\r\n", typeStart));
+                    String body = response.substring(response.indexOf("\r\n\r\n") + 4);
+                    String partType = HttpServer.getType(Path.of(name));
+                    String expected = "\r\n--" + boundary + "\r\ncontent-type: " + partType
+                            + "\r\ncontent-range: bytes 0-4/" + length + "\r\n\r\n" + content.substring(0, 5)
+                            + "\r\n--" + boundary + "\r\ncontent-type: " + partType
+                            + "\r\ncontent-range: bytes 20-34/" + length + "\r\n\r\n" + content.substring(20, 35)
+                            + "\r\n--" + boundary + "--\r\n";
+                    assertEquals(label, expected, body);
+                    assertTrue(label, response.contains("content-length: " + expected.length() + "\r\n"));
+                } finally {
+                    server.stop(Duration.ofSeconds(5));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testIfRangeSendsTheRangeOnlyForTheCurrentVersion() throws Exception {
+        for (EngineType engine : EngineType.values()) {
+            for (String name : writeRangeFiles()) {
+                String content = Files.readString(Path.of(HttpServer.ROOT_DIRECTORY, "ranges", name));
+                WebServer server = startStaticServer(engine);
+                try {
+                    String full = request(server.getPort(), "/ranges/" + name);
+                    int etagStart = full.indexOf("etag: ") + 6;
+                    String etag = full.substring(etagStart, full.indexOf("\r\n", etagStart));
+                    String response = request(server.getPort(), "/ranges/" + name,
+                            "range: bytes=0-9\r\nif-range: " + etag + "\r\n");
+                    String label = engine + " " + name + ": " + response;
+                    assertTrue(label, response.startsWith("HTTP/1.1 206 Partial Content\r\n"));
+                    assertTrue(label, response.endsWith("\r\n\r\n" + content.substring(0, 10)));
+                    // a stale validator gets the whole current representation
+                    response = request(server.getPort(), "/ranges/" + name,
+                            "range: bytes=0-9\r\nif-range: \"stale\"\r\n");
+                    label = engine + " " + name + ": " + response;
+                    assertTrue(label, response.startsWith("HTTP/1.1 200 OK\r\n"));
+                    assertFalse(label, response.contains("content-range"));
+                    assertTrue(label, response.endsWith("\r\n\r\n" + content));
+                } finally {
+                    server.stop(Duration.ofSeconds(5));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testServiceCanSetETag() throws Exception {
+        HttpServer.get("/versioned", (req, res) -> {
+            res.setETag("v1");
+            assertFalse(res.checkNotModified(req));
+            return "content";
+        });
+
+        String response = HttpServer.invokeService(new URI("/versioned"));
+
+        assertTrue(response.contains("200 OK"));
+        assertTrue(response.contains("etag: \"v1\""));
+        assertTrue(response.endsWith("content"));
+    }
+
+    @Test
+    public void testRouterMatchesByMethodAndPrecedence() {
+        Router<String> router = new Router<>();
+        router.add("GET", "/items/{id}", "get item");
+        router.add("GET", "/items/new", "new item form");
+        router.add("POST", "/items", "create item");
+        router.add("DELETE", "/items/{id}", "delete item");
+        router.add(Router.ANY, "/static/*", "any static");
+        int[] offsets = new int[2 * router.getMaxParams()];
+
+        assertEquals("new item form", router.find("GET", "/items/new", offsets).getHandler());
+        Router.Route<String> route = router.find("GET", "/items/15", offsets);
+        assertEquals("get item", route.getHandler());
+        assertEquals("15", "/items/15".substring(offsets[0], offsets[1]));
+        assertEquals("create item", router.find("POST", "/items", offsets).getHandler());
+        assertEquals("any static", router.find("PUT", "/static/a/b", offsets).getHandler());
+        assertNull(router.find("POST", "/items/15", offsets));
+        assertEquals("get item", router.find("HEAD", "/items/15", offsets).getHandler());
+        assertEquals(java.util.List.of("DELETE", "GET", "HEAD"), router.allowedMethods("/items/15"));
+    }
+
+    @Test
+    public void testHeadRequestsUseTheGetRoute() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        WebServer server = new WebServer(config);
+        server.get("/hello", (req, res) -> "Hello " + req.getValue("name"));
+        server.start();
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(("HEAD /hello?name=a HTTP/1.1\r\nhost: test\r\n\r\n"
+                    + "POST /hello HTTP/1.1\r\nhost: test\r\ncontent-length: 0\r\nconnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            String responses = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            String[] parts = responses.split("\r\n\r\n", 3);
+            assertEquals(responses, 3, parts.length);
+            assertTrue(parts[0], parts[0].startsWith("HTTP/1.1 200 OK\r\n"));
+            assertTrue(parts[0], parts[0].contains("content-length: 7\r\n"));
+            assertTrue(parts[1], parts[1].startsWith("HTTP/1.1 405 Method Not Allowed\r\n"));
+            assertTrue(parts[1], parts[1].contains("allow: GET, HEAD\r\n"));
+        } finally {
+            server.stop(Duration.ofSeconds(5));
+        }
+    }
+
+    @Test
+    public void testRouterViewUnregistersRoutes() {
+        Router<String> router = new Router<>();
+        router.routes("GET").put("/a/{x}", "a");
+        assertNotNull(router.find("GET", "/a/1", new int[2]));
+
+        router.routes("GET").clear();
+
+        assertNull(router.find("GET", "/a/1", new int[2]));
+        assertTrue(router.routes("GET").isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRouterRejectsPartialSegmentParameters() {
+        new Router<String>().add("GET", "/users/id{id}", "user");
+    }
+
+    @Test
+    public void testStreamingServiceUsesChunkedEncodingForUnknownLength() throws Exception {
+        HttpServer.stream("GET", "/report", (req, res) -> {
+            res.setContentType("application/octet-stream");
+            OutputStream out = res.getOutputStream();
+            for (int i = 0; i < 5000; i++) {
+                out.write(("line " + i + "\n").getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+            }
+        });
+
+        String response = HttpServer.invokeService(new URI("/report"));
+        String head = response.substring(0, response.indexOf("\r\n\r\n"));
+        String chunks = response.substring(head.length() + 4);
+        StringBuilder body = new StringBuilder();
+        int size;
+        while ((size = Integer.parseInt(chunks.substring(0, chunks.indexOf("\r\n")), 16)) > 0) {
+            int start = chunks.indexOf("\r\n") + 2;
+            body.append(chunks, start, start + size);
+            chunks = chunks.substring(start + size + 2);
+        }
+
+        assertTrue(head.contains("transfer-encoding: chunked"));
+        assertFalse(head.contains("content-length"));
+        assertEquals("0\r\n\r\n", chunks);
+        assertTrue(body.toString().startsWith("line 0\nline 1\n"));
+        assertTrue(body.toString().endsWith("line 4999\n"));
+    }
+
+    @Test
+    public void testStreamingServiceWithKnownLengthOrSmallBody() throws Exception {
+        HttpServer.stream("GET", "/sized", (req, res) -> {
+            res.setContentLength(20000);
+            res.getChannel().write(java.nio.ByteBuffer.wrap(new byte[20000]));
+        });
+        HttpServer.get("/small", (req, res) -> {
+            try {
+                res.getOutputStream().write('a');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return "bc";
+        });
+
+        String sized = HttpServer.invokeService(new URI("/sized"));
+        String small = HttpServer.invokeService(new URI("/small"));
+
+        assertTrue(sized.contains("content-length: 20000\r\n"));
+        assertFalse(sized.contains("transfer-encoding"));
+        assertEquals(20000, sized.length() - sized.indexOf("\r\n\r\n") - 4);
+        assertTrue(small.contains("content-length: 3\r\n"));
+        assertTrue(small.endsWith("\r\n\r\nabc"));
+    }
+
+    @Test
+    public void testMultipartReaderStreamsParts() throws Exception {
+        String contentType = "multipart/form-data; boundary=\"XyZ\"";
+        String body = "preamble\r\n--XyZ\r\n"
+                + "Content-Disposition: form-data; name=\"title\"\r\n\r\n"
+                + "Hello\r\n--XyZ\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"a;b.txt\"\r\n"
+                + "Content-Type: text/plain\r\n\r\n"
+                + "line 1\r\n--Xy not a boundary\r\n"
+                + "\r\n--XyZ--\r\nepilogue";
+        MultipartReader reader = new MultipartReader(
+                new ByteArrayInputStream(body.getBytes(java.nio.charset.StandardCharsets.UTF_8)),
+                MultipartReader.boundary(contentType));
+
+        Part title = reader.next();
+        assertEquals("title", title.getName());
+        assertNull(title.getFileName());
+        assertEquals("Hello", title.getString());
+        Part file = reader.next();
+        assertEquals("file", file.getName());
+        assertEquals("a;b.txt", file.getFileName());
+        assertEquals("text/plain", file.getContentType());
+        assertEquals("line 1\r\n--Xy not a boundary\r\n", file.getString());
+        assertNull(reader.next());
+        assertNull(MultipartReader.boundary("application/json"));
+    }
+
+    @Test
+    public void testMultipartReaderSkipsUnreadParts() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 3; i++) {
+            body.append("--b\r\nContent-Disposition: form-data; name=\"p").append(i).append("\"\r\n\r\n")
+                    .append("x".repeat(20000)).append("\r\n");
+        }
+        body.append("--b--\r\n");
+        MultipartReader reader = new MultipartReader(new ByteArrayInputStream(body.toString().getBytes()), "b");
+
+        assertEquals("p0", reader.next().getName());
+        assertEquals("p1", reader.next().getName());
+        assertEquals(20000, reader.next().getString().length());
+        assertNull(reader.next());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testServerConfigRejectsInvalidBodyThreshold() {
+        new ServerConfig().setBodyMemoryThreshold(0);
+    }
+
+    @Test
+    public void testResponseHeadWriterEncodesHeadAndReusesBuffer() {
+        ResponseHeadWriter writer = new ResponseHeadWriter(true);
+        ByteBuffer first = writer.reset().status(201, "Created").contentType("application/x-custom")
+                .contentLength(1234567890123L).header("x-note", "a\u00e9\u20ac").date().connection(false).finish();
+        byte[] bytes = new byte[first.remaining()];
+        first.get(bytes);
+        String head = new String(bytes, StandardCharsets.ISO_8859_1);
+        assertTrue(head.startsWith("HTTP/1.1 201 Created\r\ncontent-type: application/x-custom\r\n"
+                + "content-length: 1234567890123\r\nx-note: a\u00e9?\r\ndate: "));
+        assertTrue(head.matches("(?s).*\r\ndate: \\w{3}, \\d{1,2} \\w{3} \\d{4} \\d{2}:\\d{2}:\\d{2} GMT\r\n.*"));
+        assertTrue(head.endsWith("\r\nconnection: close\r\n\r\n"));
+
+        ByteBuffer second = writer.reset().status(299, "Custom").contentType("text/plain").contentLength(0)
+                .connection(true).finish();
+        assertSame(first, second);
+        bytes = new byte[second.remaining()];
+        second.get(bytes);
+        assertEquals("HTTP/1.1 299 Custom\r\ncontent-type: text/plain\r\ncontent-length: 0\r\n"
+                + "connection: keep-alive\r\n\r\n", new String(bytes, StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void testMetricsEndpointReportsRequestsInPrometheusFormat() throws Exception {
+        HttpServer.get("/metrics", HttpServer.getMetrics());
+        HttpServer.get("/measured/{id}", (req, res) -> "measured");
+        ServerMetrics metrics = HttpServer.getMetrics();
+        long before = metrics.histogram("GET", "/measured/{id}").getCount();
+        long notFound = metrics.getStatusCount(404);
+        fetch("/measured/1");
+        fetch("/measured/2");
+        fetch("/no-such-file.txt");
+
+        assertEquals(before + 2, metrics.histogram("GET", "/measured/{id}").getCount());
+        assertEquals(notFound + 1, metrics.getStatusCount(404));
+        String response = fetch("/metrics");
+        assertTrue(response.contains("content-type: text/plain; version=0.0.4; charset=utf-8\r\n"));
+        assertTrue(response.contains("\nhttp_requests_total{method=\"GET\",route=\"/measured/{id}\"} " + (before + 2) + "\n"));
+        assertTrue(response.contains("\nhttp_request_duration_seconds{method=\"GET\",route=\"/measured/{id}\",quantile=\"0.99\"} "));
+        assertTrue(response.matches("(?s).*\nhttp_responses_total\\{code=\"404\"\\} \\d+\n.*"));
+        assertTrue(response.contains("\n# TYPE static_cache_hit_ratio gauge\n"));
+    }
+
+    @Test
+    public void testLatencyHistogramQuantilesWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100000; i++) {
+            histogram.record(i);
+        }
+        long[] values = histogram.getValuesAtQuantiles(0.5, 0.99, 0.999);
+        assertEquals(50000, values[0], 50000 * 0.04);
+        assertEquals(99000, values[1], 99000 * 0.04);
+        assertEquals(99900, values[2], 99900 * 0.04);
+        assertEquals(100000, histogram.getMax());
+        assertEquals(100000, histogram.getCount());
+        assertEquals(0, new LatencyHistogram().getValueAtQuantile(0.5));
+    }
+
+    @Test
+    public void testAccessLogIsOnlyEnabledByDefaultForAFile() {
+        ServerConfig config = new ServerConfig();
+        assertFalse(config.isAccessLog());
+        config.setAccessLogFile(Path.of("access.log"));
+        assertTrue(config.isAccessLog());
+        config.setAccessLog(false);
+        assertFalse(config.isAccessLog());
+        config.setAccessLogFile(null);
+        config.setAccessLog(true);
+        assertTrue(config.isAccessLog());
+    }
+
+    @Test
+    public void testAccessLogWritesEntriesAndRollsFiles() throws Exception {
+        Path dir = Files.createTempDirectory("access-log");
+        Path file = dir.resolve("access.log");
+        ServerConfig config = new ServerConfig();
+        config.setAccessLogFile(file);
+        config.setAccessLogMaxFileSize(200);
+        config.setAccessLogMaxFiles(2);
+        try (AccessLog log = new AccessLog(config)) {
+            HttpResponse res = new HttpResponse();
+            res.setStatusCode(404);
+            for (int i = 0; i < 20; i++) {
+                log.log(new HttpRequest(new URI("/x?n=" + i)), res, 1500_000);
+                log.flush();
+            }
+            assertEquals(0, log.getDropped());
+        }
+        String last = Files.readString(file);
+        assertTrue(last.matches("\\S+Z method=GET path=\"/x\" status=404 bytes=0 duration_us=1500\n(?s).*"));
+        assertTrue(Files.exists(dir.resolve("access.log.1")));
+        assertTrue(Files.exists(dir.resolve("access.log.2")));
+        assertFalse(Files.exists(dir.resolve("access.log.3")));
+        assertTrue(Files.size(file) <= 200);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testServerConfigRejectsInvalidAccessLogBuffer() {
+        new ServerConfig().setAccessLogBufferSize(0);
+    }
+
+    @Test
+    public void testAsyncServiceCompletesResponseLater() throws Exception {
+        HttpServer.async("GET", "/async/{id}", (req, res) -> CompletableFuture.supplyAsync(
+                () -> "item " + req.getPathParam("id"), CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS)));
+        HttpServer.async("GET", "/async-failing", (req, res) -> CompletableFuture.failedFuture(new IllegalStateException("down")));
+        HttpServer.async("GET", "/async-stream", (req, res) -> CompletableFuture.supplyAsync(() -> {
+            try {
+                res.getOutputStream().write("written ".getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return "and returned";
+        }));
+
+        String response = fetch("/async/7");
+        assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"));
+        assertTrue(response.endsWith("\r\n\r\nitem 7"));
+        assertTrue(fetch("/async-failing").startsWith("HTTP/1.1 500 Internal Server Error\r\n"));
+        assertTrue(fetch("/async-stream").contains("written and returned"));
+    }
+
+    @Test
+    public void testAsyncServiceTimesOutAndIsCancelled() throws Exception {
+        CompletableFuture<String> never = new CompletableFuture<>();
+        HttpServer.async("GET", "/async-slow", (req, res) -> never);
+        long timeout = HttpServer.config.getAsyncTimeout();
+        HttpServer.config.setAsyncTimeout(100);
+        try {
+            String response = fetch("/async-slow");
+            assertTrue(response.startsWith("HTTP/1.1 503 Service Unavailable\r\n"));
+            assertTrue(never.isCancelled());
+        } finally {
+            HttpServer.config.setAsyncTimeout(timeout);
+        }
+    }
+
+    @Test
+    public void testResponseCacheServesStoredResponsesByKey() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        ResponseCache cache = new ResponseCache(60_000, "digits");
+        cache.setMaxEntries(2);
+        HttpServer.get("/cached", cache.wrap((req, res) -> {
+            res.setHeader("x-computed", "yes");
+            return "digits=" + req.getValue("digits") + " call=" + calls.incrementAndGet();
+        }));
+        HttpServer.get("/uncached", new ResponseCache(60_000).wrap((req, res) -> {
+            res.setHeader("cache-control", "no-store");
+            return "call=" + calls.incrementAndGet();
+        }));
+
+        String first = fetch("/cached?digits=5&ignored=1");
+        String hit = fetch("/cached?digits=5&ignored=2");
+        assertTrue(first.endsWith("digits=5 call=1"));
+        assertTrue(hit.endsWith("digits=5 call=1"));
+        assertTrue(hit.contains("\r\nx-computed: yes\r\n"));
+        assertTrue(hit.contains("\r\nage: 0\r\n"));
+        assertTrue(fetch("/cached?digits=6").endsWith("digits=6 call=2"));
+        assertEquals(1, cache.getHits());
+        assertTrue(fetch("/cached?digits=7").endsWith("digits=7 call=3"));
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+
+        assertTrue(fetch("/uncached").endsWith("call=4"));
+        assertTrue(fetch("/uncached").endsWith("call=5"));
+    }
+
+    @Test
+    public void testResponseCacheEvictsTheLeastRecentlyUsedResponse() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        ResponseCache cache = new ResponseCache(60_000, "k");
+        cache.setMaxEntries(3);
+        HttpServer.get("/lru", cache.wrap((req, res) -> req.getValue("k") + " call=" + calls.incrementAndGet()));
+
+        assertTrue(fetch("/lru?k=a").endsWith("a call=1"));
+        assertTrue(fetch("/lru?k=b").endsWith("b call=2"));
+        assertTrue(fetch("/lru?k=c").endsWith("c call=3"));
+        // the hit makes b the least recently used response
+        assertTrue(fetch("/lru?k=a").endsWith("a call=1"));
+        assertTrue(fetch("/lru?k=d").endsWith("d call=4"));
+        assertEquals(3, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+        assertTrue(fetch("/lru?k=a").endsWith("a call=1"));
+        assertTrue(fetch("/lru?k=c").endsWith("c call=3"));
+        assertTrue(fetch("/lru?k=d").endsWith("d call=4"));
+        assertTrue(fetch("/lru?k=b").endsWith("b call=5"));
+    }
+
+    @Test
+    public void testResponseCacheCoalescesConcurrentMisses() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ResponseCache cache = new ResponseCache(60_000);
+        HttpServer.get("/coalesced", cache.wrap((req, res) -> {
+            calls.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "computed once";
+        }));
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> responses = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                responses.add(clients.submit(() -> fetch("/coalesced")));
+            }
+            while (calls.get() + cache.getCoalesced() < 8) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+            for (Future<String> response : responses) {
+                assertTrue(response.get().endsWith("computed once"));
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+        assertEquals(1, calls.get());
+        assertEquals(7, cache.getCoalesced());
+    }
+
+    @Test
+    public void testServerInstancesRunIndependentlyOnFreePorts() throws Exception {
+        ServerConfig nioConfig = new ServerConfig();
+        nioConfig.setPort(0);
+        nioConfig.setEngine(EngineType.NIO);
+        nioConfig.setEventLoopThreads(1);
+        ServerConfig blockingConfig = new ServerConfig();
+        blockingConfig.setPort(0);
+        blockingConfig.setEngine(EngineType.BLOCKING);
+        WebServer first = new WebServer(nioConfig);
+        WebServer second = new WebServer(blockingConfig);
+        first.get("/who", (req, res) -> "first");
+        second.get("/who", (req, res) -> "second");
+        second.get("/only-second", (req, res) -> "here");
+        first.start();
+        second.start();
+        try {
+            assertNotEquals(0, first.getPort());
+            assertNotEquals(first.getPort(), second.getPort());
+            assertTrue(request(first.getPort(), "/who").endsWith("first"));
+            assertTrue(request(second.getPort(), "/who").endsWith("second"));
+            assertTrue(request(first.getPort(), "/only-second").startsWith("HTTP/1.1 404"));
+            assertTrue(request(second.getPort(), "/only-second").endsWith("here"));
+        } finally {
+            assertTrue(first.stop(Duration.ofSeconds(5)));
+            assertTrue(second.stop(Duration.ofSeconds(5)));
+        }
+        assertFalse(first.isRunning());
+        assertRefused(first.getPort(), "The stopped server still accepts connections");
+    }
+
+    @Test
+    public void testStopDrainsRequestsInFlight() throws Exception {
+        for (EngineType engine : EngineType.values()) {
+            ServerConfig config = new ServerConfig();
+            config.setPort(0);
+            config.setEngine(engine);
+            config.setEventLoopThreads(1);
+            WebServer server = new WebServer(config);
+            CountDownLatch entered = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            server.get("/slow", (req, res) -> {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "finished";
+            });
+            server.start();
+            int port = server.getPort();
+            try (Socket busy = new Socket("127.0.0.1", port); Socket idle = new Socket("127.0.0.1", port)) {
+                busy.setSoTimeout(5000);
+                idle.setSoTimeout(5000);
+                busy.getOutputStream().write("GET /slow HTTP/1.1\r\nhost: test\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                assertTrue(entered.await(5, TimeUnit.SECONDS));
+                ExecutorService stopper = Executors.newSingleThreadExecutor();
+                try {
+                    Future<Boolean> stopped = stopper.submit(() -> server.stop(Duration.ofSeconds(5)));
+                    // the idle connection is closed without a response and new ones are refused
+                    assertEquals(-1, idle.getInputStream().read());
+                    assertFalse(stopped.isDone());
+                    release.countDown();
+                    String response = new String(busy.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+                    assertTrue(engine + ": " + response, response.startsWith("HTTP/1.1 200 OK"));
+                    assertTrue(response, response.contains("connection: close"));
+                    assertTrue(response.endsWith("finished"));
+                    assertTrue(stopped.get(5, TimeUnit.SECONDS));
+                } finally {
+                    release.countDown();
+                    stopper.shutdownNow();
+                }
+            }
+            assertRefused(port, engine + " still accepts connections");
+        }
+    }
+
+    @Test
+    public void testStopCutsConnectionsAtTheDeadline() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        config.setEngine(EngineType.NIO);
+        config.setEventLoopThreads(1);
+        WebServer server = new WebServer(config);
+        server.async("GET", "/never", (req, res) -> new CompletableFuture<>());
+        server.start();
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write("GET /never HTTP/1.1\r\nhost: test\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            while (server.getMetrics().getActiveConnections() == 0) {
+                Thread.sleep(5);
+            }
+            long start = System.nanoTime();
+            assertFalse(server.stop(Duration.ofMillis(200)));
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(3));
+            assertEquals(-1, socket.getInputStream().read());
+            assertEquals(0, server.getMetrics().getActiveConnections());
+        }
+    }
+
+    @Test
+    public void testAdmissionControlShedsWithRetryAfter() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        config.setEngine(EngineType.NIO);
+        config.setEventLoopThreads(1);
+        config.setMaxConcurrentRequests(1);
+        config.setMaxQueuedRequests(1);
+        config.setQueueTimeout(10_000);
+        config.setRetryAfter(3);
+        WebServer server = new WebServer(config);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        server.get("/slow", (req, res) -> {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "done";
+        });
+        server.start();
+        AdmissionControl admission = server.getAdmissionControl();
+        ExecutorService clients = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = clients.submit(() -> request(server.getPort(), "/slow"));
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+            Future<String> second = clients.submit(() -> request(server.getPort(), "/slow"));
+            while (admission.getQueued() == 0) {
+                Thread.sleep(5);
+            }
+
+            // the limit is reached and the queue is full: rejected at once
+            String rejected = request(server.getPort(), "/slow");
+            assertTrue(rejected.startsWith("HTTP/1.1 503"));
+            assertTrue(rejected.contains("retry-after: 3"));
+            // the metrics stay reachable while the server is saturated
+            String scrape = request(server.getPort(), "/metrics");
+            assertTrue(scrape.startsWith("HTTP/1.1 200"));
+            assertTrue(scrape.contains("http_requests_in_flight 1"));
+            assertTrue(scrape.contains("http_requests_queued 1"));
+            assertTrue(scrape.contains("http_requests_rejected_total 1"));
+
+            release.countDown();
+            assertTrue(first.get(5, TimeUnit.SECONDS).endsWith("done"));
+            assertTrue(second.get(5, TimeUnit.SECONDS).endsWith("done"));
+            assertEquals(0, admission.getInFlight());
+            assertEquals(1, admission.getRejected());
+        } finally {
+            release.countDown();
+            clients.shutdownNow();
+            server.stop(Duration.ofSeconds(5));
+        }
+    }
+
+    @Test
+    public void testAdaptiveConcurrencyLimitFollowsLatency() {
+        ServerConfig config = new ServerConfig();
+        config.setMaxConcurrentRequests(200);
+        config.setAdaptiveConcurrency(true);
+        AdmissionControl admission = new AdmissionControl(config);
+        int initial = admission.getLimit();
+
+        // steady latency with the limit in use: the limit grows
+        for (int round = 0; round < 30; round++) {
+            runRound(admission, 1_000_000);
+        }
+        int grown = admission.getLimit();
+        assertTrue(grown > initial);
+        assertTrue(grown <= 200);
+
+        // latency ten times higher: the limit backs off
+        for (int round = 0; round < 20; round++) {
+            runRound(admission, 10_000_000);
+        }
+        int shrunk = admission.getLimit();
+        assertTrue(shrunk < grown / 2);
+
+        // latency back to normal: the limit recovers
+        for (int round = 0; round < 100; round++) {
+            runRound(admission, 1_000_000);
+        }
+        assertTrue(admission.getLimit() > grown);
+        assertEquals(0, admission.getInFlight());
+        assertEquals(0, admission.getRejected());
+    }
+
+    @Test
+    public void testHttp2UpgradeMultiplexesStreams() throws Exception {
+        for (EngineType engine : EngineType.values()) {
+            ServerConfig config = new ServerConfig();
+            config.setPort(0);
+            config.setEngine(engine);
+            config.setEventLoopThreads(1);
+            WebServer server = new WebServer(config);
+            server.staticfiles("/webroot");
+            CountDownLatch release = new CountDownLatch(1);
+            server.get("/hello", (req, res) -> "Hello " + req.getValue("name"));
+            server.get("/wait", (req, res) -> {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "released";
+            });
+            server.get("/release", (req, res) -> {
+                release.countDown();
+                return "ok";
+            });
+            server.stream("POST", "/echo", (req, res) -> req.getBody().transferTo(res.getOutputStream()));
+            server.start();
+            java.net.http.HttpClient client = java.net.http.HttpClient.newBuilder()
+                    .version(java.net.http.HttpClient.Version.HTTP_2).build();
+            String base = "http://127.0.0.1:" + server.getPort();
+            try {
+                // the first request upgrades the connection with "Upgrade: h2c"
+                java.net.http.HttpResponse<String> first = client.send(
+                        java.net.http.HttpRequest.newBuilder(URI.create(base + "/hello?name=h2")).build(),
+                        java.net.http.HttpResponse.BodyHandlers.ofString());
+                assertEquals(engine.toString(), java.net.http.HttpClient.Version.HTTP_2, first.version());
+                assertEquals("Hello h2", first.body());
+
+                // the waiting stream is only released by a later stream of the same connection
+                CompletableFuture<java.net.http.HttpResponse<String>> waiting = client.sendAsync(
+                        java.net.http.HttpRequest.newBuilder(URI.create(base + "/wait")).build(),
+                        java.net.http.HttpResponse.BodyHandlers.ofString());
+                byte[] upload = new byte[300_000];
+                new java.util.Random(7).nextBytes(upload);
+                CompletableFuture<java.net.http.HttpResponse<byte[]>> echo = client.sendAsync(
+                        java.net.http.HttpRequest.newBuilder(URI.create(base + "/echo"))
+                                .POST(java.net.http.HttpRequest.BodyPublishers.ofByteArray(upload)).build(),
+                        java.net.http.HttpResponse.BodyHandlers.ofByteArray());
+                CompletableFuture<java.net.http.HttpResponse<byte[]>> file = client.sendAsync(
+                        java.net.http.HttpRequest.newBuilder(URI.create(base + "/index.html")).build(),
+                        java.net.http.HttpResponse.BodyHandlers.ofByteArray());
+                java.net.http.HttpResponse<String> released = client.send(
+                        java.net.http.HttpRequest.newBuilder(URI.create(base + "/release")).build(),
+                        java.net.http.HttpResponse.BodyHandlers.ofString());
+                assertEquals("ok", released.body());
+                assertEquals("released", waiting.get(5, TimeUnit.SECONDS).body());
+                assertArrayEquals(upload, echo.get(5, TimeUnit.SECONDS).body());
+                assertArrayEquals(Files.readAllBytes(Path.of("target/classes/webroot/index.html")),
+                        file.get(5, TimeUnit.SECONDS).body());
+                assertEquals("text/html; charset=utf-8",
+                        file.get().headers().firstValue("content-type").orElse(null));
+                assertEquals(1, server.getMetrics().getConnections());
+            } finally {
+                release.countDown();
+                assertTrue(engine.toString(), server.stop(Duration.ofSeconds(5)));
+            }
+        }
+    }
+
+    @Test
+    public void testHttp2PriorKnowledgeFrames() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        config.setEngine(EngineType.NIO);
+        config.setEventLoopThreads(1);
+        WebServer server = new WebServer(config);
+        server.get("/hi", (req, res) -> "hi " + req.getHeader("x-name"));
+        server.start();
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout(5000);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            writeFrame(out, 0x4, 0, 0, new byte[0]);
+            writeFrame(out, 0x6, 0, 0, "pingpong".getBytes(StandardCharsets.US_ASCII));
+            // ":method: GET" and ":scheme: http" from the static table, then literal fields
+            ByteArrayOutputStream block = new ByteArrayOutputStream();
+            block.write(new byte[] {(byte) 0x82, (byte) 0x86});
+            writeLiteral(block, ":path", "/hi");
+            writeLiteral(block, ":authority", "test");
+            writeLiteral(block, "x-name", "frames");
+            writeFrame(out, 0x1, 0x5, 1, block.toByteArray());
+            socket.getOutputStream().write(out.toByteArray());
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            boolean settings = false;
+            boolean pong = false;
+            byte[] head = null;
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            while (true) {
+                int length = in.readUnsignedShort() << 8 | in.readUnsignedByte();
+                int type = in.readUnsignedByte();
+                int flags = in.readUnsignedByte();
+                int stream = in.readInt();
+                byte[] payload = in.readNBytes(length);
+                if (type == 0x4 && (flags & 0x1) == 0) {
+                    settings = true;
+                } else if (type == 0x6) {
+                    assertEquals(0x1, flags);
+                    assertEquals("pingpong", new String(payload, StandardCharsets.US_ASCII));
+                    pong = true;
+                } else if (type == 0x1) {
+                    assertEquals(1, stream);
+                    head = payload;
+                } else if (type == 0x0) {
+                    assertEquals(1, stream);
+                    body.write(payload);
+                    if ((flags & 0x1) != 0) {
+                        break;
+                    }
+                }
+            }
+            assertTrue(settings);
+            assertTrue(pong);
+            // ":status: 200" is entry 8 of the static table
+            assertEquals((byte) 0x88, head[0]);
+            assertEquals("hi frames", body.toString(StandardCharsets.UTF_8));
+        } finally {
+            server.stop(Duration.ofSeconds(5));
+        }
+    }
+
+    @Test
+    public void testPipelinedRequestsDoNotShareRecycledState() throws Exception {
+        for (EngineType engine : EngineType.values()) {
+            ServerConfig config = new ServerConfig();
+            config.setPort(0);
+            config.setEngine(engine);
+            config.setEventLoopThreads(1);
+            config.setCompression(false);
+            WebServer server = new WebServer(config);
+            server.get("/echo", (req, res) -> {
+                if (req.getValue("name") != null) {
+                    res.setHeader("x-name", req.getValue("name"));
+                }
+                return "GET name=" + req.getValue("name") + " tags=" + req.getParameterValues("tag")
+                        + " trace=" + req.getHeader("x-trace") + " id=" + req.getPathParam("id");
+            });
+            server.post("/echo", (req, res) -> {
+                res.setStatusCode(201);
+                res.setStatusMessage("Created");
+                return "POST " + req.getBodyAsString() + " name=" + req.getValue("name");
+            });
+            server.stream("GET", "/items/{id}", (req, res) -> {
+                OutputStream body = res.getOutputStream();
+                for (int i = 0; i < 1000; i++) {
+                    body.write(("item " + req.getPathParam("id") + " line " + i + "\n").getBytes(StandardCharsets.US_ASCII));
+                }
+            });
+            server.start();
+            try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+                socket.setSoTimeout(5000);
+                socket.getOutputStream().write(("GET /echo?name=first&tag=a&tag=b HTTP/1.1\r\nhost: test\r\nx-trace: one\r\n\r\n"
+                        + "POST /echo HTTP/1.1\r\nhost: test\r\ncontent-length: 4\r\n\r\nbody"
+                        + "GET /items/42 HTTP/1.1\r\nhost: test\r\n\r\n"
+                        + "GET /echo HTTP/1.1\r\nhost: test\r\nconnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                String responses = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+                int first = responses.indexOf("GET name=first tags=[a, b] trace=one id=null");
+                int second = responses.indexOf("HTTP/1.1 201 Created", first);
+                int third = responses.indexOf("item 42 line 999\n", second);
+                int fourth = responses.indexOf("HTTP/1.1 200 OK", third);
+                assertTrue(engine + ": " + responses, first > 0 && responses.substring(0, first).contains("x-name: first"));
+                assertTrue(responses, second > first && responses.indexOf("POST body name=null", second) > second);
+                assertTrue(responses, third > second && responses.substring(second, third).contains("transfer-encoding: chunked"));
+                assertTrue(responses, fourth > third);
+                String last = responses.substring(fourth);
+                // nothing of the earlier requests and responses is left in the reused objects
+                assertTrue(last, last.endsWith("GET name=null tags=[] trace=null id=null"));
+                assertFalse(last, last.contains("x-name") || last.contains("chunked") || last.contains("201"));
+                assertTrue(last, last.contains("content-type: text/plain"));
+            } finally {
+                server.stop(Duration.ofSeconds(5));
+            }
+        }
+    }
+
+    @Test
+    public void testNioKeepsConnectionsAliveAndAnswersPipelinedRequestsInOrder() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        config.setEngine(EngineType.NIO);
+        config.setEventLoopThreads(1);
+        config.setCompression(false);
+        WebServer server = new WebServer(config);
+        server.get("/echo", (req, res) -> "echo " + req.getValue("n"));
+        server.post("/echo", (req, res) -> "posted " + req.getBodyAsString());
+        server.start();
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            BufferedInputStream in = new BufferedInputStream(socket.getInputStream());
+            out.write(("GET /echo?n=1 HTTP/1.1\r\nhost: test\r\n\r\n"
+                    + "POST /echo HTTP/1.1\r\nhost: test\r\ncontent-length: 5\r\n\r\nhello"
+                    + "GET /echo?n=3 HTTP/1.1\r\nhost: test\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            assertEquals("echo 1", readResponseBody(in));
+            assertEquals("posted hello", readResponseBody(in));
+            assertEquals("echo 3", readResponseBody(in));
+            // the connection is still open for the next request
+            out.write("GET /echo?n=4 HTTP/1.1\r\nhost: test\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            assertEquals("echo 4", readResponseBody(in));
+            assertEquals(1, server.getMetrics().getActiveConnections());
+        } finally {
+            server.stop(Duration.ofSeconds(5));
+        }
+    }
+
+    @Test
+    public void testNioStreamedBodyWaitsForSlowClients() throws Exception {
+        int lines = 256 * 1024;
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        config.setEngine(EngineType.NIO);
+        config.setEventLoopThreads(1);
+        config.setCompression(false);
+        WebServer server = new WebServer(config);
+        AtomicInteger written = new AtomicInteger();
+        CountDownLatch finished = new CountDownLatch(1);
+        server.stream("GET", "/large", (req, res) -> {
+            OutputStream body = res.getOutputStream();
+            for (int i = 0; i < lines; i++) {
+                body.write(String.format("%063d\n", i).getBytes(StandardCharsets.US_ASCII));
+                written.incrementAndGet();
+            }
+            finished.countDown();
+        });
+        server.start();
+        try (Socket socket = new Socket()) {
+            socket.setReceiveBufferSize(16 * 1024);
+            socket.connect(new InetSocketAddress("127.0.0.1", server.getPort()));
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write("GET /large HTTP/1.0\r\nhost: test\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            // the 16 MiB body cannot be queued while the client reads nothing
+            assertFalse(finished.await(500, TimeUnit.MILLISECONDS));
+            assertTrue(written.get() < lines);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            assertTrue(in.readLine().startsWith("HTTP/1.1 200 OK"));
+            for (String line = in.readLine(); !line.isEmpty(); line = in.readLine()) {
+                assertFalse(line, line.startsWith("content-length"));
+            }
+            for (int i = 0; i < lines; i++) {
+                assertEquals(String.format("%063d", i), in.readLine());
+            }
+            assertNull(in.readLine());
+            assertTrue(finished.await(5, TimeUnit.SECONDS));
+        } finally {
+            server.stop(Duration.ofSeconds(5));
+        }
+    }
+
+    @Test
+    public void testPipelinedHeadResponsesHaveNoBody() throws Exception {
+        for (EngineType engine : EngineType.values()) {
+            ServerConfig config = new ServerConfig();
+            config.setPort(0);
+            config.setEngine(engine);
+            config.setEventLoopThreads(1);
+            WebServer server = new WebServer(config);
+            server.staticfiles("/webroot");
+            server.stream("HEAD", "/items", (req, res) -> {
+                OutputStream body = res.getOutputStream();
+                for (int i = 0; i < 1000; i++) {
+                    body.write(("line " + i + "\n").getBytes(StandardCharsets.US_ASCII));
+                }
+            });
+            server.start();
+            try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+                socket.setSoTimeout(5000);
+                socket.getOutputStream().write(("HEAD /script.js HTTP/1.1\r\nhost: test\r\n\r\n"
+                        + "HEAD /items HTTP/1.1\r\nhost: test\r\n\r\n"
+                        + "GET /script.js HTTP/1.1\r\nhost: test\r\nconnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                String responses = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+                String expected = Files.readString(Path.of(HttpServer.ROOT_DIRECTORY, "script.js"));
+                String[] parts = responses.split("\r\n\r\n", 4);
+                assertEquals(engine + ": " + responses, 4, parts.length);
+                // each head is followed directly by the next response
+                assertTrue(parts[0], parts[0].startsWith("HTTP/1.1 200 OK\r\n"));
+                assertTrue(parts[0], parts[0].contains("content-length: " + expected.length() + "\r\n"));
+                assertTrue(parts[1], parts[1].startsWith("HTTP/1.1 200 OK\r\n"));
+                assertTrue(parts[1], parts[1].contains("transfer-encoding: chunked"));
+                assertTrue(parts[2], parts[2].startsWith("HTTP/1.1 200 OK\r\n"));
+                assertEquals(expected, parts[3]);
+            } finally {
+                server.stop(Duration.ofSeconds(5));
+            }
+        }
+    }
+
+    @Test
+    public void testForbiddenPathEscapesAreBadRequests() throws Exception {
+        for (EngineType engine : EngineType.values()) {
+            ServerConfig config = new ServerConfig();
+            config.setPort(0);
+            config.setEngine(engine);
+            WebServer server = new WebServer(config);
+            server.staticfiles("/webroot");
+            server.start();
+            try {
+                for (String path : new String[] {"/%00", "/a%0Ab", "/%C0%AF", "/%FF.txt"}) {
+                    String response = request(server.getPort(), path);
+                    assertTrue(engine + " " + path + ": " + response, response.startsWith("HTTP/1.1 400 Bad Request\r\n"));
+                }
+                assertTrue(request(server.getPort(), "/%73cript.js").startsWith("HTTP/1.1 200 OK\r\n"));
+            } finally {
+                server.stop(Duration.ofSeconds(5));
+            }
+        }
+    }
+
+    @Test
+    public void testWebSocketJoinsFragmentsAndAnswersPings() throws Exception {
+        for (EngineType engine : EngineType.values()) {
+            ServerConfig config = new ServerConfig();
+            config.setPort(0);
+            config.setEngine(engine);
+            config.setEventLoopThreads(1);
+            WebServer server = new WebServer(config);
+            CompletableFuture<Integer> closed = new CompletableFuture<>();
+            server.websocket("/chat/{room}", new WebSocketHandler() {
+                @Override
+                public void onText(WebSocketSession session, String text) {
+                    session.send(session.getRequest().getPathParam("room") + ": " + text);
+                }
+
+                @Override
+                public void onClose(WebSocketSession session, int code, String reason) {
+                    closed.complete(code);
+                }
+            });
+            server.start();
+            try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+                socket.setSoTimeout(5000);
+                String head = openWebSocket(socket, "/chat/lobby", null);
+                assertTrue(engine + ": " + head, head.startsWith("HTTP/1.1 101 Switching Protocols\r\n"));
+                assertTrue(head, head.contains("sec-websocket-accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo=\r\n"));
+                assertTrue(head, head.contains("upgrade: websocket\r\n"));
+                OutputStream out = socket.getOutputStream();
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                // a ping may come between the fragments of a message
+                writeMaskedFrame(out, 0x01, "Hel".getBytes(StandardCharsets.UTF_8));
+                writeMaskedFrame(out, 0x89, "p".getBytes(StandardCharsets.UTF_8));
+                writeMaskedFrame(out, 0x80, "lo".getBytes(StandardCharsets.UTF_8));
+                byte[] pong = readFrame(in);
+                assertEquals(0x8a, pong[0] & 0xff);
+                assertEquals("p", new String(pong, 1, pong.length - 1, StandardCharsets.UTF_8));
+                byte[] text = readFrame(in);
+                assertEquals(0x81, text[0] & 0xff);
+                assertEquals("lobby: Hello", new String(text, 1, text.length - 1, StandardCharsets.UTF_8));
+                writeMaskedFrame(out, 0x88, new byte[] {0x03, (byte) 0xe8});
+                byte[] close = readFrame(in);
+                assertEquals(0x88, close[0] & 0xff);
+                assertEquals(1000, (close[1] & 0xff) << 8 | close[2] & 0xff);
+                assertEquals(-1, in.read());
+                assertEquals(Integer.valueOf(1000), closed.get(5, TimeUnit.SECONDS));
+            } finally {
+                server.stop(Duration.ofSeconds(5));
+            }
+        }
+    }
+
+    @Test
+    public void testWebSocketBroadcastSharesOneCompressedFrame() throws Exception {
+        for (EngineType engine : EngineType.values()) {
+            ServerConfig config = new ServerConfig();
+            config.setPort(0);
+            config.setEngine(engine);
+            config.setEventLoopThreads(1);
+            WebServer server = new WebServer(config);
+            Set<WebSocketSession> sessions = ConcurrentHashMap.newKeySet();
+            server.websocket("/feed", new WebSocketHandler() {
+                @Override
+                public void onOpen(WebSocketSession session) {
+                    sessions.add(session);
+                }
+
+                @Override
+                public void onText(WebSocketSession session, String text) {
+                }
+            });
+            server.start();
+            try (Socket compressed = new Socket("127.0.0.1", server.getPort());
+                    Socket plain = new Socket("127.0.0.1", server.getPort())) {
+                compressed.setSoTimeout(5000);
+                plain.setSoTimeout(5000);
+                String head = openWebSocket(compressed, "/feed", "permessage-deflate; client_max_window_bits");
+                assertTrue(engine + ": " + head, head.contains("sec-websocket-extensions: permessage-deflate; server_no_context_takeover\r\n"));
+                assertFalse(openWebSocket(plain, "/feed", null).contains("sec-websocket-extensions"));
+                long deadline = System.currentTimeMillis() + 5000;
+                while (sessions.size() < 2 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                String message = "{\"price\": 42}".repeat(200);
+                assertEquals(2, WebSocketFrame.text(message).broadcast(sessions));
+
+                byte[] deflated = readFrame(new DataInputStream(compressed.getInputStream()));
+                assertEquals(0xc1, deflated[0] & 0xff);
+                assertTrue(deflated.length < message.length() / 4);
+                Inflater inflater = new Inflater(true);
+                byte[] payload = Arrays.copyOfRange(deflated, 1, deflated.length + 4);
+                System.arraycopy(new byte[] {0, 0, (byte) 0xff, (byte) 0xff}, 0, payload, payload.length - 4, 4);
+                inflater.setInput(payload);
+                byte[] inflated = new byte[message.length()];
+                assertEquals(message.length(), inflater.inflate(inflated));
+                inflater.end();
+                assertEquals(message, new String(inflated, StandardCharsets.UTF_8));
+
+                byte[] text = readFrame(new DataInputStream(plain.getInputStream()));
+                assertEquals(0x81, text[0] & 0xff);
+                assertEquals(message, new String(text, 1, text.length - 1, StandardCharsets.UTF_8));
+            } finally {
+                server.stop(Duration.ofSeconds(5));
+            }
+        }
+    }
+
+    @Test
+    public void testWebSocketEndpointRejectsPlainRequests() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        WebServer server = new WebServer(config);
+        server.websocket("/feed", (session, text) -> session.send(text));
+        server.start();
+        try {
+            String response = request(server.getPort(), "/feed");
+            assertTrue(response, response.startsWith("HTTP/1.1 426 Upgrade Required\r\n"));
+            assertTrue(response, response.contains("upgrade: websocket\r\n"));
+        } finally {
+            server.stop(Duration.ofSeconds(5));
+        }
+    }
+
+    @Test
+    public void testWebSocketHandlerFailureIsReportedAndClosesTheSession() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        WebServer server = new WebServer(config);
+        CompletableFuture<Throwable> failed = new CompletableFuture<>();
+        server.websocket("/fail", new WebSocketHandler() {
+            @Override
+            public void onText(WebSocketSession session, String text) {
+                throw new IllegalStateException("broken " + text);
+            }
+
+            @Override
+            public void onError(WebSocketSession session, Throwable error) {
+                failed.complete(error);
+            }
+        });
+        server.start();
+        PrintStream err = System.err;
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errors, true, StandardCharsets.UTF_8));
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout(5000);
+            assertTrue(openWebSocket(socket, "/fail", null).startsWith("HTTP/1.1 101 Switching Protocols\r\n"));
+            writeMaskedFrame(socket.getOutputStream(), 0x81, "handler".getBytes(StandardCharsets.UTF_8));
+            byte[] close = readFrame(new DataInputStream(socket.getInputStream()));
+            assertEquals(0x88, close[0] & 0xff);
+            assertEquals(1011, (close[1] & 0xff) << 8 | close[2] & 0xff);
+            assertEquals("broken handler", failed.get(5, TimeUnit.SECONDS).getMessage());
+            String reported = errors.toString(StandardCharsets.UTF_8);
+            assertTrue(reported, reported.contains("Service /fail failed: java.lang.IllegalStateException: broken handler"));
+        } finally {
+            System.setErr(err);
+            server.stop(Duration.ofSeconds(5));
+        }
+    }
+
+    @Test
+    public void testEventTopicReplaysMissedEventsAndStreamsNewOnes() throws Exception {
+        for (EngineType engine : EngineType.values()) {
+            ServerConfig config = new ServerConfig();
+            config.setPort(0);
+            config.setEngine(engine);
+            config.setEventLoopThreads(1);
+            config.setEventStreamHeartbeatInterval(200);
+            WebServer server = new WebServer(config);
+            EventTopic topic = new EventTopic(2);
+            server.events("/prices", topic);
+            server.start();
+            try {
+                try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+                    topic.publish("a");
+                    topic.publish("b");
+                    topic.publish("c");
+                    socket.setSoTimeout(5000);
+                    OutputStream out = socket.getOutputStream();
+                    // event 1 left the replay buffer, the client missed event 3 only
+                    out.write(("GET /prices HTTP/1.1\r\nHost: localhost\r\nLast-Event-ID: 2\r\n\r\n")
+                            .getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                    StringBuilder head = new StringBuilder();
+                    for (String line = in.readLine(); !line.isEmpty(); line = in.readLine()) {
+                        head.append(line).append("\n");
+                    }
+                    assertTrue(engine + ": " + head, head.toString().startsWith("HTTP/1.1 200 OK\n"));
+                    assertTrue(head.toString(), head.toString().contains("content-type: text/event-stream"));
+                    assertFalse(head.toString(), head.toString().contains("content-length"));
+                    assertEquals("id: 3", in.readLine());
+                    assertEquals("data: c", in.readLine());
+                    assertEquals("", in.readLine());
+                    for (int i = 0; i < 50 && topic.getSubscriberCount() == 0; i++) {
+                        Thread.sleep(10);
+                    }
+                    assertEquals(1, topic.getSubscriberCount());
+                    topic.publish("tick", "one\r\ntwo");
+                    assertEquals("id: 4", in.readLine());
+                    assertEquals("event: tick", in.readLine());
+                    assertEquals("data: one", in.readLine());
+                    assertEquals("data: two", in.readLine());
+                    assertEquals("", in.readLine());
+                    // a silent stream gets a comment
+                    assertEquals(":", in.readLine());
+                    assertEquals("", in.readLine());
+                }
+                // the engine or the next heartbeat notices the client is gone
+                for (int i = 0; i < 500 && topic.getSubscriberCount() > 0; i++) {
+                    Thread.sleep(10);
+                }
+                assertEquals(engine.toString(), 0, topic.getSubscriberCount());
+            } finally {
+                server.stop(Duration.ofSeconds(5));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testServerSentEventRejectsLineBreaksInId() {
+        new ServerSentEvent("7\n", "price", "12.5");
+    }
+
+    private static void writeFrame(OutputStream out, int type, int flags, int stream, byte[] payload) throws IOException {
+        out.write(new byte[] {(byte) (payload.length >>> 16), (byte) (payload.length >>> 8), (byte) payload.length,
+                (byte) type, (byte) flags});
+        out.write(ByteBuffer.allocate(4).putInt(stream).array());
+        out.write(payload);
+    }
+
+    /**
+     * Writes a header field literal without indexing and without Huffman coding.
+     */
+    private static void writeLiteral(OutputStream out, String name, String value) throws IOException {
+        out.write(0);
+        out.write(name.length());
+        out.write(name.getBytes(StandardCharsets.US_ASCII));
+        out.write(value.length());
+        out.write(value.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Sends a WebSocket opening handshake and reads the response head.
+     */
+    private static String openWebSocket(Socket socket, String path, String extensions) throws IOException {
+        socket.getOutputStream().write(("GET " + path + " HTTP/1.1\r\nhost: test\r\nupgrade: websocket\r\n"
+                + "connection: Upgrade\r\nsec-websocket-key: dGhlIHNhbXBsZSBub25jZQ==\r\nsec-websocket-version: 13\r\n"
+                + (extensions != null ? "sec-websocket-extensions: " + extensions + "\r\n" : "") + "\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        InputStream in = socket.getInputStream();
+        StringBuilder head = new StringBuilder();
+        while (head.length() < 4 || !head.substring(head.length() - 4).equals("\r\n\r\n")) {
+            int b = in.read();
+            if (b < 0) {
+                break;
+            }
+            head.append((char) b);
+        }
+        return head.toString();
+    }
+
+    /**
+     * Writes a client WebSocket frame, which must be masked.
+     */
+    private static void writeMaskedFrame(OutputStream out, int first, byte[] payload) throws IOException {
+        byte[] mask = {0x11, 0x22, 0x33, 0x44};
+        out.write(first);
+        if (payload.length < 126) {
+            out.write(0x80 | payload.length);
+        } else {
+            out.write(0x80 | 126);
+            out.write(payload.length >>> 8);
+            out.write(payload.length);
+        }
+        out.write(mask);
+        byte[] masked = new byte[payload.length];
+        for (int i = 0; i < payload.length; i++) {
+            masked[i] = (byte) (payload[i] ^ mask[i & 3]);
+        }
+        out.write(masked);
+        out.flush();
+    }
+
+    /**
+     * Reads a server WebSocket frame.
+     * @return the first header byte followed by the payload
+     */
+    private static byte[] readFrame(DataInputStream in) throws IOException {
+        int first = in.readUnsignedByte();
+        long length = in.readUnsignedByte();
+        if (length == 126) {
+            length = in.readUnsignedShort();
+        } else if (length == 127) {
+            length = in.readLong();
+        }
+        byte[] frame = new byte[1 + (int) length];
+        frame[0] = (byte) first;
+        in.readFully(frame, 1, (int) length);
+        return frame;
+    }
+
+    /**
+     * Fills the adaptive limit with requests and releases them all with the given latency.
+     */
+    private static void runRound(AdmissionControl admission, long nanos) {
+        int limit = admission.getLimit();
+        for (int i = 0; i < limit; i++) {
+            assertTrue(admission.admit());
+        }
+        for (int i = 0; i < limit; i++) {
+            admission.release(nanos);
+        }
+    }
+
+    /**
+     * Writes a file small enough to be cached and one sent with zero-copy transfers.
+     * @return the names of the files, below the ranges directory of the web root
+     */
+    private static String[] writeRangeFiles() throws IOException {
+        Path directory = Files.createDirectories(Path.of(HttpServer.ROOT_DIRECTORY, "ranges"));
+        StringBuilder content = new StringBuilder();
+        while (content.length() < 200 * 1024) {
+            content.append(content.length() % 1000).append(' ');
+        }
+        Files.writeString(directory.resolve("small.txt"), content.substring(0, 100));
+        Files.writeString(directory.resolve("large.txt"), content);
+        return new String[] {"small.txt", "large.txt"};
+    }
+
+    /**
+     * Starts a server on a free port serving the web root with an engine.
+     */
+    private static WebServer startStaticServer(EngineType engine) throws IOException {
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        config.setEngine(engine);
+        WebServer server = new WebServer(config);
+        server.staticfiles("/webroot");
+        server.start();
+        return server;
+    }
+
+    /**
+     * Reads one response framed by its content-length and returns its body.
+     */
+    private static String readResponseBody(InputStream in) throws IOException {
+        StringBuilder head = new StringBuilder();
+        while (head.length() < 4 || !head.substring(head.length() - 4).equals("\r\n\r\n")) {
+            int b = in.read();
+            assertTrue("Connection closed in the head: " + head, b >= 0);
+            head.append((char) b);
+        }
+        assertTrue(head.toString(), head.toString().startsWith("HTTP/1.1 200 OK\r\n"));
+        assertTrue(head.toString(), head.toString().contains("connection: keep-alive\r\n"));
+        int start = head.indexOf("content-length: ") + 16;
+        int length = Integer.parseInt(head.substring(start, head.indexOf("\r\n", start)));
+        return new String(in.readNBytes(length), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Checks that nothing accepts connections on a port any more.
+     */
+    private static void assertRefused(int port, String message) throws IOException {
+        try {
+            new Socket("127.0.0.1", port).close();
+            fail(message);
+        } catch (ConnectException expected) {
+        }
+    }
+
+    /**
+     * Sends one request over a real connection and reads the response until the server closes it.
+     */
+    private static String request(int port, String path) throws IOException {
+        return request(port, path, "");
+    }
+
+    /**
+     * Sends one request with additional header lines, each ending with CRLF, and reads the
+     * response until the server closes the connection.
+     */
+    private static String request(int port, String path, String headers) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(("GET " + path + " HTTP/1.1\r\nhost: test\r\n" + headers
+                    + "connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            return new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String fetch(String path) throws Exception {
+        ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+        Socket fakeSocket = new Socket() {
+            @Override
+            public OutputStream getOutputStream() {
+                return byteOut;
+            }
+        };
+        HttpServer.handleRequest(new URI(path), new PrintWriter(byteOut, true), fakeSocket);
+        return byteOut.toString(java.nio.charset.StandardCharsets.UTF_8);
+    }
 }
@@ -191,4 +191,19 @@ public class WebFrameworkTest {
         // Verify static files directory is configured
         assertEquals("target/classes/webroot", HttpServer.ROOT_DIRECTORY);
     }
-} 
\ No newline at end of file
+
+    @Test
+    public void testPathParameters() throws Exception {
+        HttpServer.get("/users/{id}", (req, resp) -> "User " + req.getPathParam("id"));
+        HttpServer.get("/users/{id}/books/{book}", (req, resp) ->
+                "Book " + req.getPathParam("book") + " of " + req.getPathParam("id"));
+        HttpServer.get("/users/me", (req, resp) -> "Current user");
+        HttpServer.get("/files/*", (req, resp) -> "File " + req.getPathParam("*"));
+
+        assertTrue(HttpServer.invokeService(new URI("/users/42")).endsWith("User 42"));
+        assertTrue(HttpServer.invokeService(new URI("/users/42/books/7")).endsWith("Book 7 of 42"));
+        assertTrue(HttpServer.invokeService(new URI("/users/me")).endsWith("Current user"));
+        assertTrue(HttpServer.invokeService(new URI("/files/css/style.css")).endsWith("File css/style.css"));
+        assertTrue(HttpServer.invokeService(new URI("/users/42/other")).contains("404 Not Found"));
+    }
+}
@@ -0,0 +1,92 @@
+package com.mycompany.arep.bench;
+
+import com.mycompany.arep.ContentEncoding;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the CPU cost of compressing response bodies at each level, next to the bytes it saves.
+ * The time per operation is reported by JMH; the compressed size of each combination is printed
+ * when its trial ends.
+ *
+ * Run with: mvn test-compile exec:exec -Pbenchmark -Dbenchmark.include=CompressionBenchmark
+ *
+ * @author daniel.aldana-b
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+    @Param({"index.html", "style.css", "script.js", "generated.json"})
+    public String asset;
+
+    @Param({"gzip", "deflate"})
+    public String coding;
+
+    @Param({"1", "6", "9"})
+    public int level;
+
+    // Uncompressed body
+    private byte[] content;
+    // Size of the last compressed body
+    private int compressedSize;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        if ("generated.json".equals(asset)) {
+            content = generatedJson(64 * 1024);
+        } else {
+            content = Files.readAllBytes(Path.of("src/main/resources/webroot", asset));
+        }
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        byte[] compressed = ContentEncoding.encode(content, coding, level);
+        compressedSize = compressed.length;
+        return compressed;
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+        System.out.printf("%n%s %s level %d: %d -> %d bytes (%.1f%%)%n", asset, coding, level,
+                content.length, compressedSize, 100.0 * compressedSize / content.length);
+    }
+
+    /**
+     * Builds a JSON array similar to what a REST service returns.
+     */
+    private static byte[] generatedJson(int size) {
+        StringBuilder json = new StringBuilder(size + 128).append('[');
+        for (int i = 0; json.length() < size; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":").append(i)
+                    .append(",\"name\":\"user").append(i * 7919 % 10007)
+                    .append("\",\"active\":").append(i % 3 != 0)
+                    .append(",\"score\":").append(i * 31 % 997 / 10.0).append('}');
+        }
+        return json.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
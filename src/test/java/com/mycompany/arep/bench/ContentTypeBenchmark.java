@@ -0,0 +1,44 @@
+package com.mycompany.arep.bench;
+
+import com.mycompany.arep.HttpServer;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link HttpServer#getType} on a mix of static file names, including upper-case and
+ * unknown extensions and a name without one, as the static file handler resolves them.
+ *
+ * Run with: mvn test-compile exec:exec -Pbenchmark -Dbenchmark.include=ContentTypeBenchmark
+ *
+ * @author daniel.aldana-b
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentTypeBenchmark {
+
+    // File paths cycled through so the switch does not always take the same branch
+    private final Path[] paths = {
+        Path.of("webroot/index.html"), Path.of("webroot/style.css"), Path.of("webroot/script.js"),
+        Path.of("webroot/time.jpg"), Path.of("webroot/serveis-watch.png"), Path.of("webroot/data/report.JSON"),
+        Path.of("webroot/archive.tar.gz"), Path.of("webroot/LICENSE")
+    };
+    private int next;
+
+    @Benchmark
+    public String getType() {
+        return HttpServer.getType(paths[next++ & 7]);
+    }
+}
@@ -0,0 +1,271 @@
+package com.mycompany.arep.bench;
+
+import com.mycompany.arep.EngineType;
+import com.mycompany.arep.ExecutionMode;
+import com.mycompany.arep.LatencyHistogram;
+import com.mycompany.arep.ServerConfig;
+import com.mycompany.arep.WebServer;
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load generator that starts a {@link WebServer} in the same process and drives it over loopback
+ * connections. Each client thread keeps one persistent connection and sends a request as soon
+ * as the previous response is read, reconnecting when the server closes the connection, so the
+ * server sees a fixed number of requests in flight. After a warmup phase whose results are
+ * discarded, the throughput and latency percentiles are written as one JSON object, so runs
+ * can be stored and diffed.
+ * <p>
+ * Options are given as --name=value: engine (NIO or BLOCKING), mode (an {@link ExecutionMode}),
+ * concurrency, warmup and duration in seconds, path (the request target, /bench/hello answers
+ * with a short text and files under /webroot are served too), access-log (true or false) and
+ * output (a file for the JSON, the standard output if missing).
+ *
+ * Run with: mvn test-compile exec:exec -Pload -Dload.args="--engine=NIO --concurrency=64 --output=load.json"
+ *
+ * @author daniel.aldana-b
+ */
+public final class LoadGenerator {
+
+    // Service registered for the default request target
+    private static final String HELLO_PATH = "/bench/hello";
+
+    private final String host = "127.0.0.1";
+    private final int port;
+    private final byte[] request;
+    private LatencyHistogram latencies = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private volatile long deadline;
+
+    private LoadGenerator(int port, String path) {
+        this.port = port;
+        this.request = ("GET " + path + " HTTP/1.1\r\nhost: " + host + ':' + port + "\r\nuser-agent: arep-load\r\n\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        EngineType engine = EngineType.valueOf(options.getOrDefault("engine", "NIO").toUpperCase(Locale.ROOT));
+        ExecutionMode mode = ExecutionMode.valueOf(options.getOrDefault("mode", "PLATFORM_THREADS").toUpperCase(Locale.ROOT));
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "16"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "3"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "10"));
+        String path = options.getOrDefault("path", HELLO_PATH + "?name=load");
+        String output = options.get("output");
+
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        config.setEngine(engine);
+        config.setExecutionMode(mode);
+        config.setAccessLog(Boolean.parseBoolean(options.getOrDefault("access-log", "false")));
+        WebServer server = new WebServer(config);
+        server.staticfiles("/webroot");
+        server.get(HELLO_PATH, (req, res) -> "Hello " + req.getValue("name"));
+        server.start();
+
+        LoadGenerator generator = new LoadGenerator(server.getPort(), path);
+        generator.run(concurrency, warmup);
+        generator.latencies = new LatencyHistogram();
+        generator.errors.reset();
+        generator.bytesRead.reset();
+        long elapsed = generator.run(concurrency, duration);
+
+        String json = generator.report(engine, mode, concurrency, path, elapsed);
+        if (output != null) {
+            Files.writeString(Path.of(output), json);
+        }
+        System.out.println(json);
+        server.stop(Duration.ofSeconds(5));
+    }
+
+    /**
+     * Parses --name=value options.
+     */
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            for (String option : arg.trim().split("\\s+")) {
+                if (option.isEmpty()) {
+                    continue;
+                }
+                int equals = option.indexOf('=');
+                if (!option.startsWith("--") || equals < 0) {
+                    throw new IllegalArgumentException("Expected --name=value, got: " + option);
+                }
+                options.put(option.substring(2, equals), option.substring(equals + 1));
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Runs the client threads for a number of seconds.
+     * @return the elapsed nanoseconds
+     */
+    private long run(int concurrency, int seconds) throws InterruptedException {
+        long start = System.nanoTime();
+        deadline = start + seconds * 1_000_000_000L;
+        List<Thread> clients = new ArrayList<>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            Thread client = new Thread(this::client, "load-client-" + i);
+            client.setDaemon(true);
+            clients.add(client);
+            client.start();
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Sends requests over one connection until the deadline, reconnecting when it is closed.
+     */
+    private void client() {
+        byte[] buffer = new byte[8192];
+        while (System.nanoTime() < deadline) {
+            try (Socket socket = new Socket(host, port)) {
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(10_000);
+                OutputStream out = socket.getOutputStream();
+                InputStream in = new BufferedInputStream(socket.getInputStream(), 16384);
+                boolean open = true;
+                while (open && System.nanoTime() < deadline) {
+                    long sent = System.nanoTime();
+                    out.write(request);
+                    out.flush();
+                    Response response = Response.read(in, buffer);
+                    latencies.record((System.nanoTime() - sent) / 1000);
+                    bytesRead.add(response.bytes);
+                    if (response.status >= 400) {
+                        errors.increment();
+                    }
+                    open = response.keepAlive;
+                }
+            } catch (IOException e) {
+                errors.increment();
+            }
+        }
+    }
+
+    /**
+     * Writes the results of the measured phase as a JSON object.
+     */
+    private String report(EngineType engine, ExecutionMode mode, int concurrency, String path, long elapsed) {
+        double seconds = elapsed / 1_000_000_000.0;
+        long count = latencies.getCount();
+        long[] values = latencies.getValuesAtQuantiles(0.5, 0.9, 0.99, 0.999);
+        StringBuilder json = new StringBuilder(512);
+        json.append("{\n");
+        json.append("  \"engine\": \"").append(engine).append("\",\n");
+        json.append("  \"executionMode\": \"").append(mode).append("\",\n");
+        json.append("  \"concurrency\": ").append(concurrency).append(",\n");
+        json.append("  \"path\": \"").append(path.replace("\\", "\\\\").replace("\"", "\\\"")).append("\",\n");
+        json.append("  \"durationSeconds\": ").append(String.format(Locale.ROOT, "%.3f", seconds)).append(",\n");
+        json.append("  \"requests\": ").append(count).append(",\n");
+        json.append("  \"errors\": ").append(errors.sum()).append(",\n");
+        json.append("  \"bytesReceived\": ").append(bytesRead.sum()).append(",\n");
+        json.append("  \"requestsPerSecond\": ").append(String.format(Locale.ROOT, "%.1f", count / seconds)).append(",\n");
+        json.append("  \"latencyMicros\": {\n");
+        json.append("    \"mean\": ").append(count > 0 ? latencies.getSum() / count : 0).append(",\n");
+        json.append("    \"p50\": ").append(values[0]).append(",\n");
+        json.append("    \"p90\": ").append(values[1]).append(",\n");
+        json.append("    \"p99\": ").append(values[2]).append(",\n");
+        json.append("    \"p999\": ").append(values[3]).append(",\n");
+        json.append("    \"max\": ").append(latencies.getMax()).append('\n');
+        json.append("  }\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    /**
+     * Status and framing of a response read from a connection.
+     */
+    private static final class Response {
+        int status;
+        long bytes;
+        boolean keepAlive = true;
+
+        /**
+         * Reads one response, head and body, framed by content-length or chunked encoding.
+         */
+        static Response read(InputStream in, byte[] buffer) throws IOException {
+            Response response = new Response();
+            String statusLine = line(in, response);
+            response.status = Integer.parseInt(statusLine.substring(9, 12));
+            long length = 0;
+            boolean chunked = false;
+            for (String header = line(in, response); !header.isEmpty(); header = line(in, response)) {
+                int colon = header.indexOf(':');
+                String name = header.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                String value = header.substring(colon + 1).trim();
+                if (name.equals("content-length")) {
+                    length = Long.parseLong(value);
+                } else if (name.equals("transfer-encoding")) {
+                    chunked = value.equalsIgnoreCase("chunked");
+                } else if (name.equals("connection")) {
+                    response.keepAlive = !value.equalsIgnoreCase("close");
+                }
+            }
+            if (!chunked) {
+                skip(in, length, buffer, response);
+                return response;
+            }
+            while (true) {
+                String size = line(in, response);
+                int extension = size.indexOf(';');
+                long chunk = Long.parseLong(extension >= 0 ? size.substring(0, extension) : size, 16);
+                if (chunk == 0) {
+                    while (!line(in, response).isEmpty()) {
+                        // trailer fields are ignored
+                    }
+                    return response;
+                }
+                skip(in, chunk, buffer, response);
+                line(in, response);
+            }
+        }
+
+        private static String line(InputStream in, Response response) throws IOException {
+            StringBuilder line = new StringBuilder(64);
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    throw new EOFException("Connection closed mid-response");
+                }
+                if (b != '\r') {
+                    line.append((char) b);
+                }
+            }
+            response.bytes += line.length() + 2;
+            return line.toString();
+        }
+
+        private static void skip(InputStream in, long count, byte[] buffer, Response response) throws IOException {
+            long left = count;
+            while (left > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, left));
+                if (read < 0) {
+                    throw new EOFException("Connection closed mid-body");
+                }
+                left -= read;
+            }
+            response.bytes += count;
+        }
+    }
+}
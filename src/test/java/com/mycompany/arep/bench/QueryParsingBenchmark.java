@@ -0,0 +1,67 @@
+package com.mycompany.arep.bench;
+
+import com.mycompany.arep.HttpRequest;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures decoding the query string of a request the first time a parameter is read, for a
+ * short query, a long one and one full of percent-encoded characters. Every operation uses a
+ * new {@link HttpRequest}, as every request on a connection does. Run with -prof gc to compare
+ * the bytes allocated per request.
+ *
+ * Run with: mvn test-compile exec:exec -Pbenchmark -Dbenchmark.include=QueryParsingBenchmark
+ *
+ * @author daniel.aldana-b
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryParsingBenchmark {
+
+    @Param({"short", "long", "encoded"})
+    public String query;
+
+    private URI uri;
+
+    @Setup(Level.Trial)
+    public void buildUri() {
+        String raw = switch (query) {
+            case "short" -> "name=daniel";
+            case "long" -> "page=3&size=50&sort=created&order=desc&filter=open&tag=java&tag=http&tag=nio"
+                    + "&from=2024-01-01&to=2024-12-31&name=daniel";
+            default -> "q=%C2%BFqu%C3%A9+tal%3F&city=Bogot%C3%A1&name=Jos%C3%A9+Mar%C3%ADa&note=a%26b%3Dc";
+        };
+        uri = URI.create("/app/search?" + raw);
+    }
+
+    @Benchmark
+    public String firstValue() {
+        return new HttpRequest(uri).getValue("name");
+    }
+
+    @Benchmark
+    public String repeatedValues() {
+        return new HttpRequest(uri).getValues("tag");
+    }
+
+    @Benchmark
+    public int everyValue() {
+        return new HttpRequest(uri).getParameterValues("tag").size();
+    }
+}
@@ -0,0 +1,130 @@
+package com.mycompany.arep.bench;
+
+import com.mycompany.arep.EngineType;
+import com.mycompany.arep.ExecutionMode;
+import com.mycompany.arep.ServerConfig;
+import com.mycompany.arep.WebServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures one request and response over a persistent loopback connection to an in-process
+ * {@link WebServer}: parsing the head, reading headers and query parameters in the service,
+ * and writing a response with a streamed body. The client reuses its buffers, so with the GC
+ * profiler the allocations per operation are those of the server threads.
+ *
+ * Run with: mvn test-compile exec:exec -Pbenchmark -Dbenchmark.include=RequestRoundTripBenchmark -Dbenchmark.args="-prof gc"
+ *
+ * @author daniel.aldana-b
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestRoundTripBenchmark {
+
+    @Param({"NIO", "BLOCKING"})
+    public String engine;
+
+    @Param({"/hello?name=jmh&tag=a&tag=b", "/report"})
+    public String path;
+
+    private WebServer server;
+    private Socket socket;
+    private OutputStream out;
+    private InputStream in;
+    private byte[] request;
+    private byte[] response;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        config.setEngine(EngineType.valueOf(engine));
+        config.setEventLoopThreads(1);
+        config.setExecutionMode(ExecutionMode.PLATFORM_THREADS);
+        config.setAccessLog(false);
+        config.setMaxKeepAliveRequests(Integer.MAX_VALUE);
+        server = new WebServer(config);
+        server.get("/hello", (req, res) -> {
+            res.setHeader("x-agent", req.getHeader("user-agent"));
+            return "Hello " + req.getValue("name") + " " + req.getParameterValues("tag");
+        });
+        server.stream("GET", "/report", (req, res) -> {
+            OutputStream body = res.getOutputStream();
+            for (int i = 0; i < 64; i++) {
+                body.write(REPORT_LINE);
+            }
+        });
+        server.start();
+        request = ("GET " + path + " HTTP/1.1\r\nhost: 127.0.0.1\r\nuser-agent: jmh\r\naccept: */*\r\n"
+                + "accept-encoding: identity\r\ncookie: session=0123456789abcdef\r\n\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1);
+        socket = new Socket("127.0.0.1", server.getPort());
+        socket.setTcpNoDelay(true);
+        out = socket.getOutputStream();
+        in = socket.getInputStream();
+        response = new byte[responseLength()];
+    }
+
+    private static final byte[] REPORT_LINE = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcde\n"
+            .getBytes(StandardCharsets.ISO_8859_1);
+
+    /**
+     * Sends one request and reads its response head byte by byte to learn the size of every
+     * response, which does not change: the date header has a fixed width and chunked bodies
+     * are written the same way each time.
+     */
+    private int responseLength() throws IOException {
+        out.write(request);
+        StringBuilder head = new StringBuilder();
+        while (head.length() < 4 || !head.substring(head.length() - 4).equals("\r\n\r\n")) {
+            head.append((char) in.read());
+        }
+        String text = head.toString();
+        int start = text.indexOf("content-length: ");
+        if (start >= 0) {
+            int length = Integer.parseInt(text.substring(start + 16, text.indexOf("\r\n", start)));
+            in.readNBytes(length);
+            return head.length() + length;
+        }
+        // a chunked body: read to the terminating chunk
+        StringBuilder body = new StringBuilder();
+        while (!body.toString().endsWith("\r\n0\r\n\r\n")) {
+            body.append((char) in.read());
+        }
+        return head.length() + body.length();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws IOException {
+        socket.close();
+        server.stop(Duration.ofSeconds(5));
+    }
+
+    @Benchmark
+    public int roundTrip() throws IOException {
+        out.write(request);
+        return in.readNBytes(response, 0, response.length);
+    }
+}
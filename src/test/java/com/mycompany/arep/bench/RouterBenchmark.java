@@ -0,0 +1,85 @@
+package com.mycompany.arep.bench;
+
+import com.mycompany.arep.Router;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares route lookup in the radix-tree {@link Router} with the exact-path
+ * {@link ConcurrentHashMap} lookup it replaced, with thousands of registered routes.
+ * The map can only answer static paths; the router also resolves path parameters.
+ * Run with -prof gc to check that matching allocates nothing.
+ *
+ * Run with: mvn test-compile exec:exec -Pbenchmark -Dbenchmark.include=RouterBenchmark
+ *
+ * @author daniel.aldana-b
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouterBenchmark {
+
+    @Param({"1000", "5000"})
+    public int routes;
+
+    // Lookup used before the router: exact paths in a hash map
+    private final Map<String, String> services = new ConcurrentHashMap<>();
+    // Router with the same static routes plus one parameterized route per resource
+    private final Router<String> router = new Router<>();
+    // Request paths, cycled through so lookups do not always hit the same entry
+    private String[] staticPaths;
+    private String[] paramPaths;
+    private int[] offsets;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void register() {
+        staticPaths = new String[1024];
+        paramPaths = new String[1024];
+        for (int i = 0; i < routes; i++) {
+            String base = "/api/v" + (i % 3) + "/resource" + i;
+            services.put(base + "/items", "items " + i);
+            router.add("GET", base + "/items", "items " + i);
+            router.add("GET", base + "/{id}", "item " + i);
+            router.add("POST", base, "create " + i);
+        }
+        for (int i = 0; i < staticPaths.length; i++) {
+            int resource = (i * 7919) % routes;
+            staticPaths[i] = "/api/v" + (resource % 3) + "/resource" + resource + "/items";
+            paramPaths[i] = "/api/v" + (resource % 3) + "/resource" + resource + "/" + (i * 31);
+        }
+        offsets = new int[2 * router.getMaxParams()];
+    }
+
+    @Benchmark
+    public String hashMapStatic() {
+        String path = staticPaths[next++ & 1023];
+        return services.containsKey(path) ? services.get(path) : null;
+    }
+
+    @Benchmark
+    public String routerStatic() {
+        return router.find("GET", staticPaths[next++ & 1023], offsets).getHandler();
+    }
+
+    @Benchmark
+    public String routerParameter() {
+        return router.find("GET", paramPaths[next++ & 1023], offsets).getHandler();
+    }
+}